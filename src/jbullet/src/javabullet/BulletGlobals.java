@@ -23,13 +23,7 @@
 
 package javabullet;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import javabullet.linearmath.ProfileManager;
 import javax.vecmath.Vector3f;
 
 /**
@@ -40,7 +34,6 @@ import javax.vecmath.Vector3f;
 public class BulletGlobals {
 	
 	public static final boolean DEBUG = true;
-	public static final boolean ENABLE_PROFILE = false;
 	
 	public static final float CONVEX_DISTANCE_MARGIN = 0.04f;
 	public static final float FLT_EPSILON = 1.19209290e-07f;
@@ -61,6 +54,8 @@ public class BulletGlobals {
 	public static float gDeactivationTime = 2f;
 	public static boolean gDisableDeactivation = false;
 	
+	// JAVA NOTE: statistic counters are sums of counts made by all dynamics worlds during
+	// stepping, added at the end of each step, see SimulationCounters for per-world counters
 	public static int gTotalContactPoints;
 	
 	// GjkPairDetector
@@ -83,61 +78,65 @@ public class BulletGlobals {
 	
 	public static final Vector3f ZERO_VECTOR3 = new Vector3f(0f, 0f, 0f);
 	
-	private static final List<ProfileBlock> profileStack = new ArrayList<ProfileBlock>();
-	private static final Map<String,Long> profiles = new HashMap<String,Long>();
+	private static boolean profilingEnabled = false;
 
 	// JAVA NOTE: added for statistics in applet demo
 	public static long stepSimulationTime;
 	public static long updateTime;
 	
+	/**
+	 * Adds counts made by a world to the global counters.
+	 * 
+	 * @param counters counts made since the previous call, number of overlapping pairs is the change
+	 */
+	public static synchronized void addCounters(SimulationCounters counters) {
+		gNumGjkChecks += counters.numGjkChecks;
+		gNumDeepPenetrationChecks += counters.numDeepPenetrationChecks;
+		gTotalContactPoints += counters.numContactPoints;
+		gAddedPairs += counters.numAddedPairs;
+		gRemovePairs += counters.numRemovedPairs;
+		gFindPairs += counters.numFindPairs;
+		gOverlappingPairs += counters.numOverlappingPairs;
+	}
+	
+	/**
+	 * Enables or disables the hierarchical profiler (disabled by default).
+	 * Should be changed only between simulation steps.
+	 */
+	public static void setProfilingEnabled(boolean enabled) {
+		profilingEnabled = enabled;
+	}
+	
+	public static boolean isProfilingEnabled() {
+		return profilingEnabled;
+	}
+	
 	public static void pushProfile(String name) {
-		if (!ENABLE_PROFILE) return;
+		if (!profilingEnabled) return;
 		
-		ProfileBlock block = new ProfileBlock();
-		block.name = name;
-		block.startTime = System.currentTimeMillis();
-		profileStack.add(block);
+		ProfileManager.get().startProfile(name);
 	}
 	
 	public static void popProfile() {
-		if (!ENABLE_PROFILE) return;
+		if (!profilingEnabled) return;
 		
-		ProfileBlock block = profileStack.remove(profileStack.size() - 1);
-		long time = System.currentTimeMillis();
-		
-		Long totalTime = profiles.get(block.name);
-		if (totalTime == null) totalTime = 0L;
-		totalTime += (time - block.startTime);
-		profiles.put(block.name, totalTime);
+		ProfileManager.get().stopProfile();
 	}
 	
-	public static void printProfiles() {
-		ArrayList<Entry<String,Long>> list = new ArrayList<Entry<String,Long>>(profiles.entrySet());
-		Collections.sort(list, new Comparator<Entry<String,Long>>() {
-			public int compare(Entry<String,Long> e1, Entry<String,Long> e2) {
-				return e1.getValue().compareTo(e2.getValue());
-			}
-		});
+	/**
+	 * Finishes profiled frame of current thread, see {@link ProfileManager#incrementFrameCounter}.
+	 */
+	public static void incrementProfileFrameCounter() {
+		if (!profilingEnabled) return;
 		
-		for (Entry<String,Long> e : /*profiles.entrySet()*/list) {
-			System.out.println(e.getKey()+" = "+e.getValue()+" ms");
-		}
+		ProfileManager.get().incrementFrameCounter();
 	}
 	
-	static {
-		if (ENABLE_PROFILE) {
-			Runtime.getRuntime().addShutdownHook(new Thread() {
-				@Override
-				public void run() {
-					printProfiles();
-				}
-			});
-		}
-	}
-	
-	private static class ProfileBlock {
-		public String name;
-		public long startTime;
+	/**
+	 * Prints profile of current thread.
+	 */
+	public static void printProfiles() {
+		ProfileManager.get().dump(System.out);
 	}
 	
 }
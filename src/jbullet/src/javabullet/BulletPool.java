@@ -23,11 +23,8 @@
 
 package javabullet;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
- * Maintains per-thread object pools for different types.
+ * Maintains object pools for different types, pools are part of {@link SimulationContext}.
  * 
  * @author jezek2
  */
@@ -35,30 +32,15 @@ public class BulletPool {
 
 	private BulletPool() {}
 	
-	private static ThreadLocal<Map> threadLocal = new ThreadLocal<Map>() {
-		@Override
-		protected Map initialValue() {
-			return new HashMap();
-		}
-	};
-	
 	/**
-	 * Returns per-thread object pool for given type, or create one if it doesn't exist.
+	 * Returns object pool of current context of calling thread for given type,
+	 * or create one if it doesn't exist.
 	 * 
 	 * @param cls type
 	 * @return object pool
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> ObjectPool<T> get(Class<T> cls) {
-		Map map = threadLocal.get();
-		
-		ObjectPool<T> pool = (ObjectPool<T>)map.get(cls);
-		if (pool == null) {
-			pool = new ObjectPool<T>(cls);
-			map.put(cls, pool);
-		}
-		
-		return pool;
+		return SimulationContext.get().getPool(cls);
 	}
 	
 }
@@ -24,7 +24,7 @@
 package javabullet;
 
 /**
- * Per-thread stack based object pools for common types.
+ * Stack based object pools for common types, part of {@link SimulationContext}.
  * 
  * @see StackList
  * 
@@ -32,22 +32,15 @@ package javabullet;
  */
 public class BulletStack {
 
-	private BulletStack() {}
-	
-	private static final ThreadLocal<BulletStack> threadLocal = new ThreadLocal<BulletStack>() {
-		@Override
-		protected BulletStack initialValue() {
-			return new BulletStack();
-		}
-	};
+	BulletStack() {}
 	
 	/**
-	 * Returns stack for current thread, or create one if not present.
+	 * Returns stack of current context of calling thread, see {@link SimulationContext#get}.
 	 * 
 	 * @return stack
 	 */
 	public static BulletStack get() {
-		return threadLocal.get();
+		return SimulationContext.get().stack;
 	}
 	
 	// common math:
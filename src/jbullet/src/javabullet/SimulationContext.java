@@ -0,0 +1,134 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet;
+
+import java.util.HashMap;
+
+/**
+ * Scratch memory used by the simulation: stack based pools of common types
+ * ({@link BulletStack}) and object pools ({@link BulletPool}), together with statistic
+ * counters ({@link SimulationCounters}). Each collision world owns a context,
+ * dynamics worlds make it current for the calling thread during stepping, as
+ * do the worker tasks of parallel stages with their own contexts. Threads
+ * without an entered context use their own default one.<p>
+ * 
+ * Memory grows on demand (mostly during the first step) and is kept, so it
+ * stays with the world even when the world is stepped from different threads.
+ * Current context of the thread stepping a world is found without ThreadLocal
+ * lookup (when only one world is stepped at a time).<p>
+ * 
+ * Context can be current only in one thread at a time.
+ * 
+ * @author jezek2
+ */
+public class SimulationContext {
+
+	private static final ThreadLocal<ThreadState> threadLocal = new ThreadLocal<ThreadState>() {
+		@Override
+		protected ThreadState initialValue() {
+			return new ThreadState(Thread.currentThread());
+		}
+	};
+	
+	// state of thread which entered a context, checked before the ThreadLocal lookup
+	private static ThreadState cachedState;
+	
+	public final BulletStack stack = new BulletStack();
+	public final SimulationCounters counters = new SimulationCounters();
+	/** Counters at the end of the last profiled frame, see {@link javabullet.linearmath.ProfileManager}. */
+	public final SimulationCounters lastFrameCounters = new SimulationCounters();
+	private final HashMap<Class<?>,ObjectPool<?>> pools = new HashMap<Class<?>,ObjectPool<?>>();
+	
+	/**
+	 * Returns current context of calling thread.
+	 * 
+	 * @return context
+	 */
+	public static SimulationContext get() {
+		ThreadState state = cachedState;
+		if (state == null || state.thread != Thread.currentThread()) {
+			state = threadLocal.get();
+		}
+		return state.current;
+	}
+	
+	/**
+	 * Makes given context current for calling thread, until {@link #leave} is called.
+	 * 
+	 * @param context context
+	 * @return previous context, to be passed to {@link #leave}
+	 */
+	public static SimulationContext enter(SimulationContext context) {
+		ThreadState state = threadLocal.get();
+		SimulationContext previous = state.current;
+		state.current = context;
+		
+		// don't take the cached state from a thread still having entered context (eg. by worker
+		// threads from the stepping thread), reading of other thread's state affects only performance
+		ThreadState cached = cachedState;
+		if (cached == null || cached.current == cached.defaultContext) {
+			cachedState = state;
+		}
+		return previous;
+	}
+	
+	/**
+	 * Restores previous context of calling thread.
+	 * 
+	 * @param previous context returned by {@link #enter}
+	 */
+	public static void leave(SimulationContext previous) {
+		threadLocal.get().current = previous;
+	}
+	
+	/**
+	 * Returns object pool for given type, or create one if it doesn't exist.
+	 * 
+	 * @param cls type
+	 * @return object pool
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> ObjectPool<T> getPool(Class<T> cls) {
+		ObjectPool<T> pool = (ObjectPool<T>)pools.get(cls);
+		if (pool == null) {
+			pool = new ObjectPool<T>(cls);
+			pools.put(cls, pool);
+		}
+		return pool;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class ThreadState {
+		public final Thread thread;
+		public final SimulationContext defaultContext = new SimulationContext();
+		public SimulationContext current = defaultContext;
+
+		public ThreadState(Thread thread) {
+			this.thread = thread;
+		}
+	}
+	
+}
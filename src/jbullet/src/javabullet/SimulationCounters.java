@@ -0,0 +1,103 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet;
+
+/**
+ * Statistic counters of the simulation, part of {@link SimulationContext}. Counters
+ * are incremented in the current context of the calling thread, so worlds stepped
+ * by different threads don't share them. Counters of worker contexts of parallel
+ * stages are added to the context of the stepping thread when the stage finishes.<p>
+ * 
+ * Counters of dynamics world are available in its {@link SimulationContext} and are
+ * never reset by the world. Counts made during stepping are also added to the
+ * global counters in {@link BulletGlobals}.
+ * 
+ * @author jezek2
+ */
+public class SimulationCounters {
+
+	public int numGjkChecks;
+	public int numDeepPenetrationChecks;
+	public int numContactPoints;
+	
+	public int numAddedPairs;
+	public int numRemovedPairs;
+	public int numFindPairs;
+	
+	/** Number of overlapping pairs of the world, updated at the end of each step. */
+	public int numOverlappingPairs;
+	
+	public void set(SimulationCounters c) {
+		numGjkChecks = c.numGjkChecks;
+		numDeepPenetrationChecks = c.numDeepPenetrationChecks;
+		numContactPoints = c.numContactPoints;
+		numAddedPairs = c.numAddedPairs;
+		numRemovedPairs = c.numRemovedPairs;
+		numFindPairs = c.numFindPairs;
+		numOverlappingPairs = c.numOverlappingPairs;
+	}
+	
+	public void add(SimulationCounters c) {
+		numGjkChecks += c.numGjkChecks;
+		numDeepPenetrationChecks += c.numDeepPenetrationChecks;
+		numContactPoints += c.numContactPoints;
+		numAddedPairs += c.numAddedPairs;
+		numRemovedPairs += c.numRemovedPairs;
+		numFindPairs += c.numFindPairs;
+		numOverlappingPairs += c.numOverlappingPairs;
+	}
+	
+	/**
+	 * Sets counters to the difference of given counters.
+	 */
+	public void sub(SimulationCounters c1, SimulationCounters c2) {
+		numGjkChecks = c1.numGjkChecks - c2.numGjkChecks;
+		numDeepPenetrationChecks = c1.numDeepPenetrationChecks - c2.numDeepPenetrationChecks;
+		numContactPoints = c1.numContactPoints - c2.numContactPoints;
+		numAddedPairs = c1.numAddedPairs - c2.numAddedPairs;
+		numRemovedPairs = c1.numRemovedPairs - c2.numRemovedPairs;
+		numFindPairs = c1.numFindPairs - c2.numFindPairs;
+		numOverlappingPairs = c1.numOverlappingPairs - c2.numOverlappingPairs;
+	}
+	
+	/**
+	 * Adds given counters and resets them to zero.
+	 */
+	public void transfer(SimulationCounters c) {
+		add(c);
+		c.clear();
+	}
+	
+	public void clear() {
+		numGjkChecks = 0;
+		numDeepPenetrationChecks = 0;
+		numContactPoints = 0;
+		numAddedPairs = 0;
+		numRemovedPairs = 0;
+		numFindPairs = 0;
+		numOverlappingPairs = 0;
+	}
+	
+}
@@ -23,8 +23,6 @@
 
 package javabullet;
 
-import java.util.ArrayList;
-
 /**
  * Stack-based object pool, see the example for usage. You must use the {@link #returning}
  * method for returning stack-allocated instance.<p>
@@ -50,7 +48,8 @@ import java.util.ArrayList;
  */
 public abstract class StackList<T> {
 
-	private final ArrayList<T> list = new ArrayList<T>();
+	private Object[] list = new Object[16];
+	private int size = 0;
 	private T returnObj;
 	
 	private int[] stack = new int[512];
@@ -69,9 +68,9 @@ public abstract class StackList<T> {
 	 * Pushes the stack.
 	 */
 	public final void push() {
-		/*if (stackCount == stack.length-1) {
+		if (stackCount == stack.length) {
 			resizeStack();
-		}*/
+		}
 		
 		stack[stackCount++] = pos;
 	}
@@ -89,14 +88,15 @@ public abstract class StackList<T> {
 	 * 
 	 * @return instance
 	 */
+	@SuppressWarnings("unchecked")
 	public T get() {
 		//if (true) return create();
 		
-		if (pos == list.size()) {
+		if (pos == size) {
 			expand();
 		}
 		
-		return list.get(pos++);
+		return (T)list[pos++];
 	}
 	
 	/**
@@ -130,7 +130,18 @@ public abstract class StackList<T> {
 	protected abstract void copy(T dest, T src);
 
 	private void expand() {
-		list.add(create());
+		if (size == list.length) {
+			Object[] newList = new Object[size << 1];
+			System.arraycopy(list, 0, newList, 0, size);
+			list = newList;
+		}
+		list[size++] = create();
+	}
+	
+	private void resizeStack() {
+		int[] newStack = new int[stack.length << 1];
+		System.arraycopy(stack, 0, newStack, 0, stackCount);
+		stack = newStack;
 	}
 	
 }
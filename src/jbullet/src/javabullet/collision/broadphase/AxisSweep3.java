@@ -0,0 +1,639 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * AxisSweep3
+ * Copyright (c) 2006 Simon Hobbs
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.broadphase;
+
+import java.nio.ByteBuffer;
+import javabullet.linearmath.AabbUtil2;
+import javabullet.linearmath.SnapshotUtil;
+import javax.vecmath.Vector3f;
+
+/**
+ * AxisSweep3 is an efficient implementation of the 3D axis sweep and prune
+ * broadphase. It uses arrays rather than lists for storage of the 3 axis.
+ * Also it operates using 16 bit integer coordinates instead of floats.<p>
+ *
+ * Pairs are maintained incrementally: {@link #setAabb} adds or removes
+ * overlapping pairs only when an endpoint swaps with an endpoint of another
+ * proxy, so {@link #calculateOverlappingPairs} has nothing left to do. The
+ * sweep and prune works best for scenes where objects are moving little between
+ * frames (temporal coherence). For best performance, the world AABB passed to
+ * constructor should be as tight as possible.
+ *
+ * @author jezek2
+ */
+public class AxisSweep3 implements BroadphaseInterface {
+
+	protected static final int BP_HANDLE_MASK = 0xfffe;
+	protected static final int HANDLE_SENTINEL = 0xffff;
+
+	protected final Vector3f worldAabbMin = new Vector3f(); // overall system bounds
+	protected final Vector3f worldAabbMax = new Vector3f(); // overall system bounds
+
+	protected final Vector3f quantize = new Vector3f();     // scaling factor for quantization
+
+	protected int numHandles;                               // number of active handles
+	protected int maxHandles;                               // max number of handles
+	protected Handle[] handles;                             // handles pool
+	protected int firstFreeHandle;                          // free handles list
+
+	// edge arrays for the 3 axes (each array has m_maxHandles * 2 + 2 sentinel entries),
+	// position and owning handle of each edge are stored in parallel arrays
+	protected final int[][] edgePos = new int[3][];
+	protected final int[][] edgeHandle = new int[3][];
+
+	protected OverlappingPairCache pairCache;
+	protected boolean ownsPairCache;
+
+	private final int[] tmpMin = new int[3];
+	private final int[] tmpMax = new int[3];
+	private final Vector3f rayInvDirection = new Vector3f();
+
+	public AxisSweep3(Vector3f worldAabbMin, Vector3f worldAabbMax) {
+		this(worldAabbMin, worldAabbMax, 16384, null);
+	}
+
+	public AxisSweep3(Vector3f worldAabbMin, Vector3f worldAabbMax, int maxHandles) {
+		this(worldAabbMin, worldAabbMax, maxHandles, null);
+	}
+
+	public AxisSweep3(Vector3f worldAabbMin, Vector3f worldAabbMax, int maxHandles, OverlappingPairCache pairCache) {
+		assert (maxHandles > 1 && maxHandles < 32767);
+
+		this.pairCache = pairCache;
+
+		if (pairCache == null) {
+			this.pairCache = new OverlappingPairCache();
+			ownsPairCache = true;
+		}
+
+		// init bounds
+		this.worldAabbMin.set(worldAabbMin);
+		this.worldAabbMax.set(worldAabbMax);
+
+		Vector3f aabbSize = new Vector3f();
+		aabbSize.sub(this.worldAabbMax, this.worldAabbMin);
+
+		float maxInt = HANDLE_SENTINEL;
+
+		quantize.set(maxInt / aabbSize.x, maxInt / aabbSize.y, maxInt / aabbSize.z);
+
+		// allocate handles buffer and put all handles on free list
+		handles = new Handle[maxHandles];
+		for (int i = 0; i < maxHandles; i++) {
+			handles[i] = new Handle();
+		}
+		this.maxHandles = maxHandles;
+		numHandles = 0;
+
+		// handle 0 is reserved as the null index, and is also used as the sentinel
+		firstFreeHandle = 1;
+		{
+			for (int i = firstFreeHandle; i < maxHandles; i++) {
+				handles[i].setNextFree(i + 1);
+			}
+			handles[maxHandles - 1].setNextFree(0);
+		}
+
+		{
+			// allocate edge buffers
+			for (int i = 0; i < 3; i++) {
+				edgePos[i] = new int[maxHandles * 2];
+				edgeHandle[i] = new int[maxHandles * 2];
+			}
+		}
+		//removed overlap management
+
+		// make boundary sentinels
+
+		handles[0].clientObject = null;
+
+		for (int axis = 0; axis < 3; axis++) {
+			handles[0].minEdges[axis] = 0;
+			handles[0].maxEdges[axis] = 1;
+
+			edgePos[axis][0] = 0;
+			edgeHandle[axis][0] = 0;
+			edgePos[axis][1] = HANDLE_SENTINEL;
+			edgeHandle[axis][1] = 0;
+		}
+	}
+
+	protected void quantize(int[] out, Vector3f point, int isMax) {
+		float vx = (point.x - worldAabbMin.x) * quantize.x;
+		float vy = (point.y - worldAabbMin.y) * quantize.y;
+		float vz = (point.z - worldAabbMin.z) * quantize.z;
+
+		out[0] = (vx <= 0f) ? isMax : (vx >= HANDLE_SENTINEL) ? ((HANDLE_SENTINEL & BP_HANDLE_MASK) | isMax) : (((int) vx & BP_HANDLE_MASK) | isMax);
+		out[1] = (vy <= 0f) ? isMax : (vy >= HANDLE_SENTINEL) ? ((HANDLE_SENTINEL & BP_HANDLE_MASK) | isMax) : (((int) vy & BP_HANDLE_MASK) | isMax);
+		out[2] = (vz <= 0f) ? isMax : (vz >= HANDLE_SENTINEL) ? ((HANDLE_SENTINEL & BP_HANDLE_MASK) | isMax) : (((int) vz & BP_HANDLE_MASK) | isMax);
+	}
+
+	protected int allocHandle() {
+		assert (firstFreeHandle != 0);
+
+		int handle = firstFreeHandle;
+		firstFreeHandle = getHandle(handle).getNextFree();
+		numHandles++;
+
+		return handle;
+	}
+
+	protected void freeHandle(int handle) {
+		assert (handle > 0 && handle < maxHandles);
+
+		getHandle(handle).setNextFree(firstFreeHandle);
+		firstFreeHandle = handle;
+
+		numHandles--;
+	}
+
+	protected static boolean isMax(int pos) {
+		return (pos & 1) != 0;
+	}
+
+	protected void swapEdges(int axis, int e0, int e1) {
+		int[] pos = edgePos[axis];
+		int[] hnd = edgeHandle[axis];
+
+		int tmp = pos[e0];
+		pos[e0] = pos[e1];
+		pos[e1] = tmp;
+
+		tmp = hnd[e0];
+		hnd[e0] = hnd[e1];
+		hnd[e1] = tmp;
+	}
+
+	protected boolean testOverlap(int ignoreAxis, Handle pHandleA, Handle pHandleB) {
+		// optimization 1: check the array index (memory address), instead of the m_pos
+
+		for (int axis = 0; axis < 3; axis++) {
+			if (axis != ignoreAxis) {
+				if (pHandleA.maxEdges[axis] < pHandleB.minEdges[axis] ||
+						pHandleB.maxEdges[axis] < pHandleA.minEdges[axis]) {
+					return false;
+				}
+			}
+		}
+
+		//optimization 2: only 2 axis need to be tested (conflicts with 'delayed removal' optimization)
+
+		/*for (int axis = 0; axis < 3; axis++)
+		{
+			if (m_pEdges[axis][pHandleA->m_maxEdges[axis]].m_pos < m_pEdges[axis][pHandleB->m_minEdges[axis]].m_pos ||
+				m_pEdges[axis][pHandleB->m_maxEdges[axis]].m_pos < m_pEdges[axis][pHandleA->m_minEdges[axis]].m_pos)
+			{
+				return false;
+			}
+		}
+		*/
+
+		return true;
+	}
+
+	protected void updateHandle(int handle, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+		//assert(bounds.IsFinite());
+		//assert(bounds.HasVolume());
+
+		Handle pHandle = getHandle(handle);
+		pHandle.aabbMin.set(aabbMin);
+		pHandle.aabbMax.set(aabbMax);
+
+		// quantize the new bounds
+		int[] min = tmpMin;
+		int[] max = tmpMax;
+		quantize(min, aabbMin, 0);
+		quantize(max, aabbMax, 1);
+
+		// update changed edges
+		for (int axis = 0; axis < 3; axis++) {
+			int emin = pHandle.minEdges[axis];
+			int emax = pHandle.maxEdges[axis];
+
+			int dmin = min[axis] - edgePos[axis][emin];
+			int dmax = max[axis] - edgePos[axis][emax];
+
+			edgePos[axis][emin] = min[axis];
+			edgePos[axis][emax] = max[axis];
+
+			// expand (only adds overlaps)
+			if (dmin < 0) {
+				sortMinDown(axis, emin, dispatcher, true);
+			}
+			if (dmax > 0) {
+				sortMaxUp(axis, emax, dispatcher, true);
+			}
+
+			// shrink (only removes overlaps)
+			if (dmin > 0) {
+				sortMinUp(axis, emin, dispatcher, true);
+			}
+			if (dmax < 0) {
+				sortMaxDown(axis, emax, dispatcher, true);
+			}
+		}
+	}
+
+	// sorting a min edge downwards can only ever *add* overlaps
+	protected void sortMinDown(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		int[] pos = edgePos[axis];
+		int[] hnd = edgeHandle[axis];
+
+		int pEdge = edge;
+		int pPrev = edge - 1;
+		Handle pHandleEdge = getHandle(hnd[pEdge]);
+
+		while (pos[pEdge] < pos[pPrev]) {
+			Handle pHandlePrev = getHandle(hnd[pPrev]);
+
+			if (isMax(pos[pPrev])) {
+				// if previous edge is a maximum check the bounds and add an overlap if necessary
+				if (updateOverlaps && testOverlap(axis, pHandleEdge, pHandlePrev)) {
+					pairCache.addOverlappingPair(pHandleEdge, pHandlePrev);
+				}
+
+				// update edge reference in other handle
+				pHandlePrev.maxEdges[axis]++;
+			}
+			else {
+				pHandlePrev.minEdges[axis]++;
+			}
+			pHandleEdge.minEdges[axis]--;
+
+			// swap the edges
+			swapEdges(axis, pEdge, pPrev);
+
+			// decrement
+			pEdge--;
+			pPrev--;
+		}
+	}
+
+	// sorting a min edge upwards can only ever *remove* overlaps
+	protected void sortMinUp(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		int[] pos = edgePos[axis];
+		int[] hnd = edgeHandle[axis];
+
+		int pEdge = edge;
+		int pNext = edge + 1;
+		Handle pHandleEdge = getHandle(hnd[pEdge]);
+
+		while (hnd[pNext] != 0 && (pos[pEdge] >= pos[pNext])) {
+			Handle pHandleNext = getHandle(hnd[pNext]);
+
+			if (isMax(pos[pNext])) {
+				// if next edge is maximum remove any overlap between the two handles
+				if (updateOverlaps && testOverlap(axis, pHandleEdge, pHandleNext)) {
+					pairCache.removeOverlappingPair(pHandleEdge, pHandleNext, dispatcher);
+				}
+
+				// update edge reference in other handle
+				pHandleNext.maxEdges[axis]--;
+			}
+			else {
+				pHandleNext.minEdges[axis]--;
+			}
+			pHandleEdge.minEdges[axis]++;
+
+			// swap the edges
+			swapEdges(axis, pEdge, pNext);
+
+			// increment
+			pEdge++;
+			pNext++;
+		}
+	}
+
+	// sorting a max edge downwards can only ever *remove* overlaps
+	protected void sortMaxDown(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		int[] pos = edgePos[axis];
+		int[] hnd = edgeHandle[axis];
+
+		int pEdge = edge;
+		int pPrev = edge - 1;
+		Handle pHandleEdge = getHandle(hnd[pEdge]);
+
+		while (pos[pEdge] < pos[pPrev]) {
+			Handle pHandlePrev = getHandle(hnd[pPrev]);
+
+			if (!isMax(pos[pPrev])) {
+				// if previous edge was a minimum remove any overlap between the two handles
+				if (updateOverlaps && testOverlap(axis, pHandleEdge, pHandlePrev)) {
+					pairCache.removeOverlappingPair(pHandleEdge, pHandlePrev, dispatcher);
+				}
+
+				// update edge reference in other handle
+				pHandlePrev.minEdges[axis]++;
+			}
+			else {
+				pHandlePrev.maxEdges[axis]++;
+			}
+			pHandleEdge.maxEdges[axis]--;
+
+			// swap the edges
+			swapEdges(axis, pEdge, pPrev);
+
+			// decrement
+			pEdge--;
+			pPrev--;
+		}
+	}
+
+	// sorting a max edge upwards can only ever *add* overlaps
+	protected void sortMaxUp(int axis, int edge, Dispatcher dispatcher, boolean updateOverlaps) {
+		int[] pos = edgePos[axis];
+		int[] hnd = edgeHandle[axis];
+
+		int pEdge = edge;
+		int pNext = edge + 1;
+		Handle pHandleEdge = getHandle(hnd[pEdge]);
+
+		while (hnd[pNext] != 0 && (pos[pEdge] >= pos[pNext])) {
+			Handle pHandleNext = getHandle(hnd[pNext]);
+
+			if (!isMax(pos[pNext])) {
+				// if next edge is a minimum check the bounds and add an overlap if necessary
+				if (updateOverlaps && testOverlap(axis, pHandleEdge, pHandleNext)) {
+					pairCache.addOverlappingPair(pHandleEdge, pHandleNext);
+				}
+
+				// update edge reference in other handle
+				pHandleNext.minEdges[axis]--;
+			}
+			else {
+				pHandleNext.maxEdges[axis]--;
+			}
+			pHandleEdge.maxEdges[axis]++;
+
+			// swap the edges
+			swapEdges(axis, pEdge, pNext);
+
+			// increment
+			pEdge++;
+			pNext++;
+		}
+	}
+
+	public int getNumHandles() {
+		return numHandles;
+	}
+
+	public void calculateOverlappingPairs(Dispatcher dispatcher) {
+		// pairs are added and removed incrementally in setAabb
+	}
+
+	public int addHandle(Vector3f aabbMin, Vector3f aabbMax, Object pOwner, short collisionFilterGroup, short collisionFilterMask, Dispatcher dispatcher) {
+		// quantize the bounds
+		int[] min = tmpMin, max = tmpMax;
+		quantize(min, aabbMin, 0);
+		quantize(max, aabbMax, 1);
+
+		// allocate a handle
+		int handle = allocHandle();
+
+		Handle pHandle = getHandle(handle);
+
+		pHandle.uniqueId = handle;
+		//pHandle->m_pOverlaps = 0;
+		pHandle.clientObject = pOwner;
+		pHandle.collisionFilterGroup = collisionFilterGroup;
+		pHandle.collisionFilterMask = collisionFilterMask;
+		pHandle.aabbMin.set(aabbMin);
+		pHandle.aabbMax.set(aabbMax);
+
+		// compute current limit of edge arrays
+		int limit = numHandles * 2;
+
+		// insert new edges just inside the max boundary edge
+		for (int axis = 0; axis < 3; axis++) {
+			handles[0].maxEdges[axis] += 2;
+
+			edgePos[axis][limit + 1] = edgePos[axis][limit - 1];
+			edgeHandle[axis][limit + 1] = edgeHandle[axis][limit - 1];
+
+			edgePos[axis][limit - 1] = min[axis];
+			edgeHandle[axis][limit - 1] = handle;
+
+			edgePos[axis][limit] = max[axis];
+			edgeHandle[axis][limit] = handle;
+
+			pHandle.minEdges[axis] = limit - 1;
+			pHandle.maxEdges[axis] = limit;
+		}
+
+		// now sort the new edges to their correct position
+		sortMinDown(0, pHandle.minEdges[0], dispatcher, false);
+		sortMaxDown(0, pHandle.maxEdges[0], dispatcher, false);
+		sortMinDown(1, pHandle.minEdges[1], dispatcher, false);
+		sortMaxDown(1, pHandle.maxEdges[1], dispatcher, false);
+		sortMinDown(2, pHandle.minEdges[2], dispatcher, true);
+		sortMaxDown(2, pHandle.maxEdges[2], dispatcher, true);
+
+		return handle;
+	}
+
+	public void removeHandle(int handle, Dispatcher dispatcher) {
+		Handle pHandle = getHandle(handle);
+
+		// explicitly remove the pairs containing the proxy
+		// we could do it also in the sortMinUp (passing true)
+		// todo: compare performance
+		pairCache.removeOverlappingPairsContainingProxy(pHandle, dispatcher);
+
+		// compute current limit of edge arrays
+		int limit = numHandles * 2;
+
+		int axis;
+
+		for (axis = 0; axis < 3; axis++) {
+			handles[0].maxEdges[axis] -= 2;
+		}
+
+		// remove the edges by sorting them up to the end of the list
+		for (axis = 0; axis < 3; axis++) {
+			int max = pHandle.maxEdges[axis];
+			edgePos[axis][max] = HANDLE_SENTINEL;
+
+			sortMaxUp(axis, max, dispatcher, false);
+
+			int i = pHandle.minEdges[axis];
+			edgePos[axis][i] = HANDLE_SENTINEL;
+
+			sortMinUp(axis, i, dispatcher, false);
+
+			edgeHandle[axis][limit - 1] = 0;
+			edgePos[axis][limit - 1] = HANDLE_SENTINEL;
+		}
+
+		// free the handle
+		pHandle.clientObject = null;
+		freeHandle(handle);
+	}
+
+	public Handle getHandle(int index) {
+		return handles[index];
+	}
+
+	public BroadphaseProxy createProxy(Vector3f aabbMin, Vector3f aabbMax, BroadphaseNativeType shapeType, Object userPtr, short collisionFilterGroup, short collisionFilterMask, Dispatcher dispatcher) {
+		int handleId = addHandle(aabbMin, aabbMax, userPtr, collisionFilterGroup, collisionFilterMask, dispatcher);
+
+		Handle handle = getHandle(handleId);
+
+		return handle;
+	}
+
+	public void destroyProxy(BroadphaseProxy proxy, Dispatcher dispatcher) {
+		Handle handle = (Handle)proxy;
+		removeHandle(handle.uniqueId, dispatcher);
+	}
+
+	public void setAabb(BroadphaseProxy proxy, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+		Handle handle = (Handle) proxy;
+		updateHandle(handle.uniqueId, aabbMin, aabbMax, dispatcher);
+	}
+
+	public OverlappingPairCache getOverlappingPairCache() {
+		return pairCache;
+	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback) {
+		AabbUtil2.calcRayInvDirection(rayInvDirection, rayFrom, rayTo);
+
+		// each active handle has exactly one min edge on the X axis
+		int[] pos = edgePos[0];
+		int[] hnd = edgeHandle[0];
+		for (int i = 1; hnd[i] != 0; i++) {
+			if (!isMax(pos[i])) {
+				Handle handle = getHandle(hnd[i]);
+				if (AabbUtil2.rayAabb2(rayFrom, rayInvDirection, handle.aabbMin, handle.aabbMax, rayCallback.lambdaMax)) {
+					if (!rayCallback.process(handle)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback) {
+		int[] max = tmpMax;
+		quantize(max, aabbMax, 1);
+
+		// min edges are sorted along X axis, stop once they start past the query
+		int[] pos = edgePos[0];
+		int[] hnd = edgeHandle[0];
+		for (int i = 1; hnd[i] != 0 && pos[i] <= max[0]; i++) {
+			if (!isMax(pos[i])) {
+				Handle handle = getHandle(hnd[i]);
+				if (AabbUtil2.testAabbAgainstAabb2(aabbMin, aabbMax, handle.aabbMin, handle.aabbMax)) {
+					if (!callback.process(handle)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	public int calculateSnapshotSize() {
+		return 4 + 3 * (numHandles * 2 + 2) * 4;
+	}
+
+	/**
+	 * Writes sorted edges of all axes, as the order of edges with equal positions
+	 * depends on history.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(numHandles);
+		int count = numHandles * 2 + 2;
+		for (int axis = 0; axis < 3; axis++) {
+			int[] pos = edgePos[axis];
+			int[] hnd = edgeHandle[axis];
+			for (int i = 0; i < count; i++) {
+				buf.putShort((short)pos[i]);
+				buf.putShort((short)hnd[i]);
+			}
+		}
+	}
+
+	public void readSnapshot(ByteBuffer buf) {
+		if (buf.getInt() != numHandles) {
+			throw new IllegalArgumentException("number of broadphase handles doesn't match");
+		}
+		
+		int count = numHandles * 2 + 2;
+		for (int axis = 0; axis < 3; axis++) {
+			int[] pos = edgePos[axis];
+			int[] hnd = edgeHandle[axis];
+			for (int i = 0; i < count; i++) {
+				int p = buf.getShort() & 0xFFFF;
+				int h = buf.getShort() & 0xFFFF;
+				if (h >= maxHandles || (h != 0 && handles[h].clientObject == null)) {
+					throw new IllegalArgumentException("invalid broadphase handle in snapshot");
+				}
+				pos[i] = p;
+				hnd[i] = h;
+				
+				Handle handle = getHandle(h);
+				if (isMax(p)) {
+					handle.maxEdges[axis] = i;
+				}
+				else {
+					handle.minEdges[axis] = i;
+				}
+			}
+		}
+	}
+
+	public int getProxySnapshotSize() {
+		return 2*SnapshotUtil.VECTOR_SIZE;
+	}
+
+	public void writeProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		SnapshotUtil.putVector(buf, proxy.aabbMin);
+		SnapshotUtil.putVector(buf, proxy.aabbMax);
+	}
+
+	public void readProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		SnapshotUtil.getVector(buf, proxy.aabbMin);
+		SnapshotUtil.getVector(buf, proxy.aabbMax);
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	public static class Handle extends BroadphaseProxy {
+		public final int[] minEdges = new int[3];
+		public final int[] maxEdges = new int[3];
+
+		public void setNextFree(int next) {
+			minEdges[0] = next;
+		}
+
+		public int getNextFree() {
+			return minEdges[0];
+		}
+	}
+
+}
@@ -23,6 +23,7 @@
 
 package javabullet.collision.broadphase;
 
+import java.nio.ByteBuffer;
 import javax.vecmath.Vector3f;
 
 /**
@@ -43,4 +44,41 @@ public interface BroadphaseInterface {
 
 	public OverlappingPairCache getOverlappingPairCache();
 	
+	/**
+	 * Reports proxies whose AABB is hit by the ray, in no particular order.
+	 */
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback);
+	
+	/**
+	 * Reports proxies whose AABB overlaps given AABB, in no particular order.
+	 */
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback);
+	
+	/**
+	 * Returns number of bytes needed by {@link #writeSnapshot}.
+	 */
+	public int calculateSnapshotSize();
+	
+	/**
+	 * Writes internal state not belonging to single proxy. Overlapping pairs are
+	 * not included, these are stored by the collision world.
+	 */
+	public void writeSnapshot(ByteBuffer buf);
+	
+	/**
+	 * Restores state written by {@link #writeSnapshot}, must be called before
+	 * {@link #readProxySnapshot} of the proxies. The set of proxies must be the
+	 * same as when the snapshot was written.
+	 */
+	public void readSnapshot(ByteBuffer buf);
+	
+	/**
+	 * Returns number of bytes needed by {@link #writeProxySnapshot}, it's the same for all proxies.
+	 */
+	public int getProxySnapshotSize();
+	
+	public void writeProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf);
+	
+	public void readProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf);
+	
 }
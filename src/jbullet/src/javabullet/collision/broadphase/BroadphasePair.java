@@ -34,6 +34,10 @@ public class BroadphasePair {
 	public CollisionAlgorithm algorithm;
 	public Object userInfo;
 
+	// links in the lists of pairs of pProxy0 and pProxy1, maintained by OverlappingPairCache
+	BroadphasePair prev0, next0;
+	BroadphasePair prev1, next1;
+
 	public BroadphasePair() {
 	}
 
@@ -60,7 +64,25 @@ public class BroadphasePair {
 
 	@Override
 	public int hashCode() {
-		return pProxy0.hashCode() ^ pProxy1.hashCode();
+		// JAVA NOTE: uses proxy ids instead of identity hash codes, so the order
+		// of pairs (and therefore of contacts) is the same across runs
+		int id0 = pProxy0.getUid();
+		int id1 = pProxy1.getUid();
+		if (id0 > id1) {
+			int tmp = id0;
+			id0 = id1;
+			id1 = tmp;
+		}
+
+		// Thomas Wang's hash
+		int key = id0 | (id1 << 16);
+		key += ~(key << 15);
+		key ^= (key >>> 10);
+		key += (key << 3);
+		key ^= (key >>> 6);
+		key += ~(key << 11);
+		key ^= (key >>> 16);
+		return key;
 	}
 	
 }
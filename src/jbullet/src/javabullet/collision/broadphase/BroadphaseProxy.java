@@ -23,6 +23,8 @@
 
 package javabullet.collision.broadphase;
 
+import javax.vecmath.Vector3f;
+
 /**
  *
  * @author jezek2
@@ -37,6 +39,13 @@ public class BroadphaseProxy {
 	public short collisionFilterMask;
 	
 	public int uniqueId; // uniqueId is introduced for paircache. could get rid of this, by calculating the address offset etc.
+	
+	// AABB as last passed to createProxy/setAabb, used by broadphase queries
+	public final Vector3f aabbMin = new Vector3f();
+	public final Vector3f aabbMax = new Vector3f();
+
+	// head of the list of pairs containing this proxy, maintained by OverlappingPairCache
+	BroadphasePair firstPair;
 
 	public BroadphaseProxy() {
 	}
@@ -23,9 +23,11 @@
 
 package javabullet.collision.broadphase;
 
-import javabullet.BulletStack;
+import java.nio.ByteBuffer;
+import java.util.List;
 import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.dispatch.ManifoldResult;
+import javabullet.collision.narrowphase.PersistentManifold;
 
 /**
  *
@@ -33,8 +35,6 @@ import javabullet.collision.dispatch.ManifoldResult;
  */
 public abstract class CollisionAlgorithm {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	protected Dispatcher dispatcher;
 
 	public CollisionAlgorithm() {
@@ -50,4 +50,64 @@ public abstract class CollisionAlgorithm {
 
 	public abstract float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut);
 	
+	/**
+	 * Adds manifolds owned by this algorithm (and its child algorithms) to the array,
+	 * in the same order as they are stored by {@link #writeSnapshot}.
+	 */
+	public abstract void getAllContactManifolds(List<PersistentManifold> manifoldArray);
+	
+	/**
+	 * Returns number of bytes needed by {@link #writeSnapshot}.
+	 */
+	public int calculateSnapshotSize() {
+		return 0;
+	}
+
+	/**
+	 * Writes state persisting between steps (contact manifolds) to the buffer at its position.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+	}
+
+	/**
+	 * Restores state written by {@link #writeSnapshot} of algorithm created for the same
+	 * pair of shapes. Manifolds are created or released as needed.
+	 */
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+	}
+	
+	protected static int calculateManifoldSnapshotSize(PersistentManifold manifold, boolean ownManifold) {
+		return 1 + (manifold != null && ownManifold? manifold.calculateSnapshotSize() : 0);
+	}
+	
+	protected static void writeManifoldSnapshot(ByteBuffer buf, PersistentManifold manifold, boolean ownManifold) {
+		if (manifold != null && ownManifold) {
+			buf.put((byte)1);
+			manifold.writeSnapshot(buf);
+		}
+		else {
+			buf.put((byte)0);
+		}
+	}
+
+	/**
+	 * Reads manifold written by {@link #writeManifoldSnapshot}. Shared (not owned)
+	 * manifold is kept as is.
+	 * 
+	 * @return given manifold, newly created one, or null when owned manifold was released
+	 */
+	protected PersistentManifold readManifoldSnapshot(ByteBuffer buf, PersistentManifold manifold, boolean ownManifold, Object body0, Object body1) {
+		if (buf.get() != 0) {
+			if (manifold == null) {
+				manifold = dispatcher.getNewManifold(body0, body1);
+			}
+			manifold.readSnapshot(buf);
+		}
+		else if (manifold != null && ownManifold) {
+			dispatcher.releaseManifold(manifold);
+			manifold = null;
+		}
+		return manifold;
+	}
+	
 }
@@ -0,0 +1,404 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+// Dbvt implementation by Nathanael Presson
+
+package javabullet.collision.broadphase;
+
+import javabullet.linearmath.AabbUtil2;
+import javax.vecmath.Vector3f;
+
+/**
+ * Dynamic bounding volume tree. Leaves are inserted by descending to the
+ * closest subtree, so the tree stays reasonably balanced without full rebuilds,
+ * {@link #optimizeIncremental} can be used to further rebalance it over time.
+ *
+ * @author jezek2
+ */
+public class Dbvt {
+
+	public Node root;
+	protected Node free;
+	protected int lkhd = -1;
+	protected int leaves;
+	protected int opath;
+
+	private Node[] stack = new Node[64];
+	private final Vector3f rayInvDirection = new Vector3f();
+
+	public void clear() {
+		root = null;
+		free = null;
+		leaves = 0;
+		opath = 0;
+	}
+
+	public boolean empty() {
+		return root == null;
+	}
+
+	public int getLeafCount() {
+		return leaves;
+	}
+
+	public void optimizeIncremental(int passes) {
+		if (passes < 0) {
+			passes = leaves;
+		}
+
+		if (root != null && (passes > 0)) {
+			do {
+				Node node = root;
+				int bit = 0;
+				while (node.isInternal()) {
+					node = ((opath >>> bit) & 1) == 0? node.child0 : node.child1;
+					bit = (bit + 1) & (/*sizeof(unsigned)*/4 * 8 - 1);
+				}
+				update(node);
+				++opath;
+			}
+			while ((--passes) != 0);
+		}
+	}
+
+	public Node insert(Vector3f aabbMin, Vector3f aabbMax, Object data) {
+		Node leaf = createNode(null, aabbMin, aabbMax, data);
+		insertLeaf(root, leaf);
+		leaves++;
+		return leaf;
+	}
+
+	public void update(Node leaf) {
+		Node root = removeLeaf(leaf);
+		if (root != null) {
+			if (lkhd >= 0) {
+				for (int i = 0; (i < lkhd) && (root.parent != null); i++) {
+					root = root.parent;
+				}
+			}
+			else {
+				root = this.root;
+			}
+		}
+		insertLeaf(root, leaf);
+	}
+
+	public void update(Node leaf, Vector3f aabbMin, Vector3f aabbMax) {
+		Node root = removeLeaf(leaf);
+		if (root != null) {
+			if (lkhd >= 0) {
+				for (int i = 0; (i < lkhd) && (root.parent != null); i++) {
+					root = root.parent;
+				}
+			}
+			else {
+				root = this.root;
+			}
+		}
+		leaf.min.set(aabbMin);
+		leaf.max.set(aabbMax);
+		insertLeaf(root, leaf);
+	}
+
+	public void remove(Node leaf) {
+		removeLeaf(leaf);
+		deleteNode(leaf);
+		leaves--;
+	}
+
+	/**
+	 * Reports all leaves under given node whose volume overlaps given AABB.
+	 */
+	public void collideTV(Node root, Vector3f aabbMin, Vector3f aabbMax, ICollide policy) {
+		stack = collideTVInternal(root, aabbMin, aabbMax, stack, policy);
+	}
+
+	/**
+	 * Same as {@link #collideTV}, but with given traversal stack. Doesn't use any state
+	 * of the tree, so multiple threads can query the tree at once as long as it's not modified.
+	 * 
+	 * @return traversal stack, grown when it wasn't big enough
+	 */
+	public static Node[] collideTVInternal(Node root, Vector3f aabbMin, Vector3f aabbMax, Node[] stack, ICollide policy) {
+		if (root == null) {
+			return stack;
+		}
+
+		int depth = 0;
+		stack[depth++] = root;
+
+		while (depth > 0) {
+			Node n = stack[--depth];
+			if (n.intersect(aabbMin, aabbMax)) {
+				if (n.isInternal()) {
+					if (depth + 2 > stack.length) {
+						stack = growStack(stack);
+					}
+					stack[depth++] = n.child0;
+					stack[depth++] = n.child1;
+				}
+				else {
+					if (!policy.process(n)) {
+						break;
+					}
+				}
+			}
+		}
+		return stack;
+	}
+
+	/**
+	 * Reports all leaves under given node whose volume is hit by the ray
+	 * from rayFrom to rayTo before {@link ICollide#lambdaMax}.
+	 */
+	public void rayTest(Node root, Vector3f rayFrom, Vector3f rayTo, ICollide policy) {
+		if (root == null) {
+			return;
+		}
+
+		AabbUtil2.calcRayInvDirection(rayInvDirection, rayFrom, rayTo);
+		stack = rayTestInternal(root, rayFrom, rayInvDirection, stack, policy);
+	}
+
+	/**
+	 * Same as {@link #rayTest}, but with precomputed inverse ray direction and
+	 * given traversal stack. Doesn't use any state of the tree, so multiple threads
+	 * can query the tree at once as long as it's not modified.
+	 * 
+	 * @return traversal stack, grown when it wasn't big enough
+	 */
+	public static Node[] rayTestInternal(Node root, Vector3f rayFrom, Vector3f rayInvDirection, Node[] stack, ICollide policy) {
+		if (root == null) {
+			return stack;
+		}
+
+		int depth = 0;
+		stack[depth++] = root;
+
+		while (depth > 0) {
+			Node n = stack[--depth];
+			if (AabbUtil2.rayAabb2(rayFrom, rayInvDirection, n.min, n.max, policy.lambdaMax)) {
+				if (n.isInternal()) {
+					if (depth + 2 > stack.length) {
+						stack = growStack(stack);
+					}
+					stack[depth++] = n.child0;
+					stack[depth++] = n.child1;
+				}
+				else {
+					if (!policy.process(n)) {
+						break;
+					}
+				}
+			}
+		}
+		return stack;
+	}
+
+	private static Node[] growStack(Node[] stack) {
+		Node[] newStack = new Node[stack.length << 1];
+		System.arraycopy(stack, 0, newStack, 0, stack.length);
+		return newStack;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	private static float proximity(Node a, Vector3f bMin, Vector3f bMax) {
+		return Math.abs((a.min.x + a.max.x) - (bMin.x + bMax.x)) +
+				Math.abs((a.min.y + a.max.y) - (bMin.y + bMax.y)) +
+				Math.abs((a.min.z + a.max.z) - (bMin.z + bMax.z));
+	}
+
+	private static Node select(Node o, Node a, Node b) {
+		return proximity(a, o.min, o.max) < proximity(b, o.min, o.max)? a : b;
+	}
+
+	private Node createNode(Node parent, Vector3f aabbMin, Vector3f aabbMax, Object data) {
+		Node node;
+		if (free != null) {
+			node = free;
+			free = null;
+		}
+		else {
+			node = new Node();
+		}
+		node.parent = parent;
+		node.data = data;
+		node.child0 = null;
+		node.child1 = null;
+		node.min.set(aabbMin);
+		node.max.set(aabbMax);
+		return node;
+	}
+
+	private void deleteNode(Node node) {
+		node.parent = null;
+		node.child0 = null;
+		node.child1 = null;
+		node.data = null;
+		free = node;
+	}
+
+	private void insertLeaf(Node root, Node leaf) {
+		if (this.root == null) {
+			this.root = leaf;
+			leaf.parent = null;
+		}
+		else {
+			if (!root.isLeaf()) {
+				do {
+					root = select(leaf, root.child0, root.child1);
+				}
+				while (!root.isLeaf());
+			}
+			Node prev = root.parent;
+			Node node = createNode(prev, leaf.min, leaf.max, null);
+			node.merge(root);
+			if (prev != null) {
+				if (prev.child0 == root) {
+					prev.child0 = node;
+				}
+				else {
+					prev.child1 = node;
+				}
+				node.child0 = root;
+				root.parent = node;
+				node.child1 = leaf;
+				leaf.parent = node;
+				do {
+					if (!prev.contain(node)) {
+						prev.min.set(prev.child0.min);
+						prev.max.set(prev.child0.max);
+						prev.merge(prev.child1);
+					}
+					else {
+						break;
+					}
+					node = prev;
+				}
+				while (null != (prev = node.parent));
+			}
+			else {
+				node.child0 = root;
+				root.parent = node;
+				node.child1 = leaf;
+				leaf.parent = node;
+				this.root = node;
+			}
+		}
+	}
+
+	private Node removeLeaf(Node leaf) {
+		if (leaf == root) {
+			root = null;
+			return null;
+		}
+		else {
+			Node parent = leaf.parent;
+			Node prev = parent.parent;
+			Node sibling = parent.child0 == leaf? parent.child1 : parent.child0;
+			if (prev != null) {
+				if (prev.child0 == parent) {
+					prev.child0 = sibling;
+				}
+				else {
+					prev.child1 = sibling;
+				}
+				sibling.parent = prev;
+				deleteNode(parent);
+				while (prev != null) {
+					float minX = prev.min.x, minY = prev.min.y, minZ = prev.min.z;
+					float maxX = prev.max.x, maxY = prev.max.y, maxZ = prev.max.z;
+					prev.min.set(prev.child0.min);
+					prev.max.set(prev.child0.max);
+					prev.merge(prev.child1);
+					if (minX != prev.min.x || minY != prev.min.y || minZ != prev.min.z ||
+							maxX != prev.max.x || maxY != prev.max.y || maxZ != prev.max.z) {
+						prev = prev.parent;
+					}
+					else {
+						break;
+					}
+				}
+				return (prev != null? prev : root);
+			}
+			else {
+				root = sibling;
+				sibling.parent = null;
+				deleteNode(parent);
+				return root;
+			}
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	public static abstract class ICollide {
+		/** Ray queries skip volumes hit after this fraction, may be lowered during the query. */
+		public float lambdaMax = 1f;
+
+		/**
+		 * @return false to terminate the query
+		 */
+		public abstract boolean process(Node leaf);
+	}
+
+	public static class Node {
+		public final Vector3f min = new Vector3f();
+		public final Vector3f max = new Vector3f();
+		public Node parent;
+		public Node child0;
+		public Node child1;
+		public Object data;
+
+		public boolean isLeaf() {
+			return child1 == null;
+		}
+
+		public boolean isInternal() {
+			return !isLeaf();
+		}
+
+		public boolean intersect(Vector3f aabbMin, Vector3f aabbMax) {
+			return (min.x <= aabbMax.x) && (max.x >= aabbMin.x) &&
+					(min.y <= aabbMax.y) && (max.y >= aabbMin.y) &&
+					(min.z <= aabbMax.z) && (max.z >= aabbMin.z);
+		}
+
+		public boolean contain(Node a) {
+			return (min.x <= a.min.x) && (min.y <= a.min.y) && (min.z <= a.min.z) &&
+					(max.x >= a.max.x) && (max.y >= a.max.y) && (max.z >= a.max.z);
+		}
+
+		public boolean contain(Vector3f aabbMin, Vector3f aabbMax) {
+			return (min.x <= aabbMin.x) && (min.y <= aabbMin.y) && (min.z <= aabbMin.z) &&
+					(max.x >= aabbMax.x) && (max.y >= aabbMax.y) && (max.z >= aabbMax.z);
+		}
+
+		public void merge(Node a) {
+			min.set(Math.min(min.x, a.min.x), Math.min(min.y, a.min.y), Math.min(min.z, a.min.z));
+			max.set(Math.max(max.x, a.max.x), Math.max(max.y, a.max.y), Math.max(max.z, a.max.z));
+		}
+	}
+
+}
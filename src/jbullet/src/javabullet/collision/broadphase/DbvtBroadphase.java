@@ -0,0 +1,421 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+// Dbvt implementation by Nathanael Presson
+
+package javabullet.collision.broadphase;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javabullet.linearmath.AabbUtil2;
+import javabullet.linearmath.SnapshotUtil;
+import javax.vecmath.Vector3f;
+
+/**
+ * Broadphase based on two dynamic AABB trees ({@link Dbvt}), one for static
+ * proxies (these with {@link CollisionFilterGroups#STATIC_FILTER} group) and
+ * one for the rest.<p>
+ *
+ * Tree leaves are fattened by {@link #DBVT_BP_MARGIN} and predicted motion,
+ * so {@link #setAabb} only reinserts proxy when it leaves its fat AABB. New
+ * pairs are searched only for these proxies, which makes the broadphase suitable
+ * for large worlds with mostly static or sleeping objects. The trees also serve
+ * {@link #rayTest} and {@link #aabbTest} queries.
+ *
+ * @author jezek2
+ */
+public class DbvtBroadphase implements BroadphaseInterface {
+
+	public static final float DBVT_BP_MARGIN = 0.05f;
+
+	public static final int DYNAMIC_SET = 0; // dynamic set index
+	public static final int FIXED_SET   = 1; // fixed set index
+	public static final int STAGECOUNT  = 2; // number of stages
+
+	public final Dbvt[] sets = new Dbvt[STAGECOUNT]; // dbvt sets
+	protected OverlappingPairCache pairCache;         // pair cache
+	protected boolean ownsPairCache;
+
+	protected float prediction = 1f/2f;               // velocity prediction
+	protected int dupdates = 1;                       // % of dynamic updates per frame
+	protected int pid;                                // parse id
+	protected int gid;                                // gen id
+
+	private final List<DbvtProxy> moved = new ArrayList<DbvtProxy>();
+
+	private final Vector3f tmpMin = new Vector3f();
+	private final Vector3f tmpMax = new Vector3f();
+	private final Vector3f rayInvDirection = new Vector3f();
+
+	private final NewPairCollide newPairCollide = new NewPairCollide();
+	private final RemoveStalePairCallback removeStalePairCallback = new RemoveStalePairCallback();
+	private final RayCollide rayCollide = new RayCollide();
+	private final AabbCollide aabbCollide = new AabbCollide();
+
+	public DbvtBroadphase() {
+		this(null);
+	}
+
+	public DbvtBroadphase(OverlappingPairCache pairCache) {
+		this.pairCache = pairCache;
+
+		if (pairCache == null) {
+			this.pairCache = new OverlappingPairCache();
+			ownsPairCache = true;
+		}
+
+		for (int i = 0; i < STAGECOUNT; i++) {
+			sets[i] = new Dbvt();
+		}
+	}
+
+	protected boolean isStatic(short collisionFilterGroup) {
+		return (collisionFilterGroup & CollisionFilterGroups.STATIC_FILTER) != 0;
+	}
+
+	/**
+	 * Static proxies can't collide with each other unless the filtering allows it,
+	 * skip searching the (large) static tree in such case.
+	 */
+	private boolean queriesFixedSet(DbvtProxy proxy) {
+		return (proxy.collisionFilterMask & CollisionFilterGroups.STATIC_FILTER) != 0 || pairCache.getOverlapFilterCallback() != null;
+	}
+
+	private void markMoved(DbvtProxy proxy) {
+		if (proxy.updateFrame != pid) {
+			proxy.updateFrame = pid;
+			moved.add(proxy);
+		}
+	}
+
+	public BroadphaseProxy createProxy(Vector3f aabbMin, Vector3f aabbMax, BroadphaseNativeType shapeType, Object userPtr, short collisionFilterGroup, short collisionFilterMask, Dispatcher dispatcher) {
+		DbvtProxy proxy = new DbvtProxy(userPtr, collisionFilterGroup, collisionFilterMask);
+		proxy.aabbMin.set(aabbMin);
+		proxy.aabbMax.set(aabbMax);
+		proxy.uniqueId = ++gid;
+		proxy.stage = isStatic(collisionFilterGroup)? FIXED_SET : DYNAMIC_SET;
+		proxy.leaf = sets[proxy.stage].insert(aabbMin, aabbMax, proxy);
+		markMoved(proxy);
+		return proxy;
+	}
+
+	public void destroyProxy(BroadphaseProxy absproxy, Dispatcher dispatcher) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		sets[proxy.stage].remove(proxy.leaf);
+		proxy.leaf = null;
+		pairCache.removeOverlappingPairsContainingProxy(proxy, dispatcher);
+	}
+
+	public void setAabb(BroadphaseProxy absproxy, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+
+		if (!proxy.leaf.contain(aabbMin, aabbMax)) {
+			// predict motion from movement of the AABB center since last update
+			float vx = ((aabbMin.x + aabbMax.x) - (proxy.aabbMin.x + proxy.aabbMax.x)) * 0.5f * prediction;
+			float vy = ((aabbMin.y + aabbMax.y) - (proxy.aabbMin.y + proxy.aabbMax.y)) * 0.5f * prediction;
+			float vz = ((aabbMin.z + aabbMax.z) - (proxy.aabbMin.z + proxy.aabbMax.z)) * 0.5f * prediction;
+
+			Vector3f fatMin = tmpMin;
+			Vector3f fatMax = tmpMax;
+			fatMin.set(aabbMin.x - DBVT_BP_MARGIN, aabbMin.y - DBVT_BP_MARGIN, aabbMin.z - DBVT_BP_MARGIN);
+			fatMax.set(aabbMax.x + DBVT_BP_MARGIN, aabbMax.y + DBVT_BP_MARGIN, aabbMax.z + DBVT_BP_MARGIN);
+
+			if (vx > 0f) fatMax.x += vx; else fatMin.x += vx;
+			if (vy > 0f) fatMax.y += vy; else fatMin.y += vy;
+			if (vz > 0f) fatMax.z += vz; else fatMin.z += vz;
+
+			sets[proxy.stage].update(proxy.leaf, fatMin, fatMax);
+			markMoved(proxy);
+		}
+
+		proxy.aabbMin.set(aabbMin);
+		proxy.aabbMax.set(aabbMax);
+	}
+
+	public void calculateOverlappingPairs(Dispatcher dispatcher) {
+		// find new pairs for proxies that were created or left their fat AABB
+		for (int i = 0; i < moved.size(); i++) {
+			DbvtProxy proxy = moved.get(i);
+			if (proxy.leaf == null) {
+				// destroyed meanwhile
+				continue;
+			}
+
+			newPairCollide.proxy = proxy;
+			sets[DYNAMIC_SET].collideTV(sets[DYNAMIC_SET].root, proxy.leaf.min, proxy.leaf.max, newPairCollide);
+			if (queriesFixedSet(proxy)) {
+				sets[FIXED_SET].collideTV(sets[FIXED_SET].root, proxy.leaf.min, proxy.leaf.max, newPairCollide);
+			}
+			newPairCollide.addPairs();
+		}
+		newPairCollide.proxy = null;
+
+		// remove pairs whose fat AABBs don't overlap anymore
+		if (moved.size() > 0) {
+			pairCache.processAllOverlappingPairs(removeStalePairCallback, dispatcher);
+		}
+
+		moved.clear();
+		pid++;
+
+		// rebalance dynamic tree, static tree doesn't degrade
+		Dbvt dynamicSet = sets[DYNAMIC_SET];
+		dynamicSet.optimizeIncremental(1 + (dynamicSet.getLeafCount() * dupdates) / 100);
+	}
+
+	public OverlappingPairCache getOverlappingPairCache() {
+		return pairCache;
+	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback) {
+		AabbUtil2.calcRayInvDirection(rayInvDirection, rayFrom, rayTo);
+
+		rayCollide.rayFrom = rayFrom;
+		rayCollide.callback = rayCallback;
+		rayCollide.lambdaMax = rayCallback.lambdaMax;
+		rayCollide.terminated = false;
+		try {
+			for (int i = 0; i < STAGECOUNT && !rayCollide.terminated; i++) {
+				sets[i].rayTest(sets[i].root, rayFrom, rayTo, rayCollide);
+			}
+		}
+		finally {
+			rayCollide.rayFrom = null;
+			rayCollide.callback = null;
+		}
+	}
+
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback) {
+		aabbCollide.aabbMin = aabbMin;
+		aabbCollide.aabbMax = aabbMax;
+		aabbCollide.callback = callback;
+		aabbCollide.terminated = false;
+		try {
+			for (int i = 0; i < STAGECOUNT && !aabbCollide.terminated; i++) {
+				sets[i].collideTV(sets[i].root, aabbMin, aabbMax, aabbCollide);
+			}
+		}
+		finally {
+			aabbCollide.aabbMin = null;
+			aabbCollide.aabbMax = null;
+			aabbCollide.callback = null;
+		}
+	}
+
+	public int calculateSnapshotSize() {
+		return 8;
+	}
+
+	/**
+	 * Writes list of proxies waiting for search of new pairs. The shape of trees
+	 * is not stored, it doesn't affect the results.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(pid);
+		buf.putInt(getMovedIndex(null));
+	}
+	
+	/**
+	 * Returns index of proxy in the list of moved proxies ignoring destroyed ones,
+	 * or number of such proxies when null is passed.
+	 */
+	private int getMovedIndex(DbvtProxy proxy) {
+		int index = 0;
+		for (int i = 0; i < moved.size(); i++) {
+			DbvtProxy p = moved.get(i);
+			if (p == proxy) {
+				return index;
+			}
+			if (p.leaf != null) {
+				index++;
+			}
+		}
+		return proxy == null? index : -1;
+	}
+
+	public void readSnapshot(ByteBuffer buf) {
+		pid = buf.getInt();
+		int count = buf.getInt();
+		if (count < 0) {
+			throw new IllegalArgumentException("invalid number of moved proxies in snapshot");
+		}
+		
+		// filled by readProxySnapshot
+		moved.clear();
+		for (int i = 0; i < count; i++) {
+			moved.add(null);
+		}
+	}
+
+	public int getProxySnapshotSize() {
+		return 4 + 4*SnapshotUtil.VECTOR_SIZE;
+	}
+
+	public void writeProxySnapshot(BroadphaseProxy absproxy, ByteBuffer buf) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		buf.putInt(proxy.updateFrame == pid? getMovedIndex(proxy) : -1);
+		SnapshotUtil.putVector(buf, proxy.aabbMin);
+		SnapshotUtil.putVector(buf, proxy.aabbMax);
+		SnapshotUtil.putVector(buf, proxy.leaf.min);
+		SnapshotUtil.putVector(buf, proxy.leaf.max);
+	}
+
+	public void readProxySnapshot(BroadphaseProxy absproxy, ByteBuffer buf) {
+		DbvtProxy proxy = (DbvtProxy)absproxy;
+		int movedIndex = buf.getInt();
+		if (movedIndex >= 0) {
+			moved.set(movedIndex, proxy);
+			proxy.updateFrame = pid;
+		}
+		else {
+			proxy.updateFrame = pid - 1;
+		}
+		SnapshotUtil.getVector(buf, proxy.aabbMin);
+		SnapshotUtil.getVector(buf, proxy.aabbMax);
+
+		Vector3f fatMin = tmpMin;
+		Vector3f fatMax = tmpMax;
+		SnapshotUtil.getVector(buf, fatMin);
+		SnapshotUtil.getVector(buf, fatMax);
+		if (!fatMin.equals(proxy.leaf.min) || !fatMax.equals(proxy.leaf.max)) {
+			sets[proxy.stage].update(proxy.leaf, fatMin, fatMax);
+		}
+	}
+
+	public float getVelocityPrediction() {
+		return prediction;
+	}
+
+	public void setVelocityPrediction(float prediction) {
+		this.prediction = prediction;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Collects overlapping proxies, pairs are added sorted by id of the other proxy
+	 * so the order of pairs doesn't depend on the shape of the trees.
+	 */
+	private class NewPairCollide extends Dbvt.ICollide {
+		public DbvtProxy proxy;
+		private DbvtProxy[] found = new DbvtProxy[16];
+		private int foundCount;
+
+		public boolean process(Dbvt.Node leaf) {
+			DbvtProxy other = (DbvtProxy)leaf.data;
+			if (other == proxy) {
+				return true;
+			}
+
+			// pair of two moved proxies is found from the one with lower id
+			if (other.updateFrame == pid && other.uniqueId < proxy.uniqueId && (proxy.stage == DYNAMIC_SET || queriesFixedSet(other))) {
+				return true;
+			}
+
+			if (foundCount == found.length) {
+				DbvtProxy[] newFound = new DbvtProxy[foundCount << 1];
+				System.arraycopy(found, 0, newFound, 0, foundCount);
+				found = newFound;
+			}
+			
+			// insertion sort, there are usually few new overlaps
+			int i = foundCount++;
+			while (i > 0 && found[i-1].uniqueId > other.uniqueId) {
+				found[i] = found[i-1];
+				i--;
+			}
+			found[i] = other;
+			return true;
+		}
+		
+		public void addPairs() {
+			for (int i = 0; i < foundCount; i++) {
+				DbvtProxy other = found[i];
+				found[i] = null;
+				
+				// keep stable order of proxies in pairs
+				if (proxy.uniqueId < other.uniqueId) {
+					pairCache.addOverlappingPair(proxy, other);
+				}
+				else {
+					pairCache.addOverlappingPair(other, proxy);
+				}
+			}
+			foundCount = 0;
+		}
+	}
+
+	private class RemoveStalePairCallback implements OverlapCallback {
+		public boolean processOverlap(BroadphasePair pair) {
+			DbvtProxy pa = (DbvtProxy)pair.pProxy0;
+			DbvtProxy pb = (DbvtProxy)pair.pProxy1;
+
+			if (pa.updateFrame == pid || pb.updateFrame == pid) {
+				return !pa.leaf.intersect(pb.leaf.min, pb.leaf.max);
+			}
+			return false;
+		}
+	}
+
+	private class RayCollide extends Dbvt.ICollide {
+		public Vector3f rayFrom;
+		public BroadphaseRayCallback callback;
+		public boolean terminated;
+
+		public boolean process(Dbvt.Node leaf) {
+			DbvtProxy proxy = (DbvtProxy)leaf.data;
+
+			// leaves are fattened, test actual AABB
+			if (AabbUtil2.rayAabb2(rayFrom, rayInvDirection, proxy.aabbMin, proxy.aabbMax, callback.lambdaMax)) {
+				if (!callback.process(proxy)) {
+					terminated = true;
+					return false;
+				}
+				lambdaMax = callback.lambdaMax;
+			}
+			return true;
+		}
+	}
+
+	private static class AabbCollide extends Dbvt.ICollide {
+		public Vector3f aabbMin;
+		public Vector3f aabbMax;
+		public BroadphaseAabbCallback callback;
+		public boolean terminated;
+
+		public boolean process(Dbvt.Node leaf) {
+			DbvtProxy proxy = (DbvtProxy)leaf.data;
+
+			// leaves are fattened, test actual AABB
+			if (AabbUtil2.testAabbAgainstAabb2(aabbMin, aabbMax, proxy.aabbMin, proxy.aabbMax)) {
+				if (!callback.process(proxy)) {
+					terminated = true;
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
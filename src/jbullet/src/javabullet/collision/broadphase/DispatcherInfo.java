@@ -39,11 +39,13 @@ public class DispatcherInfo {
 	public IDebugDraw debugDraw;
 	public boolean enableSatConvex;
 	public boolean enableSPU;
+	public float allowedCcdPenetration;
 	//btStackAlloc*	m_stackAllocator;
 
 	public DispatcherInfo() {
 		dispatchFunc = DispatchFunc.DISPATCH_DISCRETE;
 		timeOfImpact = 1f;
+		allowedCcdPenetration = 0.04f;
 	}
 	
 }
@@ -23,27 +23,43 @@
 
 package javabullet.collision.broadphase;
 
-import java.util.Collection;
-import java.util.Iterator;
-import javabullet.BulletGlobals;
-import javabullet.BulletPool;
+import java.util.ArrayList;
+import java.util.List;
 import javabullet.ObjectPool;
-import javabullet.util.HashUtil;
-import javabullet.util.HashUtil.IMap;
-import javabullet.util.HashUtil.IObjectProcedure;
+import javabullet.SimulationContext;
 
 /**
+ * OverlappingPairCache maintains the pairs of overlapping proxies.<p>
+ * 
+ * Pairs are stored in a dense array used for iteration, and found by an open
+ * addressed hash table keyed by the proxy {@link BroadphaseProxy#uniqueId uniqueId}s
+ * packed into long, so lookups neither allocate nor call equals/hashCode. Each proxy
+ * also links the pairs it is part of, so removing or cleaning pairs of single proxy
+ * is proportional to the number of its pairs only.<p>
+ * 
+ * Broadphases must assign unique ids to live proxies.
  *
  * @author jezek2
  */
 public class OverlappingPairCache {
 
-	private final ObjectPool<BroadphasePair> pairsPool = BulletPool.get(BroadphasePair.class);
+	private static final int INITIAL_TABLE_SIZE = 256;
+	
+	// pairs are kept between steps, so they're not taken from the context of constructing thread
+	private final ObjectPool<BroadphasePair> pairsPool = new ObjectPool<BroadphasePair>(BroadphasePair.class);
+	
+	// dense array of pairs
+	private final List<BroadphasePair> overlappingPairArray = new ArrayList<BroadphasePair>();
+	
+	// open addressed table (linear probing), maps packed ids to index in overlappingPairArray
+	private long[] tableKeys = new long[INITIAL_TABLE_SIZE];
+	private int[] tableIndices = new int[INITIAL_TABLE_SIZE];
+	private int tableMask = INITIAL_TABLE_SIZE - 1;
 	
-	private final IMap<BroadphasePair,BroadphasePair> overlappingPairs = HashUtil.createMap();
 	private OverlapFilterCallback overlapFilterCallback;
 
 	public OverlappingPairCache() {
+		clearTable(tableIndices);
 	}
 
 	/**
@@ -51,40 +67,51 @@ public class OverlappingPairCache {
 	 * no new pair is created and the old one is returned.
 	 */
 	public BroadphasePair addOverlappingPair(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
-		BulletGlobals.gAddedPairs++;
+		SimulationContext.get().counters.numAddedPairs++;
 
 		if (!needsBroadphaseCollision(proxy0, proxy1)) {
 			return null;
 		}
 
+		long key = getKey(proxy0, proxy1);
+		int slot = findSlot(key);
+		if (tableIndices[slot] != -1) {
+			return overlappingPairArray.get(tableIndices[slot]);
+		}
+		
 		BroadphasePair pair = pairsPool.get();
 		pair.set(proxy0, proxy1);
+		linkPair(pair);
+
+		tableKeys[slot] = key;
+		tableIndices[slot] = overlappingPairArray.size();
+		overlappingPairArray.add(pair);
 		
-		BroadphasePair old = overlappingPairs.get(pair);
-		if (old != null) {
-			pairsPool.release(pair);
-			return old;
+		// keep load factor at most 1/2
+		if (overlappingPairArray.size() * 2 > tableIndices.length) {
+			growTable();
 		}
-		overlappingPairs.put(pair, pair);
+		
 		return pair;
 	}
 
 	public Object removeOverlappingPair(BroadphaseProxy proxy0, BroadphaseProxy proxy1, Dispatcher dispatcher) {
-		BulletGlobals.gRemovePairs++;
+		SimulationContext.get().counters.numRemovedPairs++;
 
-		BroadphasePair key = pairsPool.get();
-		key.set(proxy0, proxy1);
-		BroadphasePair pair = overlappingPairs.remove(key);
-		pairsPool.release(key);
-		
-		if (pair == null) {
+		int slot = findSlot(getKey(proxy0, proxy1));
+		int index = tableIndices[slot];
+		if (index == -1) {
 			return null;
 		}
 
+		BroadphasePair pair = overlappingPairArray.get(index);
+		Object userInfo = pair.userInfo;
+		
 		cleanOverlappingPair(pair, dispatcher);
+		removePair(slot, index);
 		pairsPool.release(pair);
 
-		return pair.userInfo;
+		return userInfo;
 	}
 
 	public boolean needsBroadphaseCollision(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
@@ -98,41 +125,49 @@ public class OverlappingPairCache {
 		return collides;
 	}
 
-	private class ProcessAllOverlappingPairsCallback implements IObjectProcedure<BroadphasePair> {
-		public OverlapCallback callback;
-		public Dispatcher dispatcher;
-		
-		public boolean execute(BroadphasePair pair) {
+	/**
+	 * Calls callback for every pair, pairs for which the callback returns true are removed.
+	 * Callback must not add or remove pairs.
+	 */
+	public void processAllOverlappingPairs(OverlapCallback callback, Dispatcher dispatcher) {
+		int i = 0;
+		while (i < overlappingPairArray.size()) {
+			BroadphasePair pair = overlappingPairArray.get(i);
 			if (callback.processOverlap(pair)) {
 				//removeOverlappingPair(pair.pProxy0, pair.pProxy1, dispatcher);
 				cleanOverlappingPair(pair, dispatcher);
-				BulletGlobals.gRemovePairs++;
-				BulletGlobals.gOverlappingPairs--;
+				SimulationContext.get().counters.numRemovedPairs++;
+				
+				// last pair is moved to this index, process it next
+				removePair(findSlot(getKey(pair.pProxy0, pair.pProxy1)), i);
 				pairsPool.release(pair);
-				return false;
 			}
-			return true;
+			else {
+				i++;
+			}
 		}
 	}
-	
-	private ProcessAllOverlappingPairsCallback processAllOverlappingPairsCallback = new ProcessAllOverlappingPairsCallback();
-	
-	public void processAllOverlappingPairs(OverlapCallback callback, Dispatcher dispatcher) {
-		processAllOverlappingPairsCallback.callback = callback;
-		processAllOverlappingPairsCallback.dispatcher = dispatcher;
-		overlappingPairs.retainEntries(processAllOverlappingPairsCallback);
-	}
 
 	public void removeOverlappingPairsContainingProxy(BroadphaseProxy proxy, Dispatcher dispatcher) {
-		processAllOverlappingPairs(new RemovePairCallback(proxy), dispatcher);
+		BroadphasePair pair = proxy.firstPair;
+		while (pair != null) {
+			BroadphasePair next = getNext(pair, proxy);
+			removeOverlappingPair(pair.pProxy0, pair.pProxy1, dispatcher);
+			pair = next;
+		}
 	}
 
 	public void cleanProxyFromPairs(BroadphaseProxy proxy, Dispatcher dispatcher) {
-		processAllOverlappingPairs(new CleanPairCallback(proxy, this, dispatcher), dispatcher);
+		for (BroadphasePair pair = proxy.firstPair; pair != null; pair = getNext(pair, proxy)) {
+			cleanOverlappingPair(pair, dispatcher);
+		}
 	}
 
-	public IMap<BroadphasePair,BroadphasePair> getOverlappingPairArray() {
-		return overlappingPairs;
+	/**
+	 * Returns dense array of all pairs, must not be modified.
+	 */
+	public List<BroadphasePair> getOverlappingPairArray() {
+		return overlappingPairArray;
 	}
 
 	public void cleanOverlappingPair(BroadphasePair pair, Dispatcher dispatcher) {
@@ -144,17 +179,14 @@ public class OverlappingPairCache {
 	}
 
 	public BroadphasePair findPair(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
-		BulletGlobals.gFindPairs++;
+		SimulationContext.get().counters.numFindPairs++;
 
-		BroadphasePair key = pairsPool.get();
-		key.set(proxy0, proxy1);
-		BroadphasePair value = overlappingPairs.get(key);
-		pairsPool.release(key);
-		return value;
+		int index = tableIndices[findSlot(getKey(proxy0, proxy1))];
+		return index != -1? overlappingPairArray.get(index) : null;
 	}
 
 	public int getCount() {
-		return overlappingPairs.size();
+		return overlappingPairArray.size();
 	}
 
 //	btBroadphasePair* GetPairs() { return m_pairs; }
@@ -167,42 +199,188 @@ public class OverlappingPairCache {
 	}
 
 	public int getNumOverlappingPairs() {
-		return overlappingPairs.size();
+		return overlappingPairArray.size();
+	}
+	
+	/**
+	 * Moves pair to given index in the dense array, pair previously stored there
+	 * takes its place. Used for restoring order of pairs from snapshot.
+	 */
+	public void movePair(BroadphasePair pair, int index) {
+		int slot = findSlot(getKey(pair.pProxy0, pair.pProxy1));
+		int oldIndex = tableIndices[slot];
+		assert (overlappingPairArray.get(oldIndex) == pair);
+		if (oldIndex == index) {
+			return;
+		}
+		
+		BroadphasePair other = overlappingPairArray.get(index);
+		overlappingPairArray.set(index, pair);
+		overlappingPairArray.set(oldIndex, other);
+		tableIndices[slot] = index;
+		tableIndices[findSlot(getKey(other.pProxy0, other.pProxy1))] = oldIndex;
+	}
+
+	/**
+	 * Exchanges proxies of the pair, algorithm of the pair is destroyed as it
+	 * depends on order of the objects.
+	 */
+	public void swapPairProxies(BroadphasePair pair, Dispatcher dispatcher) {
+		cleanOverlappingPair(pair, dispatcher);
+		unlinkPair(pair);
+		BroadphaseProxy tmp = pair.pProxy0;
+		pair.pProxy0 = pair.pProxy1;
+		pair.pProxy1 = tmp;
+		linkPair(pair);
 	}
 	
 	////////////////////////////////////////////////////////////////////////////
 
-	private static class RemovePairCallback implements OverlapCallback {
-		private BroadphaseProxy obsoleteProxy;
+	private static long getKey(BroadphaseProxy proxy0, BroadphaseProxy proxy1) {
+		int id0 = proxy0.uniqueId;
+		int id1 = proxy1.uniqueId;
+		if (id0 > id1) {
+			int tmp = id0;
+			id0 = id1;
+			id1 = tmp;
+		}
+		return ((long)id0 << 32) | (id1 & 0xFFFFFFFFL);
+	}
+	
+	private static int hash(long key) {
+		// Fibonacci hashing, upper bits of the product are well mixed
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+	
+	/**
+	 * Returns slot containing the key, or empty slot where it should be inserted.
+	 */
+	private int findSlot(long key) {
+		int slot = hash(key) & tableMask;
+		while (tableIndices[slot] != -1 && tableKeys[slot] != key) {
+			slot = (slot + 1) & tableMask;
+		}
+		return slot;
+	}
 
-		public RemovePairCallback(BroadphaseProxy obsoleteProxy) {
-			this.obsoleteProxy = obsoleteProxy;
+	/**
+	 * Removes pair at given slot and index, last pair in the dense array is moved to the index.
+	 */
+	private void removePair(int slot, int index) {
+		unlinkPair(overlappingPairArray.get(index));
+		
+		int lastIndex = overlappingPairArray.size() - 1;
+		if (index != lastIndex) {
+			BroadphasePair last = overlappingPairArray.get(lastIndex);
+			overlappingPairArray.set(index, last);
+			tableIndices[findSlot(getKey(last.pProxy0, last.pProxy1))] = index;
+		}
+		overlappingPairArray.remove(lastIndex);
+		
+		// backward shift deletion, keeps probe sequences intact without tombstones
+		int mask = tableMask;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (tableIndices[next] != -1) {
+			int ideal = hash(tableKeys[next]) & mask;
+			// move entry to the hole if the hole lies cyclically between its ideal slot and its slot
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				tableKeys[hole] = tableKeys[next];
+				tableIndices[hole] = tableIndices[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		tableIndices[hole] = -1;
+	}
+	
+	private void growTable() {
+		int size = tableIndices.length << 1;
+		tableKeys = new long[size];
+		tableIndices = new int[size];
+		tableMask = size - 1;
+		clearTable(tableIndices);
+		
+		for (int i = 0; i < overlappingPairArray.size(); i++) {
+			BroadphasePair pair = overlappingPairArray.get(i);
+			long key = getKey(pair.pProxy0, pair.pProxy1);
+			int slot = findSlot(key);
+			tableKeys[slot] = key;
+			tableIndices[slot] = i;
+		}
+	}
+	
+	private static void clearTable(int[] indices) {
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = -1;
 		}
+	}
+
+	private static BroadphasePair getNext(BroadphasePair pair, BroadphaseProxy proxy) {
+		return pair.pProxy0 == proxy? pair.next0 : pair.next1;
+	}
 
-		public boolean processOverlap(BroadphasePair pair) {
-			return ((pair.pProxy0 == obsoleteProxy) ||
-					(pair.pProxy1 == obsoleteProxy));
+	private static void setNext(BroadphasePair pair, BroadphaseProxy proxy, BroadphasePair next) {
+		if (pair.pProxy0 == proxy) {
+			pair.next0 = next;
+		}
+		else {
+			pair.next1 = next;
 		}
 	}
 
-	private static class CleanPairCallback implements OverlapCallback {
-		private BroadphaseProxy cleanProxy;
-		private OverlappingPairCache pairCache;
-		private Dispatcher dispatcher;
+	private static void setPrev(BroadphasePair pair, BroadphaseProxy proxy, BroadphasePair prev) {
+		if (pair.pProxy0 == proxy) {
+			pair.prev0 = prev;
+		}
+		else {
+			pair.prev1 = prev;
+		}
+	}
 
-		public CleanPairCallback(BroadphaseProxy cleanProxy, OverlappingPairCache pairCache, Dispatcher dispatcher) {
-			this.cleanProxy = cleanProxy;
-			this.pairCache = pairCache;
-			this.dispatcher = dispatcher;
+	private static void linkPair(BroadphasePair pair) {
+		BroadphaseProxy proxy0 = pair.pProxy0;
+		pair.prev0 = null;
+		pair.next0 = proxy0.firstPair;
+		if (pair.next0 != null) {
+			setPrev(pair.next0, proxy0, pair);
 		}
+		proxy0.firstPair = pair;
 
-		public boolean processOverlap(BroadphasePair pair) {
-			if ((pair.pProxy0 == cleanProxy) ||
-					(pair.pProxy1 == cleanProxy)) {
-				pairCache.cleanOverlappingPair(pair, dispatcher);
-			}
-			return false;
+		BroadphaseProxy proxy1 = pair.pProxy1;
+		pair.prev1 = null;
+		pair.next1 = proxy1.firstPair;
+		if (pair.next1 != null) {
+			setPrev(pair.next1, proxy1, pair);
+		}
+		proxy1.firstPair = pair;
+	}
+
+	private static void unlinkPair(BroadphasePair pair) {
+		BroadphaseProxy proxy0 = pair.pProxy0;
+		if (pair.prev0 != null) {
+			setNext(pair.prev0, proxy0, pair.next0);
+		}
+		else {
+			proxy0.firstPair = pair.next0;
 		}
+		if (pair.next0 != null) {
+			setPrev(pair.next0, proxy0, pair.prev0);
+		}
+
+		BroadphaseProxy proxy1 = pair.pProxy1;
+		if (pair.prev1 != null) {
+			setNext(pair.prev1, proxy1, pair.next1);
+		}
+		else {
+			proxy1.firstPair = pair.next1;
+		}
+		if (pair.next1 != null) {
+			setPrev(pair.next1, proxy1, pair.prev1);
+		}
+
+		pair.prev0 = pair.next0 = null;
+		pair.prev1 = pair.next1 = null;
 	}
 	
 }
@@ -23,8 +23,11 @@
 
 package javabullet.collision.broadphase;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.linearmath.AabbUtil2;
+import javabullet.linearmath.SnapshotUtil;
 import javax.vecmath.Vector3f;
 
 /**
@@ -38,8 +41,11 @@ public class SimpleBroadphase implements BroadphaseInterface {
 
 	private final List<SimpleBroadphaseProxy> handles = new ArrayList<SimpleBroadphaseProxy>();
 	private int maxHandles;						// max number of handles
+	private int gid;							// last assigned unique id, ids must not be reused by pair cache
 	private OverlappingPairCache pairCache;
 	private boolean ownsPairCache;
+	
+	private final Vector3f rayInvDirection = new Vector3f();
 
 	public SimpleBroadphase() {
 		this(16384, null);
@@ -62,7 +68,7 @@ public class SimpleBroadphase implements BroadphaseInterface {
 		assert (aabbMin.x <= aabbMax.x && aabbMin.y <= aabbMax.y && aabbMin.z <= aabbMax.z);
 
 		SimpleBroadphaseProxy proxy = new SimpleBroadphaseProxy(aabbMin, aabbMax, shapeType, userPtr, collisionFilterGroup, collisionFilterMask);
-		proxy.uniqueId = handles.size();
+		proxy.uniqueId = ++gid;
 		handles.add(proxy);
 		return proxy;
 	}
@@ -75,14 +81,14 @@ public class SimpleBroadphase implements BroadphaseInterface {
 
 	public void setAabb(BroadphaseProxy proxy, Vector3f aabbMin, Vector3f aabbMax, Dispatcher dispatcher) {
 		SimpleBroadphaseProxy sbp = (SimpleBroadphaseProxy)proxy;
-		sbp.min.set(aabbMin);
-		sbp.max.set(aabbMax);
+		sbp.aabbMin.set(aabbMin);
+		sbp.aabbMax.set(aabbMax);
 	}
 
 	private static boolean aabbOverlap(SimpleBroadphaseProxy proxy0, SimpleBroadphaseProxy proxy1) {
-		return proxy0.min.x <= proxy1.max.x && proxy1.min.x <= proxy0.max.x &&
-				proxy0.min.y <= proxy1.max.y && proxy1.min.y <= proxy0.max.y &&
-				proxy0.min.z <= proxy1.max.z && proxy1.min.z <= proxy0.max.z;
+		return proxy0.aabbMin.x <= proxy1.aabbMax.x && proxy1.aabbMin.x <= proxy0.aabbMax.x &&
+				proxy0.aabbMin.y <= proxy1.aabbMax.y && proxy1.aabbMin.y <= proxy0.aabbMax.y &&
+				proxy0.aabbMin.z <= proxy1.aabbMax.z && proxy1.aabbMin.z <= proxy0.aabbMax.z;
 	}
 
 	public void calculateOverlappingPairs(Dispatcher dispatcher) {
@@ -109,4 +115,53 @@ public class SimpleBroadphase implements BroadphaseInterface {
 	public OverlappingPairCache getOverlappingPairCache() {
 		return pairCache;
 	}
+
+	public void rayTest(Vector3f rayFrom, Vector3f rayTo, BroadphaseRayCallback rayCallback) {
+		AabbUtil2.calcRayInvDirection(rayInvDirection, rayFrom, rayTo);
+
+		for (int i=0; i<handles.size(); i++) {
+			SimpleBroadphaseProxy proxy = handles.get(i);
+			if (AabbUtil2.rayAabb2(rayFrom, rayInvDirection, proxy.aabbMin, proxy.aabbMax, rayCallback.lambdaMax)) {
+				if (!rayCallback.process(proxy)) {
+					return;
+				}
+			}
+		}
+	}
+
+	public void aabbTest(Vector3f aabbMin, Vector3f aabbMax, BroadphaseAabbCallback callback) {
+		for (int i=0; i<handles.size(); i++) {
+			SimpleBroadphaseProxy proxy = handles.get(i);
+			if (AabbUtil2.testAabbAgainstAabb2(aabbMin, aabbMax, proxy.aabbMin, proxy.aabbMax)) {
+				if (!callback.process(proxy)) {
+					return;
+				}
+			}
+		}
+	}
+
+	public int calculateSnapshotSize() {
+		return 0;
+	}
+
+	public void writeSnapshot(ByteBuffer buf) {
+	}
+
+	public void readSnapshot(ByteBuffer buf) {
+	}
+
+	public int getProxySnapshotSize() {
+		return 2*SnapshotUtil.VECTOR_SIZE;
+	}
+
+	public void writeProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		SnapshotUtil.putVector(buf, proxy.aabbMin);
+		SnapshotUtil.putVector(buf, proxy.aabbMax);
+	}
+
+	public void readProxySnapshot(BroadphaseProxy proxy, ByteBuffer buf) {
+		SnapshotUtil.getVector(buf, proxy.aabbMin);
+		SnapshotUtil.getVector(buf, proxy.aabbMax);
+	}
+	
 }
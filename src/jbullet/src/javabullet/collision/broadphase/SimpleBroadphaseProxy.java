@@ -31,16 +31,13 @@ import javax.vecmath.Vector3f;
  */
 public class SimpleBroadphaseProxy extends BroadphaseProxy {
 
-	protected final Vector3f min = new Vector3f();
-	protected final Vector3f max = new Vector3f();
-	
 	public SimpleBroadphaseProxy() {
 	}
 
 	public SimpleBroadphaseProxy(Vector3f minpt, Vector3f maxpt, BroadphaseNativeType shapeType, Object userPtr, short collisionFilterGroup, short collisionFilterMask) {
 		super(userPtr, collisionFilterGroup, collisionFilterMask);
-		this.min.set(minpt);
-		this.max.set(maxpt);
+		this.aabbMin.set(minpt);
+		this.aabbMax.set(maxpt);
 	}
 	
 }
@@ -0,0 +1,418 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.collision.dispatch;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import javabullet.BulletGlobals;
+import javabullet.collision.broadphase.BroadphaseProxy;
+import javabullet.collision.broadphase.Dbvt;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionWorld.LocalRayResult;
+import javabullet.collision.dispatch.CollisionWorld.RayResultCallback;
+import javabullet.linearmath.AabbUtil2;
+import javabullet.linearmath.Transform;
+import javabullet.util.WorkerGroup;
+import javax.vecmath.Vector3f;
+
+/**
+ * Casts many rays against {@link CollisionWorld} at once, finding closest hit
+ * for each ray. Rays and results are passed in packed arrays, xyz triplets are
+ * used for vectors (ray i starts at rayFrom[i*3+0..2]).<p>
+ * 
+ * Candidate objects are found using own {@link Dbvt} tree of object AABBs, it's
+ * updated at the start of each batch (only objects leaving their fattened AABB
+ * are reinserted). AABBs are taken from the broadphase proxies, so like for
+ * {@link CollisionWorld#rayTest} objects moved outside of the simulation step are
+ * found at their new position after {@link CollisionWorld#updateAabbs}. The tree
+ * is read-only during the batch, so rays can be processed
+ * on multiple threads, see {@link #setParallel}. No memory is allocated per ray.<p>
+ * 
+ * The world must not be modified while the batch is running.
+ * 
+ * @author jezek2
+ */
+public class BatchedRayQuery {
+
+	public static final int DEFAULT_PARALLEL_BATCH_SIZE = 64;
+
+	protected final CollisionWorld world;
+	protected final Dbvt tree = new Dbvt();
+
+	private ObjectEntry[] entries = new ObjectEntry[0];
+	private int numEntries;
+	private final Vector3f tmpMin = new Vector3f();
+	private final Vector3f tmpMax = new Vector3f();
+
+	private final WorkerGroup workerGroup = new WorkerGroup();
+	private RayWorker[] workers = new RayWorker[] { new RayWorker() };
+	private int parallelBatchSize = DEFAULT_PARALLEL_BATCH_SIZE;
+	private final AtomicInteger nextBatch = new AtomicInteger();
+
+	// current batch:
+	private float[] rayFrom;
+	private float[] rayTo;
+	private int numRays;
+	private float[] hitFractions;
+	private float[] hitNormals;
+	private int[] hitObjects;
+	private short collisionFilterMask;
+
+	public BatchedRayQuery(CollisionWorld world) {
+		this.world = world;
+	}
+
+	/**
+	 * Enables processing of rays on multiple threads.
+	 * 
+	 * @param executor executor running the worker tasks, or null to disable parallel processing
+	 * @param numThreads number of threads processing the rays including the calling thread
+	 */
+	public void setParallel(Executor executor, int numThreads) {
+		workerGroup.setExecutor(executor, numThreads);
+		numThreads = workerGroup.getNumThreads();
+
+		RayWorker[] newWorkers = new RayWorker[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			newWorkers[i] = i < workers.length? workers[i] : new RayWorker();
+		}
+		workers = newWorkers;
+	}
+
+	public int getParallelThreadCount() {
+		return workers.length;
+	}
+
+	public int getParallelBatchSize() {
+		return parallelBatchSize;
+	}
+
+	/**
+	 * Sets number of rays processed by worker at once, batching doesn't affect the
+	 * results, only load balancing.
+	 */
+	public void setParallelBatchSize(int parallelBatchSize) {
+		if (parallelBatchSize < 1) {
+			throw new IllegalArgumentException("parallelBatchSize must be positive");
+		}
+		this.parallelBatchSize = parallelBatchSize;
+	}
+
+	public void rayTest(float[] rayFrom, float[] rayTo, int numRays, float[] hitFractions, float[] hitNormals, int[] hitObjects) {
+		rayTest(rayFrom, rayTo, numRays, hitFractions, hitNormals, hitObjects, (short)-1);
+	}
+
+	/**
+	 * Finds closest hit for each ray. Missed rays have hit fraction of 1, zero normal
+	 * and object index of -1.
+	 * 
+	 * @param rayFrom ray start points (3 floats per ray)
+	 * @param rayTo ray end points (3 floats per ray)
+	 * @param numRays number of rays
+	 * @param hitFractions output hit fractions (1 float per ray)
+	 * @param hitNormals output hit normals in world space (3 floats per ray), can be null
+	 * @param hitObjects output indices of hit objects in {@link CollisionWorld#getCollisionObjectArray} (1 int per ray), can be null
+	 * @param collisionFilterMask only objects with matching collision filter group are tested
+	 */
+	public void rayTest(float[] rayFrom, float[] rayTo, int numRays, float[] hitFractions, float[] hitNormals, int[] hitObjects, short collisionFilterMask) {
+		if (rayFrom.length < numRays*3 || rayTo.length < numRays*3 || hitFractions.length < numRays ||
+				(hitNormals != null && hitNormals.length < numRays*3) || (hitObjects != null && hitObjects.length < numRays)) {
+			throw new IllegalArgumentException("arrays are too small for "+numRays+" rays");
+		}
+
+		updateTree();
+
+		this.rayFrom = rayFrom;
+		this.rayTo = rayTo;
+		this.numRays = numRays;
+		this.hitFractions = hitFractions;
+		this.hitNormals = hitNormals;
+		this.hitObjects = hitObjects;
+		this.collisionFilterMask = collisionFilterMask;
+
+		try {
+			int numBatches = (numRays + parallelBatchSize - 1) / parallelBatchSize;
+			if (workerGroup.getExecutor() != null && numBatches > 1) {
+				rayTestParallel(numBatches);
+			}
+			else {
+				RayWorker worker = workers[0];
+				worker.init(this, 0);
+				try {
+					for (int i = 0; i < numRays; i++) {
+						worker.castRay(i);
+					}
+				}
+				finally {
+					worker.init(null, 0);
+				}
+			}
+		}
+		finally {
+			this.rayFrom = null;
+			this.rayTo = null;
+			this.hitFractions = null;
+			this.hitNormals = null;
+			this.hitObjects = null;
+		}
+	}
+
+	private void rayTestParallel(int numBatches) {
+		RayWorker[] workers = this.workers;
+		int numWorkers = Math.min(workers.length, numBatches);
+
+		nextBatch.set(0);
+		for (int i = 0; i < numWorkers; i++) {
+			workers[i].init(this, numBatches);
+		}
+		workerGroup.run(workers, numWorkers);
+	}
+
+	/**
+	 * Returns collision object for index reported by last {@link #rayTest}.
+	 */
+	public CollisionObject getCollisionObject(int index) {
+		return entries[index].collisionObject;
+	}
+
+	/**
+	 * Synchronizes the tree with objects in the world. Called automatically
+	 * at the start of each batch.
+	 */
+	public void updateTree() {
+		List<CollisionObject> objects = world.getCollisionObjectArray();
+		int num = objects.size();
+
+		if (entries.length < num) {
+			ObjectEntry[] newEntries = new ObjectEntry[Math.max(num, entries.length << 1)];
+			System.arraycopy(entries, 0, newEntries, 0, entries.length);
+			for (int i = entries.length; i < newEntries.length; i++) {
+				newEntries[i] = new ObjectEntry(i);
+			}
+			entries = newEntries;
+		}
+
+		for (int i = 0; i < num; i++) {
+			CollisionObject colObj = objects.get(i);
+			ObjectEntry entry = entries[i];
+			BroadphaseProxy proxy = colObj.getBroadphaseHandle();
+
+			if (entry.collisionObject != colObj || proxy == null) {
+				entry.remove(tree);
+				entry.collisionObject = colObj;
+			}
+			if (proxy == null) {
+				continue;
+			}
+
+			entry.collisionFilterGroup = proxy.collisionFilterGroup;
+
+			// broadphase keeps AABBs of active objects up to date, so static and
+			// sleeping objects are not recomputed here
+
+			// convex cast reports hits within tolerance, these can be slightly outside
+			// of the AABB, don't let them be pruned by closer hits
+			float margin = BulletGlobals.CONVEX_DISTANCE_MARGIN;
+			entry.aabbMin.set(proxy.aabbMin.x - margin, proxy.aabbMin.y - margin, proxy.aabbMin.z - margin);
+			entry.aabbMax.set(proxy.aabbMax.x + margin, proxy.aabbMax.y + margin, proxy.aabbMax.z + margin);
+			entry.update(tree, tmpMin, tmpMax);
+		}
+
+		for (int i = num; i < numEntries; i++) {
+			entries[i].remove(tree);
+			entries[i].collisionObject = null;
+		}
+		numEntries = num;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	private static class ObjectEntry {
+		public final int index;
+		public CollisionObject collisionObject;
+		public short collisionFilterGroup;
+		public final Vector3f aabbMin = new Vector3f();
+		public final Vector3f aabbMax = new Vector3f();
+		public Dbvt.Node leaf;
+
+		public ObjectEntry(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Inserts the object into the tree, or reinserts it when it's not within
+		 * the fattened AABB anymore. Called on the thread owning the query only.
+		 */
+		public void update(Dbvt tree, Vector3f tmpMin, Vector3f tmpMax) {
+			if (leaf != null && leaf.contain(aabbMin, aabbMax)) {
+				return;
+			}
+
+			float margin = DbvtBroadphase.DBVT_BP_MARGIN;
+			tmpMin.set(aabbMin.x - margin, aabbMin.y - margin, aabbMin.z - margin);
+			tmpMax.set(aabbMax.x + margin, aabbMax.y + margin, aabbMax.z + margin);
+
+			if (leaf == null) {
+				leaf = tree.insert(tmpMin, tmpMax, this);
+			}
+			else {
+				tree.update(leaf, tmpMin, tmpMax);
+			}
+		}
+
+		public void remove(Dbvt tree) {
+			if (leaf != null) {
+				tree.remove(leaf);
+				leaf = null;
+			}
+		}
+	}
+
+	/**
+	 * Records closest hit and index of the object.
+	 */
+	private static class BatchRayResultCallback extends RayResultCallback {
+		public final Vector3f hitNormalWorld = new Vector3f();
+		public int currentIndex;
+		public int hitIndex;
+
+		public void reset() {
+			closestHitFraction = 1f;
+			collisionObject = null;
+			hitNormalWorld.set(0f, 0f, 0f);
+			hitIndex = -1;
+		}
+
+		@Override
+		public float addSingleResult(LocalRayResult rayResult, boolean normalInWorldSpace) {
+			closestHitFraction = rayResult.hitFraction;
+			collisionObject = rayResult.collisionObject;
+			hitIndex = currentIndex;
+			hitNormalWorld.set(rayResult.hitNormalLocal);
+			if (!normalInWorldSpace) {
+				collisionObject.getWorldTransform().basis.transform(hitNormalWorld);
+			}
+			return rayResult.hitFraction;
+		}
+	}
+
+	/**
+	 * Worker context, has own traversal stack and result callback. Processes
+	 * batches of rays until there are none left.
+	 */
+	private static class RayWorker extends Dbvt.ICollide implements Runnable {
+		private final Vector3f rayFrom = new Vector3f();
+		private final Vector3f rayTo = new Vector3f();
+		private final Vector3f rayInvDirection = new Vector3f();
+		private final Transform rayFromTrans = new Transform();
+		private final Transform rayToTrans = new Transform();
+		private final BatchRayResultCallback resultCallback = new BatchRayResultCallback();
+		private Dbvt.Node[] stack = new Dbvt.Node[64];
+
+		private BatchedRayQuery query;
+		private int numBatches;
+
+		public void init(BatchedRayQuery query, int numBatches) {
+			this.query = query;
+			this.numBatches = numBatches;
+		}
+
+		public void run() {
+			BatchedRayQuery query = this.query;
+			try {
+				WorkerGroup group = query.workerGroup;
+				int batchSize = query.parallelBatchSize;
+				int i;
+				while (!group.isAborted() && (i = query.nextBatch.getAndIncrement()) < numBatches) {
+					int end = Math.min((i + 1) * batchSize, query.numRays);
+					for (int j = i * batchSize; j < end; j++) {
+						castRay(j);
+					}
+				}
+			}
+			finally {
+				this.query = null;
+			}
+		}
+
+		public void castRay(int index) {
+			BatchedRayQuery query = this.query;
+			float[] from = query.rayFrom;
+			float[] to = query.rayTo;
+			int idx3 = index * 3;
+
+			rayFrom.set(from[idx3+0], from[idx3+1], from[idx3+2]);
+			rayTo.set(to[idx3+0], to[idx3+1], to[idx3+2]);
+			rayFromTrans.setIdentity();
+			rayFromTrans.origin.set(rayFrom);
+			rayToTrans.setIdentity();
+			rayToTrans.origin.set(rayTo);
+			AabbUtil2.calcRayInvDirection(rayInvDirection, rayFrom, rayTo);
+
+			resultCallback.reset();
+			lambdaMax = 1f;
+			stack = Dbvt.rayTestInternal(query.tree.root, rayFrom, rayInvDirection, stack, this);
+
+			query.hitFractions[index] = resultCallback.closestHitFraction;
+			if (query.hitNormals != null) {
+				float[] normals = query.hitNormals;
+				normals[idx3+0] = resultCallback.hitNormalWorld.x;
+				normals[idx3+1] = resultCallback.hitNormalWorld.y;
+				normals[idx3+2] = resultCallback.hitNormalWorld.z;
+			}
+			if (query.hitObjects != null) {
+				query.hitObjects[index] = resultCallback.hitIndex;
+			}
+			resultCallback.collisionObject = null;
+		}
+
+		public boolean process(Dbvt.Node leaf) {
+			ObjectEntry entry = (ObjectEntry)leaf.data;
+
+			// only perform raycast if filterMask matches
+			if ((entry.collisionFilterGroup & query.collisionFilterMask) == 0) {
+				return true;
+			}
+
+			// leaves are fattened, test actual AABB
+			if (AabbUtil2.rayAabb2(rayFrom, rayInvDirection, entry.aabbMin, entry.aabbMax, lambdaMax)) {
+				CollisionObject collisionObject = entry.collisionObject;
+				resultCallback.currentIndex = entry.index;
+				query.world.rayTestSingle(rayFromTrans, rayToTrans,
+						collisionObject,
+						collisionObject.getCollisionShape(),
+						collisionObject.getWorldTransform(),
+						resultCallback,
+						(short) -1);
+				lambdaMax = resultCallback.closestHitFraction;
+			}
+
+			// terminate further ray tests, once the closestHitFraction reached zero
+			return resultCallback.closestHitFraction != 0f;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.dispatch;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletPool;
+import javabullet.ObjectPool;
+import javabullet.collision.broadphase.CollisionAlgorithm;
+import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.BoxBoxDetector;
+import javabullet.collision.narrowphase.DiscreteCollisionDetectorInterface.ClosestPointInput;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.collision.shapes.BoxShape;
+
+/**
+ * Box-box collision algorithm, uses {@link BoxBoxDetector} for generating
+ * contacts in one pass instead of iterating GJK and penetration depth solver.
+ * 
+ * @author jezek2
+ */
+public class BoxBoxCollisionAlgorithm extends CollisionAlgorithm {
+
+	private boolean ownManifold;
+	private PersistentManifold manifoldPtr;
+	
+	public BoxBoxCollisionAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject obj0, CollisionObject obj1) {
+		super(ci);
+		manifoldPtr = mf;
+		
+		if (manifoldPtr == null && dispatcher.needsCollision(obj0, obj1)) {
+			manifoldPtr = dispatcher.getNewManifold(obj0, obj1);
+			ownManifold = true;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (ownManifold) {
+			if (manifoldPtr != null) {
+				dispatcher.releaseManifold(manifoldPtr);
+			}
+		}
+	}
+
+	@Override
+	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
+		ObjectPool<BoxBoxDetector> detectorsPool = BulletPool.get(BoxBoxDetector.class);
+
+		if (manifoldPtr == null) {
+			return;
+		}
+
+		BoxShape box0 = (BoxShape) body0.getCollisionShape();
+		BoxShape box1 = (BoxShape) body1.getCollisionShape();
+
+		// report a contact. internally this will be kept persistent, and contact reduction is done
+		resultOut.setPersistentManifold(manifoldPtr);
+
+		ClosestPointInput input = pointInputsPool.get();
+		input.init();
+		input.transformA.set(body0.getWorldTransform());
+		input.transformB.set(body1.getWorldTransform());
+
+		BoxBoxDetector detector = detectorsPool.get();
+		detector.init(box0, box1);
+		detector.getClosestPoints(input, resultOut, dispatchInfo.debugDraw);
+		detector.init(null, null);
+		
+		detectorsPool.release(detector);
+		pointInputsPool.release(input);
+
+		if (ownManifold) {
+			if (manifoldPtr.getNumContacts() != 0) {
+				resultOut.refreshContactPoints();
+			}
+		}
+	}
+
+	@Override
+	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		return 1f;
+	}
+	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return calculateManifoldSnapshotSize(manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(buf, manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(buf, manifoldPtr, ownManifold, body0, body1);
+		if (manifold != manifoldPtr) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+		@Override
+		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
+			return new BoxBoxCollisionAlgorithm(ci.manifold, ci, body0, body1);
+		}
+	}
+	
+}
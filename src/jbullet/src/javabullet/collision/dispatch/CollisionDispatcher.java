@@ -26,8 +26,11 @@ package javabullet.collision.dispatch;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import javabullet.BulletPool;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.ObjectPool;
+import javabullet.SimulationContext;
+import javabullet.SimulationCounters;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.collision.broadphase.BroadphasePair;
 import javabullet.collision.broadphase.CollisionAlgorithm;
@@ -38,16 +41,28 @@ import javabullet.collision.broadphase.DispatcherInfo;
 import javabullet.collision.broadphase.OverlapCallback;
 import javabullet.collision.broadphase.OverlappingPairCache;
 import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.util.IntArrayList;
+import javabullet.util.WorkerGroup;
 
 /**
  * CollisionDispatcher supports algorithms that handle ConvexConvex and ConvexConcave collision pairs.
- * Time of Impact, Closest Points and Penetration Depth.
+ * Time of Impact, Closest Points and Penetration Depth.<p>
+ * 
+ * Discrete collision detection can optionally run on multiple threads, see
+ * {@link #setParallelDispatch}. Overlapping pairs are split into fixed size
+ * batches, manifolds created and released by the workers are then added to
+ * the manifold list in pair order, so the result doesn't depend on thread
+ * count or timing. Pairs with compound shapes are processed on the calling
+ * thread after the workers are done, as {@link CompoundCollisionAlgorithm}
+ * temporarily exchanges the shape and transform of the compound object.
+ * Contact added/destroyed callbacks are called from the worker threads in this mode.
  * 
  * @author jezek2
  */
 public class CollisionDispatcher extends Dispatcher {
 	
-	protected final ObjectPool<PersistentManifold> manifoldsPool = BulletPool.get(PersistentManifold.class);
+	// manifolds are kept between steps, so they're not taken from the context of constructing thread
+	protected final ObjectPool<PersistentManifold> manifoldsPool = new ObjectPool<PersistentManifold>(PersistentManifold.class);
 
 	private static final int MAX_BROADPHASE_COLLISION_TYPES = BroadphaseNativeType.MAX_BROADPHASE_COLLISION_TYPES.ordinal();
 	private int count = 0;
@@ -60,7 +75,17 @@ public class CollisionDispatcher extends Dispatcher {
 	//private PoolAllocator*	m_persistentManifoldPoolAllocator;
 	private final CollisionAlgorithmCreateFunc[][] doubleDispatch = new CollisionAlgorithmCreateFunc[MAX_BROADPHASE_COLLISION_TYPES][MAX_BROADPHASE_COLLISION_TYPES];
 	private CollisionConfiguration collisionConfiguration;
-	private static int gNumManifold = 0;
+	private int gNumManifold = 0;
+
+	public static final int DEFAULT_PARALLEL_BATCH_SIZE = 32;
+
+	private final WorkerGroup workerGroup = new WorkerGroup();
+	private DispatchWorker[] workers;
+	private int parallelBatchSize = DEFAULT_PARALLEL_BATCH_SIZE;
+	private final ArrayList<BroadphasePair> parallelPairs = new ArrayList<BroadphasePair>();
+	private final ArrayList<DispatchBatch> batches = new ArrayList<DispatchBatch>();
+	private final AtomicInteger nextBatch = new AtomicInteger();
+	private final ThreadLocal<DispatchBatch> currentBatch = new ThreadLocal<DispatchBatch>();
 
 	public CollisionDispatcher(CollisionConfiguration collisionConfiguration) {
 		this.collisionConfiguration = collisionConfiguration;
@@ -114,6 +139,15 @@ public class CollisionDispatcher extends Dispatcher {
 
 	@Override
 	public PersistentManifold getNewManifold(Object b0, Object b1) {
+		DispatchBatch batch = currentBatch.get();
+		if (batch != null) {
+			// called from dispatch worker, added to manifold list after all pairs are processed
+			PersistentManifold manifold = batch.worker.manifoldsPool.get();
+			manifold.init(b0,b1,0);
+			batch.addOp(OP_ADD, manifold);
+			return manifold;
+		}
+
 		gNumManifold++;
 
 		//btAssert(gNumManifold < 65535);
@@ -148,18 +182,20 @@ public class CollisionDispatcher extends Dispatcher {
 
 	@Override
 	public void releaseManifold(PersistentManifold manifold) {
+		DispatchBatch batch = currentBatch.get();
+		if (batch != null) {
+			// called from dispatch worker, removed from manifold list after all pairs are processed
+			clearManifold(manifold);
+			batch.addOp(OP_RELEASE, manifold);
+			return;
+		}
+
 		gNumManifold--;
 
 		//printf("releaseManifold: gNumManifold %d\n",gNumManifold);
 		clearManifold(manifold);
 
-		// TODO: optimize
-		int findIndex = manifold.index1a;
-		assert (findIndex < manifoldsPtr.size());
-		Collections.swap(manifoldsPtr, findIndex, manifoldsPtr.size()-1);
-		manifoldsPtr.get(findIndex).index1a = findIndex;
-		manifoldsPtr.remove(manifoldsPtr.size()-1);
-
+		removeManifold(manifold);
 		manifoldsPool.release(manifold);
 		/*
 		manifold->~btPersistentManifold();
@@ -173,6 +209,37 @@ public class CollisionDispatcher extends Dispatcher {
 		*/
 	}
 
+	private void removeManifold(PersistentManifold manifold) {
+		// TODO: optimize
+		int findIndex = manifold.index1a;
+		assert (findIndex < manifoldsPtr.size());
+		Collections.swap(manifoldsPtr, findIndex, manifoldsPtr.size()-1);
+		manifoldsPtr.get(findIndex).index1a = findIndex;
+		manifoldsPtr.remove(manifoldsPtr.size()-1);
+	}
+
+	/**
+	 * Moves each manifold to position given by its {@link PersistentManifold#index1a index1a}.
+	 * Used for restoring order of manifolds from snapshot, the indices must be
+	 * a permutation of manifold positions.
+	 */
+	public void reorderManifolds() {
+		int count = manifoldsPtr.size();
+		for (int i=0; i<count; i++) {
+			PersistentManifold manifold = manifoldsPtr.get(i);
+			while (manifold.index1a != i) {
+				int target = manifold.index1a;
+				if (target < 0 || target >= count || manifoldsPtr.get(target).index1a == target) {
+					throw new IllegalStateException("manifold indices are not a permutation");
+				}
+				PersistentManifold other = manifoldsPtr.get(target);
+				manifoldsPtr.set(target, manifold);
+				manifoldsPtr.set(i, other);
+				manifold = other;
+			}
+		}
+	}
+
 	@Override
 	public void clearManifold(PersistentManifold manifold) {
 		manifold.clearManifold();
@@ -232,14 +299,154 @@ public class CollisionDispatcher extends Dispatcher {
 	
 	private CollisionPairCallback collisionPairCallback = new CollisionPairCallback();
 	
+	private static class CollectPairsCallback implements OverlapCallback {
+		public List<BroadphasePair> pairs;
+
+		public boolean processOverlap(BroadphasePair pair) {
+			pairs.add(pair);
+			return false;
+		}
+	}
+
+	private CollectPairsCallback collectPairsCallback = new CollectPairsCallback();
+
 	@Override
 	public void dispatchAllCollisionPairs(OverlappingPairCache pairCache, DispatcherInfo dispatchInfo, Dispatcher dispatcher) {
+		if (workers != null &&
+				dispatchInfo.dispatchFunc == DispatchFunc.DISPATCH_DISCRETE &&
+				nearCallback instanceof DefaultNearCallback &&
+				pairCache.getNumOverlappingPairs() > parallelBatchSize) {
+			dispatchAllCollisionPairsParallel(pairCache, dispatchInfo, dispatcher);
+			return;
+		}
+
 		//m_blockedForChanges = true;
 		collisionPairCallback.init(dispatchInfo, this);
 		pairCache.processAllOverlappingPairs(collisionPairCallback, dispatcher);
 		//m_blockedForChanges = false;
 	}
 
+	/**
+	 * Enables processing of overlapping pairs on multiple threads during discrete
+	 * collision detection. Continuous queries and custom near callbacks are
+	 * always processed on the calling thread.<p>
+	 * 
+	 * All used collision algorithms and shapes must be safe to use from multiple
+	 * threads and must not modify the collision objects, the default ones are
+	 * except for compound shapes, pairs with them are processed on the calling
+	 * thread after the workers are done.
+	 * 
+	 * @param executor executor running the worker tasks, or null to disable parallel dispatch
+	 * @param numThreads number of threads processing the pairs including the calling thread
+	 */
+	public void setParallelDispatch(Executor executor, int numThreads) {
+		workerGroup.setExecutor(executor, numThreads);
+		if (executor == null) {
+			workers = null;
+			return;
+		}
+
+		workers = new DispatchWorker[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			workers[i] = new DispatchWorker();
+		}
+	}
+
+	public int getParallelThreadCount() {
+		return workerGroup.getNumThreads();
+	}
+
+	public int getParallelBatchSize() {
+		return parallelBatchSize;
+	}
+
+	/**
+	 * Sets number of pairs processed by worker at once, batching doesn't affect the
+	 * results, only load balancing.
+	 */
+	public void setParallelBatchSize(int parallelBatchSize) {
+		if (parallelBatchSize < 1) {
+			throw new IllegalArgumentException("parallelBatchSize must be positive");
+		}
+		this.parallelBatchSize = parallelBatchSize;
+	}
+
+	private void dispatchAllCollisionPairsParallel(OverlappingPairCache pairCache, DispatcherInfo dispatchInfo, Dispatcher dispatcher) {
+		// pairs are processed in the same order as in the serial case
+		collectPairsCallback.pairs = parallelPairs;
+		pairCache.processAllOverlappingPairs(collectPairsCallback, dispatcher);
+		collectPairsCallback.pairs = null;
+
+		// consecutive pairs with compound shapes form serial batches
+		int numPairs = parallelPairs.size();
+		int numBatches = 0;
+		DispatchBatch batch = null;
+		for (int i = 0; i < numPairs; i++) {
+			boolean serial = isSerialPair(parallelPairs.get(i));
+			if (batch == null || batch.serial != serial || batch.end - batch.start == parallelBatchSize) {
+				if (numBatches == batches.size()) {
+					batches.add(new DispatchBatch());
+				}
+				batch = batches.get(numBatches++);
+				batch.start = i;
+				batch.serial = serial;
+			}
+			batch.end = i + 1;
+		}
+
+		DispatchWorker[] workers = this.workers;
+		int numWorkers = Math.min(workers.length, numBatches);
+
+		nextBatch.set(0);
+		for (int i = 0; i < numWorkers; i++) {
+			workers[i].init(this, dispatchInfo, numBatches);
+		}
+
+		try {
+			workerGroup.run(workers, numWorkers);
+
+			nextBatch.set(0);
+			workers[0].init(this, dispatchInfo, numBatches);
+			workers[0].serial = true;
+			workers[0].run();
+		}
+		finally {
+			SimulationCounters counters = SimulationContext.get().counters;
+			for (int i = 0; i < numWorkers; i++) {
+				counters.transfer(workers[i].context.counters);
+			}
+
+			// apply manifold changes in pair order
+			for (int i = 0; i < numBatches; i++) {
+				batch = batches.get(i);
+				for (int j = 0; j < batch.opManifolds.size(); j++) {
+					PersistentManifold manifold = batch.opManifolds.get(j);
+					if (batch.opTypes.get(j) == OP_ADD) {
+						gNumManifold++;
+						manifold.index1a = manifoldsPtr.size();
+						manifoldsPtr.add(manifold);
+					}
+					else {
+						gNumManifold--;
+						removeManifold(manifold);
+						batch.worker.manifoldsPool.release(manifold);
+					}
+				}
+				batch.clear();
+			}
+			parallelPairs.clear();
+		}
+	}
+
+	/**
+	 * Returns true for pairs that can't be processed concurrently with other pairs.
+	 */
+	private static boolean isSerialPair(BroadphasePair pair) {
+		CollisionObject colObj0 = (CollisionObject) pair.pProxy0.clientObject;
+		CollisionObject colObj1 = (CollisionObject) pair.pProxy1.clientObject;
+		return colObj0.getCollisionShape().isCompound() || colObj1.getCollisionShape().isCompound();
+	}
+
 	@Override
 	public int getNumManifolds() {
 		return manifoldsPtr.size();
@@ -256,7 +463,86 @@ public class CollisionDispatcher extends Dispatcher {
 	}
 
 	////////////////////////////////////////////////////////////////////////////
-	
+
+	private static final int OP_ADD     = 0;
+	private static final int OP_RELEASE = 1;
+
+	/**
+	 * Range of pairs processed by single worker, with log of manifold changes.
+	 */
+	private static class DispatchBatch {
+		public int start;
+		public int end;
+		public boolean serial;
+		public DispatchWorker worker;
+		public final ArrayList<PersistentManifold> opManifolds = new ArrayList<PersistentManifold>();
+		public final IntArrayList opTypes = new IntArrayList();
+
+		public void addOp(int type, PersistentManifold manifold) {
+			opTypes.add(type);
+			opManifolds.add(manifold);
+		}
+
+		public void clear() {
+			worker = null;
+			opManifolds.clear();
+			opTypes.clear();
+		}
+	}
+
+	/**
+	 * Worker context, has own near callback, manifold pool and simulation context. Processes batches
+	 * until there are none left, either the parallel ones or the serial ones.
+	 */
+	private static class DispatchWorker implements Runnable {
+		public final DefaultNearCallback nearCallback = new DefaultNearCallback();
+		public final ObjectPool<PersistentManifold> manifoldsPool = new ObjectPool<PersistentManifold>(PersistentManifold.class);
+		private final SimulationContext context = new SimulationContext();
+
+		private CollisionDispatcher dispatcher;
+		private DispatcherInfo dispatchInfo;
+		private int numBatches;
+		public boolean serial;
+
+		public void init(CollisionDispatcher dispatcher, DispatcherInfo dispatchInfo, int numBatches) {
+			this.dispatcher = dispatcher;
+			this.dispatchInfo = dispatchInfo;
+			this.numBatches = numBatches;
+			this.serial = false;
+		}
+
+		public void run() {
+			SimulationContext previousContext = SimulationContext.enter(context);
+			CollisionDispatcher dispatcher = this.dispatcher;
+			try {
+				List<BroadphasePair> pairs = dispatcher.parallelPairs;
+				WorkerGroup group = dispatcher.workerGroup;
+				int i;
+				while (!group.isAborted() && (i = dispatcher.nextBatch.getAndIncrement()) < numBatches) {
+					DispatchBatch batch = dispatcher.batches.get(i);
+					if (batch.serial != serial) {
+						continue;
+					}
+					batch.worker = this;
+					dispatcher.currentBatch.set(batch);
+					try {
+						for (int j = batch.start; j < batch.end; j++) {
+							nearCallback.invoke(pairs.get(j), dispatcher, dispatchInfo);
+						}
+					}
+					finally {
+						dispatcher.currentBatch.set(null);
+					}
+				}
+			}
+			finally {
+				this.dispatcher = null;
+				this.dispatchInfo = null;
+				SimulationContext.leave(previousContext);
+			}
+		}
+	}
+
 	private static class DefaultNearCallback implements NearCallback {
 		private final ManifoldResult contactPointResult = new ManifoldResult();
 		
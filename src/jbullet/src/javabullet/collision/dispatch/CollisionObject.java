@@ -23,9 +23,10 @@
 
 package javabullet.collision.dispatch;
 
-import javabullet.BulletStack;
+import java.nio.ByteBuffer;
 import javabullet.collision.broadphase.BroadphaseProxy;
 import javabullet.collision.shapes.CollisionShape;
+import javabullet.linearmath.SnapshotUtil;
 import javabullet.linearmath.Transform;
 import javax.vecmath.Vector3f;
 
@@ -38,8 +39,6 @@ import javax.vecmath.Vector3f;
  */
 public class CollisionObject {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	// island management, m_activationState1
 	public static final int ACTIVE_TAG = 1;
 	public static final int ISLAND_SLEEPING = 2;
@@ -81,6 +80,13 @@ public class CollisionObject {
 	/// If some object should have elaborate collision filtering by sub-classes
 	protected boolean checkCollideWith;
 
+	// world the object is added to and position in its list of active objects (-1 when not there)
+	CollisionWorld world;
+	int activeIndex = -1;
+	// position in world's list of collision objects, used as matrix slot by CollisionWorld.getChangedOpenGLMatrices
+	int worldArrayIndex = -1;
+	boolean matrixPending;
+
 	public CollisionObject() {
 		this.collisionFlags = CollisionFlags.STATIC_OBJECT;
 		this.islandTag1 = -1;
@@ -130,6 +136,9 @@ public class CollisionObject {
 	public void setActivationState(int newState) {
 		if ((activationState1 != DISABLE_DEACTIVATION) && (activationState1 != DISABLE_SIMULATION)) {
 			this.activationState1 = newState;
+			if (world != null) {
+				world.updateActiveObject(this);
+			}
 		}
 	}
 
@@ -143,6 +152,9 @@ public class CollisionObject {
 
 	public void forceActivationState(int newState) {
 		this.activationState1 = newState;
+		if (world != null) {
+			world.updateActiveObject(this);
+		}
 	}
 
 	public void activate() {
@@ -255,6 +267,18 @@ public class CollisionObject {
 		this.ccdSweptSphereRadius = ccdSweptSphereRadius;
 	}
 
+	public float getCcdMotionThreshold() {
+		return (float)Math.sqrt(ccdSquareMotionThreshold);
+	}
+
+	/**
+	 * Enables continuous collision detection for motion longer than given threshold
+	 * in one step, 0 disables it (default).
+	 */
+	public void setCcdMotionThreshold(float ccdMotionThreshold) {
+		this.ccdSquareMotionThreshold = ccdMotionThreshold * ccdMotionThreshold;
+	}
+
 	public float getCcdSquareMotionThreshold() {
 		return ccdSquareMotionThreshold;
 	}
@@ -279,4 +303,43 @@ public class CollisionObject {
 
 		return true;
 	}
+
+	/**
+	 * Returns number of bytes needed by {@link #writeSnapshot}.
+	 */
+	public int calculateSnapshotSize() {
+		return 2*SnapshotUtil.TRANSFORM_SIZE + 2*SnapshotUtil.VECTOR_SIZE + 5*4;
+	}
+
+	/**
+	 * Writes state changed by simulation. Shape, filtering and material properties
+	 * are not stored.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		SnapshotUtil.putTransform(buf, worldTransform);
+		SnapshotUtil.putTransform(buf, interpolationWorldTransform);
+		SnapshotUtil.putVector(buf, interpolationLinearVelocity);
+		SnapshotUtil.putVector(buf, interpolationAngularVelocity);
+		buf.putInt(activationState1);
+		buf.putFloat(deactivationTime);
+		buf.putFloat(hitFraction);
+		buf.putInt(islandTag1);
+		buf.putInt(companionId);
+	}
+
+	/**
+	 * Restores state written by {@link #writeSnapshot}. Activation state is set
+	 * directly, the world updates its list of active objects afterwards.
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		SnapshotUtil.getTransform(buf, worldTransform);
+		SnapshotUtil.getTransform(buf, interpolationWorldTransform);
+		SnapshotUtil.getVector(buf, interpolationLinearVelocity);
+		SnapshotUtil.getVector(buf, interpolationAngularVelocity);
+		activationState1 = buf.getInt();
+		deactivationTime = buf.getFloat();
+		hitFraction = buf.getFloat();
+		islandTag1 = buf.getInt();
+		companionId = buf.getInt();
+	}
 }
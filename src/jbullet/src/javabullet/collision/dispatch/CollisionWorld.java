@@ -23,18 +23,33 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import javabullet.BulletGlobals;
+import javabullet.BulletPool;
 import javabullet.BulletStack;
+import javabullet.ObjectPool;
+import javabullet.SimulationContext;
+import javabullet.collision.broadphase.BroadphaseAabbCallback;
 import javabullet.collision.broadphase.BroadphaseInterface;
 import javabullet.collision.broadphase.BroadphaseNativeType;
+import javabullet.collision.broadphase.BroadphasePair;
 import javabullet.collision.broadphase.BroadphaseProxy;
+import javabullet.collision.broadphase.BroadphaseRayCallback;
+import javabullet.collision.broadphase.CollisionAlgorithm;
+import javabullet.collision.broadphase.Dbvt;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.broadphase.DispatcherInfo;
 import javabullet.collision.broadphase.OverlappingPairCache;
 import javabullet.collision.narrowphase.ConvexCast.CastResult;
+import javabullet.collision.narrowphase.DiscreteCollisionDetectorInterface.ClosestPointInput;
+import javabullet.collision.narrowphase.GjkPairDetector;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.collision.narrowphase.PointCollector;
 import javabullet.collision.narrowphase.SubsimplexConvexCast;
+import javabullet.collision.narrowphase.TriangleConvexcastCallback;
 import javabullet.collision.narrowphase.TriangleRaycastCallback;
 import javabullet.collision.narrowphase.VoronoiSimplexSolver;
 import javabullet.collision.shapes.BvhTriangleMeshShape;
@@ -42,11 +57,16 @@ import javabullet.collision.shapes.CollisionShape;
 import javabullet.collision.shapes.CompoundShape;
 import javabullet.collision.shapes.ConcaveShape;
 import javabullet.collision.shapes.ConvexShape;
+import javabullet.collision.shapes.HeightfieldTerrainShape;
 import javabullet.collision.shapes.SphereShape;
+import javabullet.collision.shapes.TriangleCallback;
+import javabullet.collision.shapes.TriangleShape;
 import javabullet.linearmath.AabbUtil2;
 import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
+import javabullet.util.IntArrayList;
+import javax.vecmath.Matrix3f;
 import javax.vecmath.Vector3f;
 
 /**
@@ -56,15 +76,34 @@ import javax.vecmath.Vector3f;
  */
 public class CollisionWorld {
 
-	protected final BulletStack stack = BulletStack.get();
+	public static final int SNAPSHOT_MAGIC = 0x4A425753; // "JBWS"
+	public static final int SNAPSHOT_VERSION = 1;
+
+	protected final SimulationContext simulationContext = new SimulationContext();
+	// stack of the world's context rather than of constructing thread, so worlds can be used by different threads
+	protected final BulletStack stack = simulationContext.stack;
 	
 	protected List<CollisionObject> collisionObjects = new ArrayList<CollisionObject>();
+	// objects that are not sleeping or disabled, kept up to date by CollisionObject's activation state setters
+	protected final List<CollisionObject> activeObjects = new ArrayList<CollisionObject>();
+	// inactive objects whose matrices weren't exported yet, see getChangedOpenGLMatrices
+	private final List<CollisionObject> pendingMatrices = new ArrayList<CollisionObject>();
+	private boolean allMatricesPending = true;
+	// manifolds of pair algorithms in snapshot order, reused
+	private final List<PersistentManifold> snapshotManifolds = new ArrayList<PersistentManifold>();
 	protected Dispatcher dispatcher1;
 	protected DispatcherInfo dispatchInfo = new DispatcherInfo();
 	//protected btStackAlloc*	m_stackAlloc;
 	protected BroadphaseInterface broadphasePairCache;
 	protected IDebugDraw debugDrawer;
 	
+	// JAVA NOTE: shared by all ray tests, it's never modified
+	private static final SphereShape pointShape = new SphereShape(0f);
+	
+	static {
+		pointShape.setMargin(0f);
+	}
+	
 	/**
 	 * This constructor doesn't own the dispatcher and paircache/broadphase.
 	 */
@@ -89,6 +128,14 @@ public class CollisionWorld {
 		}
 	}
 	
+	/**
+	 * Returns scratch memory and statistic counters of the world. Dynamics worlds
+	 * make it current during stepping.
+	 */
+	public SimulationContext getSimulationContext() {
+		return simulationContext;
+	}
+	
 	public void addCollisionObject(CollisionObject collisionObject) {
 		addCollisionObject(collisionObject, (short)1, (short)1);
 	}
@@ -99,7 +146,11 @@ public class CollisionWorld {
 			// check that the object isn't already added
 			assert (!collisionObjects.contains(collisionObject));
 
+			collisionObject.worldArrayIndex = collisionObjects.size();
 			collisionObjects.add(collisionObject);
+			collisionObject.world = this;
+			updateActiveObject(collisionObject);
+			addPendingMatrix(collisionObject);
 
 			// calculate new AABB
 			// TODO: check if it's overwritten or not
@@ -166,8 +217,371 @@ public class CollisionWorld {
 			}
 		}
 
+		if (collisionObject.activeIndex != -1) {
+			removeActiveObject(collisionObject);
+		}
+		collisionObject.world = null;
+
 		//swapremove
-		collisionObjects.remove(collisionObject);
+		int index = collisionObject.worldArrayIndex;
+		collisionObjects.remove(index);
+		for (int i = index; i < collisionObjects.size(); i++) {
+			collisionObjects.get(i).worldArrayIndex = i;
+		}
+		collisionObject.worldArrayIndex = -1;
+
+		// matrices of following objects moved
+		allMatricesPending = true;
+		clearPendingMatrices();
+	}
+
+	/**
+	 * Adds or removes object from the list of active objects to match its activation state.
+	 */
+	void updateActiveObject(CollisionObject colObj) {
+		if (colObj.isActive()) {
+			if (colObj.activeIndex == -1) {
+				colObj.activeIndex = activeObjects.size();
+				activeObjects.add(colObj);
+			}
+		}
+		else if (colObj.activeIndex != -1) {
+			removeActiveObject(colObj);
+			addPendingMatrix(colObj);
+			objectDeactivated(colObj);
+		}
+	}
+	
+	private void addPendingMatrix(CollisionObject colObj) {
+		if (!colObj.matrixPending) {
+			colObj.matrixPending = true;
+			pendingMatrices.add(colObj);
+		}
+	}
+
+	private void removeActiveObject(CollisionObject colObj) {
+		// swap remove, order of active objects is not stable
+		int index = colObj.activeIndex;
+		int last = activeObjects.size() - 1;
+		CollisionObject lastObj = activeObjects.remove(last);
+		if (index != last) {
+			activeObjects.set(index, lastObj);
+			lastObj.activeIndex = index;
+		}
+		colObj.activeIndex = -1;
+	}
+
+	/**
+	 * Called when object is put to sleep or disabled, and is therefore no
+	 * longer visited by the per-step loops.
+	 */
+	protected void objectDeactivated(CollisionObject colObj) {
+	}
+
+	/**
+	 * Returns objects that are not sleeping or disabled. Per-step work is done only
+	 * for these, so it scales with the number of awake objects instead of world size.
+	 * Don't modify the list, it's maintained by the world.
+	 */
+	public List<CollisionObject> getActiveObjects() {
+		return activeObjects;
+	}
+
+	/**
+	 * Writes graphics transforms of collision objects in range [start, end) as 4x4
+	 * column-major matrices (OpenGL layout). Matrix of object with index i in
+	 * {@link #getCollisionObjectArray} is stored at index i*16 of dest, so the buffer
+	 * can be directly used as instance data. See {@link #getGraphicsWorldTransform}
+	 * for the transform that is used.<p>
+	 * 
+	 * Only absolute puts are used, position of the buffer is not changed. Disjoint
+	 * ranges can be therefore written from multiple threads at once.
+	 */
+	public void getOpenGLMatrices(FloatBuffer dest, int start, int end) {
+		for (int i = start; i < end; i++) {
+			putOpenGLMatrix(dest, i*16, getGraphicsWorldTransform(collisionObjects.get(i)));
+		}
+	}
+
+	/**
+	 * Writes matrices of objects whose transforms could change since the previous
+	 * call, in the same layout as {@link #getOpenGLMatrices}. These are active objects,
+	 * objects added or put to sleep since then, or all objects after removing an object
+	 * (the following matrices move). First call writes all objects. Transforms of sleeping
+	 * objects changed directly by the application aren't detected.<p>
+	 * 
+	 * Cost is proportional to the number of active objects, use
+	 * {@link #getOpenGLMatrices} on ranges from multiple threads to export all.
+	 * 
+	 * @param dirtyIndices if not null, indices of written matrices are added to it
+	 * @return number of written matrices
+	 */
+	public int getChangedOpenGLMatrices(FloatBuffer dest, IntArrayList dirtyIndices) {
+		if (allMatricesPending) {
+			int numObjects = collisionObjects.size();
+			getOpenGLMatrices(dest, 0, numObjects);
+			if (dirtyIndices != null) {
+				for (int i = 0; i < numObjects; i++) {
+					dirtyIndices.add(i);
+				}
+			}
+			clearPendingMatrices();
+			allMatricesPending = false;
+			return numObjects;
+		}
+		
+		int count = 0;
+		for (int i = 0; i < activeObjects.size(); i++) {
+			CollisionObject colObj = activeObjects.get(i);
+			putOpenGLMatrix(dest, colObj.worldArrayIndex*16, getGraphicsWorldTransform(colObj));
+			if (dirtyIndices != null) {
+				dirtyIndices.add(colObj.worldArrayIndex);
+			}
+			count++;
+		}
+		
+		for (int i = 0; i < pendingMatrices.size(); i++) {
+			CollisionObject colObj = pendingMatrices.get(i);
+			colObj.matrixPending = false;
+			// active ones are already written
+			if (colObj.activeIndex != -1) {
+				continue;
+			}
+			putOpenGLMatrix(dest, colObj.worldArrayIndex*16, getGraphicsWorldTransform(colObj));
+			if (dirtyIndices != null) {
+				dirtyIndices.add(colObj.worldArrayIndex);
+			}
+			count++;
+		}
+		pendingMatrices.clear();
+		
+		return count;
+	}
+	
+	/**
+	 * Returns transform exported by {@link #getOpenGLMatrices} for given object. It's
+	 * the raw simulation world transform here, dynamics worlds return transform of the
+	 * motion state instead (interpolated and with center of mass offset applied) when
+	 * the body has one. Called from multiple threads when the ranges are exported in
+	 * parallel, so it must not use shared temporaries.
+	 */
+	protected Transform getGraphicsWorldTransform(CollisionObject colObj) {
+		return colObj.getWorldTransform();
+	}
+	
+	private void clearPendingMatrices() {
+		for (int i = 0; i < pendingMatrices.size(); i++) {
+			pendingMatrices.get(i).matrixPending = false;
+		}
+		pendingMatrices.clear();
+	}
+	
+	/**
+	 * Returns number of bytes needed by {@link #writeSnapshot}.
+	 */
+	public int calculateSnapshotSize() {
+		int size = 12 + broadphasePairCache.calculateSnapshotSize();
+		
+		int proxySize = broadphasePairCache.getProxySnapshotSize();
+		for (int i = 0; i < collisionObjects.size(); i++) {
+			size += 4 + collisionObjects.get(i).calculateSnapshotSize() + proxySize;
+		}
+		size += 4 + activeObjects.size()*4;
+		
+		List<BroadphasePair> pairs = getPairCache().getOverlappingPairArray();
+		size += 4 + pairs.size()*9;
+		snapshotManifolds.clear();
+		for (int i = 0; i < pairs.size(); i++) {
+			CollisionAlgorithm algorithm = pairs.get(i).algorithm;
+			if (algorithm != null) {
+				size += algorithm.calculateSnapshotSize();
+				algorithm.getAllContactManifolds(snapshotManifolds);
+			}
+		}
+		size += 4 + snapshotManifolds.size()*4;
+		snapshotManifolds.clear();
+		return size;
+	}
+
+	/**
+	 * Writes state of the world changed by simulation into the buffer at its
+	 * position: object transforms and activation, broadphase state, overlapping
+	 * pairs with their contact manifolds and order of manifolds. Objects, shapes
+	 * and other configuration are not stored, the snapshot can be restored only into
+	 * the same world (or a world built the same way) with the same objects.<p>
+	 * 
+	 * Use direct buffer of {@link #calculateSnapshotSize} bytes, floats are stored
+	 * in the byte order of the buffer.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(SNAPSHOT_MAGIC);
+		buf.putInt(SNAPSHOT_VERSION);
+		buf.putInt(collisionObjects.size());
+		
+		broadphasePairCache.writeSnapshot(buf);
+		
+		for (int i = 0; i < collisionObjects.size(); i++) {
+			CollisionObject colObj = collisionObjects.get(i);
+			buf.putInt(colObj.calculateSnapshotSize());
+			colObj.writeSnapshot(buf);
+			broadphasePairCache.writeProxySnapshot(colObj.getBroadphaseHandle(), buf);
+		}
+		
+		buf.putInt(activeObjects.size());
+		for (int i = 0; i < activeObjects.size(); i++) {
+			buf.putInt(activeObjects.get(i).worldArrayIndex);
+		}
+		
+		List<BroadphasePair> pairs = getPairCache().getOverlappingPairArray();
+		buf.putInt(pairs.size());
+		snapshotManifolds.clear();
+		for (int i = 0; i < pairs.size(); i++) {
+			BroadphasePair pair = pairs.get(i);
+			buf.putInt(((CollisionObject)pair.pProxy0.clientObject).worldArrayIndex);
+			buf.putInt(((CollisionObject)pair.pProxy1.clientObject).worldArrayIndex);
+			if (pair.algorithm != null) {
+				buf.put((byte)1);
+				pair.algorithm.writeSnapshot(buf);
+				pair.algorithm.getAllContactManifolds(snapshotManifolds);
+			}
+			else {
+				buf.put((byte)0);
+			}
+		}
+		
+		// order of manifolds in dispatcher determines order of solving
+		buf.putInt(snapshotManifolds.size());
+		for (int i = 0; i < snapshotManifolds.size(); i++) {
+			buf.putInt(snapshotManifolds.get(i).index1a);
+		}
+		snapshotManifolds.clear();
+	}
+
+	/**
+	 * Restores state written by {@link #writeSnapshot}, subsequent simulation
+	 * steps produce the same results as after writing it. Existing pairs,
+	 * algorithms and manifolds are reused, so nothing is allocated when the set of
+	 * pairs didn't change much (eg. for rollback). Requires {@link CollisionDispatcher}.
+	 * 
+	 * @throws IllegalArgumentException when the snapshot doesn't match the world
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		if (!(dispatcher1 instanceof CollisionDispatcher)) {
+			throw new UnsupportedOperationException("snapshots require CollisionDispatcher");
+		}
+		CollisionDispatcher dispatcher = (CollisionDispatcher)dispatcher1;
+		
+		if (buf.getInt() != SNAPSHOT_MAGIC || buf.getInt() != SNAPSHOT_VERSION) {
+			throw new IllegalArgumentException("not a world snapshot or unsupported version");
+		}
+		int numObjects = collisionObjects.size();
+		if (buf.getInt() != numObjects) {
+			throw new IllegalArgumentException("number of collision objects doesn't match");
+		}
+		
+		broadphasePairCache.readSnapshot(buf);
+		
+		for (int i = 0; i < numObjects; i++) {
+			CollisionObject colObj = collisionObjects.get(i);
+			if (buf.getInt() != colObj.calculateSnapshotSize()) {
+				throw new IllegalArgumentException("type of collision object doesn't match");
+			}
+			colObj.readSnapshot(buf);
+			broadphasePairCache.readProxySnapshot(colObj.getBroadphaseHandle(), buf);
+		}
+		
+		// order of active objects is history dependent
+		for (int i = 0; i < activeObjects.size(); i++) {
+			activeObjects.get(i).activeIndex = -1;
+		}
+		activeObjects.clear();
+		int numActive = buf.getInt();
+		for (int i = 0; i < numActive; i++) {
+			CollisionObject colObj = getSnapshotObject(buf.getInt());
+			colObj.activeIndex = activeObjects.size();
+			activeObjects.add(colObj);
+		}
+		allMatricesPending = true;
+		clearPendingMatrices();
+		
+		// pairs are matched to existing ones and moved to the stored positions
+		OverlappingPairCache pairCache = getPairCache();
+		int numPairs = buf.getInt();
+		snapshotManifolds.clear();
+		for (int i = 0; i < numPairs; i++) {
+			CollisionObject colObj0 = getSnapshotObject(buf.getInt());
+			CollisionObject colObj1 = getSnapshotObject(buf.getInt());
+			BroadphaseProxy proxy0 = colObj0.getBroadphaseHandle();
+			BroadphaseProxy proxy1 = colObj1.getBroadphaseHandle();
+			
+			BroadphasePair pair = pairCache.findPair(proxy0, proxy1);
+			if (pair == null) {
+				pair = pairCache.addOverlappingPair(proxy0, proxy1);
+				if (pair == null) {
+					throw new IllegalArgumentException("pair rejected by filtering");
+				}
+			}
+			if (pair.pProxy0 != proxy0) {
+				pairCache.swapPairProxies(pair, dispatcher);
+			}
+			pairCache.movePair(pair, i);
+			
+			if (buf.get() != 0) {
+				if (pair.algorithm == null) {
+					pair.algorithm = dispatcher.findAlgorithm(colObj0, colObj1);
+				}
+				pair.algorithm.readSnapshot(buf, colObj0, colObj1);
+				pair.algorithm.getAllContactManifolds(snapshotManifolds);
+			}
+			else {
+				pairCache.cleanOverlappingPair(pair, dispatcher);
+			}
+		}
+		
+		// remove pairs not present in snapshot
+		List<BroadphasePair> pairs = pairCache.getOverlappingPairArray();
+		while (pairs.size() > numPairs) {
+			BroadphasePair pair = pairs.get(pairs.size() - 1);
+			pairCache.removeOverlappingPair(pair.pProxy0, pair.pProxy1, dispatcher);
+		}
+		
+		int numManifolds = buf.getInt();
+		if (numManifolds != snapshotManifolds.size() || numManifolds != dispatcher.getNumManifolds()) {
+			snapshotManifolds.clear();
+			throw new IllegalArgumentException("number of contact manifolds doesn't match");
+		}
+		for (int i = 0; i < numManifolds; i++) {
+			snapshotManifolds.get(i).index1a = buf.getInt();
+		}
+		snapshotManifolds.clear();
+		dispatcher.reorderManifolds();
+	}
+	
+	private CollisionObject getSnapshotObject(int index) {
+		if (index < 0 || index >= collisionObjects.size()) {
+			throw new IllegalArgumentException("invalid object index in snapshot");
+		}
+		return collisionObjects.get(index);
+	}
+	
+	private static void putOpenGLMatrix(FloatBuffer dest, int index, Transform trans) {
+		Matrix3f basis = trans.basis;
+		dest.put(index+0, basis.m00);
+		dest.put(index+1, basis.m10);
+		dest.put(index+2, basis.m20);
+		dest.put(index+3, 0f);
+		dest.put(index+4, basis.m01);
+		dest.put(index+5, basis.m11);
+		dest.put(index+6, basis.m21);
+		dest.put(index+7, 0f);
+		dest.put(index+8, basis.m02);
+		dest.put(index+9, basis.m12);
+		dest.put(index+10, basis.m22);
+		dest.put(index+11, 0f);
+		dest.put(index+12, trans.origin.x);
+		dest.put(index+13, trans.origin.y);
+		dest.put(index+14, trans.origin.z);
+		dest.put(index+15, 1f);
 	}
 
 	public BroadphaseInterface getBroadphase() {
@@ -196,31 +610,29 @@ public class CollisionWorld {
 			Vector3f minAabb = stack.vectors.get(), maxAabb = stack.vectors.get();
 			Vector3f tmp = stack.vectors.get();
 
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			// only update aabb of active objects, iterate backwards as disabled object is removed from the list
+			for (int i = activeObjects.size() - 1; i >= 0; i--) {
+				CollisionObject colObj = activeObjects.get(i);
 
-				// only update aabb of active objects
-				if (colObj.isActive()) {
-					colObj.getCollisionShape().getAabb(colObj.getWorldTransform(), minAabb, maxAabb);
-					BroadphaseInterface bp = broadphasePairCache;
+				colObj.getCollisionShape().getAabb(colObj.getWorldTransform(), minAabb, maxAabb);
+				BroadphaseInterface bp = broadphasePairCache;
 
-					// moving objects should be moderately sized, probably something wrong if not
-					tmp.sub(maxAabb, minAabb); // TODO: optimize
-					if (colObj.isStaticObject() || (tmp.lengthSquared() < 1e12f)) {
-						bp.setAabb(colObj.getBroadphaseHandle(), minAabb, maxAabb, dispatcher1);
-					}
-					else {
-						// something went wrong, investigate
-						// this assert is unwanted in 3D modelers (danger of loosing work)
-						colObj.setActivationState(CollisionObject.DISABLE_SIMULATION);
-
-						if (updateAabbs_reportMe && debugDrawer != null) {
-							updateAabbs_reportMe = false;
-							debugDrawer.reportErrorWarning("Overflow in AABB, object removed from simulation");
-							debugDrawer.reportErrorWarning("If you can reproduce this, please email bugs@continuousphysics.com\n");
-							debugDrawer.reportErrorWarning("Please include above information, your Platform, version of OS.\n");
-							debugDrawer.reportErrorWarning("Thanks.\n");
-						}
+				// moving objects should be moderately sized, probably something wrong if not
+				tmp.sub(maxAabb, minAabb); // TODO: optimize
+				if (colObj.isStaticObject() || (tmp.lengthSquared() < 1e12f)) {
+					bp.setAabb(colObj.getBroadphaseHandle(), minAabb, maxAabb, dispatcher1);
+				}
+				else {
+					// something went wrong, investigate
+					// this assert is unwanted in 3D modelers (danger of loosing work)
+					colObj.setActivationState(CollisionObject.DISABLE_SIMULATION);
+
+					if (updateAabbs_reportMe && debugDrawer != null) {
+						updateAabbs_reportMe = false;
+						debugDrawer.reportErrorWarning("Overflow in AABB, object removed from simulation");
+						debugDrawer.reportErrorWarning("If you can reproduce this, please email bugs@continuousphysics.com\n");
+						debugDrawer.reportErrorWarning("Please include above information, your Platform, version of OS.\n");
+						debugDrawer.reportErrorWarning("Thanks.\n");
 					}
 				}
 			}
@@ -244,27 +656,39 @@ public class CollisionWorld {
 	}
 
 	// TODO
+	/**
+	 * Performs raycast against single collision object. Doesn't allocate memory
+	 * and can be called from multiple threads at once.
+	 */
 	public /*static*/ void rayTestSingle(Transform rayFromTrans, Transform rayToTrans,
 			CollisionObject collisionObject,
 			CollisionShape collisionShape,
 			Transform colObjWorldTransform,
 			RayResultCallback resultCallback, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<CastResult> castResultsPool = BulletPool.get(CastResult.class);
+		ObjectPool<VoronoiSimplexSolver> simplexSolversPool = BulletPool.get(VoronoiSimplexSolver.class);
+		ObjectPool<SubsimplexConvexCast> convexCastersPool = BulletPool.get(SubsimplexConvexCast.class);
+		ObjectPool<LocalRayResult> rayResultsPool = BulletPool.get(LocalRayResult.class);
+		ObjectPool<BridgeTriangleRaycastCallback> triangleRaycastCallbacksPool = BulletPool.get(BridgeTriangleRaycastCallback.class);
+		ObjectPool<CompoundRaycastCallback> compoundRaycastCallbacksPool = BulletPool.get(CompoundRaycastCallback.class);
+
 		stack.pushCommonMath();
 		try {
-			SphereShape pointShape = new SphereShape(0f);
-			pointShape.setMargin(0f);
 			ConvexShape castShape = pointShape;
 
 			if (collisionShape.isConvex()) {
-				CastResult castResult = new CastResult();
+				CastResult castResult = castResultsPool.get();
 				castResult.fraction = resultCallback.closestHitFraction;
+				castResult.normal.set(0f, 0f, 0f);
 
 				ConvexShape convexShape = (ConvexShape) collisionShape;
-				VoronoiSimplexSolver simplexSolver = new VoronoiSimplexSolver();
+				VoronoiSimplexSolver simplexSolver = simplexSolversPool.get();
 
 				//#define USE_SUBSIMPLEX_CONVEX_CAST 1
 				//#ifdef USE_SUBSIMPLEX_CONVEX_CAST
-				SubsimplexConvexCast convexCaster = new SubsimplexConvexCast(castShape, convexShape, simplexSolver);
+				SubsimplexConvexCast convexCaster = convexCastersPool.get();
+				convexCaster.init(castShape, convexShape, simplexSolver);
 				//#else
 				//btGjkConvexCast	convexCaster(castShape,convexShape,&simplexSolver);
 				//btContinuousConvexCollision convexCaster(castShape,convexShape,&simplexSolver,0);
@@ -280,7 +704,8 @@ public class CollisionWorld {
 							//#endif //USE_SUBSIMPLEX_CONVEX_CAST
 
 							castResult.normal.normalize();
-							LocalRayResult localRayResult = new LocalRayResult(
+							LocalRayResult localRayResult = rayResultsPool.get();
+							localRayResult.init(
 									collisionObject,
 									null,
 									castResult.normal,
@@ -288,9 +713,15 @@ public class CollisionWorld {
 
 							boolean normalInWorldSpace = true;
 							resultCallback.addSingleResult(localRayResult, normalInWorldSpace);
+							rayResultsPool.release(localRayResult);
 						}
 					}
 				}
+
+				convexCaster.init(null, null, null);
+				convexCastersPool.release(convexCaster);
+				simplexSolversPool.release(simplexSolver);
+				castResultsPool.release(castResult);
 			}
 			else {
 				if (collisionShape.isConcave()) {
@@ -304,9 +735,29 @@ public class CollisionWorld {
 						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
 						worldTocollisionObject.transform(rayToLocal);
 
-						BridgeTriangleRaycastCallback rcb = new BridgeTriangleRaycastCallback(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
+						BridgeTriangleRaycastCallback rcb = triangleRaycastCallbacksPool.get();
+						rcb.init(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
 						rcb.hitFraction = resultCallback.closestHitFraction;
 						triangleMesh.performRaycast(rcb, rayFromLocal, rayToLocal);
+						rcb.init(rayFromLocal, rayToLocal, null, null, null);
+						triangleRaycastCallbacksPool.release(rcb);
+					}
+					else if (collisionShape.getShapeType() == BroadphaseNativeType.TERRAIN_SHAPE_PROXYTYPE) {
+						// optimized version for HeightfieldTerrainShape
+						HeightfieldTerrainShape terrain = (HeightfieldTerrainShape)collisionShape;
+						Transform worldTocollisionObject = stack.transforms.get();
+						worldTocollisionObject.inverse(colObjWorldTransform);
+						Vector3f rayFromLocal = stack.vectors.get(rayFromTrans.origin);
+						worldTocollisionObject.transform(rayFromLocal);
+						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
+						worldTocollisionObject.transform(rayToLocal);
+
+						BridgeTriangleRaycastCallback rcb = triangleRaycastCallbacksPool.get();
+						rcb.init(rayFromLocal, rayToLocal, resultCallback, collisionObject, terrain);
+						rcb.hitFraction = resultCallback.closestHitFraction;
+						terrain.performRaycast(rcb, rayFromLocal, rayToLocal);
+						rcb.init(rayFromLocal, rayToLocal, null, null, null);
+						triangleRaycastCallbacksPool.release(rcb);
 					}
 					else {
 						ConcaveShape triangleMesh = (ConcaveShape)collisionShape;
@@ -319,7 +770,8 @@ public class CollisionWorld {
 						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
 						worldTocollisionObject.transform(rayToLocal);
 
-						BridgeTriangleRaycastCallback rcb = new BridgeTriangleRaycastCallback(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
+						BridgeTriangleRaycastCallback rcb = triangleRaycastCallbacksPool.get();
+						rcb.init(rayFromLocal, rayToLocal, resultCallback, collisionObject, triangleMesh);
 						rcb.hitFraction = resultCallback.closestHitFraction;
 
 						Vector3f rayAabbMinLocal = stack.vectors.get(rayFromLocal);
@@ -328,24 +780,28 @@ public class CollisionWorld {
 						VectorUtil.setMax(rayAabbMaxLocal, rayToLocal);
 
 						triangleMesh.processAllTriangles(rcb, rayAabbMinLocal, rayAabbMaxLocal);
+						rcb.init(rayFromLocal, rayToLocal, null, null, null);
+						triangleRaycastCallbacksPool.release(rcb);
 					}
 				}
 				else {
-					// todo: use AABB tree or other BVH acceleration structure!
 					if (collisionShape.isCompound()) {
+						// only children whose AABB is hit by the ray
 						CompoundShape compoundShape = (CompoundShape) collisionShape;
-						int i = 0;
-						for (i = 0; i < compoundShape.getNumChildShapes(); i++) {
-							Transform childTrans = stack.transforms.get(compoundShape.getChildTransform(i));
-							CollisionShape childCollisionShape = compoundShape.getChildShape(i);
-							Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
-							childWorldTrans.mul(childTrans);
-							rayTestSingle(rayFromTrans, rayToTrans,
-									collisionObject,
-									childCollisionShape,
-									childWorldTrans,
-									resultCallback, collisionFilterMask);
-						}
+						Transform worldToCompound = stack.transforms.get();
+						worldToCompound.inverse(colObjWorldTransform);
+						Vector3f rayFromLocal = stack.vectors.get(rayFromTrans.origin);
+						worldToCompound.transform(rayFromLocal);
+						Vector3f rayToLocal = stack.vectors.get(rayToTrans.origin);
+						worldToCompound.transform(rayToLocal);
+						Vector3f rayInvDirection = stack.vectors.get();
+						AabbUtil2.calcRayInvDirection(rayInvDirection, rayFromLocal, rayToLocal);
+
+						CompoundRaycastCallback rcb = compoundRaycastCallbacksPool.get();
+						rcb.init(this, rayFromTrans, rayToTrans, collisionObject, compoundShape, colObjWorldTransform, resultCallback, collisionFilterMask);
+						rcb.traversalStack = Dbvt.rayTestInternal(compoundShape.getAabbTree().root, rayFromLocal, rayInvDirection, rcb.traversalStack, rcb);
+						rcb.init(null, rayFromTrans, rayToTrans, null, null, colObjWorldTransform, null, collisionFilterMask);
+						compoundRaycastCallbacksPool.release(rcb);
 					}
 				}
 			}
@@ -362,8 +818,12 @@ public class CollisionWorld {
 	/**
 	 * rayTest performs a raycast on all objects in the CollisionWorld, and calls the resultCallback.
 	 * This allows for several queries: first hit, all hits, any hit, dependent on the value returned by the callback.
+	 * Candidate objects are found by the broadphase. For many rays at once use {@link BatchedRayQuery}.
 	 */
 	public void rayTest(Vector3f rayFromWorld, Vector3f rayToWorld, RayResultCallback resultCallback, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SingleRayCallback> rayCallbacksPool = BulletPool.get(SingleRayCallback.class);
+
 		stack.pushCommonMath();
 		try {
 			Transform rayFromTrans = stack.transforms.get(), rayToTrans = stack.transforms.get();
@@ -373,40 +833,327 @@ public class CollisionWorld {
 
 			rayToTrans.origin.set(rayToWorld);
 
-			// go over all objects, and if the ray intersects their aabb, do a ray-shape query using convexCaster (CCD)
-			Vector3f collisionObjectAabbMin = stack.vectors.get(), collisionObjectAabbMax = stack.vectors.get();
-			float[] hitLambda = new float[1];
+			// go over all objects whose broadphase aabb is hit by the ray, and if the ray intersects their aabb,
+			// do a ray-shape query using convexCaster (CCD)
+			SingleRayCallback rayCB = rayCallbacksPool.get();
+			rayCB.init(this, rayFromTrans, rayToTrans, resultCallback, collisionFilterMask);
+			broadphasePairCache.rayTest(rayFromWorld, rayToWorld, rayCB);
+			rayCB.init(null, null, null, null, (short)0);
+			rayCallbacksPool.release(rayCB);
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+	
+	/**
+	 * Performs sweep of convex shape against single collision object. Doesn't allocate
+	 * memory and can be called from multiple threads at once.
+	 */
+	public /*static*/ void objectQuerySingle(ConvexShape castShape, Transform convexFromTrans, Transform convexToTrans,
+			CollisionObject collisionObject,
+			CollisionShape collisionShape,
+			Transform colObjWorldTransform,
+			ConvexResultCallback resultCallback) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<CastResult> castResultsPool = BulletPool.get(CastResult.class);
+		ObjectPool<VoronoiSimplexSolver> simplexSolversPool = BulletPool.get(VoronoiSimplexSolver.class);
+		ObjectPool<SubsimplexConvexCast> convexCastersPool = BulletPool.get(SubsimplexConvexCast.class);
+		ObjectPool<LocalConvexResult> convexResultsPool = BulletPool.get(LocalConvexResult.class);
+		ObjectPool<BridgeTriangleConvexcastCallback> triangleConvexcastCallbacksPool = BulletPool.get(BridgeTriangleConvexcastCallback.class);
+		ObjectPool<CompoundConvexcastCallback> compoundConvexcastCallbacksPool = BulletPool.get(CompoundConvexcastCallback.class);
+
+		stack.pushCommonMath();
+		try {
+			if (collisionShape.isConvex()) {
+				CastResult castResult = castResultsPool.get();
+				castResult.fraction = resultCallback.closestHitFraction;
+				castResult.normal.set(0f, 0f, 0f);
+
+				ConvexShape convexShape = (ConvexShape) collisionShape;
+				VoronoiSimplexSolver simplexSolver = simplexSolversPool.get();
+				SubsimplexConvexCast convexCaster = convexCastersPool.get();
+				convexCaster.init(castShape, convexShape, simplexSolver);
+
+				if (convexCaster.calcTimeOfImpact(convexFromTrans, convexToTrans, colObjWorldTransform, colObjWorldTransform, castResult)) {
+					//add hit
+					if (castResult.normal.lengthSquared() > 0.0001f) {
+						if (castResult.fraction < resultCallback.closestHitFraction) {
+							//rotate normal into worldspace
+							convexFromTrans.basis.transform(castResult.normal);
+							castResult.normal.normalize();
+
+							LocalConvexResult localConvexResult = convexResultsPool.get();
+							localConvexResult.init(
+									collisionObject,
+									null,
+									castResult.normal,
+									castResult.hitPoint,
+									castResult.fraction);
 
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				// terminate further ray tests, once the closestHitFraction reached zero
-				if (resultCallback.closestHitFraction == 0f) {
-					break;
+							boolean normalInWorldSpace = true;
+							resultCallback.addSingleResult(localConvexResult, normalInWorldSpace);
+							convexResultsPool.release(localConvexResult);
+						}
+					}
 				}
 
-				CollisionObject collisionObject = collisionObjects.get(i);
-				// only perform raycast if filterMask matches
-				if ((collisionObject.getBroadphaseHandle().collisionFilterGroup & collisionFilterMask) != 0) {
-					//RigidcollisionObject* collisionObject = ctrl->GetRigidcollisionObject();
-					collisionObject.getCollisionShape().getAabb(collisionObject.getWorldTransform(), collisionObjectAabbMin, collisionObjectAabbMax);
-
-					hitLambda[0] = resultCallback.closestHitFraction;
-					Vector3f hitNormal = stack.vectors.get();
-					if (AabbUtil2.rayAabb(rayFromWorld, rayToWorld, collisionObjectAabbMin, collisionObjectAabbMax, hitLambda, hitNormal)) {
-						rayTestSingle(rayFromTrans, rayToTrans,
-								collisionObject,
-								collisionObject.getCollisionShape(),
-								collisionObject.getWorldTransform(),
-								resultCallback,
-								(short) -1);
+				convexCaster.init(null, null, null);
+				convexCastersPool.release(convexCaster);
+				simplexSolversPool.release(simplexSolver);
+				castResultsPool.release(castResult);
+			}
+			else {
+				if (collisionShape.isConcave()) {
+					ConcaveShape triangleMesh = (ConcaveShape)collisionShape;
+
+					Transform worldTocollisionObject = stack.transforms.get();
+					worldTocollisionObject.inverse(colObjWorldTransform);
+
+					Vector3f convexFromLocal = stack.vectors.get(convexFromTrans.origin);
+					worldTocollisionObject.transform(convexFromLocal);
+					Vector3f convexToLocal = stack.vectors.get(convexToTrans.origin);
+					worldTocollisionObject.transform(convexToLocal);
+
+					// rotation of the cast shape in local space of the mesh
+					Transform rotationXform = stack.transforms.get();
+					rotationXform.setIdentity();
+					rotationXform.basis.mul(worldTocollisionObject.basis, convexToTrans.basis);
+
+					Vector3f boxMinLocal = stack.vectors.get(), boxMaxLocal = stack.vectors.get();
+					castShape.getAabb(rotationXform, boxMinLocal, boxMaxLocal);
+
+					// triangles are cast against in world space
+					BridgeTriangleConvexcastCallback tccb = triangleConvexcastCallbacksPool.get();
+					tccb.init(castShape, convexFromTrans, convexToTrans, colObjWorldTransform, resultCallback, collisionObject, triangleMesh);
+					tccb.hitFraction = resultCallback.closestHitFraction;
+
+					if (collisionShape.getShapeType() == BroadphaseNativeType.TRIANGLE_MESH_SHAPE_PROXYTYPE) {
+						// optimized version for BvhTriangleMeshShape
+						((BvhTriangleMeshShape)triangleMesh).performConvexcast(tccb, convexFromLocal, convexToLocal, boxMinLocal, boxMaxLocal);
+					}
+					else {
+						Vector3f rayAabbMinLocal = stack.vectors.get(convexFromLocal);
+						VectorUtil.setMin(rayAabbMinLocal, convexToLocal);
+						rayAabbMinLocal.add(boxMinLocal);
+						Vector3f rayAabbMaxLocal = stack.vectors.get(convexFromLocal);
+						VectorUtil.setMax(rayAabbMaxLocal, convexToLocal);
+						rayAabbMaxLocal.add(boxMaxLocal);
+
+						triangleMesh.processAllTriangles(tccb, rayAabbMinLocal, rayAabbMaxLocal);
 					}
+
+					tccb.init(null, convexFromTrans, convexToTrans, colObjWorldTransform, null, null, null);
+					triangleConvexcastCallbacksPool.release(tccb);
 				}
+				else {
+					if (collisionShape.isCompound()) {
+						// only children whose AABB overlaps AABB of the whole sweep
+						CompoundShape compoundShape = (CompoundShape) collisionShape;
+						Transform localTrans = stack.transforms.get();
+						Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+						Vector3f tmpMin = stack.vectors.get(), tmpMax = stack.vectors.get();
+						localTrans.inverse(colObjWorldTransform);
+						localTrans.mul(convexFromTrans);
+						castShape.getAabb(localTrans, aabbMin, aabbMax);
+						localTrans.inverse(colObjWorldTransform);
+						localTrans.mul(convexToTrans);
+						castShape.getAabb(localTrans, tmpMin, tmpMax);
+						VectorUtil.setMin(aabbMin, tmpMin);
+						VectorUtil.setMax(aabbMax, tmpMax);
 
+						CompoundConvexcastCallback ccb = compoundConvexcastCallbacksPool.get();
+						ccb.init(this, castShape, convexFromTrans, convexToTrans, collisionObject, compoundShape, colObjWorldTransform, resultCallback);
+						ccb.traversalStack = Dbvt.collideTVInternal(compoundShape.getAabbTree().root, aabbMin, aabbMax, ccb.traversalStack, ccb);
+						ccb.init(null, null, convexFromTrans, convexToTrans, null, null, colObjWorldTransform, null);
+						compoundConvexcastCallbacksPool.release(ccb);
+					}
+				}
 			}
 		}
 		finally {
 			stack.popCommonMath();
 		}
 	}
+
+	public void convexSweepTest(ConvexShape castShape, Transform convexFromWorld, Transform convexToWorld, ConvexResultCallback resultCallback) {
+		convexSweepTest(castShape, convexFromWorld, convexToWorld, resultCallback, (short)-1);
+	}
+
+	/**
+	 * convexSweepTest performs a swept convex cast on all objects in the CollisionWorld, and calls the resultCallback.
+	 * The cast shape keeps the rotation of convexFromWorld during the sweep. Candidate objects are found
+	 * by the broadphase using AABB of the whole sweep.
+	 */
+	public void convexSweepTest(ConvexShape castShape, Transform convexFromWorld, Transform convexToWorld, ConvexResultCallback resultCallback, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SingleSweepCallback> sweepCallbacksPool = BulletPool.get(SingleSweepCallback.class);
+
+		stack.pushCommonMath();
+		try {
+			Transform convexFromTrans = stack.transforms.get(convexFromWorld);
+			Transform convexToTrans = stack.transforms.get(convexToWorld);
+
+			Vector3f castShapeAabbMin = stack.vectors.get(), castShapeAabbMax = stack.vectors.get();
+			Vector3f tmpMin = stack.vectors.get(), tmpMax = stack.vectors.get();
+			castShape.getAabb(convexFromTrans, castShapeAabbMin, castShapeAabbMax);
+			castShape.getAabb(convexToTrans, tmpMin, tmpMax);
+			VectorUtil.setMin(castShapeAabbMin, tmpMin);
+			VectorUtil.setMax(castShapeAabbMax, tmpMax);
+
+			SingleSweepCallback sweepCB = sweepCallbacksPool.get();
+			sweepCB.init(this, castShape, convexFromTrans, convexToTrans, resultCallback, collisionFilterMask);
+			broadphasePairCache.aabbTest(castShapeAabbMin, castShapeAabbMax, sweepCB);
+			sweepCB.init(null, null, null, null, null, (short)0);
+			sweepCallbacksPool.release(sweepCB);
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+
+	public void aabbOverlapTest(Vector3f aabbMin, Vector3f aabbMax, OverlapResultCallback resultCallback) {
+		aabbOverlapTest(aabbMin, aabbMax, resultCallback, (short)-1);
+	}
+
+	/**
+	 * Reports all objects whose AABB overlaps given AABB. Candidate objects are found
+	 * by the broadphase, reported objects are tested using their current AABB.
+	 */
+	public void aabbOverlapTest(Vector3f aabbMin, Vector3f aabbMax, OverlapResultCallback resultCallback, short collisionFilterMask) {
+		ObjectPool<AabbOverlapCallback> overlapCallbacksPool = BulletPool.get(AabbOverlapCallback.class);
+
+		AabbOverlapCallback overlapCB = overlapCallbacksPool.get();
+		overlapCB.init(aabbMin, aabbMax, null, null, resultCallback, collisionFilterMask);
+		broadphasePairCache.aabbTest(aabbMin, aabbMax, overlapCB);
+		overlapCB.init(null, null, null, null, null, (short)0);
+		overlapCallbacksPool.release(overlapCB);
+	}
+
+	public void shapeOverlapTest(ConvexShape shape, Transform shapeTransform, OverlapResultCallback resultCallback) {
+		shapeOverlapTest(shape, shapeTransform, resultCallback, (short)-1);
+	}
+
+	/**
+	 * Reports all objects touching or penetrating given convex shape (within collision margins).
+	 * Candidate objects are found by the broadphase.
+	 */
+	public void shapeOverlapTest(ConvexShape shape, Transform shapeTransform, OverlapResultCallback resultCallback, short collisionFilterMask) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<AabbOverlapCallback> overlapCallbacksPool = BulletPool.get(AabbOverlapCallback.class);
+
+		stack.pushCommonMath();
+		try {
+			Transform queryTrans = stack.transforms.get(shapeTransform);
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			shape.getAabb(queryTrans, aabbMin, aabbMax);
+
+			AabbOverlapCallback overlapCB = overlapCallbacksPool.get();
+			overlapCB.init(aabbMin, aabbMax, shape, queryTrans, resultCallback, collisionFilterMask);
+			broadphasePairCache.aabbTest(aabbMin, aabbMax, overlapCB);
+			overlapCB.init(null, null, null, null, null, (short)0);
+			overlapCallbacksPool.release(overlapCB);
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+
+	/**
+	 * Tests if convex shape touches or penetrates given collision shape (within collision
+	 * margins). Doesn't allocate memory and can be called from multiple threads at once.
+	 */
+	public static boolean objectOverlapSingle(ConvexShape shape, Transform shapeTransform, CollisionShape collisionShape, Transform colObjWorldTransform) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<OverlapTriangleCallback> triangleCallbacksPool = BulletPool.get(OverlapTriangleCallback.class);
+		ObjectPool<CompoundOverlapCallback> compoundCallbacksPool = BulletPool.get(CompoundOverlapCallback.class);
+
+		if (collisionShape.isConvex()) {
+			return convexOverlapSingle(shape, shapeTransform, (ConvexShape)collisionShape, colObjWorldTransform);
+		}
+
+		stack.pushCommonMath();
+		try {
+			if (collisionShape.isConcave()) {
+				ConcaveShape triangleMesh = (ConcaveShape)collisionShape;
+
+				Transform shapeTransformLocal = stack.transforms.get();
+				shapeTransformLocal.inverse(colObjWorldTransform);
+				shapeTransformLocal.mul(shapeTransform);
+
+				Vector3f aabbMinLocal = stack.vectors.get(), aabbMaxLocal = stack.vectors.get();
+				shape.getAabb(shapeTransformLocal, aabbMinLocal, aabbMaxLocal);
+
+				OverlapTriangleCallback triangleCB = triangleCallbacksPool.get();
+				triangleCB.init(shape, shapeTransform, colObjWorldTransform);
+				triangleMesh.processAllTriangles(triangleCB, aabbMinLocal, aabbMaxLocal);
+				boolean overlapping = triangleCB.overlapping;
+				triangleCB.init(null, shapeTransform, colObjWorldTransform);
+				triangleCallbacksPool.release(triangleCB);
+				return overlapping;
+			}
+
+			if (collisionShape.isCompound()) {
+				// only children whose AABB overlaps the shape
+				CompoundShape compoundShape = (CompoundShape) collisionShape;
+				Transform shapeTransformLocal = stack.transforms.get();
+				shapeTransformLocal.inverse(colObjWorldTransform);
+				shapeTransformLocal.mul(shapeTransform);
+
+				Vector3f aabbMinLocal = stack.vectors.get(), aabbMaxLocal = stack.vectors.get();
+				shape.getAabb(shapeTransformLocal, aabbMinLocal, aabbMaxLocal);
+
+				CompoundOverlapCallback ocb = compoundCallbacksPool.get();
+				ocb.init(shape, shapeTransform, compoundShape, colObjWorldTransform);
+				ocb.traversalStack = Dbvt.collideTVInternal(compoundShape.getAabbTree().root, aabbMinLocal, aabbMaxLocal, ocb.traversalStack, ocb);
+				boolean overlapping = ocb.overlapping;
+				ocb.init(null, shapeTransform, null, colObjWorldTransform);
+				compoundCallbacksPool.release(ocb);
+				return overlapping;
+			}
+			return false;
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+
+	private static boolean convexOverlapSingle(ConvexShape shapeA, Transform transA, ConvexShape shapeB, Transform transB) {
+		ObjectPool<GjkPairDetector> gjkPairDetectorsPool = BulletPool.get(GjkPairDetector.class);
+		ObjectPool<VoronoiSimplexSolver> simplexSolversPool = BulletPool.get(VoronoiSimplexSolver.class);
+		ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
+		ObjectPool<PointCollector> pointCollectorsPool = BulletPool.get(PointCollector.class);
+
+		VoronoiSimplexSolver simplexSolver = simplexSolversPool.get();
+		GjkPairDetector gjk = gjkPairDetectorsPool.get();
+		gjk.setMinkowskiA(shapeA);
+		gjk.setMinkowskiB(shapeB);
+		gjk.setSimplexSolver(simplexSolver);
+		gjk.setPenetrationDepthSolver(null);
+
+		ClosestPointInput input = pointInputsPool.get();
+		input.init();
+		input.transformA.set(transA);
+		input.transformB.set(transB);
+
+		PointCollector pointCollector = pointCollectorsPool.get();
+		pointCollector.hasResult = false;
+		pointCollector.distance = 1e30f;
+
+		gjk.getClosestPoints(input, pointCollector, null);
+
+		// no penetration depth solver is used, deep penetration gives no result
+		boolean overlapping = !pointCollector.hasResult || pointCollector.distance < 0f;
+
+		gjk.setMinkowskiA(null);
+		gjk.setMinkowskiB(null);
+		gjk.setSimplexSolver(null);
+		gjkPairDetectorsPool.release(gjk);
+		simplexSolversPool.release(simplexSolver);
+		pointInputsPool.release(input);
+		pointCollectorsPool.release(pointCollector);
+		return overlapping;
+	}
 	
 	public List<CollisionObject> getCollisionObjectArray() {
 		return collisionObjects;
@@ -431,7 +1178,14 @@ public class CollisionWorld {
 		public final Vector3f hitNormalLocal = new Vector3f();
 		public float hitFraction;
 
+		public LocalRayResult() {
+		}
+
 		public LocalRayResult(CollisionObject collisionObject, LocalShapeInfo localShapeInfo, Vector3f hitNormalLocal, float hitFraction) {
+			init(collisionObject, localShapeInfo, hitNormalLocal, hitFraction);
+		}
+
+		public void init(CollisionObject collisionObject, LocalShapeInfo localShapeInfo, Vector3f hitNormalLocal, float hitFraction) {
 			this.collisionObject = collisionObject;
 			this.localShapeInfo = localShapeInfo;
 			this.hitNormalLocal.set(hitNormalLocal);
@@ -493,7 +1247,14 @@ public class CollisionWorld {
 		public final Vector3f hitPointLocal = new Vector3f();
 		public float hitFraction;
 
+		public LocalConvexResult() {
+		}
+
 		public LocalConvexResult(CollisionObject hitCollisionObject, LocalShapeInfo localShapeInfo, Vector3f hitNormalLocal, Vector3f hitPointLocal, float hitFraction) {
+			init(hitCollisionObject, localShapeInfo, hitNormalLocal, hitPointLocal, hitFraction);
+		}
+
+		public void init(CollisionObject hitCollisionObject, LocalShapeInfo localShapeInfo, Vector3f hitNormalLocal, Vector3f hitPointLocal, float hitFraction) {
 			this.hitCollisionObject = hitCollisionObject;
 			this.localShapeInfo = localShapeInfo;
 			this.hitNormalLocal.set(hitNormalLocal);
@@ -509,6 +1270,15 @@ public class CollisionWorld {
 			return (closestHitFraction < 1f);
 		}
 		
+		/**
+		 * Called for each broadphase candidate before the sweep against it is computed.
+		 * 
+		 * @return false to skip the candidate
+		 */
+		public boolean needsCollision(BroadphaseProxy proxy0) {
+			return true;
+		}
+		
 		public abstract float addSingleResult(LocalConvexResult convexResult, boolean normalInWorldSpace);
 	}
 	
@@ -540,28 +1310,382 @@ public class CollisionWorld {
 		}
 	}
 	
-	private static class BridgeTriangleRaycastCallback extends TriangleRaycastCallback {
+	/**
+	 * OverlapResultCallback is used to report objects found by overlap queries.
+	 */
+	public static abstract class OverlapResultCallback {
+		/**
+		 * Called for each overlapping object.
+		 * 
+		 * @return false to terminate the query
+		 */
+		public abstract boolean addOverlappingObject(CollisionObject collisionObject);
+	}
+	
+	protected static class SingleRayCallback extends BroadphaseRayCallback {
+		private CollisionWorld world;
+		private Transform rayFromTrans;
+		private Transform rayToTrans;
+		private RayResultCallback resultCallback;
+		private short collisionFilterMask;
+
+		public SingleRayCallback() {
+		}
+
+		public void init(CollisionWorld world, Transform rayFromTrans, Transform rayToTrans, RayResultCallback resultCallback, short collisionFilterMask) {
+			this.world = world;
+			this.rayFromTrans = rayFromTrans;
+			this.rayToTrans = rayToTrans;
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+			this.lambdaMax = resultCallback != null? resultCallback.closestHitFraction : 1f;
+		}
+
+		public boolean process(BroadphaseProxy proxy) {
+			// terminate further ray tests, once the closestHitFraction reached zero
+			if (resultCallback.closestHitFraction == 0f) {
+				return false;
+			}
+
+			CollisionObject collisionObject = (CollisionObject)proxy.clientObject;
+			// only perform raycast if filterMask matches
+			// JAVA NOTE: broadphase already tested the ray against object's AABB
+			if ((proxy.collisionFilterGroup & collisionFilterMask) != 0) {
+				world.rayTestSingle(rayFromTrans, rayToTrans,
+						collisionObject,
+						collisionObject.getCollisionShape(),
+						collisionObject.getWorldTransform(),
+						resultCallback,
+						(short) -1);
+			}
+
+			lambdaMax = resultCallback.closestHitFraction;
+			return true;
+		}
+	}
+	
+	protected static class BridgeTriangleRaycastCallback extends TriangleRaycastCallback {
 		public RayResultCallback resultCallback;
 		public CollisionObject collisionObject;
 		public ConcaveShape triangleMesh;
 
+		private final LocalShapeInfo shapeInfo = new LocalShapeInfo();
+		private final LocalRayResult rayResult = new LocalRayResult();
+
+		public BridgeTriangleRaycastCallback() {
+		}
+
 		public BridgeTriangleRaycastCallback(Vector3f from, Vector3f to, RayResultCallback resultCallback, CollisionObject collisionObject, ConcaveShape triangleMesh) {
-			super(from, to);
+			init(from, to, resultCallback, collisionObject, triangleMesh);
+		}
+
+		public void init(Vector3f from, Vector3f to, RayResultCallback resultCallback, CollisionObject collisionObject, ConcaveShape triangleMesh) {
+			super.init(from, to);
 			this.resultCallback = resultCallback;
 			this.collisionObject = collisionObject;
 			this.triangleMesh = triangleMesh;
 		}
 	
 		public float reportHit(Vector3f hitNormalLocal, float hitFraction, int partId, int triangleIndex) {
-			LocalShapeInfo shapeInfo = new LocalShapeInfo();
 			shapeInfo.shapePart = partId;
 			shapeInfo.triangleIndex = triangleIndex;
 
-			LocalRayResult rayResult = new LocalRayResult(collisionObject, shapeInfo, hitNormalLocal, hitFraction);
+			rayResult.init(collisionObject, shapeInfo, hitNormalLocal, hitFraction);
 
 			boolean normalInWorldSpace = false;
 			return resultCallback.addSingleResult(rayResult, normalInWorldSpace);
 		}
 	}
 	
+	protected static class SingleSweepCallback implements BroadphaseAabbCallback {
+		private CollisionWorld world;
+		private ConvexShape castShape;
+		private Transform convexFromTrans;
+		private Transform convexToTrans;
+		private ConvexResultCallback resultCallback;
+		private short collisionFilterMask;
+
+		public SingleSweepCallback() {
+		}
+
+		public void init(CollisionWorld world, ConvexShape castShape, Transform convexFromTrans, Transform convexToTrans, ConvexResultCallback resultCallback, short collisionFilterMask) {
+			this.world = world;
+			this.castShape = castShape;
+			this.convexFromTrans = convexFromTrans;
+			this.convexToTrans = convexToTrans;
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+		}
+
+		public boolean process(BroadphaseProxy proxy) {
+			// terminate further convex sweep tests, once the closestHitFraction reached zero
+			if (resultCallback.closestHitFraction == 0f) {
+				return false;
+			}
+
+			CollisionObject collisionObject = (CollisionObject)proxy.clientObject;
+			// only perform sweep if filterMask matches
+			if ((proxy.collisionFilterGroup & collisionFilterMask) != 0 && resultCallback.needsCollision(proxy)) {
+				world.objectQuerySingle(castShape, convexFromTrans, convexToTrans,
+						collisionObject,
+						collisionObject.getCollisionShape(),
+						collisionObject.getWorldTransform(),
+						resultCallback);
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Tests candidates from broadphase against the AABB, and optionally against the shape.
+	 */
+	protected static class AabbOverlapCallback implements BroadphaseAabbCallback {
+		private Vector3f aabbMin;
+		private Vector3f aabbMax;
+		private ConvexShape shape;
+		private Transform shapeTransform;
+		private OverlapResultCallback resultCallback;
+		private short collisionFilterMask;
+
+		public AabbOverlapCallback() {
+		}
+
+		public void init(Vector3f aabbMin, Vector3f aabbMax, ConvexShape shape, Transform shapeTransform, OverlapResultCallback resultCallback, short collisionFilterMask) {
+			this.aabbMin = aabbMin;
+			this.aabbMax = aabbMax;
+			this.shape = shape;
+			this.shapeTransform = shapeTransform;
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+		}
+
+		public boolean process(BroadphaseProxy proxy) {
+			BulletStack stack = BulletStack.get();
+
+			if ((proxy.collisionFilterGroup & collisionFilterMask) == 0) {
+				return true;
+			}
+
+			CollisionObject collisionObject = (CollisionObject)proxy.clientObject;
+			boolean overlapping;
+
+			stack.vectors.push();
+			try {
+				Vector3f objAabbMin = stack.vectors.get(), objAabbMax = stack.vectors.get();
+				collisionObject.getCollisionShape().getAabb(collisionObject.getWorldTransform(), objAabbMin, objAabbMax);
+				overlapping = AabbUtil2.testAabbAgainstAabb2(aabbMin, aabbMax, objAabbMin, objAabbMax);
+			}
+			finally {
+				stack.vectors.pop();
+			}
+
+			if (overlapping && shape != null) {
+				overlapping = objectOverlapSingle(shape, shapeTransform, collisionObject.getCollisionShape(), collisionObject.getWorldTransform());
+			}
+
+			if (overlapping) {
+				return resultCallback.addOverlappingObject(collisionObject);
+			}
+			return true;
+		}
+	}
+	
+	protected static class OverlapTriangleCallback implements TriangleCallback {
+		public boolean overlapping;
+
+		private ConvexShape shape;
+		private final Transform shapeTransform = new Transform();
+		private final Transform triangleToWorld = new Transform();
+		private final TriangleShape triangleShape = new TriangleShape();
+
+		public OverlapTriangleCallback() {
+		}
+
+		public void init(ConvexShape shape, Transform shapeTransform, Transform triangleToWorld) {
+			this.shape = shape;
+			this.shapeTransform.set(shapeTransform);
+			this.triangleToWorld.set(triangleToWorld);
+			this.overlapping = false;
+		}
+
+		public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
+			if (overlapping) {
+				return;
+			}
+
+			triangleShape.init(triangle[0], triangle[1], triangle[2]);
+			overlapping = convexOverlapSingle(shape, shapeTransform, triangleShape, triangleToWorld);
+		}
+	}
+	
+	protected static class CompoundOverlapCallback extends Dbvt.ICollide {
+		public boolean overlapping;
+		public Dbvt.Node[] traversalStack = new Dbvt.Node[64];
+
+		private ConvexShape shape;
+		private final Transform shapeTransform = new Transform();
+		private CompoundShape compoundShape;
+		private final Transform colObjWorldTransform = new Transform();
+
+		public CompoundOverlapCallback() {
+		}
+
+		public void init(ConvexShape shape, Transform shapeTransform, CompoundShape compoundShape, Transform colObjWorldTransform) {
+			this.shape = shape;
+			this.shapeTransform.set(shapeTransform);
+			this.compoundShape = compoundShape;
+			this.colObjWorldTransform.set(colObjWorldTransform);
+			this.overlapping = false;
+		}
+
+		@Override
+		public boolean process(Dbvt.Node leaf) {
+			BulletStack stack = BulletStack.get();
+
+			stack.transforms.push();
+			try {
+				int index = ((Integer)leaf.data).intValue();
+				Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
+				childWorldTrans.mul(compoundShape.getChildTransform(index));
+				overlapping = objectOverlapSingle(shape, shapeTransform, compoundShape.getChildShape(index), childWorldTrans);
+				return !overlapping;
+			}
+			finally {
+				stack.transforms.pop();
+			}
+		}
+	}
+	
+	protected static class CompoundRaycastCallback extends Dbvt.ICollide {
+		public Dbvt.Node[] traversalStack = new Dbvt.Node[64];
+
+		private CollisionWorld world;
+		private final Transform rayFromTrans = new Transform();
+		private final Transform rayToTrans = new Transform();
+		private CollisionObject collisionObject;
+		private CompoundShape compoundShape;
+		private final Transform colObjWorldTransform = new Transform();
+		private RayResultCallback resultCallback;
+		private short collisionFilterMask;
+
+		public CompoundRaycastCallback() {
+		}
+
+		public void init(CollisionWorld world, Transform rayFromTrans, Transform rayToTrans, CollisionObject collisionObject, CompoundShape compoundShape, Transform colObjWorldTransform, RayResultCallback resultCallback, short collisionFilterMask) {
+			this.world = world;
+			this.rayFromTrans.set(rayFromTrans);
+			this.rayToTrans.set(rayToTrans);
+			this.collisionObject = collisionObject;
+			this.compoundShape = compoundShape;
+			this.colObjWorldTransform.set(colObjWorldTransform);
+			this.resultCallback = resultCallback;
+			this.collisionFilterMask = collisionFilterMask;
+			this.lambdaMax = resultCallback != null? resultCallback.closestHitFraction : 1f;
+		}
+
+		@Override
+		public boolean process(Dbvt.Node leaf) {
+			BulletStack stack = BulletStack.get();
+
+			stack.transforms.push();
+			try {
+				int index = ((Integer)leaf.data).intValue();
+				Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
+				childWorldTrans.mul(compoundShape.getChildTransform(index));
+				world.rayTestSingle(rayFromTrans, rayToTrans,
+						collisionObject,
+						compoundShape.getChildShape(index),
+						childWorldTrans,
+						resultCallback, collisionFilterMask);
+				// ray has the same parametrization in local space, skip children behind closest hit
+				lambdaMax = resultCallback.closestHitFraction;
+				return true;
+			}
+			finally {
+				stack.transforms.pop();
+			}
+		}
+	}
+	
+	protected static class CompoundConvexcastCallback extends Dbvt.ICollide {
+		public Dbvt.Node[] traversalStack = new Dbvt.Node[64];
+
+		private CollisionWorld world;
+		private ConvexShape castShape;
+		private final Transform convexFromTrans = new Transform();
+		private final Transform convexToTrans = new Transform();
+		private CollisionObject collisionObject;
+		private CompoundShape compoundShape;
+		private final Transform colObjWorldTransform = new Transform();
+		private ConvexResultCallback resultCallback;
+
+		public CompoundConvexcastCallback() {
+		}
+
+		public void init(CollisionWorld world, ConvexShape castShape, Transform convexFromTrans, Transform convexToTrans, CollisionObject collisionObject, CompoundShape compoundShape, Transform colObjWorldTransform, ConvexResultCallback resultCallback) {
+			this.world = world;
+			this.castShape = castShape;
+			this.convexFromTrans.set(convexFromTrans);
+			this.convexToTrans.set(convexToTrans);
+			this.collisionObject = collisionObject;
+			this.compoundShape = compoundShape;
+			this.colObjWorldTransform.set(colObjWorldTransform);
+			this.resultCallback = resultCallback;
+		}
+
+		@Override
+		public boolean process(Dbvt.Node leaf) {
+			BulletStack stack = BulletStack.get();
+
+			stack.transforms.push();
+			try {
+				int index = ((Integer)leaf.data).intValue();
+				Transform childWorldTrans = stack.transforms.get(colObjWorldTransform);
+				childWorldTrans.mul(compoundShape.getChildTransform(index));
+				world.objectQuerySingle(castShape, convexFromTrans, convexToTrans,
+						collisionObject,
+						compoundShape.getChildShape(index),
+						childWorldTrans,
+						resultCallback);
+				return true;
+			}
+			finally {
+				stack.transforms.pop();
+			}
+		}
+	}
+	
+	protected static class BridgeTriangleConvexcastCallback extends TriangleConvexcastCallback {
+		public ConvexResultCallback resultCallback;
+		public CollisionObject collisionObject;
+		public ConcaveShape triangleMesh;
+
+		private final LocalShapeInfo shapeInfo = new LocalShapeInfo();
+		private final LocalConvexResult convexResult = new LocalConvexResult();
+
+		public BridgeTriangleConvexcastCallback() {
+		}
+
+		public void init(ConvexShape castShape, Transform from, Transform to, Transform triangleToWorld, ConvexResultCallback resultCallback, CollisionObject collisionObject, ConcaveShape triangleMesh) {
+			super.init(castShape, from, to, triangleToWorld);
+			this.resultCallback = resultCallback;
+			this.collisionObject = collisionObject;
+			this.triangleMesh = triangleMesh;
+		}
+
+		public float reportHit(Vector3f hitNormalLocal, Vector3f hitPointLocal, float hitFraction, int partId, int triangleIndex) {
+			if (hitFraction <= resultCallback.closestHitFraction) {
+				shapeInfo.shapePart = partId;
+				shapeInfo.triangleIndex = triangleIndex;
+
+				convexResult.init(collisionObject, shapeInfo, hitNormalLocal, hitPointLocal, hitFraction);
+
+				// triangles are cast against in world space
+				boolean normalInWorldSpace = true;
+				return resultCallback.addSingleResult(convexResult, normalInWorldSpace);
+			}
+			return hitFraction;
+		}
+	}
+	
 }
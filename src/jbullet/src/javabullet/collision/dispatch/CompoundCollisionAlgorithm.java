@@ -21,63 +21,123 @@
  * 3. This notice may not be removed or altered from any source distribution.
  */
 
+
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import javabullet.collision.broadphase.Dbvt;
 import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.PersistentManifold;
 import javabullet.collision.shapes.CollisionShape;
 import javabullet.collision.shapes.CompoundShape;
 import javabullet.linearmath.Transform;
+import javabullet.linearmath.VectorUtil;
+import javabullet.util.IntArrayList;
+import javax.vecmath.Vector3f;
 
 /**
  * CompoundCollisionAlgorithm  supports collision between CompoundCollisionShapes and other collision shapes.
- * Place holder, not fully implemented yet.
+ * Only children whose AABB overlaps the other object (found using AABB tree of
+ * {@link CompoundShape}) are processed. Child algorithms are created when child
+ * starts to overlap and destroyed when it stops.
  * 
  * @author jezek2
  */
 public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 
+	// indexed by child, null for children not overlapping other object
 	private final List<CollisionAlgorithm> childCollisionAlgorithms = new ArrayList<CollisionAlgorithm>();
+	// children with created algorithm
+	private final IntArrayList activeChildren = new IntArrayList();
+	// number of last step in which child was overlapping
+	private int[] childStamps = new int[0];
+	private int stamp;
 	private boolean isSwapped;
+	private int compoundShapeRevision;
+	
+	private final ChildCollider childCollider = new ChildCollider();
+	private Dbvt.Node[] traversalStack = new Dbvt.Node[64];
 	
 	public CompoundCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, boolean isSwapped) {
 		super(ci);
 		this.isSwapped = isSwapped;
 
 		CollisionObject colObj = isSwapped ? body1 : body0;
-		CollisionObject otherObj = isSwapped ? body0 : body1;
 		assert (colObj.getCollisionShape().isCompound());
 
 		CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
-		int numChildren = compoundShape.getNumChildShapes();
-		int i;
-
-		//childCollisionAlgorithms.resize(numChildren);
-		for (i = 0; i < numChildren; i++) {
-			CollisionShape childShape = compoundShape.getChildShape(i);
-			CollisionShape orgShape = colObj.getCollisionShape();
-			colObj.setCollisionShape(childShape);
-			childCollisionAlgorithms.add(ci.dispatcher1.findAlgorithm(colObj, otherObj));
-			colObj.setCollisionShape(orgShape);
-		}
+		resetChildAlgorithms(compoundShape);
 	}
 
 	@Override
 	public void destroy() {
-		int numChildren = childCollisionAlgorithms.size();
-		int i;
-		for (i = 0; i < numChildren; i++) {
-			childCollisionAlgorithms.get(i).destroy();
+		removeChildAlgorithms();
+	}
+	
+	private void removeChildAlgorithms() {
+		for (int i=0; i<activeChildren.size(); i++) {
+			int child = activeChildren.get(i);
+			childCollisionAlgorithms.get(child).destroy();
 			//m_dispatcher->freeCollisionAlgorithm(m_childCollisionAlgorithms[i]);
+			childCollisionAlgorithms.set(child, null);
+		}
+		activeChildren.clear();
+	}
+	
+	private void resetChildAlgorithms(CompoundShape compoundShape) {
+		removeChildAlgorithms();
+		
+		int numChildren = compoundShape.getNumChildShapes();
+		while (childCollisionAlgorithms.size() < numChildren) {
+			childCollisionAlgorithms.add(null);
+		}
+		while (childCollisionAlgorithms.size() > numChildren) {
+			childCollisionAlgorithms.remove(childCollisionAlgorithms.size() - 1);
+		}
+		if (childStamps.length < numChildren) {
+			childStamps = new int[numChildren];
+		}
+		compoundShapeRevision = compoundShape.getUpdateRevision();
+	}
+	
+	/**
+	 * Calculates AABB of other object in local space of compound, extended by
+	 * contact breaking threshold so children keep their contacts until they break.
+	 */
+	private static void getLocalAabb(Transform compoundTrans, CollisionObject otherObj, Transform otherTrans, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+
+		stack.transforms.push();
+		try {
+			Transform localTrans = stack.transforms.get();
+			localTrans.inverse(compoundTrans);
+			localTrans.mul(otherTrans);
+			otherObj.getCollisionShape().getAabb(localTrans, aabbMin, aabbMax);
+			
+			float threshold = BulletGlobals.gContactBreakingThreshold;
+			aabbMin.x -= threshold;
+			aabbMin.y -= threshold;
+			aabbMin.z -= threshold;
+			aabbMax.x += threshold;
+			aabbMax.y += threshold;
+			aabbMax.z += threshold;
+		}
+		finally {
+			stack.transforms.pop();
 		}
 	}
 	
 	@Override
 	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
-		stack.transforms.push();
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
 		try {
 			CollisionObject colObj = isSwapped ? body1 : body0;
 			CollisionObject otherObj = isSwapped ? body0 : body1;
@@ -85,47 +145,45 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 			assert (colObj.getCollisionShape().isCompound());
 			CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
 
-			// We will use the OptimizedBVH, AABB tree to cull potential child-overlaps
-			// If both proxies are Compound, we will deal with that directly, by performing sequential/parallel tree traversals
-			// given Proxy0 and Proxy1, if both have a tree, Tree0 and Tree1, this means:
-			// determine overlapping nodes of Proxy1 using Proxy0 AABB against Tree1
-			// then use each overlapping node AABB against Tree0
-			// and vise versa.
-
-			Transform tmpTrans = stack.transforms.get();
-			Transform orgTrans = stack.transforms.get();
-
-			int numChildren = childCollisionAlgorithms.size();
-			int i;
-			for (i = 0; i < numChildren; i++) {
-				// temporarily exchange parent btCollisionShape with childShape, and recurse
-				CollisionShape childShape = compoundShape.getChildShape(i);
-
-				// backup
-				orgTrans.set(colObj.getWorldTransform());
-				CollisionShape orgShape = colObj.getCollisionShape();
-
-				Transform childTrans = compoundShape.getChildTransform(i);
-				//btTransform	newChildWorldTrans = orgTrans*childTrans ;
-				tmpTrans.set(orgTrans);
-				tmpTrans.mul(childTrans);
-				colObj.setWorldTransform(tmpTrans);
-				// the contactpoint is still projected back using the original inverted worldtrans
-				colObj.setCollisionShape(childShape);
-				childCollisionAlgorithms.get(i).processCollision(colObj, otherObj, dispatchInfo, resultOut);
-				// revert back
-				colObj.setCollisionShape(orgShape);
-				colObj.setWorldTransform(orgTrans);
+			if (compoundShape.getUpdateRevision() != compoundShapeRevision) {
+				// children were removed, indices are no longer valid
+				resetChildAlgorithms(compoundShape);
+			}
+			
+			// If both proxies are Compound, the child algorithm for other compound
+			// will use its tree for each of our overlapping children.
+
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			getLocalAabb(colObj.getWorldTransform(), otherObj, otherObj.getWorldTransform(), aabbMin, aabbMax);
+			
+			stamp++;
+			childCollider.init(this, compoundShape, colObj, otherObj, dispatchInfo, resultOut, false);
+			traversalStack = Dbvt.collideTVInternal(compoundShape.getAabbTree().root, aabbMin, aabbMax, traversalStack, childCollider);
+			childCollider.init(null, null, null, null, null, null, false);
+			
+			// destroy algorithms of children that stopped overlapping
+			for (int i=activeChildren.size()-1; i>=0; i--) {
+				int child = activeChildren.get(i);
+				if (childStamps[child] != stamp) {
+					childCollisionAlgorithms.get(child).destroy();
+					childCollisionAlgorithms.set(child, null);
+					
+					int last = activeChildren.size() - 1;
+					activeChildren.set(i, activeChildren.get(last));
+					activeChildren.remove(last);
+				}
 			}
 		}
 		finally {
-			stack.transforms.pop();
+			stack.vectors.pop();
 		}
 	}
 
 	@Override
 	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
-		stack.transforms.push();
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
 		try {
 			CollisionObject colObj = isSwapped ? body1 : body0;
 			CollisionObject otherObj = isSwapped ? body0 : body1;
@@ -134,44 +192,177 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 
 			CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
 
-			// We will use the OptimizedBVH, AABB tree to cull potential child-overlaps
-			// If both proxies are Compound, we will deal with that directly, by performing sequential/parallel tree traversals
-			// given Proxy0 and Proxy1, if both have a tree, Tree0 and Tree1, this means:
-			// determine overlapping nodes of Proxy1 using Proxy0 AABB against Tree1
-			// then use each overlapping node AABB against Tree0
-			// and vise versa.
-
-			Transform tmpTrans = stack.transforms.get();
-			Transform orgTrans = stack.transforms.get();
-			float hitFraction = 1f;
-
-			int numChildren = childCollisionAlgorithms.size();
-			int i;
-			for (i = 0; i < numChildren; i++) {
-				// temporarily exchange parent btCollisionShape with childShape, and recurse
-				CollisionShape childShape = compoundShape.getChildShape(i);
-
-				// backup
-				orgTrans.set(colObj.getWorldTransform());
-				CollisionShape orgShape = colObj.getCollisionShape();
-
-				Transform childTrans = compoundShape.getChildTransform(i);
-				//btTransform	newChildWorldTrans = orgTrans*childTrans ;
-				tmpTrans.set(orgTrans);
-				tmpTrans.mul(childTrans);
-				colObj.setWorldTransform(tmpTrans);
-
-				colObj.setCollisionShape(childShape);
-				float frac = childCollisionAlgorithms.get(i).calculateTimeOfImpact(colObj, otherObj, dispatchInfo, resultOut);
-				if (frac < hitFraction) {
-					hitFraction = frac;
-				}
-				// revert back
-				colObj.setCollisionShape(orgShape);
-				colObj.setWorldTransform(orgTrans);
+			if (compoundShape.getUpdateRevision() != compoundShapeRevision) {
+				resetChildAlgorithms(compoundShape);
 			}
+
+			// children overlapped by relative motion of other object, algorithms created
+			// here are destroyed by next discrete step when not overlapping
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			Vector3f tmpMin = stack.vectors.get(), tmpMax = stack.vectors.get();
+			getLocalAabb(colObj.getWorldTransform(), otherObj, otherObj.getWorldTransform(), aabbMin, aabbMax);
+			getLocalAabb(colObj.getInterpolationWorldTransform(), otherObj, otherObj.getInterpolationWorldTransform(), tmpMin, tmpMax);
+			VectorUtil.setMin(aabbMin, tmpMin);
+			VectorUtil.setMax(aabbMax, tmpMax);
+			
+			childCollider.init(this, compoundShape, colObj, otherObj, dispatchInfo, resultOut, true);
+			traversalStack = Dbvt.collideTVInternal(compoundShape.getAabbTree().root, aabbMin, aabbMax, traversalStack, childCollider);
+			float hitFraction = childCollider.hitFraction;
+			childCollider.init(null, null, null, null, null, null, false);
 			return hitFraction;
 		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		for (int i=0; i<activeChildren.size(); i++) {
+			childCollisionAlgorithms.get(activeChildren.get(i)).getAllContactManifolds(manifoldArray);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		int size = 4 + 4*activeChildren.size();
+		for (int i=0; i<activeChildren.size(); i++) {
+			size += childCollisionAlgorithms.get(activeChildren.get(i)).calculateSnapshotSize();
+		}
+		return size;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(activeChildren.size());
+		for (int i=0; i<activeChildren.size(); i++) {
+			buf.putInt(activeChildren.get(i));
+		}
+		for (int i=0; i<activeChildren.size(); i++) {
+			childCollisionAlgorithms.get(activeChildren.get(i)).writeSnapshot(buf);
+		}
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		CollisionObject colObj = isSwapped ? body1 : body0;
+		CollisionObject otherObj = isSwapped ? body0 : body1;
+		CompoundShape compoundShape = (CompoundShape) colObj.getCollisionShape();
+
+		if (compoundShape.getUpdateRevision() != compoundShapeRevision) {
+			resetChildAlgorithms(compoundShape);
+		}
+		
+		int count = buf.getInt();
+		int start = buf.position();
+		if (count < 0 || count > compoundShape.getNumChildShapes()) {
+			throw new IllegalArgumentException("invalid number of compound children in snapshot");
+		}
+		
+		stamp++;
+		for (int i=0; i<count; i++) {
+			int child = buf.getInt();
+			if (child < 0 || child >= compoundShape.getNumChildShapes() || childStamps[child] == stamp) {
+				throw new IllegalArgumentException("invalid compound child in snapshot");
+			}
+			childStamps[child] = stamp;
+		}
+
+		// destroy algorithms of children not present in snapshot
+		for (int i=activeChildren.size()-1; i>=0; i--) {
+			int child = activeChildren.get(i);
+			if (childStamps[child] != stamp) {
+				childCollisionAlgorithms.get(child).destroy();
+				childCollisionAlgorithms.set(child, null);
+			}
+		}
+		
+		// active children are kept in snapshot order, it determines order of destroying
+		activeChildren.clear();
+		for (int i=0; i<count; i++) {
+			activeChildren.add(buf.getInt(start + 4*i));
+		}
+		
+		for (int i=0; i<count; i++) {
+			readChildSnapshot(buf, activeChildren.get(i), compoundShape, colObj, otherObj);
+		}
+	}
+	
+	private void readChildSnapshot(ByteBuffer buf, int index, CompoundShape compoundShape, CollisionObject colObj, CollisionObject otherObj) {
+		BulletStack stack = BulletStack.get();
+
+		stack.transforms.push();
+		try {
+			// same exchange of shape and transform as in processChild
+			Transform orgTrans = stack.transforms.get(colObj.getWorldTransform());
+			CollisionShape orgShape = colObj.getCollisionShape();
+
+			Transform tmpTrans = stack.transforms.get(orgTrans);
+			tmpTrans.mul(compoundShape.getChildTransform(index));
+			colObj.setWorldTransform(tmpTrans);
+			colObj.setCollisionShape(compoundShape.getChildShape(index));
+			
+			CollisionAlgorithm algorithm = childCollisionAlgorithms.get(index);
+			if (algorithm == null) {
+				algorithm = dispatcher.findAlgorithm(colObj, otherObj);
+				childCollisionAlgorithms.set(index, algorithm);
+			}
+			algorithm.readSnapshot(buf, colObj, otherObj);
+			
+			colObj.setCollisionShape(orgShape);
+			colObj.setWorldTransform(orgTrans);
+		}
+		finally {
+			stack.transforms.pop();
+		}
+	}
+	
+	private void processChild(int index, ChildCollider collider) {
+		BulletStack stack = BulletStack.get();
+
+		stack.transforms.push();
+		try {
+			CollisionObject colObj = collider.colObj;
+			CollisionObject otherObj = collider.otherObj;
+			CompoundShape compoundShape = collider.compoundShape;
+			
+			// temporarily exchange parent btCollisionShape with childShape, and recurse
+			CollisionShape childShape = compoundShape.getChildShape(index);
+
+			// backup
+			Transform orgTrans = stack.transforms.get(colObj.getWorldTransform());
+			CollisionShape orgShape = colObj.getCollisionShape();
+
+			Transform childTrans = compoundShape.getChildTransform(index);
+			//btTransform	newChildWorldTrans = orgTrans*childTrans ;
+			Transform tmpTrans = stack.transforms.get(orgTrans);
+			tmpTrans.mul(childTrans);
+			colObj.setWorldTransform(tmpTrans);
+			// the contactpoint is still projected back using the original inverted worldtrans
+			colObj.setCollisionShape(childShape);
+			
+			CollisionAlgorithm algorithm = childCollisionAlgorithms.get(index);
+			if (algorithm == null) {
+				algorithm = dispatcher.findAlgorithm(colObj, otherObj);
+				childCollisionAlgorithms.set(index, algorithm);
+				activeChildren.add(index);
+			}
+			
+			if (collider.timeOfImpact) {
+				float frac = algorithm.calculateTimeOfImpact(colObj, otherObj, collider.dispatchInfo, collider.resultOut);
+				if (frac < collider.hitFraction) {
+					collider.hitFraction = frac;
+				}
+			}
+			else {
+				childStamps[index] = stamp;
+				algorithm.processCollision(colObj, otherObj, collider.dispatchInfo, collider.resultOut);
+			}
+			
+			// revert back
+			colObj.setCollisionShape(orgShape);
+			colObj.setWorldTransform(orgTrans);
+		}
 		finally {
 			stack.transforms.pop();
 		}
@@ -179,6 +370,34 @@ public class CompoundCollisionAlgorithm extends CollisionAlgorithm {
 	
 	////////////////////////////////////////////////////////////////////////////
 	
+	private static class ChildCollider extends Dbvt.ICollide {
+		public CompoundCollisionAlgorithm algorithm;
+		public CompoundShape compoundShape;
+		public CollisionObject colObj;
+		public CollisionObject otherObj;
+		public DispatcherInfo dispatchInfo;
+		public ManifoldResult resultOut;
+		public boolean timeOfImpact;
+		public float hitFraction;
+		
+		public void init(CompoundCollisionAlgorithm algorithm, CompoundShape compoundShape, CollisionObject colObj, CollisionObject otherObj, DispatcherInfo dispatchInfo, ManifoldResult resultOut, boolean timeOfImpact) {
+			this.algorithm = algorithm;
+			this.compoundShape = compoundShape;
+			this.colObj = colObj;
+			this.otherObj = otherObj;
+			this.dispatchInfo = dispatchInfo;
+			this.resultOut = resultOut;
+			this.timeOfImpact = timeOfImpact;
+			this.hitFraction = 1f;
+		}
+
+		@Override
+		public boolean process(Dbvt.Node leaf) {
+			algorithm.processChild(((Integer)leaf.data).intValue(), this);
+			return true;
+		}
+	}
+	
 	public static final CollisionAlgorithmCreateFunc createFunc = new CollisionAlgorithmCreateFunc() {
 		@Override
 		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
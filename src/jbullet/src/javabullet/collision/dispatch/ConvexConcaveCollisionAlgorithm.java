@@ -23,10 +23,14 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
 import javabullet.collision.narrowphase.ConvexCast.CastResult;
+import javabullet.collision.narrowphase.PersistentManifold;
 import javabullet.collision.narrowphase.SubsimplexConvexCast;
 import javabullet.collision.narrowphase.VoronoiSimplexSolver;
 import javabullet.collision.shapes.ConcaveShape;
@@ -88,6 +92,8 @@ public class ConvexConcaveCollisionAlgorithm extends CollisionAlgorithm {
 
 	@Override
 	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -160,6 +166,26 @@ public class ConvexConcaveCollisionAlgorithm extends CollisionAlgorithm {
 	public void clearCache() {
 		btConvexTriangleCallback.clearCache();
 	}
+
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		manifoldArray.add(btConvexTriangleCallback.manifoldPtr);
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return btConvexTriangleCallback.manifoldPtr.calculateSnapshotSize();
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		btConvexTriangleCallback.manifoldPtr.writeSnapshot(buf);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		btConvexTriangleCallback.manifoldPtr.readSnapshot(buf);
+	}
 	
 	////////////////////////////////////////////////////////////////////////////
 	
@@ -23,7 +23,10 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import javabullet.BulletPool;
+import javabullet.BulletStack;
 import javabullet.ObjectPool;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
@@ -47,9 +50,8 @@ import javax.vecmath.Vector3f;
  */
 public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 	
-	protected final ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
-
 	private GjkPairDetector gjkPairDetector;
+	private SimplexSolverInterface simplexSolver;
 
 	public boolean ownManifold = false;
 	public PersistentManifold manifoldPtr;
@@ -58,6 +60,7 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 	public ConvexConvexAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1, SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver pdSolver) {
 		super(ci);
 		gjkPairDetector = new GjkPairDetector(null, null, simplexSolver, pdSolver);
+		this.simplexSolver = simplexSolver;
 		this.manifoldPtr = mf;
 	}
 	
@@ -79,6 +82,9 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 	 */
 	@Override
 	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
+		ObjectPool<VoronoiSimplexSolver> simplexSolversPool = BulletPool.get(VoronoiSimplexSolver.class);
+
 		if (manifoldPtr == null) {
 			// swapped?
 			manifoldPtr = dispatcher.getNewManifold(body0, body1);
@@ -104,7 +110,7 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 		ConvexShape min1 = (ConvexShape) body1.getCollisionShape();
 
 		ClosestPointInput input = pointInputsPool.get();
-		input.init(gl);
+		input.init();
 
 		// JAVA NOTE: original: TODO: if (dispatchInfo.m_useContinuous)
 		gjkPairDetector.setMinkowskiA(min0);
@@ -118,8 +124,20 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 		input.transformA.set(body0.getWorldTransform());
 		input.transformB.set(body1.getWorldTransform());
 
+		// JAVA NOTE: simplex solver holds only temporary state, when not given
+		// use per-thread one so pairs can be processed from multiple threads
+		VoronoiSimplexSolver pooledSimplexSolver = null;
+		if (simplexSolver == null) {
+			pooledSimplexSolver = simplexSolversPool.get();
+			gjkPairDetector.setSimplexSolver(pooledSimplexSolver);
+		}
+
 		gjkPairDetector.getClosestPoints(input, resultOut, dispatchInfo.debugDraw);
 		
+		if (pooledSimplexSolver != null) {
+			gjkPairDetector.setSimplexSolver(null);
+			simplexSolversPool.release(pooledSimplexSolver);
+		}
 		pointInputsPool.release(input);
 		//	#endif
 
@@ -132,6 +150,8 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 	
 	@Override
 	public float calculateTimeOfImpact(CollisionObject col0, CollisionObject col1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -233,12 +253,42 @@ public class ConvexConvexAlgorithm extends CollisionAlgorithm {
 		return manifoldPtr;
 	}
 	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return calculateManifoldSnapshotSize(manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(buf, manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(buf, manifoldPtr, ownManifold, body0, body1);
+		if (manifold != manifoldPtr) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
 		public ConvexPenetrationDepthSolver pdSolver;
 		public SimplexSolverInterface simplexSolver;
 
+		/**
+		 * @param simplexSolver simplex solver shared by all created algorithms, or null to use per-thread one
+		 * @param pdSolver penetration depth solver
+		 */
 		public CreateFunc(SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver pdSolver) {
 			this.simplexSolver = simplexSolver;
 			this.pdSolver = pdSolver;
@@ -23,6 +23,9 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
@@ -68,6 +71,8 @@ public class ConvexPlaneCollisionAlgorithm extends CollisionAlgorithm {
 	
 	@Override
 	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+
 		if (manifoldPtr == null) {
 			return;
 		}
@@ -136,6 +141,32 @@ public class ConvexPlaneCollisionAlgorithm extends CollisionAlgorithm {
 		return 1f;
 	}
 
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return calculateManifoldSnapshotSize(manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(buf, manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(buf, manifoldPtr, ownManifold, isSwapped? body1 : body0, isSwapped? body0 : body1);
+		if (manifold != manifoldPtr) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
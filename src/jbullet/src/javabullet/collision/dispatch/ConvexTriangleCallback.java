@@ -43,8 +43,6 @@ import javax.vecmath.Vector3f;
  */
 class ConvexTriangleCallback implements TriangleCallback {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	private CollisionObject convexBody;
 	private CollisionObject triBody;
 
@@ -81,6 +79,8 @@ class ConvexTriangleCallback implements TriangleCallback {
 	}
 
 	public void setTimeStepAndCounters(float collisionMarginTriangle, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			this.dispatchInfoPtr = dispatchInfo;
@@ -109,8 +109,12 @@ class ConvexTriangleCallback implements TriangleCallback {
 
 	private CollisionAlgorithmConstructionInfo ci = new CollisionAlgorithmConstructionInfo();
 	private TriangleShape tm = new TriangleShape();
+	// stands in for triangle body, the body itself can be used by other pairs on other threads
+	private CollisionObject triObject = new CollisionObject();
 	
 	public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			// just for debugging purposes
@@ -155,20 +159,19 @@ class ConvexTriangleCallback implements TriangleCallback {
 				tm.init(triangle[0], triangle[1], triangle[2]);
 				tm.setMargin(collisionMarginTriangle);
 
-				CollisionShape tmpShape = ob.getCollisionShape();
-				ob.setCollisionShape(tm);
+				triObject.setWorldTransform(ob.getWorldTransform());
+				triObject.setCollisionShape(tm);
 
-				CollisionAlgorithm colAlgo = ci.dispatcher1.findAlgorithm(convexBody, triBody, manifoldPtr);
+				CollisionAlgorithm colAlgo = ci.dispatcher1.findAlgorithm(convexBody, triObject, manifoldPtr);
 				// this should use the btDispatcher, so the actual registered algorithm is used
 				//		btConvexConvexAlgorithm cvxcvxalgo(m_manifoldPtr,ci,m_convexBody,m_triBody);
 
 				resultOut.setShapeIdentifiers(-1, -1, partId, triangleIndex);
 				//cvxcvxalgo.setShapeIdentifiers(-1,-1,partId,triangleIndex);
 				//cvxcvxalgo.processCollision(m_convexBody,m_triBody,*m_dispatchInfoPtr,m_resultOut);
-				colAlgo.processCollision(convexBody, triBody, dispatchInfoPtr, resultOut);
+				colAlgo.processCollision(convexBody, triObject, dispatchInfoPtr, resultOut);
 				colAlgo.destroy();
 				//ci.dispatcher1.freeCollisionAlgorithm(colAlgo);
-				ob.setCollisionShape(tmpShape);
 			}
 		}
 		finally {
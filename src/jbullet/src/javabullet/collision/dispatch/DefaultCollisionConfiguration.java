@@ -25,7 +25,6 @@ package javabullet.collision.dispatch;
 
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.collision.narrowphase.GjkEpaPenetrationDepthSolver;
-import javabullet.collision.narrowphase.VoronoiSimplexSolver;
 import static javabullet.collision.broadphase.BroadphaseNativeType.*;
 
 /**
@@ -37,8 +36,7 @@ import static javabullet.collision.broadphase.BroadphaseNativeType.*;
  */
 public class DefaultCollisionConfiguration extends CollisionConfiguration {
 
-	//default simplex/penetration depth solvers
-	private VoronoiSimplexSolver simplexSolver;
+	//default penetration depth solver, simplex solvers are per-thread (see ConvexConvexAlgorithm)
 	private GjkEpaPenetrationDepthSolver pdSolver;
 	
 	//default CreationFunctions, filling the m_doubleDispatch table
@@ -49,6 +47,7 @@ public class DefaultCollisionConfiguration extends CollisionConfiguration {
 	private CollisionAlgorithmCreateFunc swappedCompoundCreateFunc;
 	private CollisionAlgorithmCreateFunc emptyCreateFunc;
 	private CollisionAlgorithmCreateFunc sphereSphereCF;
+	private CollisionAlgorithmCreateFunc boxBoxCF;
 	private CollisionAlgorithmCreateFunc sphereBoxCF;
 	private CollisionAlgorithmCreateFunc boxSphereCF;
 	private CollisionAlgorithmCreateFunc sphereTriangleCF;
@@ -57,13 +56,12 @@ public class DefaultCollisionConfiguration extends CollisionConfiguration {
 	private CollisionAlgorithmCreateFunc convexPlaneCF;
 	
 	public DefaultCollisionConfiguration() {
-		simplexSolver = new VoronoiSimplexSolver();
 		pdSolver = new GjkEpaPenetrationDepthSolver();
 
 		/*
 		//default CreationFunctions, filling the m_doubleDispatch table
 		*/
-		convexConvexCreateFunc = new ConvexConvexAlgorithm.CreateFunc(simplexSolver, pdSolver);
+		convexConvexCreateFunc = new ConvexConvexAlgorithm.CreateFunc(null, pdSolver);
 		convexConcaveCreateFunc = new ConvexConcaveCollisionAlgorithm.CreateFunc();
 		swappedConvexConcaveCreateFunc = new ConvexConcaveCollisionAlgorithm.SwappedCreateFunc();
 		compoundCreateFunc = CompoundCollisionAlgorithm.createFunc;
@@ -71,14 +69,14 @@ public class DefaultCollisionConfiguration extends CollisionConfiguration {
 		emptyCreateFunc = EmptyAlgorithm.createFunc;
 
 		sphereSphereCF = SphereSphereCollisionAlgorithm.createFunc;
-		/*
-		m_sphereBoxCF = new(mem) btSphereBoxCollisionAlgorithm::CreateFunc;
-		m_boxSphereCF = new (mem)btSphereBoxCollisionAlgorithm::CreateFunc;
-		m_boxSphereCF->m_swapped = true;
-		m_sphereTriangleCF = new (mem)btSphereTriangleCollisionAlgorithm::CreateFunc;
-		m_triangleSphereCF = new (mem)btSphereTriangleCollisionAlgorithm::CreateFunc;
-		m_triangleSphereCF->m_swapped = true;
-		*/
+		sphereBoxCF = new SphereBoxCollisionAlgorithm.CreateFunc();
+		boxSphereCF = new SphereBoxCollisionAlgorithm.CreateFunc();
+		boxSphereCF.swapped = true;
+		sphereTriangleCF = new SphereTriangleCollisionAlgorithm.CreateFunc();
+		triangleSphereCF = new SphereTriangleCollisionAlgorithm.CreateFunc();
+		triangleSphereCF.swapped = true;
+		
+		boxBoxCF = new BoxBoxCollisionAlgorithm.CreateFunc();
 
 		// convex versus plane
 		convexPlaneCF = new ConvexPlaneCollisionAlgorithm.CreateFunc();
@@ -137,27 +135,25 @@ public class DefaultCollisionConfiguration extends CollisionConfiguration {
 			return sphereSphereCF;
 		}
 
-		/*
-		if ((proxyType0 == SPHERE_SHAPE_PROXYTYPE) && (proxyType1==BOX_SHAPE_PROXYTYPE))
-		{
-			return	m_sphereBoxCF;
+		if ((proxyType0 == SPHERE_SHAPE_PROXYTYPE) && (proxyType1 == BOX_SHAPE_PROXYTYPE)) {
+			return sphereBoxCF;
 		}
 
-		if ((proxyType0 == BOX_SHAPE_PROXYTYPE ) && (proxyType1==SPHERE_SHAPE_PROXYTYPE))
-		{
-			return	m_boxSphereCF;
+		if ((proxyType0 == BOX_SHAPE_PROXYTYPE) && (proxyType1 == SPHERE_SHAPE_PROXYTYPE)) {
+			return boxSphereCF;
 		}
 
-		if ((proxyType0 == SPHERE_SHAPE_PROXYTYPE ) && (proxyType1==TRIANGLE_SHAPE_PROXYTYPE))
-		{
-			return	m_sphereTriangleCF;
+		if ((proxyType0 == SPHERE_SHAPE_PROXYTYPE) && (proxyType1 == TRIANGLE_SHAPE_PROXYTYPE)) {
+			return sphereTriangleCF;
 		}
 
-		if ((proxyType0 == TRIANGLE_SHAPE_PROXYTYPE  ) && (proxyType1==SPHERE_SHAPE_PROXYTYPE))
-		{
-			return	m_triangleSphereCF;
+		if ((proxyType0 == TRIANGLE_SHAPE_PROXYTYPE) && (proxyType1 == SPHERE_SHAPE_PROXYTYPE)) {
+			return triangleSphereCF;
+		}
+
+		if ((proxyType0 == BOX_SHAPE_PROXYTYPE) && (proxyType1 == BOX_SHAPE_PROXYTYPE)) {
+			return boxBoxCF;
 		}
-		*/
 
 		if (proxyType0.isConvex() && (proxyType1 == STATIC_PLANE_PROXYTYPE))
 		{
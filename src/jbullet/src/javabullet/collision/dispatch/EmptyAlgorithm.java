@@ -23,9 +23,11 @@
 
 package javabullet.collision.dispatch;
 
+import java.util.List;
 import javabullet.collision.broadphase.CollisionAlgorithm;
 import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
 import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.PersistentManifold;
 
 /**
  *
@@ -49,6 +51,10 @@ public class EmptyAlgorithm extends CollisionAlgorithm {
 	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
 		return 1f;
 	}
+
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+	}
 	
 	////////////////////////////////////////////////////////////////////////////
 	
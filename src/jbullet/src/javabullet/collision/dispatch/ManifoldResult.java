@@ -40,9 +40,6 @@ import javax.vecmath.Vector3f;
  */
 public class ManifoldResult implements DiscreteCollisionDetectorInterface.Result {
 
-	protected final BulletStack stack = BulletStack.get();
-	protected final ObjectPool<ManifoldPoint> pointsPool = BulletPool.get(ManifoldPoint.class);
-	
 	private PersistentManifold manifoldPtr;
 
 	// we need this for compounds
@@ -85,6 +82,9 @@ public class ManifoldResult implements DiscreteCollisionDetectorInterface.Result
 	}
 
 	public void addContactPoint(Vector3f normalOnBInWorld, Vector3f pointInWorld, float depth) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<ManifoldPoint> pointsPool = BulletPool.get(ManifoldPoint.class);
+
 		assert (manifoldPtr != null);
 		//order in manifold needs to match
 
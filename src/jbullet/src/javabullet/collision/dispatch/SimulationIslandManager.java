@@ -24,15 +24,11 @@
 package javabullet.collision.dispatch;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import javabullet.BulletGlobals;
 import javabullet.collision.broadphase.BroadphasePair;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.narrowphase.PersistentManifold;
-import javabullet.linearmath.MiscUtil;
-import javabullet.util.HashUtil.IMap;
-import javabullet.util.HashUtil.IObjectProcedure;
 
 /**
  * SimulationIslandManager creates and handles simulation islands, using UnionFind.
@@ -46,6 +42,12 @@ public class SimulationIslandManager {
 	private final List<PersistentManifold> islandmanifold = new ArrayList<PersistentManifold>();
 	private final List<CollisionObject> islandBodies = new ArrayList<CollisionObject>();
 	
+	// manifolds sorted by island and their island ranges
+	private final List<PersistentManifold> sortedIslandManifolds = new ArrayList<PersistentManifold>();
+	private int[] manifoldIslands = new int[0];
+	private int[] manifoldCursors = new int[0];
+	private int[] islandManifoldOffsets = new int[1];
+	
 	public void initUnionFind(int n) {
 		unionFind.reset(n);
 	}
@@ -54,8 +56,11 @@ public class SimulationIslandManager {
 		return unionFind;
 	}
 	
-	private class FindUnionsCallback implements IObjectProcedure<BroadphasePair> {
-		public boolean execute(BroadphasePair collisionPair) {
+	public void findUnions(Dispatcher dispatcher, CollisionWorld colWorld) {
+		List<BroadphasePair> pairPtr = colWorld.getPairCache().getOverlappingPairArray();
+
+		for (int i = 0; i < pairPtr.size(); i++) {
+			BroadphasePair collisionPair = pairPtr.get(i);
 			CollisionObject colObj0 = (CollisionObject) collisionPair.pProxy0.clientObject;
 			CollisionObject colObj1 = (CollisionObject) collisionPair.pProxy1.clientObject;
 
@@ -63,16 +68,8 @@ public class SimulationIslandManager {
 					((colObj1 != null) && ((colObj1).mergesSimulationIslands()))) {
 				unionFind.unite((colObj0).getIslandTag(), (colObj1).getIslandTag());
 			}
-			return true;
 		}
 	}
-	
-	private FindUnionsCallback findUnionsCallback = new FindUnionsCallback();
-
-	public void findUnions(Dispatcher dispatcher, CollisionWorld colWorld) {
-		IMap<BroadphasePair,BroadphasePair> pairPtr = colWorld.getPairCache().getOverlappingPairArray();
-		pairPtr.forEachValue(findUnionsCallback);
-	}
 
 	public void updateActivationState(CollisionWorld colWorld, Dispatcher dispatcher) {
 		initUnionFind(colWorld.getCollisionObjectArray().size());
@@ -123,22 +120,19 @@ public class SimulationIslandManager {
 	}
 
 	public void buildAndProcessIslands(Dispatcher dispatcher, List<CollisionObject> collisionObjects, IslandCallback callback) {
-		BulletGlobals.pushProfile("islandUnionFindAndHeapSort");
+		BulletGlobals.pushProfile("islandUnionFindAndSort");
 		try {
-			// we are going to sort the unionfind array, and store the element id in the size
-			// afterwards, we clean unionfind, to make sure no-one uses it anymore
+			UnionFind unionFind = this.unionFind;
 
-			getUnionFind().sortIslands();
-			int numElem = getUnionFind().getNumElements();
-
-			int endIslandIndex = 1;
-			int startIslandIndex;
+			// group bodies by islands, islands are ordered by island id
+			unionFind.sortIslands();
+			int numIslands = unionFind.getNumIslands();
 
 			// update the sleeping state for bodies, if all are sleeping
-			for (startIslandIndex = 0; startIslandIndex < numElem; startIslandIndex = endIslandIndex) {
-				int islandId = getUnionFind().getElement(startIslandIndex).id;
-				for (endIslandIndex = startIslandIndex + 1; (endIslandIndex < numElem) && (getUnionFind().getElement(endIslandIndex).id == islandId); endIslandIndex++) {
-				}
+			for (int island = 0; island < numIslands; island++) {
+				int islandId = unionFind.getIslandId(island);
+				int startIslandIndex = unionFind.getIslandStart(island);
+				int endIslandIndex = unionFind.getIslandEnd(island);
 
 				//int numSleeping = 0;
 
@@ -146,7 +140,7 @@ public class SimulationIslandManager {
 
 				int idx;
 				for (idx = startIslandIndex; idx < endIslandIndex; idx++) {
-					int i = getUnionFind().getElement(idx).sz;
+					int i = unionFind.getIslandElement(idx);
 
 					CollisionObject colObj0 = collisionObjects.get(i);
 					if ((colObj0.getIslandTag() != islandId) && (colObj0.getIslandTag() != -1)) {
@@ -168,7 +162,7 @@ public class SimulationIslandManager {
 				if (allSleeping) {
 					//int idx;
 					for (idx = startIslandIndex; idx < endIslandIndex; idx++) {
-						int i = getUnionFind().getElement(idx).sz;
+						int i = unionFind.getIslandElement(idx);
 						CollisionObject colObj0 = collisionObjects.get(i);
 						if ((colObj0.getIslandTag() != islandId) && (colObj0.getIslandTag() != -1)) {
 							System.err.println("error in island management\n");
@@ -185,7 +179,7 @@ public class SimulationIslandManager {
 
 					//int idx;
 					for (idx = startIslandIndex; idx < endIslandIndex; idx++) {
-						int i = getUnionFind().getElement(idx).sz;
+						int i = unionFind.getIslandElement(idx);
 
 						CollisionObject colObj0 = collisionObjects.get(i);
 						if ((colObj0.getIslandTag() != islandId) && (colObj0.getIslandTag() != -1)) {
@@ -211,6 +205,15 @@ public class SimulationIslandManager {
 			//#ifdef SPLIT_ISLANDS
 			//#endif //SPLIT_ISLANDS
 
+			ensureManifoldCapacity(maxNumManifolds, numIslands);
+			int[] manifoldIslands = this.manifoldIslands;
+			int[] islandManifoldOffsets = this.islandManifoldOffsets;
+			for (i = 0; i <= numIslands; i++) {
+				islandManifoldOffsets[i] = 0;
+			}
+
+			// collect manifolds with their island index, counting manifolds of each island
+			int numManifolds = 0;
 			for (i = 0; i < maxNumManifolds; i++) {
 				PersistentManifold manifold = dispatcher.getManifoldByIndexInternal(i);
 
@@ -231,7 +234,15 @@ public class SimulationIslandManager {
 					//#ifdef SPLIT_ISLANDS
 					//filtering for response
 					if (dispatcher.needsResponse(colObj0, colObj1)) {
-						islandmanifold.add(manifold);
+						int islandId = getIslandId(manifold);
+						// manifolds between objects not merging islands don't belong to any island
+						if (islandId >= 0) {
+							int island = unionFind.getIslandIndex(islandId);
+							assert (island >= 0);
+							manifoldIslands[numManifolds++] = island;
+							islandManifoldOffsets[island + 1]++;
+							islandmanifold.add(manifold);
+						}
 					}
 					//#endif //SPLIT_ISLANDS
 				}
@@ -242,35 +253,31 @@ public class SimulationIslandManager {
 			//
 			//callback->ProcessIsland(&collisionObjects[0],collisionObjects.size(),manifold,maxNumManifolds, -1);
 			//#else
-			// Sort manifolds, based on islands
-			// Sort the vector using predicate and std::sort
-			//std::sort(islandmanifold.begin(), islandmanifold.end(), btPersistentManifoldSortPredicate);
-
-			int numManifolds = islandmanifold.size();
-
-			// we should do radix sort, it it much faster (O(n) instead of O (n log2(n))
-			//islandmanifold.heapSort(btPersistentManifoldSortPredicate());
 			
-			// JAVA NOTE: memory optimized sorting with caching of temporary array
-			//Collections.sort(islandmanifold, persistentManifoldComparator);
-			MiscUtil.heapSort(islandmanifold, persistentManifoldComparator);
+			// Sort manifolds, based on islands (counting sort, manifolds keep their order inside of island)
+			for (i = 0; i < numIslands; i++) {
+				islandManifoldOffsets[i + 1] += islandManifoldOffsets[i];
+				manifoldCursors[i] = islandManifoldOffsets[i];
+			}
+			while (sortedIslandManifolds.size() < numManifolds) {
+				sortedIslandManifolds.add(null);
+			}
+			for (i = 0; i < numManifolds; i++) {
+				sortedIslandManifolds.set(manifoldCursors[manifoldIslands[i]]++, islandmanifold.get(i));
+			}
 
 			// now process all active islands (sets of manifolds for now)
 
-			int startManifoldIndex = 0;
-			int endManifoldIndex = 1;
-
-			//int islandId;
-
 			//printf("Start Islands\n");
 
 			// traverse the simulation islands, and call the solver, unless all objects are sleeping/deactivated
-			for (startIslandIndex = 0; startIslandIndex < numElem; startIslandIndex = endIslandIndex) {
-				int islandId = getUnionFind().getElement(startIslandIndex).id;
+			for (int island = 0; island < numIslands; island++) {
+				int islandId = unionFind.getIslandId(island);
 				boolean islandSleeping = false;
 
-				for (endIslandIndex = startIslandIndex; (endIslandIndex < numElem) && (getUnionFind().getElement(endIslandIndex).id == islandId); endIslandIndex++) {
-					/*int*/ i = getUnionFind().getElement(endIslandIndex).sz;
+				int endIslandIndex = unionFind.getIslandEnd(island);
+				for (int idx = unionFind.getIslandStart(island); idx < endIslandIndex; idx++) {
+					/*int*/ i = unionFind.getIslandElement(idx);
 					CollisionObject colObj0 = collisionObjects.get(i);
 					islandBodies.add(colObj0);
 					if (!colObj0.isActive()) {
@@ -278,58 +285,47 @@ public class SimulationIslandManager {
 					}
 				}
 
-
-				// find the accompanying contact manifold for this islandId
-				int numIslandManifolds = 0;
-				//List<PersistentManifold> startManifold = null;
-				int startManifold_idx = -1;
-
-				if (startManifoldIndex < numManifolds) {
-					int curIslandId = getIslandId(islandmanifold.get(startManifoldIndex));
-					if (curIslandId == islandId) {
-						//startManifold = &m_islandmanifold[startManifoldIndex];
-						//startManifold = islandmanifold.subList(startManifoldIndex, islandmanifold.size());
-						startManifold_idx = startManifoldIndex;
-
-						for (endManifoldIndex = startManifoldIndex + 1; (endManifoldIndex < numManifolds) && (islandId == getIslandId(islandmanifold.get(endManifoldIndex))); endManifoldIndex++) {
-
-						}
-						// Process the actual simulation, only if not sleeping/deactivated
-						numIslandManifolds = endManifoldIndex - startManifoldIndex;
-					}
-
+				// the accompanying contact manifolds for this islandId
+				int startManifold_idx = islandManifoldOffsets[island];
+				int numIslandManifolds = islandManifoldOffsets[island + 1] - startManifold_idx;
+				if (numIslandManifolds == 0) {
+					startManifold_idx = -1;
 				}
 
 				if (!islandSleeping) {
-					callback.processIsland(islandBodies, islandBodies.size(), islandmanifold, startManifold_idx, numIslandManifolds, islandId);
+					callback.processIsland(islandBodies, islandBodies.size(), sortedIslandManifolds, startManifold_idx, numIslandManifolds, islandId);
 					//printf("Island callback of size:%d bodies, %d manifolds\n",islandBodies.size(),numIslandManifolds);
 				}
 
-				if (numIslandManifolds != 0) {
-					startManifoldIndex = endManifoldIndex;
-				}
-
 				islandBodies.clear();
 			}
 			//#endif //SPLIT_ISLANDS
 
 			islandmanifold.clear();
+			for (i = 0; i < numManifolds; i++) {
+				sortedIslandManifolds.set(i, null);
+			}
 		}
 		finally {
 			BulletGlobals.popProfile();
 		}
 	}
 
+	private void ensureManifoldCapacity(int numManifolds, int numIslands) {
+		if (manifoldIslands.length < numManifolds) {
+			manifoldIslands = new int[Math.max(numManifolds, manifoldIslands.length << 1)];
+		}
+		if (manifoldCursors.length < numIslands) {
+			int capacity = Math.max(numIslands, manifoldCursors.length << 1);
+			manifoldCursors = new int[capacity];
+			islandManifoldOffsets = new int[capacity + 1];
+		}
+	}
+
 	////////////////////////////////////////////////////////////////////////////
 	
 	public interface IslandCallback {
 		public void processIsland(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifolds, int manifolds_offset, int numManifolds, int islandId);
 	}
 	
-	private static final Comparator<PersistentManifold> persistentManifoldComparator = new Comparator<PersistentManifold>() {
-		public int compare(PersistentManifold lhs, PersistentManifold rhs) {
-			return getIslandId(lhs) < getIslandId(rhs)? -1 : +1;
-		}
-	};
-	
 }
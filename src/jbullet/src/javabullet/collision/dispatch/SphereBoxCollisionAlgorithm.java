@@ -0,0 +1,210 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.dispatch;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletStack;
+import javabullet.collision.broadphase.CollisionAlgorithm;
+import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Sphere-box collision algorithm. Sphere center is clamped to the box in box
+ * space, when the center is inside the box the face of least penetration
+ * is used.
+ * 
+ * @author jezek2
+ */
+public class SphereBoxCollisionAlgorithm extends CollisionAlgorithm {
+
+	private boolean ownManifold;
+	private PersistentManifold manifoldPtr;
+	private boolean isSwapped;
+	
+	public SphereBoxCollisionAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject col0, CollisionObject col1, boolean isSwapped) {
+		super(ci);
+		this.manifoldPtr = mf;
+		this.isSwapped = isSwapped;
+		
+		CollisionObject sphereObj = isSwapped? col1 : col0;
+		CollisionObject boxObj = isSwapped? col0 : col1;
+
+		if (manifoldPtr == null && dispatcher.needsCollision(sphereObj, boxObj)) {
+			manifoldPtr = dispatcher.getNewManifold(sphereObj, boxObj);
+			ownManifold = true;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (ownManifold) {
+			if (manifoldPtr != null) {
+				dispatcher.releaseManifold(manifoldPtr);
+			}
+		}
+	}
+
+	@Override
+	public void processCollision(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+
+		if (manifoldPtr == null) {
+			return;
+		}
+
+		stack.pushCommonMath();
+		try {
+			CollisionObject sphereObj = isSwapped? body1 : body0;
+			CollisionObject boxObj = isSwapped? body0 : body1;
+
+			SphereShape sphere0 = (SphereShape) sphereObj.getCollisionShape();
+			BoxShape box = (BoxShape) boxObj.getCollisionShape();
+			float radius = sphere0.getRadius();
+			
+			// manifold is always created as (sphere, box), ManifoldResult handles the order of bodies
+			resultOut.setPersistentManifold(manifoldPtr);
+			
+			Transform boxTrans = boxObj.getWorldTransform();
+			
+			// sphere center in box space
+			Vector3f center = stack.vectors.get(sphereObj.getWorldTransform().origin);
+			boxTrans.invXform(center, center);
+			
+			Vector3f halfExtents = box.getHalfExtentsWithMargin();
+			
+			Vector3f pOnBox = stack.vectors.get();
+			Vector3f normalOnBox = stack.vectors.get();
+			float dist = 0f;
+			boolean separated = false;
+			
+			pOnBox.x = Math.max(-halfExtents.x, Math.min(halfExtents.x, center.x));
+			pOnBox.y = Math.max(-halfExtents.y, Math.min(halfExtents.y, center.y));
+			pOnBox.z = Math.max(-halfExtents.z, Math.min(halfExtents.z, center.z));
+			
+			normalOnBox.sub(center, pOnBox);
+			float len2 = normalOnBox.lengthSquared();
+			
+			if (len2 > 0f) {
+				// center is outside of the box
+				float maxDist = radius + manifoldPtr.getContactBreakingThreshold();
+				if (len2 > maxDist * maxDist) {
+					// no new contact, but the old ones must still be refreshed
+					separated = true;
+				}
+				else {
+					float len = (float)Math.sqrt(len2);
+					normalOnBox.scale(1f / len);
+					dist = len - radius;
+				}
+			}
+			else {
+				// center is inside of the box, push out through the closest face
+				float dx = halfExtents.x - Math.abs(center.x);
+				float dy = halfExtents.y - Math.abs(center.y);
+				float dz = halfExtents.z - Math.abs(center.z);
+				
+				normalOnBox.set(0f, 0f, 0f);
+				if (dx <= dy && dx <= dz) {
+					normalOnBox.x = center.x < 0f? -1f : 1f;
+					pOnBox.x = normalOnBox.x * halfExtents.x;
+					dist = -dx - radius;
+				}
+				else if (dy <= dz) {
+					normalOnBox.y = center.y < 0f? -1f : 1f;
+					pOnBox.y = normalOnBox.y * halfExtents.y;
+					dist = -dy - radius;
+				}
+				else {
+					normalOnBox.z = center.z < 0f? -1f : 1f;
+					pOnBox.z = normalOnBox.z * halfExtents.z;
+					dist = -dz - radius;
+				}
+			}
+			
+			if (!separated) {
+				boxTrans.transform(pOnBox);
+				boxTrans.basis.transform(normalOnBox);
+				
+				// report a contact. internally this will be kept persistent, and contact reduction is done
+				resultOut.addContactPoint(normalOnBox, pOnBox, dist);
+			}
+
+			if (ownManifold) {
+				if (manifoldPtr.getNumContacts() != 0) {
+					resultOut.refreshContactPoints();
+				}
+			}
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+
+	@Override
+	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		return 1f;
+	}
+	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return calculateManifoldSnapshotSize(manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(buf, manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(buf, manifoldPtr, ownManifold, isSwapped? body1 : body0, isSwapped? body0 : body1);
+		if (manifold != manifoldPtr) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+		@Override
+		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
+			return new SphereBoxCollisionAlgorithm(ci.manifold, ci, body0, body1, swapped);
+		}
+	}
+	
+}
@@ -23,6 +23,8 @@
 
 package javabullet.collision.dispatch;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
 import javabullet.collision.broadphase.CollisionAlgorithm;
@@ -66,6 +68,8 @@ public class SphereSphereCollisionAlgorithm extends CollisionAlgorithm {
 	
 	@Override
 	public void processCollision(CollisionObject col0, CollisionObject col1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		BulletStack stack = BulletStack.get();
+
 		if (manifoldPtr == null) {
 			return;
 		}
@@ -125,6 +129,32 @@ public class SphereSphereCollisionAlgorithm extends CollisionAlgorithm {
 		return 1f;
 	}
 
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return calculateManifoldSnapshotSize(manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(buf, manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(buf, manifoldPtr, ownManifold, body0, body1);
+		if (manifold != manifoldPtr) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+
 	////////////////////////////////////////////////////////////////////////////
 	
 	public static final CollisionAlgorithmCreateFunc createFunc = new CollisionAlgorithmCreateFunc() {
@@ -0,0 +1,147 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.dispatch;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import javabullet.BulletPool;
+import javabullet.ObjectPool;
+import javabullet.collision.broadphase.CollisionAlgorithm;
+import javabullet.collision.broadphase.CollisionAlgorithmConstructionInfo;
+import javabullet.collision.broadphase.DispatcherInfo;
+import javabullet.collision.narrowphase.DiscreteCollisionDetectorInterface.ClosestPointInput;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.collision.narrowphase.SphereTriangleDetector;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.collision.shapes.TriangleShape;
+
+/**
+ * Sphere-triangle collision algorithm, used for spheres colliding with triangles
+ * of concave meshes. Uses {@link SphereTriangleDetector} instead of GJK.
+ * 
+ * @author jezek2
+ */
+public class SphereTriangleCollisionAlgorithm extends CollisionAlgorithm {
+
+	private boolean ownManifold;
+	private PersistentManifold manifoldPtr;
+	private boolean swapped;
+	
+	public SphereTriangleCollisionAlgorithm(PersistentManifold mf, CollisionAlgorithmConstructionInfo ci, CollisionObject col0, CollisionObject col1, boolean swapped) {
+		super(ci);
+		this.manifoldPtr = mf;
+		this.swapped = swapped;
+		
+		if (manifoldPtr == null) {
+			manifoldPtr = dispatcher.getNewManifold(col0, col1);
+			ownManifold = true;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (ownManifold) {
+			if (manifoldPtr != null) {
+				dispatcher.releaseManifold(manifoldPtr);
+			}
+		}
+	}
+
+	@Override
+	public void processCollision(CollisionObject col0, CollisionObject col1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
+		ObjectPool<SphereTriangleDetector> detectorsPool = BulletPool.get(SphereTriangleDetector.class);
+
+		if (manifoldPtr == null) {
+			return;
+		}
+
+		CollisionObject sphereObj = swapped? col1 : col0;
+		CollisionObject triObj = swapped? col0 : col1;
+
+		SphereShape sphere = (SphereShape) sphereObj.getCollisionShape();
+		TriangleShape triangle = (TriangleShape) triObj.getCollisionShape();
+
+		/// report a contact. internally this will be kept persistent, and contact reduction is done
+		resultOut.setPersistentManifold(manifoldPtr);
+		
+		ClosestPointInput input = pointInputsPool.get();
+		input.init();
+		input.transformA.set(sphereObj.getWorldTransform());
+		input.transformB.set(triObj.getWorldTransform());
+
+		SphereTriangleDetector detector = detectorsPool.get();
+		detector.init(sphere, triangle, manifoldPtr.getContactBreakingThreshold());
+		detector.getClosestPoints(input, resultOut, dispatchInfo.debugDraw, swapped);
+		detector.init(null, null, 0f);
+
+		detectorsPool.release(detector);
+		pointInputsPool.release(input);
+
+		if (ownManifold) {
+			resultOut.refreshContactPoints();
+		}
+	}
+
+	@Override
+	public float calculateTimeOfImpact(CollisionObject body0, CollisionObject body1, DispatcherInfo dispatchInfo, ManifoldResult resultOut) {
+		return 1f;
+	}
+	
+	@Override
+	public void getAllContactManifolds(List<PersistentManifold> manifoldArray) {
+		if (manifoldPtr != null && ownManifold) {
+			manifoldArray.add(manifoldPtr);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return calculateManifoldSnapshotSize(manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		writeManifoldSnapshot(buf, manifoldPtr, ownManifold);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf, CollisionObject body0, CollisionObject body1) {
+		PersistentManifold manifold = readManifoldSnapshot(buf, manifoldPtr, ownManifold, body0, body1);
+		if (manifold != manifoldPtr) {
+			manifoldPtr = manifold;
+			ownManifold = (manifold != null);
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	public static class CreateFunc extends CollisionAlgorithmCreateFunc {
+		@Override
+		public CollisionAlgorithm createCollisionAlgorithm(CollisionAlgorithmConstructionInfo ci, CollisionObject body0, CollisionObject body1) {
+			return new SphereTriangleCollisionAlgorithm(ci.manifold, ci, body0, body1, swapped);
+		}
+	}
+	
+}
@@ -23,71 +23,104 @@
 
 package javabullet.collision.dispatch;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import javabullet.linearmath.MiscUtil;
-
 /**
  * UnionFind calculates connected subsets.
- * Implements weighted Quick Union with path compression.
- * Optimization: could use short ints instead of ints (halving memory, would limit the number of rigid bodies to 64k, sounds reasonable).
+ * Implements Quick Union by rank with path compression, elements are stored
+ * in primitive arrays, which are kept between uses and only grow.
  * 
  * @author jezek2
  */
 public class UnionFind {
 
-	private final List<Element> elements = new ArrayList<Element>();
+	private int[] id = new int[0];
+	private int[] rank = new int[0];
+	private int numElements;
+	
+	// islands grouped by sortIslands
+	private int numIslands;
+	private int[] islandIds = new int[0];
+	private int[] islandOffsets = new int[1];
+	private int[] islandElements = new int[0];
+	private int[] rootIslands = new int[0];
+	private int[] islandCursors = new int[0];
 	
 	/**
-	 * This is a special operation, destroying the content of UnionFind.
-	 * It sorts the elements, based on island id, in order to make it easy to iterate over islands.
+	 * Groups the elements by island id (root element), in order to make it easy to
+	 * iterate over islands. Islands are ordered by increasing island id, elements
+	 * in each island by increasing index. Uses counting sort, O(n).
 	 */
 	public void sortIslands() {
-		// first store the original body index, and islandId
-		int numElements = elements.size();
+		int numElements = this.numElements;
+		int[] rootIslands = this.rootIslands;
 
+		// count elements of each island, temporarily stored in rootIslands
+		for (int i = 0; i < numElements; i++) {
+			rootIslands[i] = 0;
+		}
 		for (int i = 0; i < numElements; i++) {
-			elements.get(i).id = find(i);
-			elements.get(i).sz = i;
+			rootIslands[find(i)]++;
 		}
 
-		// Sort the vector using predicate and std::sort
-		//std::sort(m_elements.begin(), m_elements.end(), btUnionFindElementSortPredicate);
-		//perhaps use radix sort?
-		//elements.heapSort(btUnionFindElementSortPredicate());
-		
-		//Collections.sort(elements);
-		MiscUtil.heapSort(elements, elementComparator);
+		int numIslands = 0;
+		int offset = 0;
+		for (int i = 0; i < numElements; i++) {
+			int count = rootIslands[i];
+			if (count != 0) {
+				islandIds[numIslands] = i;
+				islandOffsets[numIslands] = offset;
+				islandCursors[numIslands] = offset;
+				rootIslands[i] = numIslands;
+				numIslands++;
+				offset += count;
+			}
+			else {
+				rootIslands[i] = -1;
+			}
+		}
+		islandOffsets[numIslands] = offset;
+		this.numIslands = numIslands;
+
+		// paths are fully compressed now, id is the root
+		for (int i = 0; i < numElements; i++) {
+			islandElements[islandCursors[rootIslands[id[i]]]++] = i;
+		}
 	}
 
 	public void reset(int N) {
 		allocate(N);
 
 		for (int i = 0; i < N; i++) {
-			elements.get(i).id = i;
-			elements.get(i).sz = 1;
+			id[i] = i;
+			rank[i] = 0;
 		}
+		numIslands = 0;
 	}
 
 	public int getNumElements() {
-		return elements.size();
+		return numElements;
 	}
 
 	public boolean isRoot(int x) {
-		return (x == elements.get(x).id);
-	}
-
-	public Element getElement(int index) {
-		return elements.get(index);
+		return (x == id[x]);
 	}
 
 	public void allocate(int N) {
-		MiscUtil.resize(elements, N, Element.class);
+		if (id.length < N) {
+			int capacity = Math.max(N, id.length << 1);
+			id = new int[capacity];
+			rank = new int[capacity];
+			islandIds = new int[capacity];
+			islandOffsets = new int[capacity + 1];
+			islandElements = new int[capacity];
+			rootIslands = new int[capacity];
+			islandCursors = new int[capacity];
+		}
+		numElements = N;
 	}
 
 	public void free() {
-		elements.clear();
+		numElements = 0;
+		numIslands = 0;
 	}
 
 	public int find(int p, int q) {
@@ -100,50 +133,79 @@ public class UnionFind {
 			return;
 		}
 
-		//#ifndef USE_PATH_COMPRESSION
-		////weighted quick union, this keeps the 'trees' balanced, and keeps performance of unite O( log(n) )
-		//if (m_elements[i].m_sz < m_elements[j].m_sz)
-		//{ 
-		//	m_elements[i].m_id = j; m_elements[j].m_sz += m_elements[i].m_sz; 
-		//}
-		//else 
-		//{ 
-		//	m_elements[j].m_id = i; m_elements[i].m_sz += m_elements[j].m_sz; 
-		//}
-		//#else
-		elements.get(i).id = j;
-		elements.get(j).sz += elements.get(i).sz;
-		//#endif //USE_PATH_COMPRESSION
+		// union by rank keeps the trees balanced
+		if (rank[i] < rank[j]) {
+			id[i] = j;
+		}
+		else if (rank[i] > rank[j]) {
+			id[j] = i;
+		}
+		else {
+			id[i] = j;
+			rank[j]++;
+		}
 	}
 
 	public int find(int x) {
 		//assert(x < m_N);
 		//assert(x >= 0);
 
-		while (x != elements.get(x).id) {
-			// not really a reason not to use path compression, and it flattens the trees/improves find performance dramatically
-
-			//#ifdef USE_PATH_COMPRESSION
-			elements.get(x).id = elements.get(elements.get(x).id).id;
-			//#endif //
-			x = elements.get(x).id;
-			//assert(x < m_N);
-			//assert(x >= 0);
+		int[] id = this.id;
+		int root = x;
+		while (root != id[root]) {
+			root = id[root];
 		}
-		return x;
+		
+		// path compression, point all visited elements directly to the root
+		while (x != root) {
+			int next = id[x];
+			id[x] = root;
+			x = next;
+		}
+		return root;
 	}
 	
-	////////////////////////////////////////////////////////////////////////////
-	
-	public static class Element {
-		public int id;
-		public int sz;
+	/**
+	 * Returns number of islands found by last call of {@link #sortIslands}.
+	 */
+	public int getNumIslands() {
+		return numIslands;
+	}
+
+	/**
+	 * Returns island id (root element) of given island.
+	 */
+	public int getIslandId(int island) {
+		return islandIds[island];
+	}
+
+	/**
+	 * Returns index of the island with given island id, or -1 when the
+	 * element is not root.
+	 */
+	public int getIslandIndex(int islandId) {
+		return rootIslands[islandId];
+	}
+
+	/**
+	 * Returns position of the first element of given island, see {@link #getIslandElement}.
+	 */
+	public int getIslandStart(int island) {
+		return islandOffsets[island];
+	}
+
+	/**
+	 * Returns position after the last element of given island, see {@link #getIslandElement}.
+	 */
+	public int getIslandEnd(int island) {
+		return islandOffsets[island+1];
+	}
+
+	/**
+	 * Returns element index at given position of island sorted order.
+	 */
+	public int getIslandElement(int pos) {
+		return islandElements[pos];
 	}
-	
-	private static final Comparator<Element> elementComparator = new Comparator<Element>() {
-		public int compare(Element o1, Element o2) {
-			return o1.id < o2.id? -1 : +1;
-		}
-	};
 	
 }
@@ -0,0 +1,713 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+/*
+ * Box-Box collision detection re-distributed under the ZLib license with permission from Russell L. Smith
+ * Original version is from Open Dynamics Engine, Copyright (C) 2001,2002 Russell L. Smith.
+ * All rights reserved.  Email: russ@q12.org   Web: www.q12.org
+ */
+
+package javabullet.collision.narrowphase;
+
+import javabullet.BulletGlobals;
+import javabullet.BulletStack;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.linearmath.IDebugDraw;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * BoxBoxDetector wraps the ODE box-box collision detector. It finds the axis of
+ * least penetration among the 15 separating axes and clips the incident face
+ * against the reference face, producing up to 4 contacts in one pass. Only
+ * penetrating contacts are reported.<p>
+ * 
+ * Detector keeps temporary arrays, instance must not be used from multiple
+ * threads at once.
+ * 
+ * @author jezek2
+ */
+public class BoxBoxDetector implements DiscreteCollisionDetectorInterface {
+
+	private static final float fudge_factor = 1.05f;
+	private static final int MAX_CONTACTS = 4;
+	
+	private BoxShape box1;
+	private BoxShape box2;
+	
+	// rotation matrices in ODE layout (3 rows with stride 4)
+	private final float[] R1 = new float[12];
+	private final float[] R2 = new float[12];
+	
+	private final float[] p1 = new float[3];
+	private final float[] p2 = new float[3];
+	private final float[] A = new float[3];
+	private final float[] B = new float[3];
+	private final float[] p = new float[3];
+	private final float[] pp = new float[3];
+	private final float[] normal = new float[3];
+	private final float[] normalC = new float[3];
+	private final float[] normal2 = new float[3];
+	private final float[] nr = new float[3];
+	private final float[] anr = new float[3];
+	private final float[] center = new float[3];
+	private final float[] edgePointA = new float[3];
+	private final float[] edgePointB = new float[3];
+	private final float[] ua = new float[3];
+	private final float[] ub = new float[3];
+	private final float[] quad = new float[8];
+	private final float[] rect = new float[2];
+	private final float[] ret = new float[16];
+	private final float[] buffer = new float[16];
+	private final float[] point = new float[3*8];
+	private final float[] dep = new float[8];
+	private final float[] angles = new float[8];
+	private final int[] avail = new int[8];
+	private final int[] iret = new int[8];
+	private final float[] alphaBeta = new float[2];
+	
+	public BoxBoxDetector() {
+	}
+
+	public BoxBoxDetector(BoxShape box1, BoxShape box2) {
+		init(box1, box2);
+	}
+	
+	public void init(BoxShape box1, BoxShape box2) {
+		this.box1 = box1;
+		this.box2 = box2;
+	}
+
+	public void getClosestPoints(ClosestPointInput input, Result output, IDebugDraw debugDraw) {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			Transform transformA = input.transformA;
+			Transform transformB = input.transformB;
+
+			getMatrix(transformA.basis, R1);
+			getMatrix(transformB.basis, R2);
+
+			p1[0] = transformA.origin.x; p1[1] = transformA.origin.y; p1[2] = transformA.origin.z;
+			p2[0] = transformB.origin.x; p2[1] = transformB.origin.y; p2[2] = transformB.origin.z;
+
+			Vector3f halfExtents1 = box1.getHalfExtentsWithMargin();
+			A[0] = halfExtents1.x; A[1] = halfExtents1.y; A[2] = halfExtents1.z;
+			Vector3f halfExtents2 = box2.getHalfExtentsWithMargin();
+			B[0] = halfExtents2.x; B[1] = halfExtents2.y; B[2] = halfExtents2.z;
+
+			dBoxBox2(MAX_CONTACTS, output, stack.vectors.get(), stack.vectors.get());
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+
+	private static void getMatrix(Matrix3f m, float[] R) {
+		R[0] = m.m00; R[1] = m.m01; R[2]  = m.m02; R[3]  = 0f;
+		R[4] = m.m10; R[5] = m.m11; R[6]  = m.m12; R[7]  = 0f;
+		R[8] = m.m20; R[9] = m.m21; R[10] = m.m22; R[11] = 0f;
+	}
+	
+	private static float dDOT(float[] a, int aOff, float[] b, int bOff) {
+		return a[aOff]*b[bOff] + a[aOff+1]*b[bOff+1] + a[aOff+2]*b[bOff+2];
+	}
+
+	private static float dDOT44(float[] a, int aOff, float[] b, int bOff) {
+		return a[aOff]*b[bOff] + a[aOff+4]*b[bOff+4] + a[aOff+8]*b[bOff+8];
+	}
+
+	private static float dDOT41(float[] a, int aOff, float[] b, int bOff) {
+		return a[aOff]*b[bOff] + a[aOff+4]*b[bOff+1] + a[aOff+8]*b[bOff+2];
+	}
+
+	private static float dDOT14(float[] a, int aOff, float[] b, int bOff) {
+		return a[aOff]*b[bOff] + a[aOff+1]*b[bOff+4] + a[aOff+2]*b[bOff+8];
+	}
+
+	/** A = B^T * C */
+	private static void dMULTIPLY1_331(float[] A, float[] B, float[] C) {
+		A[0] = dDOT41(B, 0, C, 0);
+		A[1] = dDOT41(B, 1, C, 0);
+		A[2] = dDOT41(B, 2, C, 0);
+	}
+
+	/** A = B * C */
+	private static void dMULTIPLY0_331(float[] A, float[] B, float[] C) {
+		A[0] = dDOT(B, 0, C, 0);
+		A[1] = dDOT(B, 4, C, 0);
+		A[2] = dDOT(B, 8, C, 0);
+	}
+	
+	/**
+	 * Finds parameters of closest points on two lines given by points and unit directions.
+	 */
+	private static void dLineClosestApproach(float[] pa, float[] ua, float[] pb, float[] ub, float[] alphaBeta) {
+		float px = pb[0] - pa[0];
+		float py = pb[1] - pa[1];
+		float pz = pb[2] - pa[2];
+		float uaub = dDOT(ua, 0, ub, 0);
+		float q1 = ua[0]*px + ua[1]*py + ua[2]*pz;
+		float q2 = -(ub[0]*px + ub[1]*py + ub[2]*pz);
+		float d = 1f - uaub*uaub;
+		if (d <= 0.0001f) {
+			// the lines are nearly parallel
+			alphaBeta[0] = 0f;
+			alphaBeta[1] = 0f;
+		}
+		else {
+			d = 1f/d;
+			alphaBeta[0] = (q1 + uaub*q2)*d;
+			alphaBeta[1] = (uaub*q1 + q2)*d;
+		}
+	}
+	
+	/**
+	 * Finds all the intersection points between the 2D rectangle with vertices
+	 * at (+/-h[0],+/-h[1]) and the 2D quadrilateral with vertices (p[0],p[1]),
+	 * (p[2],p[3]),(p[4],p[5]),(p[6],p[7]).<p>
+	 * 
+	 * The intersection points are returned as x,y pairs in the 'ret' array.
+	 * 
+	 * @return the number of intersection points (0 to 8)
+	 */
+	private int intersectRectQuad2(float[] h, float[] p, float[] ret) {
+		// q (and r) contain nq (and nr) coordinate points for the current (and
+		// chopped) polygons
+		int nq = 4, nr = 0;
+		float[] q = p;
+		float[] r = ret;
+		
+		done:
+		for (int dir = 0; dir <= 1; dir++) {
+			// direction notation: xy[0] = x axis, xy[1] = y axis
+			for (int sign = -1; sign <= 1; sign += 2) {
+				// chop q along the line xy[dir] = sign*h[dir]
+				int pq = 0;
+				int pr = 0;
+				nr = 0;
+				for (int i = nq; i > 0; i--) {
+					// go through all points in q and all lines between adjacent points
+					if (sign*q[pq+dir] < h[dir]) {
+						// this point is inside the chopping line
+						r[pr] = q[pq];
+						r[pr+1] = q[pq+1];
+						pr += 2;
+						nr++;
+						if ((nr & 8) != 0) {
+							q = r;
+							break done;
+						}
+					}
+					int nextq = (i > 1)? pq+2 : 0;
+					if ((sign*q[pq+dir] < h[dir]) ^ (sign*q[nextq+dir] < h[dir])) {
+						// this line crosses the chopping line
+						r[pr+1-dir] = q[pq+1-dir] + (q[nextq+1-dir]-q[pq+1-dir]) /
+								(q[nextq+dir]-q[pq+dir]) * (sign*h[dir]-q[pq+dir]);
+						r[pr+dir] = sign*h[dir];
+						pr += 2;
+						nr++;
+						if ((nr & 8) != 0) {
+							q = r;
+							break done;
+						}
+					}
+					pq += 2;
+				}
+				q = r;
+				r = (q == ret)? buffer : ret;
+				nq = nr;
+			}
+		}
+		
+		if (q != ret) {
+			System.arraycopy(q, 0, ret, 0, nr*2);
+		}
+		return nr;
+	}
+	
+	/**
+	 * Given n points in the plane (array p, of size 2*n), generate m points that
+	 * best represent the whole set. The definition of 'best' here is not
+	 * predetermined - the idea is to select points that give good box-box
+	 * collision detection behavior. The chosen point indexes are returned in the
+	 * array iret (of size m). 'i0' is always the first entry in the array.
+	 * n must be in the range [1..8]. m must be in the range [1..n]. i0 must be
+	 * in the range [0..n-1].
+	 */
+	private void cullPoints2(int n, float[] p, int m, int i0, int[] iret) {
+		// compute the centroid of the polygon in cx,cy
+		int i, j;
+		float a, cx, cy, q;
+		if (n == 1) {
+			cx = p[0];
+			cy = p[1];
+		}
+		else if (n == 2) {
+			cx = 0.5f*(p[0] + p[2]);
+			cy = 0.5f*(p[1] + p[3]);
+		}
+		else {
+			a = 0f;
+			cx = 0f;
+			cy = 0f;
+			for (i = 0; i < (n-1); i++) {
+				q = p[i*2]*p[i*2+3] - p[i*2+2]*p[i*2+1];
+				a += q;
+				cx += q*(p[i*2]+p[i*2+2]);
+				cy += q*(p[i*2+1]+p[i*2+3]);
+			}
+			q = p[n*2-2]*p[1] - p[0]*p[n*2-1];
+			if (Math.abs(a+q) > BulletGlobals.SIMD_EPSILON) {
+				a = 1f/(3f*(a+q));
+			}
+			else {
+				a = 1e30f;
+			}
+			cx = a*(cx + q*(p[n*2-2]+p[0]));
+			cy = a*(cy + q*(p[n*2-1]+p[1]));
+		}
+
+		// compute the angle of each point w.r.t. the centroid
+		float[] A = angles;
+		for (i = 0; i < n; i++) {
+			A[i] = (float)Math.atan2(p[i*2+1]-cy, p[i*2]-cx);
+		}
+
+		// search for points that have angles closest to A[i0] + i*(2*pi/m).
+		for (i = 0; i < n; i++) {
+			avail[i] = 1;
+		}
+		avail[i0] = 0;
+		iret[0] = i0;
+		for (j = 1; j < m; j++) {
+			a = j*(BulletGlobals.SIMD_2_PI/m) + A[i0];
+			if (a > BulletGlobals.SIMD_PI) {
+				a -= BulletGlobals.SIMD_2_PI;
+			}
+			float maxdiff = 1e9f, diff;
+
+			iret[j] = i0; // iret is not allowed to keep this value, but it sometimes does, when diff=#QNAN0
+
+			for (i = 0; i < n; i++) {
+				if (avail[i] != 0) {
+					diff = Math.abs(A[i]-a);
+					if (diff > BulletGlobals.SIMD_PI) {
+						diff = BulletGlobals.SIMD_2_PI - diff;
+					}
+					if (diff < maxdiff) {
+						maxdiff = diff;
+						iret[j] = i;
+					}
+				}
+			}
+			avail[iret[j]] = 0;
+		}
+	}
+	
+	private int dBoxBox2(int maxc, Result output, Vector3f normalOnB, Vector3f pointInWorld) {
+		float[] R1 = this.R1, R2 = this.R2;
+		float[] A = this.A, B = this.B;
+		float[] normal = this.normal;
+		
+		float R11, R12, R13, R21, R22, R23, R31, R32, R33;
+		float Q11, Q12, Q13, Q21, Q22, Q23, Q31, Q32, Q33, s, s2, l;
+		int i, j, code;
+		boolean invert_normal;
+		
+		// normalR is offset of column of R1 or R2, or -1
+		float[] normalRMatrix = null;
+		int normalR = -1;
+
+		// get vector from centers of box 1 to box 2, relative to box 1
+		p[0] = p2[0] - p1[0];
+		p[1] = p2[1] - p1[1];
+		p[2] = p2[2] - p1[2];
+		dMULTIPLY1_331(pp, R1, p); // get pp = p relative to body 1
+
+		// Rij is R1'*R2, i.e. the relative rotation between R1 and R2
+		R11 = dDOT44(R1, 0, R2, 0); R12 = dDOT44(R1, 0, R2, 1); R13 = dDOT44(R1, 0, R2, 2);
+		R21 = dDOT44(R1, 1, R2, 0); R22 = dDOT44(R1, 1, R2, 1); R23 = dDOT44(R1, 1, R2, 2);
+		R31 = dDOT44(R1, 2, R2, 0); R32 = dDOT44(R1, 2, R2, 1); R33 = dDOT44(R1, 2, R2, 2);
+
+		Q11 = Math.abs(R11); Q12 = Math.abs(R12); Q13 = Math.abs(R13);
+		Q21 = Math.abs(R21); Q22 = Math.abs(R22); Q23 = Math.abs(R23);
+		Q31 = Math.abs(R31); Q32 = Math.abs(R32); Q33 = Math.abs(R33);
+
+		// for all 15 possible separating axes:
+		//   * see if the axis separates the boxes. if so, return 0.
+		//   * find the depth of the penetration along the separating axis (s2)
+		//   * if this is the largest depth so far, record it.
+		// the normal vector will be set to the separating axis with the smallest
+		// depth. note: normalR is set to point to a column of R1 or R2 if that is
+		// the smallest depth normal so far. otherwise normalR is -1 and normalC is
+		// set to a vector relative to body 1. invert_normal is true if the sign of
+		// the normal should be flipped.
+
+		s = -Float.MAX_VALUE;
+		invert_normal = false;
+		code = 0;
+		
+		float expr1, expr2;
+		
+		// separating axis = u1,u2,u3
+		expr1 = pp[0]; expr2 = A[0] + B[0]*Q11 + B[1]*Q12 + B[2]*Q13;
+		s2 = Math.abs(expr1) - expr2;
+		if (s2 > 0f) return 0;
+		if (s2 > s) { s = s2; normalRMatrix = R1; normalR = 0; invert_normal = (expr1 < 0f); code = 1; }
+		
+		expr1 = pp[1]; expr2 = A[1] + B[0]*Q21 + B[1]*Q22 + B[2]*Q23;
+		s2 = Math.abs(expr1) - expr2;
+		if (s2 > 0f) return 0;
+		if (s2 > s) { s = s2; normalRMatrix = R1; normalR = 1; invert_normal = (expr1 < 0f); code = 2; }
+
+		expr1 = pp[2]; expr2 = A[2] + B[0]*Q31 + B[1]*Q32 + B[2]*Q33;
+		s2 = Math.abs(expr1) - expr2;
+		if (s2 > 0f) return 0;
+		if (s2 > s) { s = s2; normalRMatrix = R1; normalR = 2; invert_normal = (expr1 < 0f); code = 3; }
+
+		// separating axis = v1,v2,v3
+		expr1 = dDOT41(R2, 0, p, 0); expr2 = A[0]*Q11 + A[1]*Q21 + A[2]*Q31 + B[0];
+		s2 = Math.abs(expr1) - expr2;
+		if (s2 > 0f) return 0;
+		if (s2 > s) { s = s2; normalRMatrix = R2; normalR = 0; invert_normal = (expr1 < 0f); code = 4; }
+
+		expr1 = dDOT41(R2, 1, p, 0); expr2 = A[0]*Q12 + A[1]*Q22 + A[2]*Q32 + B[1];
+		s2 = Math.abs(expr1) - expr2;
+		if (s2 > 0f) return 0;
+		if (s2 > s) { s = s2; normalRMatrix = R2; normalR = 1; invert_normal = (expr1 < 0f); code = 5; }
+
+		expr1 = dDOT41(R2, 2, p, 0); expr2 = A[0]*Q13 + A[1]*Q23 + A[2]*Q33 + B[2];
+		s2 = Math.abs(expr1) - expr2;
+		if (s2 > 0f) return 0;
+		if (s2 > s) { s = s2; normalRMatrix = R2; normalR = 2; invert_normal = (expr1 < 0f); code = 6; }
+
+		// note: cross product axes need to be scaled when s is computed.
+		// normal (n1,n2,n3) is relative to box 1.
+
+		float fudge2 = 1.0e-5f;
+
+		Q11 += fudge2; Q12 += fudge2; Q13 += fudge2;
+		Q21 += fudge2; Q22 += fudge2; Q23 += fudge2;
+		Q31 += fudge2; Q32 += fudge2; Q33 += fudge2;
+
+		float n1, n2, n3;
+		
+		// separating axis = u1 x (v1,v2,v3)
+		for (int k = 0; k < 9; k++) {
+			switch (k) {
+				case 0: expr1 = pp[2]*R21-pp[1]*R31; expr2 = A[1]*Q31+A[2]*Q21+B[1]*Q13+B[2]*Q12; n1 = 0f;   n2 = -R31; n3 = R21; break;
+				case 1: expr1 = pp[2]*R22-pp[1]*R32; expr2 = A[1]*Q32+A[2]*Q22+B[0]*Q13+B[2]*Q11; n1 = 0f;   n2 = -R32; n3 = R22; break;
+				case 2: expr1 = pp[2]*R23-pp[1]*R33; expr2 = A[1]*Q33+A[2]*Q23+B[0]*Q12+B[1]*Q11; n1 = 0f;   n2 = -R33; n3 = R23; break;
+				// separating axis = u2 x (v1,v2,v3)
+				case 3: expr1 = pp[0]*R31-pp[2]*R11; expr2 = A[0]*Q31+A[2]*Q11+B[1]*Q23+B[2]*Q22; n1 = R31;  n2 = 0f;   n3 = -R11; break;
+				case 4: expr1 = pp[0]*R32-pp[2]*R12; expr2 = A[0]*Q32+A[2]*Q12+B[0]*Q23+B[2]*Q21; n1 = R32;  n2 = 0f;   n3 = -R12; break;
+				case 5: expr1 = pp[0]*R33-pp[2]*R13; expr2 = A[0]*Q33+A[2]*Q13+B[0]*Q22+B[1]*Q21; n1 = R33;  n2 = 0f;   n3 = -R13; break;
+				// separating axis = u3 x (v1,v2,v3)
+				case 6: expr1 = pp[1]*R11-pp[0]*R21; expr2 = A[0]*Q21+A[1]*Q11+B[1]*Q33+B[2]*Q32; n1 = -R21; n2 = R11;  n3 = 0f; break;
+				case 7: expr1 = pp[1]*R12-pp[0]*R22; expr2 = A[0]*Q22+A[1]*Q12+B[0]*Q33+B[2]*Q31; n1 = -R22; n2 = R12;  n3 = 0f; break;
+				default: expr1 = pp[1]*R13-pp[0]*R23; expr2 = A[0]*Q23+A[1]*Q13+B[0]*Q32+B[1]*Q31; n1 = -R23; n2 = R13; n3 = 0f; break;
+			}
+			
+			s2 = Math.abs(expr1) - expr2;
+			if (s2 > BulletGlobals.SIMD_EPSILON) return 0;
+			l = (float)Math.sqrt(n1*n1 + n2*n2 + n3*n3);
+			if (l > BulletGlobals.SIMD_EPSILON) {
+				s2 /= l;
+				if (s2*fudge_factor > s) {
+					s = s2;
+					normalRMatrix = null;
+					normalC[0] = n1/l; normalC[1] = n2/l; normalC[2] = n3/l;
+					invert_normal = (expr1 < 0f);
+					code = 7 + k;
+				}
+			}
+		}
+
+		if (code == 0) {
+			return 0;
+		}
+
+		// if we get to this point, the boxes interpenetrate. compute the normal
+		// in global coordinates.
+		if (normalRMatrix != null) {
+			normal[0] = normalRMatrix[normalR];
+			normal[1] = normalRMatrix[normalR+4];
+			normal[2] = normalRMatrix[normalR+8];
+		}
+		else {
+			dMULTIPLY0_331(normal, R1, normalC);
+		}
+		if (invert_normal) {
+			normal[0] = -normal[0];
+			normal[1] = -normal[1];
+			normal[2] = -normal[2];
+		}
+		float depth = -s;
+		
+		// contacts are reported with the normal on box 2 pointing towards box 1
+		normalOnB.set(-normal[0], -normal[1], -normal[2]);
+
+		// compute contact point(s)
+
+		if (code > 6) {
+			// an edge from box 1 touches an edge from box 2.
+			// find a point pa on the intersecting edge of box 1
+			float sign;
+			for (i = 0; i < 3; i++) {
+				edgePointA[i] = p1[i];
+			}
+			for (j = 0; j < 3; j++) {
+				sign = (dDOT14(normal, 0, R1, j) > 0f)? 1f : -1f;
+				for (i = 0; i < 3; i++) {
+					edgePointA[i] += sign * A[j] * R1[i*4+j];
+				}
+			}
+
+			// find a point pb on the intersecting edge of box 2
+			for (i = 0; i < 3; i++) {
+				edgePointB[i] = p2[i];
+			}
+			for (j = 0; j < 3; j++) {
+				sign = (dDOT14(normal, 0, R2, j) > 0f)? -1f : 1f;
+				for (i = 0; i < 3; i++) {
+					edgePointB[i] += sign * B[j] * R2[i*4+j];
+				}
+			}
+
+			for (i = 0; i < 3; i++) {
+				ua[i] = R1[((code)-7)/3 + i*4];
+			}
+			for (i = 0; i < 3; i++) {
+				ub[i] = R2[((code)-7)%3 + i*4];
+			}
+
+			dLineClosestApproach(edgePointA, ua, edgePointB, ub, alphaBeta);
+			float beta = alphaBeta[1];
+			for (i = 0; i < 3; i++) {
+				edgePointB[i] += ub[i]*beta;
+			}
+
+			pointInWorld.set(edgePointB[0], edgePointB[1], edgePointB[2]);
+			output.addContactPoint(normalOnB, pointInWorld, -depth);
+			return 1;
+		}
+
+		// okay, we have a face-something intersection (because the separating
+		// axis is perpendicular to a face). define face 'a' to be the reference
+		// face (i.e. the normal vector is perpendicular to this) and face 'b' to be
+		// the incident face (the closest face of the other box).
+
+		float[] Ra, Rb, pa, pb, Sa, Sb;
+		if (code <= 3) {
+			Ra = R1; Rb = R2; pa = p1; pb = p2; Sa = A; Sb = B;
+		}
+		else {
+			Ra = R2; Rb = R1; pa = p2; pb = p1; Sa = B; Sb = A;
+		}
+
+		// nr = normal vector of reference face dotted with axes of incident box.
+		// anr = absolute values of nr.
+		if (code <= 3) {
+			normal2[0] = normal[0];
+			normal2[1] = normal[1];
+			normal2[2] = normal[2];
+		}
+		else {
+			normal2[0] = -normal[0];
+			normal2[1] = -normal[1];
+			normal2[2] = -normal[2];
+		}
+		dMULTIPLY1_331(nr, Rb, normal2);
+		anr[0] = Math.abs(nr[0]);
+		anr[1] = Math.abs(nr[1]);
+		anr[2] = Math.abs(nr[2]);
+
+		// find the largest compontent of anr: this corresponds to the normal
+		// for the indident face. the other axis numbers of the indicent face
+		// are stored in a1,a2.
+		int lanr, a1, a2;
+		if (anr[1] > anr[0]) {
+			if (anr[1] > anr[2]) {
+				a1 = 0; lanr = 1; a2 = 2;
+			}
+			else {
+				a1 = 0; a2 = 1; lanr = 2;
+			}
+		}
+		else {
+			if (anr[0] > anr[2]) {
+				lanr = 0; a1 = 1; a2 = 2;
+			}
+			else {
+				a1 = 0; a2 = 1; lanr = 2;
+			}
+		}
+
+		// compute center point of incident face, in reference-face coordinates
+		if (nr[lanr] < 0f) {
+			for (i = 0; i < 3; i++) {
+				center[i] = pb[i] - pa[i] + Sb[lanr] * Rb[i*4+lanr];
+			}
+		}
+		else {
+			for (i = 0; i < 3; i++) {
+				center[i] = pb[i] - pa[i] - Sb[lanr] * Rb[i*4+lanr];
+			}
+		}
+
+		// find the normal and non-normal axis numbers of the reference box
+		int codeN, code1, code2;
+		if (code <= 3) {
+			codeN = code-1;
+		}
+		else {
+			codeN = code-4;
+		}
+		if (codeN == 0) {
+			code1 = 1; code2 = 2;
+		}
+		else if (codeN == 1) {
+			code1 = 0; code2 = 2;
+		}
+		else {
+			code1 = 0; code2 = 1;
+		}
+
+		// find the four corners of the incident face, in reference-face coordinates
+		float c1, c2, m11, m12, m21, m22;
+		c1 = dDOT14(center, 0, Ra, code1);
+		c2 = dDOT14(center, 0, Ra, code2);
+		// optimize this? - we have already computed this data above, but it is not
+		// stored in an easy-to-index format. for now it's quicker just to recompute
+		// the four dot products.
+		m11 = dDOT44(Ra, code1, Rb, a1);
+		m12 = dDOT44(Ra, code1, Rb, a2);
+		m21 = dDOT44(Ra, code2, Rb, a1);
+		m22 = dDOT44(Ra, code2, Rb, a2);
+		{
+			float k1 = m11*Sb[a1];
+			float k2 = m21*Sb[a1];
+			float k3 = m12*Sb[a2];
+			float k4 = m22*Sb[a2];
+			quad[0] = c1 - k1 - k3;
+			quad[1] = c2 - k2 - k4;
+			quad[2] = c1 - k1 + k3;
+			quad[3] = c2 - k2 + k4;
+			quad[4] = c1 + k1 + k3;
+			quad[5] = c2 + k2 + k4;
+			quad[6] = c1 + k1 - k3;
+			quad[7] = c2 + k2 - k4;
+		}
+
+		// find the size of the reference face
+		rect[0] = Sa[code1];
+		rect[1] = Sa[code2];
+
+		// intersect the incident and reference faces
+		int n = intersectRectQuad2(rect, quad, ret);
+		if (n < 1) {
+			return 0; // this should never happen
+		}
+
+		// convert the intersection points into reference-face coordinates,
+		// and compute the contact position and depth for each point. only keep
+		// those points that have a positive (penetrating) depth. delete points in
+		// the 'ret' array as necessary so that 'point' and 'ret' correspond.
+		float det1 = 1f/(m11*m22 - m12*m21);
+		m11 *= det1;
+		m12 *= det1;
+		m21 *= det1;
+		m22 *= det1;
+		int cnum = 0; // number of penetrating contact points found
+		for (j = 0; j < n; j++) {
+			float k1 = m22*(ret[j*2]-c1) - m12*(ret[j*2+1]-c2);
+			float k2 = -m21*(ret[j*2]-c1) + m11*(ret[j*2+1]-c2);
+			for (i = 0; i < 3; i++) {
+				point[cnum*3+i] = center[i] + k1*Rb[i*4+a1] + k2*Rb[i*4+a2];
+			}
+			dep[cnum] = Sa[codeN] - dDOT(normal2, 0, point, cnum*3);
+			if (dep[cnum] >= 0f) {
+				ret[cnum*2] = ret[j*2];
+				ret[cnum*2+1] = ret[j*2+1];
+				cnum++;
+			}
+		}
+		if (cnum < 1) {
+			return 0; // this should never happen
+		}
+
+		// we can't generate more contacts than we actually have
+		if (maxc > cnum) {
+			maxc = cnum;
+		}
+		if (maxc < 1) {
+			maxc = 1;
+		}
+
+		if (cnum <= maxc) {
+			// we have less contacts than we need, so we use them all
+			for (j = 0; j < cnum; j++) {
+				addContactPoint(output, j, code, pa, normalOnB, pointInWorld);
+			}
+		}
+		else {
+			// we have more contacts than are wanted, some of them must be culled.
+			// find the deepest point, it is always the first contact.
+			int i1 = 0;
+			float maxdepth = dep[0];
+			for (i = 1; i < cnum; i++) {
+				if (dep[i] > maxdepth) {
+					maxdepth = dep[i];
+					i1 = i;
+				}
+			}
+
+			cullPoints2(cnum, ret, maxc, i1, iret);
+
+			for (j = 0; j < maxc; j++) {
+				addContactPoint(output, iret[j], code, pa, normalOnB, pointInWorld);
+			}
+			cnum = maxc;
+		}
+
+		return cnum;
+	}
+	
+	private void addContactPoint(Result output, int index, int code, float[] pa, Vector3f normalOnB, Vector3f pointInWorld) {
+		pointInWorld.set(point[index*3] + pa[0], point[index*3+1] + pa[1], point[index*3+2] + pa[2]);
+		if (code >= 4) {
+			// reference face is on box 2, move the point from box 1 to its surface
+			pointInWorld.x -= normal[0]*dep[index];
+			pointInWorld.y -= normal[1]*dep[index];
+			pointInWorld.z -= normal[2]*dep[index];
+		}
+		output.addContactPoint(normalOnB, pointInWorld, -dep[index]);
+	}
+	
+}
@@ -41,9 +41,6 @@ import javax.vecmath.Vector3f;
  */
 public class GjkConvexCast implements ConvexCast {
 
-	protected final BulletStack stack = BulletStack.get();
-	protected final ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
-	
 	private SimplexSolverInterface simplexSolver;
 	private ConvexShape convexA;
 	private ConvexShape convexB;
@@ -55,6 +52,9 @@ public class GjkConvexCast implements ConvexCast {
 	}
 	
 	public boolean calcTimeOfImpact(Transform fromA, Transform toA, Transform fromB, Transform toB, CastResult result) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<ClosestPointInput> pointInputsPool = BulletPool.get(ClosestPointInput.class);
+
 		stack.pushCommonMath();
 		try {
 			MinkowskiSumShape combi = new MinkowskiSumShape(convexA, convexB);
@@ -113,7 +113,7 @@ public class GjkConvexCast implements ConvexCast {
 				GjkPairDetector gjk = new GjkPairDetector(raySphere, convex, simplexSolver, penSolverPtr);
 
 				ClosestPointInput input = pointInputsPool.get();
-				input.init(gl);
+				input.init();
 				
 				input.transformA.set(sphereTr);
 				input.transformB.set(identityTrans);
@@ -162,7 +162,7 @@ public class GjkConvexCast implements ConvexCast {
 					GjkPairDetector gjk = new GjkPairDetector(raySphere, convex, simplexSolver, penSolverPtr);
 					
 					ClosestPointInput input = pointInputsPool.get();
-					input.init(gl);
+					input.init();
 					
 					input.transformA.set(sphereTr);
 					input.transformB.set(identityTrans);
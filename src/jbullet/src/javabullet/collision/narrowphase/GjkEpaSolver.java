@@ -51,22 +51,6 @@ Nov.2006
  */
 public class GjkEpaSolver {
 	
-	protected static ObjectStackList<Mkv> stackMkv = new ObjectStackList<Mkv>(Mkv.class);
-	protected static ObjectStackList<He> stackHe = new ObjectStackList<He>(He.class);
-	protected static ObjectStackList<Face> stackFace = new ObjectStackList<Face>(Face.class);
-	
-	protected static void pushStack() {
-		stackMkv.push();
-		stackHe.push();
-		stackFace.push();
-	}
-	
-	protected static void popStack() {
-		stackMkv.pop();
-		stackHe.pop();
-		stackFace.pop();
-	}
-
 	public enum ResultsStatus {
 		Separated,		/* Shapes doesnt penetrate												*/ 
 		Penetrating,	/* Shapes are penetrating												*/ 
@@ -99,9 +83,30 @@ public class GjkEpaSolver {
 	
 	////////////////////////////////////////////////////////////////////////////
 	
+	/**
+	 * JAVA NOTE: GJK instance is per-thread (see {@link #collide}), it also owns
+	 * the Mkv/He/Face stacks shared with the EPA built on top of it.
+	 */
 	protected static class GJK {
-		protected final BulletStack stack = BulletStack.get();
+		// stack of current context, set in init (thread can step several worlds)
+		protected BulletStack stack;
 		
+		protected final ObjectStackList<Mkv> stackMkv = new ObjectStackList<Mkv>(Mkv.class);
+		protected final ObjectStackList<He> stackHe = new ObjectStackList<He>(He.class);
+		protected final ObjectStackList<Face> stackFace = new ObjectStackList<Face>(Face.class);
+
+		protected void pushStack() {
+			stackMkv.push();
+			stackHe.push();
+			stackFace.push();
+		}
+
+		protected void popStack() {
+			stackMkv.pop();
+			stackHe.pop();
+			stackFace.pop();
+		}
+
 		public static class Mkv {
 			public final Vector3f w = new Vector3f(); // Minkowski vertice
 			public final Vector3f r = new Vector3f(); // Ray
@@ -154,6 +159,7 @@ public class GjkEpaSolver {
 				Matrix3f wrot0, Vector3f pos0, ConvexShape shape0,
 				Matrix3f wrot1, Vector3f pos1, ConvexShape shape1,
 				float pmargin) {
+			stack = BulletStack.get();
 			pushStack();
 			wrotations[0].set(wrot0);
 			positions[0].set(pos0);
@@ -649,7 +655,7 @@ public class GjkEpaSolver {
 		
 		public Face NewFace(GJK.Mkv a, GJK.Mkv b, GJK.Mkv c) {
 			//Face pf = new Face();
-			Face pf = stackFace.get();
+			Face pf = gjk.stackFace.get();
 			if (Set(pf, a, b, c)) {
 				if (root != null) {
 					root.prev = pf;
@@ -692,7 +698,7 @@ public class GjkEpaSolver {
 
 		public Mkv Support(Vector3f w) {
 			//Mkv v = new Mkv();
-			Mkv v = stackMkv.get();
+			Mkv v = gjk.stackMkv.get();
 			gjk.Support(w, v);
 			return v;
 		}
@@ -738,7 +744,7 @@ public class GjkEpaSolver {
 		
 		public float EvaluatePD(float accuracy) {
 			stack.vectors.push();
-			pushStack();
+			gjk.pushStack();
 			try {
 				Vector3f tmp = stack.vectors.get();
 
@@ -881,7 +887,7 @@ public class GjkEpaSolver {
 			}
 			finally {
 				stack.vectors.pop();
-				popStack();
+				gjk.popStack();
 			}
 		}
 		
@@ -889,7 +895,12 @@ public class GjkEpaSolver {
 	
 	////////////////////////////////////////////////////////////////////////////
 	
-	private static GJK gjk = new GJK();
+	private static final ThreadLocal<GJK> threadLocalGjk = new ThreadLocal<GJK>() {
+		@Override
+		protected GJK initialValue() {
+			return new GJK();
+		}
+	};
 	
 	public static boolean collide(ConvexShape shape0, Transform wtrs0,
 			ConvexShape shape1, Transform wtrs1,
@@ -897,6 +908,8 @@ public class GjkEpaSolver {
 			btStackAlloc* stackAlloc*/,
 			Results results) {
 		
+		GJK gjk = threadLocalGjk.get();
+
 		// Initialize
 		results.witnesses[0].set(0f, 0f, 0f);
 		results.witnesses[1].set(0f, 0f, 0f);
@@ -25,6 +25,7 @@ package javabullet.collision.narrowphase;
 
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.SimulationContext;
 import javabullet.collision.shapes.ConvexShape;
 import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.MatrixUtil;
@@ -38,8 +39,6 @@ import javax.vecmath.Vector3f;
  */
 public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	// must be above the machine epsilon
 	private static final float REL_ERROR2 = 1.0e-6f;
 	
@@ -56,6 +55,9 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 	public int degenerateSimplex;
 	public int catchDegeneracies = 1;
 	
+	public GjkPairDetector() {
+	}
+
 	public GjkPairDetector(ConvexShape objectA, ConvexShape objectB, SimplexSolverInterface simplexSolver, ConvexPenetrationDepthSolver penetrationDepthSolver) {
 		this.penetrationDepthSolver = penetrationDepthSolver;
 		this.simplexSolver = simplexSolver;
@@ -64,6 +66,9 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 	}
 	
 	public void getClosestPoints(ClosestPointInput input, Result output, IDebugDraw debugDraw) {
+		SimulationContext context = SimulationContext.get();
+		BulletStack stack = context.stack;
+
 		stack.pushCommonMath();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -82,7 +87,7 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 			float marginA = minkowskiA.getMargin();
 			float marginB = minkowskiB.getMargin();
 
-			BulletGlobals.gNumGjkChecks++;
+			context.counters.numGjkChecks++;
 
 			// for CCD we don't use margins
 			if (ignoreMargin) {
@@ -249,7 +254,7 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 						// Penetration depth case.
 						Vector3f tmpPointOnA = stack.vectors.get(), tmpPointOnB = stack.vectors.get();
 
-						BulletGlobals.gNumDeepPenetrationChecks++;
+						context.counters.numDeepPenetrationChecks++;
 
 						boolean isValid2 = penetrationDepthSolver.calcPenDepth(
 								simplexSolver,
@@ -323,6 +328,10 @@ public class GjkPairDetector implements DiscreteCollisionDetectorInterface {
 		cachedSeparatingAxis.set(seperatingAxis);
 	}
 
+	public void setSimplexSolver(SimplexSolverInterface simplexSolver) {
+		this.simplexSolver = simplexSolver;
+	}
+
 	public void setPenetrationDepthSolver(ConvexPenetrationDepthSolver penetrationDepthSolver) {
 		this.penetrationDepthSolver = penetrationDepthSolver;
 	}
@@ -23,8 +23,10 @@
 
 package javabullet.collision.narrowphase;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
+import javabullet.linearmath.SnapshotUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
@@ -44,8 +46,6 @@ import javax.vecmath.Vector4f;
  */
 public class PersistentManifold {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	public static final int MANIFOLD_CACHE_SIZE = 4;
 	
 	private final ManifoldPoint[] pointCache = new ManifoldPoint[MANIFOLD_CACHE_SIZE];
@@ -77,6 +77,8 @@ public class PersistentManifold {
 
 	/// sort cached points so most isolated points come first
 	private int sortCachedPoints(ManifoldPoint pt) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		stack.vectors4.push();
 		try {
@@ -213,6 +215,8 @@ public class PersistentManifold {
 	}
 
 	public int getCacheEntry(ManifoldPoint newPoint) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			float shortestDist = getContactBreakingThreshold() * getContactBreakingThreshold();
@@ -301,6 +305,8 @@ public class PersistentManifold {
 
 	/// calculated new worldspace coordinates and depth, and reject points that exceed the collision margin
 	public void refreshContactPoints(Transform trA, Transform trB) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -369,5 +375,67 @@ public class PersistentManifold {
 		}
 		cachedPoints = 0;
 	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// snapshot
+	
+	private static final int POINT_SNAPSHOT_SIZE = 5 * SnapshotUtil.VECTOR_SIZE + 4 * 4;
+	
+	/**
+	 * Returns number of bytes needed by {@link #writeSnapshot}.
+	 */
+	public int calculateSnapshotSize() {
+		return 4 + cachedPoints * POINT_SNAPSHOT_SIZE;
+	}
+
+	/**
+	 * Writes contact points to the buffer at its position. Bodies and user
+	 * persistent data are not written.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putInt(cachedPoints);
+		for (int i = 0; i < cachedPoints; i++) {
+			ManifoldPoint pt = pointCache[i];
+			SnapshotUtil.putVector(buf, pt.localPointA);
+			SnapshotUtil.putVector(buf, pt.localPointB);
+			SnapshotUtil.putVector(buf, pt.positionWorldOnB);
+			SnapshotUtil.putVector(buf, pt.positionWorldOnA);
+			SnapshotUtil.putVector(buf, pt.normalWorldOnB);
+			buf.putFloat(pt.distance1);
+			buf.putFloat(pt.combinedFriction);
+			buf.putFloat(pt.combinedRestitution);
+			buf.putInt(pt.lifeTime);
+		}
+	}
+
+	/**
+	 * Replaces contact points with the ones written by {@link #writeSnapshot}. User
+	 * persistent data of kept slots are left in place for reuse by the caller.
+	 */
+	public void readSnapshot(ByteBuffer buf) {
+		int count = buf.getInt();
+		if (count < 0 || count > MANIFOLD_CACHE_SIZE) {
+			throw new IllegalArgumentException("invalid number of contact points: "+count);
+		}
+		
+		for (int i = count; i < cachedPoints; i++) {
+			clearUserCache(pointCache[i]);
+			pointCache[i].userPersistentData = null;
+		}
+		
+		for (int i = 0; i < count; i++) {
+			ManifoldPoint pt = pointCache[i];
+			SnapshotUtil.getVector(buf, pt.localPointA);
+			SnapshotUtil.getVector(buf, pt.localPointB);
+			SnapshotUtil.getVector(buf, pt.positionWorldOnB);
+			SnapshotUtil.getVector(buf, pt.positionWorldOnA);
+			SnapshotUtil.getVector(buf, pt.normalWorldOnB);
+			pt.distance1 = buf.getFloat();
+			pt.combinedFriction = buf.getFloat();
+			pt.combinedRestitution = buf.getFloat();
+			pt.lifeTime = buf.getInt();
+		}
+		cachedPoints = count;
+	}
 	
 }
@@ -0,0 +1,271 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.narrowphase;
+
+import javabullet.BulletGlobals;
+import javabullet.BulletStack;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.collision.shapes.TriangleShape;
+import javabullet.linearmath.IDebugDraw;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Sphere-triangle collision detector. Sphere touches either the inside of the triangle
+ * face or one of its edges (including vertices), both cases are solved directly.
+ * Margin of the triangle is added to the sphere radius, same as with GJK.
+ * 
+ * @author jezek2
+ */
+public class SphereTriangleDetector implements DiscreteCollisionDetectorInterface {
+
+	private SphereShape sphere;
+	private TriangleShape triangle;
+	private float contactBreakingThreshold;
+	
+	// distance computed by collide, negative means penetration
+	private float depth;
+	
+	public SphereTriangleDetector() {
+	}
+
+	public SphereTriangleDetector(SphereShape sphere, TriangleShape triangle, float contactBreakingThreshold) {
+		init(sphere, triangle, contactBreakingThreshold);
+	}
+
+	public void init(SphereShape sphere, TriangleShape triangle, float contactBreakingThreshold) {
+		this.sphere = sphere;
+		this.triangle = triangle;
+		this.contactBreakingThreshold = contactBreakingThreshold;
+	}
+	
+	public void getClosestPoints(ClosestPointInput input, Result output, IDebugDraw debugDraw) {
+		getClosestPoints(input, output, debugDraw, false);
+	}
+
+	public void getClosestPoints(ClosestPointInput input, Result output, IDebugDraw debugDraw, boolean swapResults) {
+		BulletStack stack = BulletStack.get();
+
+		stack.pushCommonMath();
+		try {
+			Transform transformA = input.transformA;
+			Transform transformB = input.transformB;
+
+			Vector3f point = stack.vectors.get();
+			Vector3f normal = stack.vectors.get();
+
+			// move sphere into triangle space
+			Transform sphereInTr = stack.transforms.get();
+			sphereInTr.inverse(transformB);
+			sphereInTr.mul(transformA);
+
+			if (collide(sphereInTr.origin, point, normal)) {
+				Vector3f normalOnB = stack.vectors.get(normal);
+				transformB.basis.transform(normalOnB);
+				Vector3f pointOnB = stack.vectors.get(point);
+				transformB.transform(pointOnB);
+
+				if (swapResults) {
+					Vector3f normalOnA = stack.vectors.get();
+					normalOnA.negate(normalOnB);
+					Vector3f pointOnA = stack.vectors.get();
+					pointOnA.scaleAdd(depth, normalOnB, pointOnB);
+					output.addContactPoint(normalOnA, pointOnA, depth);
+				}
+				else {
+					output.addContactPoint(normalOnB, pointOnB, depth);
+				}
+			}
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+	
+	/**
+	 * Computes closest point on the triangle (with margin) and normal pointing
+	 * towards the sphere center, all in triangle space. Stores distance (negative
+	 * means penetration) to depth field.
+	 */
+	private boolean collide(Vector3f sphereCenter, Vector3f point, Vector3f resultNormal) {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			Vector3f[] vertices = triangle.vertices1;
+			float triangleMargin = triangle.getMargin();
+			float radius = sphere.getRadius() + triangleMargin;
+			float radiusWithThreshold = radius + contactBreakingThreshold;
+
+			Vector3f tmp = stack.vectors.get();
+			Vector3f normal = stack.vectors.get();
+			normal.sub(vertices[1], vertices[0]);
+			tmp.sub(vertices[2], vertices[0]);
+			normal.cross(normal, tmp);
+			float normalLen2 = normal.lengthSquared();
+			if (normalLen2 < BulletGlobals.SIMD_EPSILON) {
+				// degenerate triangle
+				return false;
+			}
+			normal.scale(1f / (float)Math.sqrt(normalLen2));
+
+			Vector3f p1ToCentre = stack.vectors.get();
+			p1ToCentre.sub(sphereCenter, vertices[0]);
+			float distanceFromPlane = p1ToCentre.dot(normal);
+
+			if (distanceFromPlane < 0f) {
+				// triangle facing the other way
+				distanceFromPlane = -distanceFromPlane;
+				normal.negate();
+			}
+
+			if (distanceFromPlane >= radiusWithThreshold) {
+				return false;
+			}
+
+			// check for contact / intersection
+			boolean hasContact = false;
+			Vector3f contactPoint = stack.vectors.get();
+			if (faceContains(sphereCenter, vertices, normal)) {
+				// inside the contact wedge - touches a point on the shell plane
+				hasContact = true;
+				contactPoint.scaleAdd(-distanceFromPlane, normal, sphereCenter);
+			}
+			else {
+				// could be inside one of the contact capsules
+				float contactCapsuleRadiusSqr = radiusWithThreshold * radiusWithThreshold;
+				Vector3f nearestOnEdge = stack.vectors.get();
+				for (int i = 0; i < 3; i++) {
+					Vector3f pa = vertices[i];
+					Vector3f pb = vertices[(i + 1) % 3];
+
+					float distanceSqr = segmentSqrDistance(pa, pb, sphereCenter, nearestOnEdge);
+					if (distanceSqr < contactCapsuleRadiusSqr) {
+						// yep, we're inside a capsule, keep the closest one
+						hasContact = true;
+						contactCapsuleRadiusSqr = distanceSqr;
+						contactPoint.set(nearestOnEdge);
+					}
+				}
+			}
+
+			if (hasContact) {
+				Vector3f contactToCentre = stack.vectors.get();
+				contactToCentre.sub(sphereCenter, contactPoint);
+				float distanceSqr = contactToCentre.lengthSquared();
+
+				if (distanceSqr < radiusWithThreshold * radiusWithThreshold) {
+					if (distanceSqr > BulletGlobals.SIMD_EPSILON) {
+						float distance = (float)Math.sqrt(distanceSqr);
+						resultNormal.scale(1f / distance, contactToCentre);
+						depth = distance - radius;
+					}
+					else {
+						resultNormal.set(normal);
+						depth = -radius;
+					}
+					point.scaleAdd(triangleMargin, resultNormal, contactPoint);
+					return true;
+				}
+			}
+
+			return false;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	private boolean pointInTriangle(Vector3f[] vertices, Vector3f normal, Vector3f p) {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			Vector3f p1 = vertices[0];
+			Vector3f p2 = vertices[1];
+			Vector3f p3 = vertices[2];
+
+			Vector3f edge = stack.vectors.get();
+			Vector3f edgeNormal = stack.vectors.get();
+			Vector3f toP = stack.vectors.get();
+
+			edge.sub(p2, p1);
+			edgeNormal.cross(edge, normal);
+			toP.sub(p, p1);
+			float r1 = edgeNormal.dot(toP);
+
+			edge.sub(p3, p2);
+			edgeNormal.cross(edge, normal);
+			toP.sub(p, p2);
+			float r2 = edgeNormal.dot(toP);
+
+			edge.sub(p1, p3);
+			edgeNormal.cross(edge, normal);
+			toP.sub(p, p3);
+			float r3 = edgeNormal.dot(toP);
+
+			if ((r1 > 0f && r2 > 0f && r3 > 0f) ||
+					(r1 <= 0f && r2 <= 0f && r3 <= 0f)) {
+				return true;
+			}
+			return false;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	private boolean faceContains(Vector3f p, Vector3f[] vertices, Vector3f normal) {
+		return pointInTriangle(vertices, normal, p);
+	}
+
+	/**
+	 * Returns squared distance of point p from segment and closest point on the segment.
+	 */
+	private static float segmentSqrDistance(Vector3f from, Vector3f to, Vector3f p, Vector3f nearest) {
+		float vx = to.x - from.x, vy = to.y - from.y, vz = to.z - from.z;
+		float dx = p.x - from.x, dy = p.y - from.y, dz = p.z - from.z;
+		float t = vx*dx + vy*dy + vz*dz;
+
+		if (t > 0f) {
+			float dotVV = vx*vx + vy*vy + vz*vz;
+			if (t < dotVV) {
+				t /= dotVV;
+			}
+			else {
+				t = 1f;
+			}
+		}
+		else {
+			t = 0f;
+		}
+
+		nearest.set(from.x + t*vx, from.y + t*vy, from.z + t*vz);
+		dx = p.x - nearest.x;
+		dy = p.y - nearest.y;
+		dz = p.z - nearest.z;
+		return dx*dx + dy*dy + dz*dz;
+	}
+	
+}
@@ -28,6 +28,7 @@ import javabullet.BulletStack;
 import javabullet.collision.shapes.ConvexShape;
 import javabullet.collision.shapes.MinkowskiSumShape;
 import javabullet.linearmath.Transform;
+import javabullet.linearmath.VectorUtil;
 import javax.vecmath.Vector3f;
 
 /**
@@ -40,8 +41,6 @@ import javax.vecmath.Vector3f;
  */
 public class SubsimplexConvexCast implements ConvexCast {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	// Typically the conservative advancement reaches solution in a few iterations, clip it to 32 for degenerate cases.
 	// See discussion about this here http://continuousphysics.com/Bullet/phpBB2/viewtopic.php?t=565
 	//#ifdef BT_USE_DOUBLE_PRECISION
@@ -55,18 +54,29 @@ public class SubsimplexConvexCast implements ConvexCast {
 	private SimplexSolverInterface simplexSolver;
 	private ConvexShape convexA;
 	private ConvexShape convexB;
+	private final MinkowskiSumShape combi = new MinkowskiSumShape(null, null);
+
+	public SubsimplexConvexCast() {
+	}
 
 	public SubsimplexConvexCast(ConvexShape shapeA, ConvexShape shapeB, SimplexSolverInterface simplexSolver) {
+		init(shapeA, shapeB, simplexSolver);
+	}
+
+	public void init(ConvexShape shapeA, ConvexShape shapeB, SimplexSolverInterface simplexSolver) {
 		this.convexA = shapeA;
 		this.convexB = shapeB;
 		this.simplexSolver = simplexSolver;
 	}
 	
 	public boolean calcTimeOfImpact(Transform fromA, Transform toA, Transform fromB, Transform toB, CastResult result) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
-			MinkowskiSumShape combi = new MinkowskiSumShape(convexA, convexB);
+			// JAVA NOTE: minkowski sum shape is reused
 			MinkowskiSumShape convex = combi;
+			convex.init(convexA, convexB);
 
 			Transform rayFromLocalA = stack.transforms.get();
 			Transform rayToLocalA = stack.transforms.get();
@@ -159,6 +169,14 @@ public class SubsimplexConvexCast implements ConvexCast {
 			result.fraction = lambda;
 			result.normal.set(n);
 
+			// JAVA NOTE: hit point is the supporting vertex of A against the normal at the time of impact
+			Vector3f hitPoint = result.hitPoint;
+			w.negate(n);
+			hitPoint.set(convexA.localGetSupportingVertex(w));
+			fromA.basis.transform(hitPoint);
+			VectorUtil.setInterpolate3(p, fromA.origin, toA.origin, lambda);
+			hitPoint.add(p);
+
 			return true;
 		}
 		finally {
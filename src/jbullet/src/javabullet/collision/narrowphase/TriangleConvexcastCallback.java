@@ -42,7 +42,21 @@ public abstract class TriangleConvexcastCallback implements TriangleCallback {
 	public final Transform triangleToWorld = new Transform();
 	public float hitFraction;
 
+	// JAVA NOTE: reused for each triangle
+	private final TriangleShape triangleShape = new TriangleShape();
+	private final VoronoiSimplexSolver simplexSolver = new VoronoiSimplexSolver();
+	private final SubsimplexConvexCast convexCaster = new SubsimplexConvexCast();
+	private final CastResult castResult = new CastResult();
+
+	public TriangleConvexcastCallback() {
+		this.hitFraction = 1f;
+	}
+
 	public TriangleConvexcastCallback(ConvexShape convexShape, Transform convexShapeFrom, Transform convexShapeTo, Transform triangleToWorld) {
+		init(convexShape, convexShapeFrom, convexShapeTo, triangleToWorld);
+	}
+
+	public void init(ConvexShape convexShape, Transform convexShapeFrom, Transform convexShapeTo, Transform triangleToWorld) {
 		this.convexShape = convexShape;
 		this.convexShapeFrom.set(convexShapeFrom);
 		this.convexShapeTo.set(convexShapeTo);
@@ -51,21 +65,19 @@ public abstract class TriangleConvexcastCallback implements TriangleCallback {
 	}
 	
 	public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
-		TriangleShape triangleShape = new TriangleShape(triangle[0], triangle[1], triangle[2]);
-
-		VoronoiSimplexSolver simplexSolver = new VoronoiSimplexSolver();
+		triangleShape.init(triangle[0], triangle[1], triangle[2]);
 
 		//#define  USE_SUBSIMPLEX_CONVEX_CAST 1
 		//#ifdef USE_SUBSIMPLEX_CONVEX_CAST
 		// TODO: implement ContinuousConvexCollision
-		SubsimplexConvexCast convexCaster = new SubsimplexConvexCast(convexShape, triangleShape, simplexSolver);
+		convexCaster.init(convexShape, triangleShape, simplexSolver);
 		//#else
 		// //btGjkConvexCast	convexCaster(m_convexShape,&triangleShape,&simplexSolver);
 		//btContinuousConvexCollision convexCaster(m_convexShape,&triangleShape,&simplexSolver,NULL);
 		//#endif //#USE_SUBSIMPLEX_CONVEX_CAST
 
-		CastResult castResult = new CastResult();
 		castResult.fraction = 1f;
+		castResult.normal.set(0f, 0f, 0f);
 		if (convexCaster.calcTimeOfImpact(convexShapeFrom, convexShapeTo, triangleToWorld, triangleToWorld, castResult)) {
 			// add hit
 			if (castResult.normal.lengthSquared() > 0.0001f) {
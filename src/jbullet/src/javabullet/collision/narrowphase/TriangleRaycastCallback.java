@@ -34,20 +34,28 @@ import javax.vecmath.Vector3f;
  */
 public abstract class TriangleRaycastCallback implements TriangleCallback {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	public final Vector3f from = new Vector3f();
 	public final Vector3f to = new Vector3f();
 
 	public float hitFraction;
 
+	public TriangleRaycastCallback() {
+		this.hitFraction = 1f;
+	}
+
 	public TriangleRaycastCallback(Vector3f from, Vector3f to) {
+		init(from, to);
+	}
+
+	public void init(Vector3f from, Vector3f to) {
 		this.from.set(from);
 		this.to.set(to);
 		this.hitFraction = 1f;
 	}
 	
 	public void processTriangle(Vector3f[] triangle, int partId, int triangleIndex) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f vert0 = triangle[0];
@@ -83,7 +91,7 @@ public abstract class TriangleRaycastCallback implements TriangleCallback {
 			if (distance < hitFraction) {
 				float edge_tolerance = triangleNormal.lengthSquared();
 				edge_tolerance *= -0.0001f;
-				Vector3f point = new Vector3f();
+				Vector3f point = stack.vectors.get();
 				VectorUtil.setInterpolate3(point, from, to, distance);
 				{
 					Vector3f v0p = stack.vectors.get();
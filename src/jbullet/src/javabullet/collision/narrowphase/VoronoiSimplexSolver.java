@@ -35,9 +35,6 @@ import javax.vecmath.Vector3f;
  */
 public class VoronoiSimplexSolver implements SimplexSolverInterface {
 
-	protected final BulletStack stack = BulletStack.get();
-	protected final ObjectPool<SubSimplexClosestResult> subsimplexResultsPool = BulletPool.get(SubSimplexClosestResult.class);
-	
 	private static final int VORONOI_SIMPLEX_MAX_VERTS = 5;
 	
 	private static final int VERTA = 0;
@@ -92,6 +89,8 @@ public class VoronoiSimplexSolver implements SimplexSolverInterface {
 	}
 	
 	public boolean updateClosestVectorAndPoints() {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			if (needsUpdate)
@@ -267,6 +266,8 @@ public class VoronoiSimplexSolver implements SimplexSolverInterface {
 	}
 
 	public boolean closestPtPointTriangle(Vector3f p, Vector3f a, Vector3f b, Vector3f c, SubSimplexClosestResult result) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			result.usedVertices.reset();
@@ -390,6 +391,8 @@ public class VoronoiSimplexSolver implements SimplexSolverInterface {
 	/// Test if point p and d lie on opposite sides of plane through abc
 	public /*static*/ int pointOutsideOfPlane(Vector3f p, Vector3f a, Vector3f b, Vector3f c, Vector3f d)
 	{
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -429,6 +432,9 @@ public class VoronoiSimplexSolver implements SimplexSolverInterface {
 	}
 	
 	public boolean closestPtPointTetrahedron(Vector3f p, Vector3f a, Vector3f b, Vector3f c, Vector3f d, SubSimplexClosestResult finalResult) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SubSimplexClosestResult> subsimplexResultsPool = BulletPool.get(SubSimplexClosestResult.class);
+
 		stack.vectors.push();
 		SubSimplexClosestResult tempResult = subsimplexResultsPool.get();
 		tempResult.reset();
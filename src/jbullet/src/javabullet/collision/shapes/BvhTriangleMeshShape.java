@@ -23,9 +23,11 @@
 
 package javabullet.collision.shapes;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletPool;
+import javabullet.BulletStack;
 import javabullet.ObjectPool;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.collision.narrowphase.TriangleConvexcastCallback;
@@ -45,8 +47,6 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	private boolean useQuantizedAabbCompression;
 	private boolean ownsBvh;
 	
-	private ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class);
-	
 	public BvhTriangleMeshShape() {
 		super(null);
 		this.bvh = null;
@@ -80,6 +80,23 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 		//#endif //DISABLE_BVH
 	}
 
+	/**
+	 * Uses quantized bvh loaded from given cache file, the cache is (re)built
+	 * when it doesn't match the mesh. See {@link OptimizedBvh#buildCached}.
+	 */
+	public BvhTriangleMeshShape(StridingMeshInterface meshInterface, File bvhCacheFile) {
+		super(meshInterface);
+		this.useQuantizedAabbCompression = true;
+
+		Vector3f bvhAabbMin = new Vector3f(), bvhAabbMax = new Vector3f();
+		meshInterface.calculateAabbBruteForce(bvhAabbMin, bvhAabbMax);
+
+		bvh = OptimizedBvh.buildCached(bvhCacheFile, meshInterface, bvhAabbMin, bvhAabbMax);
+		ownsBvh = true;
+
+		recalcLocalAabb();
+	}
+
 	/**
 	 * Optionally pass in a larger bvh aabb, used for quantization. This allows for deformations within this aabb.
 	 */
@@ -118,6 +135,8 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	}
 
 	public void performRaycast(TriangleRaycastCallback callback, Vector3f raySource, Vector3f rayTarget) {
+		ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class);
+
 		MyNodeOverlapCallback myNodeCallback = myNodeCallbacks.get();
 		myNodeCallback.init(callback, meshInterface);
 
@@ -127,6 +146,8 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	}
 	
 	public void performConvexcast(TriangleConvexcastCallback callback, Vector3f raySource, Vector3f rayTarget, Vector3f aabbMin, Vector3f aabbMax) {
+		ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class);
+
 		MyNodeOverlapCallback myNodeCallback = myNodeCallbacks.get();
 		myNodeCallback.init(callback, meshInterface);
 
@@ -140,6 +161,8 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	 */
 	@Override
 	public void processAllTriangles(TriangleCallback callback, Vector3f aabbMin, Vector3f aabbMax) {
+		ObjectPool<MyNodeOverlapCallback> myNodeCallbacks = BulletPool.get(MyNodeOverlapCallback.class);
+
 		//#ifdef DISABLE_BVH
 		// // brute force traverse all triangles
 		//btTriangleMeshShape::processAllTriangles(callback,aabbMin,aabbMax);
@@ -178,6 +201,8 @@ public class BvhTriangleMeshShape extends TriangleMeshShape {
 	
 	@Override
 	public void setLocalScaling(Vector3f scaling) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
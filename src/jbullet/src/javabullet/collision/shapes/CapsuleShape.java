@@ -24,6 +24,7 @@
 package javabullet.collision.shapes;
 
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -43,6 +44,8 @@ public class CapsuleShape extends ConvexInternalShape {
 
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f vec0) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f supVec = stack.vectors.get(0f, 0f, 0f);
@@ -109,6 +112,8 @@ public class CapsuleShape extends ConvexInternalShape {
 
 	@Override
 	public void calculateLocalInertia(float mass, Vector3f inertia) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			// as an approximation, take the inertia of the box that bounds the spheres
@@ -25,7 +25,9 @@ package javabullet.collision.shapes;
 
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
+import javabullet.collision.broadphase.Dbvt;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -34,7 +36,10 @@ import javax.vecmath.Vector3f;
 
 /**
  * CompoundShape allows to store multiple other CollisionShapes.
- * This allows for concave collision objects. This is more general then the Static Concave TriangleMeshShape.
+ * This allows for concave collision objects. This is more general then the Static Concave TriangleMeshShape.<p>
+ * 
+ * Children are kept in dynamic AABB tree (in local space of compound), collision
+ * algorithms and ray tests use it to process only children overlapping the query.
  * 
  * @author jezek2
  */
@@ -44,12 +49,17 @@ public class CompoundShape extends CollisionShape {
 	private final Vector3f localAabbMin = new Vector3f(1e30f, 1e30f, 1e30f);
 	private final Vector3f localAabbMax = new Vector3f(-1e30f, -1e30f, -1e30f);
 
-	private OptimizedBvh aabbTree = null;
+	// leaves store index of child as Integer
+	private final Dbvt aabbTree = new Dbvt();
+	// incremented when children are removed (indices change)
+	private int updateRevision = 1;
 
 	private float collisionMargin = 0f;
 	protected final Vector3f localScaling = new Vector3f(1f, 1f, 1f);
 
 	public void addChildShape(Transform localTransform, CollisionShape shape) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			//m_childTransforms.push_back(localTransform);
@@ -60,12 +70,13 @@ public class CompoundShape extends CollisionShape {
 			child.childShapeType = shape.getShapeType();
 			child.childMargin = shape.getMargin();
 
-			children.add(child);
-
 			// extend the local aabbMin/aabbMax
 			Vector3f _localAabbMin = stack.vectors.get(), _localAabbMax = stack.vectors.get();
 			shape.getAabb(localTransform, _localAabbMin, _localAabbMax);
 
+			child.node = aabbTree.insert(_localAabbMin, _localAabbMax, Integer.valueOf(children.size()));
+			children.add(child);
+
 			// JAVA NOTE: rewritten
 	//		for (int i=0;i<3;i++)
 	//		{
@@ -86,6 +97,95 @@ public class CompoundShape extends CollisionShape {
 		}
 	}
 
+	/**
+	 * Removes child, last child is moved to its index.
+	 */
+	public void removeChildShapeByIndex(int index) {
+		CompoundShapeChild child = children.get(index);
+		aabbTree.remove(child.node);
+		child.node = null;
+
+		int last = children.size() - 1;
+		if (index != last) {
+			CompoundShapeChild lastChild = children.get(last);
+			lastChild.node.data = Integer.valueOf(index);
+			children.set(index, lastChild);
+		}
+		children.remove(last);
+
+		updateRevision++;
+		recalculateLocalAabb();
+	}
+
+	/**
+	 * Removes all children using given shape.
+	 */
+	public void removeChildShape(CollisionShape shape) {
+		for (int i=children.size()-1; i>=0; i--) {
+			if (children.get(i).childShape == shape) {
+				removeChildShapeByIndex(i);
+			}
+		}
+	}
+
+	/**
+	 * Sets local transform of child and updates AABB tree.
+	 */
+	public void updateChildTransform(int index, Transform localTransform) {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			CompoundShapeChild child = children.get(index);
+			child.transform.set(localTransform);
+
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			child.childShape.getAabb(localTransform, aabbMin, aabbMax);
+			aabbTree.update(child.node, aabbMin, aabbMax);
+
+			recalculateLocalAabb();
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	/**
+	 * Recalculates local AABB from children, must be called when some child shape is changed.
+	 * Also refits the AABB tree.
+	 */
+	public void recalculateLocalAabb() {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			localAabbMin.set(1e30f, 1e30f, 1e30f);
+			localAabbMax.set(-1e30f, -1e30f, -1e30f);
+
+			Vector3f aabbMin = stack.vectors.get(), aabbMax = stack.vectors.get();
+			for (int i=0; i<children.size(); i++) {
+				CompoundShapeChild child = children.get(i);
+				child.childShape.getAabb(child.transform, aabbMin, aabbMax);
+				if (!aabbMin.equals(child.node.min) || !aabbMax.equals(child.node.max)) {
+					aabbTree.update(child.node, aabbMin, aabbMax);
+				}
+				VectorUtil.setMin(localAabbMin, aabbMin);
+				VectorUtil.setMax(localAabbMax, aabbMax);
+			}
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+
+	/**
+	 * Returns revision number incremented on every removal of child. Can be used
+	 * to detect change of child indices.
+	 */
+	public int getUpdateRevision() {
+		return updateRevision;
+	}
+
 	public int getNumChildShapes() {
 		return children.size();
 	}
@@ -107,6 +207,8 @@ public class CompoundShape extends CollisionShape {
 	 */
 	@Override
 	public void getAabb(Transform trans, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			Vector3f localHalfExtents = stack.vectors.get();
@@ -157,6 +259,8 @@ public class CompoundShape extends CollisionShape {
 
 	@Override
 	public void calculateLocalInertia(float mass, Vector3f inertia) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			// approximation: take the inertia from the aabb for now
@@ -202,10 +306,10 @@ public class CompoundShape extends CollisionShape {
 		return "Compound";
 	}
 
-	// this is optional, but should make collision queries faster, by culling non-overlapping nodes
-	// void	createAabbTreeFromChildren();
-	
-	public OptimizedBvh getAabbTree() {
+	/**
+	 * Returns AABB tree of children, leaf data is index of child (Integer).
+	 */
+	public Dbvt getAabbTree() {
 		return aabbTree;
 	}
 	
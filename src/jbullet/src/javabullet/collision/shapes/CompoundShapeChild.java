@@ -24,6 +24,7 @@
 package javabullet.collision.shapes;
 
 import javabullet.collision.broadphase.BroadphaseNativeType;
+import javabullet.collision.broadphase.Dbvt;
 import javabullet.linearmath.Transform;
 
 /**
@@ -36,5 +37,6 @@ public class CompoundShapeChild {
 	public CollisionShape childShape;
 	public BroadphaseNativeType childShapeType;
 	public float childMargin;
+	public Dbvt.Node node;
 
 }
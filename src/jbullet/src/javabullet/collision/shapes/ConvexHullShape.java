@@ -21,26 +21,44 @@
  * 3. This notice may not be removed or altered from any source distribution.
  */
 
+
 package javabullet.collision.shapes;
 
 import java.util.ArrayList;
 import java.util.List;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
-import javabullet.linearmath.VectorUtil;
+import javabullet.linearmath.QuickHull;
 import javax.vecmath.Vector3f;
 
 /**
  * ConvexHullShape implements an implicit (getSupportingVertex) Convex Hull of a Point Cloud (vertices).
  * No connectivity is needed. localGetSupportingVertex iterates linearly though all vertices.
  * On modern hardware, due to cache coherency this isn't that bad. Complex algorithms tend to trash the cashe
- * (memory is much slower then the cpu).
+ * (memory is much slower then the cpu).<p>
+ * 
+ * For larger point clouds (tens of points and more) call {@link #buildHullAdjacency}, support
+ * queries then walk along hull edges starting from previously returned vertex, which
+ * visits just few vertices as GJK asks for similar directions in consecutive iterations.
+ * Imported point clouds can be reduced using {@link javabullet.linearmath.GeometryUtil#simplifyConvexHull}.
  * 
  * @author jezek2
  */
 public class ConvexHullShape extends PolyhedralConvexShape {
 
-	private final List<Vector3f> points = new ArrayList<Vector3f>();
+	// JAVA NOTE: points are stored as x, y, z triplets
+	private float[] points = new float[3*16];
+	private int numPoints;
+	
+	// hull vertices and their neighbours for hill climbing, or null
+	private HullAdjacency hullAdjacency;
+	
+	// JAVA NOTE: shared by all threads, any hull vertex is valid starting point so races are harmless
+	private int lastSupportVertex;
+	
+	// number of cells along side of each face of start vertex cube map
+	private static final int START_MAP_SIZE = 4;
 	
 	/**
 	 * TODO: This constructor optionally takes in a pointer to points. Each point is assumed to be 3 consecutive float (x,y,z), the striding defines the number of bytes between each point, in memory.
@@ -51,54 +69,272 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 	public ConvexHullShape(List<Vector3f> points) {
 		// JAVA NOTE: rewritten
 		
+		ensureCapacity(points.size());
 		for (int i=0; i<points.size(); i++) {
-			this.points.add(new Vector3f(points.get(i)));
+			Vector3f p = points.get(i);
+			this.points[i*3+0] = p.x;
+			this.points[i*3+1] = p.y;
+			this.points[i*3+2] = p.z;
 		}
+		numPoints = points.size();
+		
+		recalcLocalAabb();
+	}
+	
+	/**
+	 * Creates shape from points stored as x, y, z triplets. Points are copied.
+	 */
+	public ConvexHullShape(float[] points, int numPoints) {
+		ensureCapacity(numPoints);
+		System.arraycopy(points, 0, this.points, 0, numPoints*3);
+		this.numPoints = numPoints;
 		
 		recalcLocalAabb();
 	}
 	
 	public void addPoint(Vector3f point) {
-		points.add(new Vector3f(point));
+		ensureCapacity(numPoints + 1);
+		points[numPoints*3+0] = point.x;
+		points[numPoints*3+1] = point.y;
+		points[numPoints*3+2] = point.z;
+		numPoints++;
+		
+		if (hullAdjacency != null) {
+			buildHullAdjacency();
+		}
 		recalcLocalAabb();
 	}
+	
+	private void ensureCapacity(int count) {
+		if (points.length < count*3) {
+			float[] newPoints = new float[Math.max(count*3, points.length << 1)];
+			System.arraycopy(points, 0, newPoints, 0, numPoints*3);
+			points = newPoints;
+		}
+	}
 
+	/**
+	 * Returns copy of points (without local scaling).
+	 */
 	public List<Vector3f> getPoints() {
-		return points;
+		List<Vector3f> list = new ArrayList<Vector3f>(numPoints);
+		for (int i=0; i<numPoints; i++) {
+			list.add(new Vector3f(points[i*3+0], points[i*3+1], points[i*3+2]));
+		}
+		return list;
+	}
+	
+	/**
+	 * Returns point (without local scaling).
+	 */
+	public Vector3f getPoint(int i, Vector3f out) {
+		out.set(points[i*3+0], points[i*3+1], points[i*3+2]);
+		return out;
 	}
 
 	public int getNumPoints() {
-		return points.size();
+		return numPoints;
+	}
+	
+	/**
+	 * Builds hull adjacency used for hill climbing in support queries. Points inside of
+	 * hull are not used by support queries anymore. Adjacency is rebuilt when
+	 * new point is added.
+	 * 
+	 * @return false when points are degenerate (all in single plane), linear search is used then
+	 */
+	public boolean buildHullAdjacency() {
+		QuickHull hull = new QuickHull();
+		if (!hull.build(points, numPoints, Integer.MAX_VALUE)) {
+			removeHullAdjacency();
+			return false;
+		}
+		
+		int numVertices = hull.getNumVertices();
+		float[] vertices = new float[numVertices*3];
+		for (int i=0; i<numVertices; i++) {
+			System.arraycopy(points, hull.getVertexIndex(i)*3, vertices, i*3, 3);
+		}
+		
+		int[] offsets = new int[numVertices+1];
+		System.arraycopy(hull.getAdjacencyOffsets(), 0, offsets, 0, numVertices+1);
+		int[] adjacency = new int[offsets[numVertices]];
+		System.arraycopy(hull.getAdjacency(), 0, adjacency, 0, adjacency.length);
+		
+		// support vertices for directions through centers of cube map cells:
+		int[] startVertices = new int[6*START_MAP_SIZE*START_MAP_SIZE];
+		for (int face=0; face<6; face++) {
+			int axis = face >> 1;
+			float sign = (face & 1) == 0? 1f : -1f;
+			for (int cu=0; cu<START_MAP_SIZE; cu++) {
+				for (int cv=0; cv<START_MAP_SIZE; cv++) {
+					float u = (cu + 0.5f) * 2f / START_MAP_SIZE - 1f;
+					float v = (cv + 0.5f) * 2f / START_MAP_SIZE - 1f;
+					float dx = axis == 0? sign : u;
+					float dy = axis == 0? u : (axis == 1? sign : v);
+					float dz = axis == 2? sign : v;
+					startVertices[getStartMapIndex(dx, dy, dz)] = linearSearch(vertices, numVertices, dx, dy, dz);
+				}
+			}
+		}
+		
+		lastSupportVertex = 0;
+		hullAdjacency = new HullAdjacency(vertices, offsets, adjacency, startVertices);
+		return true;
+	}
+	
+	public void removeHullAdjacency() {
+		hullAdjacency = null;
+	}
+	
+	public boolean hasHullAdjacency() {
+		return hullAdjacency != null;
+	}
+	
+	/**
+	 * Returns index of cube map cell containing given direction. Cells are indexed by
+	 * face (+X, -X, +Y, -Y, +Z, -Z) and position in the face.
+	 */
+	private static int getStartMapIndex(float dx, float dy, float dz) {
+		float ax = Math.abs(dx), ay = Math.abs(dy), az = Math.abs(dz);
+		int face;
+		float m, u, v;
+		if (ax >= ay && ax >= az) {
+			face = dx > 0f? 0 : 1;
+			m = ax;
+			u = dy;
+			v = dz;
+		}
+		else if (ay >= az) {
+			face = dy > 0f? 2 : 3;
+			m = ay;
+			u = dx;
+			v = dz;
+		}
+		else {
+			face = dz > 0f? 4 : 5;
+			m = az;
+			u = dx;
+			v = dy;
+		}
+		
+		if (m == 0f) {
+			return 0;
+		}
+		
+		int cu = (int)((u / m + 1f) * (0.5f * START_MAP_SIZE));
+		int cv = (int)((v / m + 1f) * (0.5f * START_MAP_SIZE));
+		if (cu >= START_MAP_SIZE) cu = START_MAP_SIZE - 1;
+		if (cv >= START_MAP_SIZE) cv = START_MAP_SIZE - 1;
+		return (face*START_MAP_SIZE + cu)*START_MAP_SIZE + cv;
+	}
+	
+	/**
+	 * Returns hull vertex with maximum dot product with given direction, starting
+	 * from better of previously returned vertex and vertex precomputed for nearby
+	 * direction and moving to best neighbour while it improves. As the hull is convex,
+	 * local maximum is the global one.<p>
+	 * 
+	 * Previously returned vertex alone is not enough when shape is shared by many
+	 * bodies, as consecutive queries come from different orientations.
+	 */
+	private int hillClimb(HullAdjacency hull, float dx, float dy, float dz) {
+		float[] vertices = hull.vertices;
+		int[] offsets = hull.offsets;
+		int[] adjacency = hull.adjacency;
+		
+		int v = hull.startVertices[getStartMapIndex(dx, dy, dz)];
+		float maxDot = vertices[v*3+0]*dx + vertices[v*3+1]*dy + vertices[v*3+2]*dz;
+		
+		int last = lastSupportVertex;
+		if (last < offsets.length - 1) {
+			float dot = vertices[last*3+0]*dx + vertices[last*3+1]*dy + vertices[last*3+2]*dz;
+			if (dot > maxDot) {
+				maxDot = dot;
+				v = last;
+			}
+		}
+		
+		for (;;) {
+			int best = v;
+			for (int i=offsets[v], end=offsets[v+1]; i<end; i++) {
+				int n = adjacency[i];
+				float dot = vertices[n*3+0]*dx + vertices[n*3+1]*dy + vertices[n*3+2]*dz;
+				if (dot > maxDot) {
+					maxDot = dot;
+					best = n;
+				}
+			}
+			
+			if (best == v) {
+				break;
+			}
+			v = best;
+		}
+		
+		lastSupportVertex = v;
+		return v;
+	}
+	
+	private static int linearSearch(float[] vertices, int count, float dx, float dy, float dz) {
+		int best = 0;
+		float maxDot = -1e30f;
+		for (int i=0; i<count; i++) {
+			float dot = vertices[i*3+0]*dx + vertices[i*3+1]*dy + vertices[i*3+2]*dz;
+			if (dot > maxDot) {
+				maxDot = dot;
+				best = i;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Stores supporting vertex (with local scaling applied) for given direction to out.
+	 */
+	private void getSupportingVertex(float dx, float dy, float dz, Vector3f out) {
+		// dot(dir, scaling*point) == dot(scaling*dir, point), so scale just the direction
+		dx *= localScaling.x;
+		dy *= localScaling.y;
+		dz *= localScaling.z;
+		
+		HullAdjacency hull = hullAdjacency;
+		
+		float[] vertices;
+		int index;
+		if (hull != null) {
+			vertices = hull.vertices;
+			index = hillClimb(hull, dx, dy, dz);
+		}
+		else {
+			vertices = points;
+			index = linearSearch(vertices, numPoints, dx, dy, dz);
+		}
+		
+		out.set(vertices[index*3+0]*localScaling.x, vertices[index*3+1]*localScaling.y, vertices[index*3+2]*localScaling.z);
 	}
 
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f vec0) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f supVec = stack.vectors.get(0f, 0f, 0f);
-			float newDot, maxDot = -1e30f;
+			if (numPoints == 0) {
+				return stack.vectors.returning(supVec);
+			}
 
-			Vector3f vec = stack.vectors.get(vec0);
-			float lenSqr = vec.lengthSquared();
+			// JAVA NOTE: direction doesn't need to be normalized for finding maximum dot product
+			float dx = vec0.x, dy = vec0.y, dz = vec0.z;
+			float lenSqr = dx*dx + dy*dy + dz*dz;
 			if (lenSqr < 0.0001f) {
-				vec.set(1f, 0f, 0f);
+				dx = 1f;
+				dy = 0f;
+				dz = 0f;
 			}
-			else {
-				float rlen = 1f / (float) Math.sqrt(lenSqr);
-				vec.scale(rlen);
-			}
-
-
-			Vector3f vtx = stack.vectors.get();
-			for (int i = 0; i < points.size(); i++) {
-				VectorUtil.mul(vtx, points.get(i), localScaling);
 
-				newDot = vec.dot(vtx);
-				if (newDot > maxDot) {
-					maxDot = newDot;
-					supVec.set(vtx);
-				}
-			}
+			getSupportingVertex(dx, dy, dz, supVec);
 			return stack.vectors.returning(supVec);
 		}
 		finally {
@@ -108,46 +344,24 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 
 	@Override
 	public void batchedUnitVectorGetSupportingVertexWithoutMargin(Vector3f[] vectors, Vector3f[] supportVerticesOut, int numVectors) {
-		stack.vectors.push();
-		try {
-			float newDot;
-
-			// JAVA NOTE: rewritten as code used W coord for temporary usage in Vector3
-			// TODO: optimize it
-			float[] wcoords = new float[numVectors];
-
-			// use 'w' component of supportVerticesOut?
-			{
-				for (int i = 0; i < numVectors; i++) {
-					//supportVerticesOut[i][3] = btScalar(-1e30);
-					wcoords[i] = -1e30f;
-				}
-			}
-			Vector3f vtx = stack.vectors.get();
-			for (int i = 0; i < points.size(); i++) {
-				VectorUtil.mul(vtx, points.get(i), localScaling);
-
-				for (int j = 0; j < numVectors; j++) {
-					Vector3f vec = vectors[j];
-
-					newDot = vec.dot(vtx);
-					//if (newDot > supportVerticesOut[j][3])
-					if (newDot > wcoords[j]) {
-						// WARNING: don't swap next lines, the w component would get overwritten!
-						supportVerticesOut[j].set(vtx);
-						//supportVerticesOut[j][3] = newDot;
-						wcoords[j] = newDot;
-					}
-				}
+		// JAVA NOTE: rewritten to use same search as single support query
+		if (numPoints == 0) {
+			for (int j = 0; j < numVectors; j++) {
+				supportVerticesOut[j].set(0f, 0f, 0f);
 			}
+			return;
 		}
-		finally {
-			stack.vectors.pop();
+		
+		for (int j = 0; j < numVectors; j++) {
+			Vector3f vec = vectors[j];
+			getSupportingVertex(vec.x, vec.y, vec.z, supportVerticesOut[j]);
 		}
 	}
 
 	@Override
 	public Vector3f localGetSupportingVertex(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f supVertex = stack.vectors.get(localGetSupportingVertexWithoutMargin(vec));
@@ -173,25 +387,25 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 	 */
 	@Override
 	public int getNumVertices() {
-		return points.size();
+		return numPoints;
 	}
 
 	@Override
 	public int getNumEdges() {
-		return points.size();
+		return numPoints;
 	}
 
 	@Override
 	public void getEdge(int i, Vector3f pa, Vector3f pb) {
-		int index0 = i % points.size();
-		int index1 = (i + 1) % points.size();
-		VectorUtil.mul(pa, points.get(index0), localScaling);
-		VectorUtil.mul(pb, points.get(index1), localScaling);
+		int index0 = i % numPoints;
+		int index1 = (i + 1) % numPoints;
+		getVertex(index0, pa);
+		getVertex(index1, pb);
 	}
 
 	@Override
 	public void getVertex(int i, Vector3f vtx) {
-		VectorUtil.mul(vtx, points.get(i), localScaling);
+		vtx.set(points[i*3+0]*localScaling.x, points[i*3+1]*localScaling.y, points[i*3+2]*localScaling.z);
 	}
 
 	@Override
@@ -219,5 +433,24 @@ public class ConvexHullShape extends PolyhedralConvexShape {
 	public String getName() {
 		return "Convex";
 	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class HullAdjacency {
+		// hull vertices (x, y, z triplets)
+		public final float[] vertices;
+		// neighbours of vertex i are at adjacency[offsets[i]] .. adjacency[offsets[i+1]-1]
+		public final int[] offsets;
+		public final int[] adjacency;
+		// starting vertices for hill climbing indexed by cube map cell of direction
+		public final int[] startVertices;
+
+		public HullAdjacency(float[] vertices, int[] offsets, int[] adjacency, int[] startVertices) {
+			this.vertices = vertices;
+			this.offsets = offsets;
+			this.adjacency = adjacency;
+			this.startVertices = startVertices;
+		}
+	}
 
 }
@@ -24,6 +24,7 @@
 package javabullet.collision.shapes;
 
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -66,6 +67,8 @@ public class CylinderShape extends BoxShape {
 	}
 	
 	private Vector3f cylinderLocalSupport(Vector3f halfExtents, Vector3f v, int cylinderUpAxis, int XX, int YY, int ZZ) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			//mapping depends on how cylinder local orientation is
@@ -111,6 +114,8 @@ public class CylinderShape extends BoxShape {
 
 	@Override
 	public Vector3f localGetSupportingVertex(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f supVertex = stack.vectors.get();
@@ -0,0 +1,590 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.collision.shapes;
+
+import java.nio.ByteBuffer;
+import javabullet.BulletPool;
+import javabullet.BulletStack;
+import javabullet.ObjectPool;
+import javabullet.collision.broadphase.BroadphaseNativeType;
+import javabullet.collision.narrowphase.TriangleRaycastCallback;
+import javabullet.linearmath.MatrixUtil;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * HeightfieldTerrainShape simulates a terrain given by regular grid of height
+ * samples. Triangles are generated on the fly for grid cells overlapping the
+ * query AABB, so unlike {@link BvhTriangleMeshShape} there are no vertex/index
+ * arrays or BVH to build and store.<p>
+ * 
+ * The grid lies in XZ plane with Y up, sample (x, z) is at index z*width + x.
+ * Grid cells are 1 unit wide, use {@link #setLocalScaling} to set cell size and
+ * height scale. Like in Bullet, the shape is centered at its origin, in all
+ * three axes.<p>
+ * 
+ * Ray tests ({@link #performRaycast}) descend a quadtree over the grid from near
+ * to far cells. With {@link #buildMinMaxPyramid min/max pyramid} the height
+ * ranges of the quadtree blocks are known, so rays passing above the terrain
+ * skip whole blocks. The pyramid costs about 2/3 of float per grid cell.<p>
+ * 
+ * Height data is referenced, not copied. Call {@link #updateHeightBounds} after
+ * changing it.
+ * 
+ * @author jezek2
+ */
+public class HeightfieldTerrainShape extends ConcaveShape {
+
+	protected final int width;
+	protected final int length;
+	
+	protected final float[] floatHeights;
+	protected final short[] shortHeights;
+	protected final ByteBuffer byteHeights;
+	protected final ScalarType heightDataType;
+	protected final float heightScale;
+	
+	protected float minHeight;
+	protected float maxHeight;
+	
+	// center of the grid in grid space (x, z in cells, y in height units)
+	protected final Vector3f localOrigin = new Vector3f();
+	protected final Vector3f localScaling = new Vector3f(1f, 1f, 1f);
+	protected final Vector3f localAabbMin = new Vector3f();
+	protected final Vector3f localAabbMax = new Vector3f();
+	
+	// number of quadtree levels above cells, the top level has single block
+	protected int topLevel;
+	// min/max heights of blocks of 2^level x 2^level cells, indexed by level-1, or null
+	protected float[][] pyramidMin;
+	protected float[][] pyramidMax;
+
+	/**
+	 * @param width number of samples along X axis
+	 * @param length number of samples along Z axis
+	 * @param heights height samples
+	 */
+	public HeightfieldTerrainShape(int width, int length, float[] heights) {
+		this(width, length, heights, null, null, ScalarType.PHY_FLOAT, 1f);
+	}
+	
+	/**
+	 * @param width number of samples along X axis
+	 * @param length number of samples along Z axis
+	 * @param heights height samples
+	 * @param heightScale multiplier of the samples
+	 */
+	public HeightfieldTerrainShape(int width, int length, short[] heights, float heightScale) {
+		this(width, length, null, heights, null, ScalarType.PHY_SHORT, heightScale);
+	}
+
+	/**
+	 * @param width number of samples along X axis
+	 * @param length number of samples along Z axis
+	 * @param heights height samples, accessed with absolute indices in buffer's byte order
+	 * @param heightDataType {@link ScalarType#PHY_FLOAT} or {@link ScalarType#PHY_SHORT}
+	 * @param heightScale multiplier of the samples
+	 */
+	public HeightfieldTerrainShape(int width, int length, ByteBuffer heights, ScalarType heightDataType, float heightScale) {
+		this(width, length, null, null, heights, heightDataType, heightScale);
+	}
+	
+	private HeightfieldTerrainShape(int width, int length, float[] floatHeights, short[] shortHeights, ByteBuffer byteHeights, ScalarType heightDataType, float heightScale) {
+		if (heightDataType != ScalarType.PHY_FLOAT && heightDataType != ScalarType.PHY_SHORT) {
+			throw new IllegalArgumentException("unsupported height data type " + heightDataType);
+		}
+		assert (width >= 2 && length >= 2);
+		assert (floatHeights == null || floatHeights.length >= width * length);
+		assert (shortHeights == null || shortHeights.length >= width * length);
+		assert (byteHeights == null || byteHeights.capacity() >= width * length * (heightDataType == ScalarType.PHY_FLOAT? 4 : 2));
+
+		this.width = width;
+		this.length = length;
+		this.floatHeights = floatHeights;
+		this.shortHeights = shortHeights;
+		this.byteHeights = byteHeights;
+		this.heightDataType = heightDataType;
+		this.heightScale = heightScale;
+		
+		int maxCells = Math.max(width, length) - 1;
+		topLevel = 0;
+		while (((maxCells - 1) >> topLevel) > 0) {
+			topLevel++;
+		}
+		
+		updateHeightBounds();
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Returns height sample multiplied by height scale, local scaling is not applied.
+	 */
+	public float getHeight(int x, int z) {
+		int index = z * width + x;
+		if (floatHeights != null) {
+			return floatHeights[index];
+		}
+		if (shortHeights != null) {
+			return shortHeights[index] * heightScale;
+		}
+		if (heightDataType == ScalarType.PHY_FLOAT) {
+			return byteHeights.getFloat(index << 2) * heightScale;
+		}
+		return byteHeights.getShort(index << 1) * heightScale;
+	}
+	
+	/**
+	 * Returns position of given grid sample in local space of the shape.
+	 */
+	public Vector3f getVertex(int x, int z, Vector3f out) {
+		return getVertex(x, z, getHeight(x, z), out);
+	}
+	
+	private Vector3f getVertex(int x, int z, float height, Vector3f out) {
+		out.x = (x - localOrigin.x) * localScaling.x;
+		out.y = (height - localOrigin.y) * localScaling.y;
+		out.z = (z - localOrigin.z) * localScaling.z;
+		return out;
+	}
+	
+	/**
+	 * Recalculates height range and min/max pyramid (if it was built) after the height data were changed.
+	 */
+	public void updateHeightBounds() {
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (int z=0; z<length; z++) {
+			for (int x=0; x<width; x++) {
+				float h = getHeight(x, z);
+				min = Math.min(min, h);
+				max = Math.max(max, h);
+			}
+		}
+		minHeight = min;
+		maxHeight = max;
+		
+		localOrigin.set((width - 1) * 0.5f, (minHeight + maxHeight) * 0.5f, (length - 1) * 0.5f);
+		recalcLocalAabb();
+		
+		if (pyramidMin != null) {
+			buildMinMaxPyramid();
+		}
+	}
+	
+	/**
+	 * Builds min/max pyramid used to skip empty space in ray tests.
+	 */
+	public void buildMinMaxPyramid() {
+		int cellsX = width - 1;
+		int cellsZ = length - 1;
+		
+		pyramidMin = new float[topLevel][];
+		pyramidMax = new float[topLevel][];
+		
+		for (int level=1; level<=topLevel; level++) {
+			int blocksX = getBlockCount(cellsX, level);
+			int blocksZ = getBlockCount(cellsZ, level);
+			float[] mins = new float[blocksX * blocksZ];
+			float[] maxs = new float[blocksX * blocksZ];
+			
+			for (int bz=0; bz<blocksZ; bz++) {
+				for (int bx=0; bx<blocksX; bx++) {
+					float min = Float.MAX_VALUE;
+					float max = -Float.MAX_VALUE;
+					
+					if (level == 1) {
+						// scan samples of 2x2 cells
+						int endX = Math.min(2*bx + 2, cellsX);
+						int endZ = Math.min(2*bz + 2, cellsZ);
+						for (int z=2*bz; z<=endZ; z++) {
+							for (int x=2*bx; x<=endX; x++) {
+								float h = getHeight(x, z);
+								min = Math.min(min, h);
+								max = Math.max(max, h);
+							}
+						}
+					}
+					else {
+						// merge child blocks
+						float[] childMins = pyramidMin[level-2];
+						float[] childMaxs = pyramidMax[level-2];
+						int childBlocksX = getBlockCount(cellsX, level-1);
+						int childBlocksZ = getBlockCount(cellsZ, level-1);
+						for (int z=2*bz; z<Math.min(2*bz + 2, childBlocksZ); z++) {
+							for (int x=2*bx; x<Math.min(2*bx + 2, childBlocksX); x++) {
+								min = Math.min(min, childMins[z*childBlocksX + x]);
+								max = Math.max(max, childMaxs[z*childBlocksX + x]);
+							}
+						}
+					}
+					
+					mins[bz*blocksX + bx] = min;
+					maxs[bz*blocksX + bx] = max;
+				}
+			}
+			
+			pyramidMin[level-1] = mins;
+			pyramidMax[level-1] = maxs;
+		}
+	}
+	
+	public void removeMinMaxPyramid() {
+		pyramidMin = null;
+		pyramidMax = null;
+	}
+	
+	public boolean hasMinMaxPyramid() {
+		return pyramidMin != null;
+	}
+	
+	private static int getBlockCount(int cells, int level) {
+		return ((cells - 1) >> level) + 1;
+	}
+	
+	protected void recalcLocalAabb() {
+		float margin = getMargin();
+		localAabbMax.set(
+				(width - 1) * 0.5f * Math.abs(localScaling.x),
+				(maxHeight - minHeight) * 0.5f * Math.abs(localScaling.y),
+				(length - 1) * 0.5f * Math.abs(localScaling.z));
+		localAabbMax.x += margin;
+		localAabbMax.y += margin;
+		localAabbMax.z += margin;
+		localAabbMin.negate(localAabbMax);
+	}
+
+	/**
+	 * Reports triangles of grid cells overlapping given AABB (in local space).
+	 * Local scaling is assumed to be positive.
+	 */
+	@Override
+	public void processAllTriangles(TriangleCallback callback, Vector3f aabbMin, Vector3f aabbMax) {
+		// query box in grid space
+		float margin = getMargin();
+		float minY = (aabbMin.y - margin) / localScaling.y + localOrigin.y;
+		float maxY = (aabbMax.y + margin) / localScaling.y + localOrigin.y;
+		if (minY > maxHeight || maxY < minHeight) {
+			return;
+		}
+		
+		int startX = Math.max((int)Math.floor((aabbMin.x - margin) / localScaling.x + localOrigin.x), 0);
+		int endX = Math.min((int)Math.ceil((aabbMax.x + margin) / localScaling.x + localOrigin.x), width - 1);
+		int startZ = Math.max((int)Math.floor((aabbMin.z - margin) / localScaling.z + localOrigin.z), 0);
+		int endZ = Math.min((int)Math.ceil((aabbMax.z + margin) / localScaling.z + localOrigin.z), length - 1);
+		if (startX >= endX || startZ >= endZ) {
+			return;
+		}
+
+		ObjectPool<TerrainQuery> queriesPool = BulletPool.get(TerrainQuery.class);
+		TerrainQuery query = queriesPool.get();
+		
+		for (int z=startZ; z<endZ; z++) {
+			for (int x=startX; x<endX; x++) {
+				float h00 = getHeight(x, z);
+				float h10 = getHeight(x+1, z);
+				float h01 = getHeight(x, z+1);
+				float h11 = getHeight(x+1, z+1);
+				
+				// skip cells entirely above or below the box
+				if (Math.max(Math.max(h00, h10), Math.max(h01, h11)) < minY ||
+						Math.min(Math.min(h00, h10), Math.min(h01, h11)) > maxY) {
+					continue;
+				}
+				
+				processCell(callback, x, z, h00, h10, h01, h11, query.triangle);
+			}
+		}
+		
+		queriesPool.release(query);
+	}
+	
+	private void processCell(TriangleCallback callback, int x, int z, float h00, float h10, float h01, float h11, Vector3f[] triangle) {
+		int triangleIndex = (z * (width - 1) + x) * 2;
+		
+		// both triangles are counter-clockwise when viewed from above
+		getVertex(x, z, h00, triangle[0]);
+		getVertex(x, z+1, h01, triangle[1]);
+		getVertex(x+1, z, h10, triangle[2]);
+		callback.processTriangle(triangle, 0, triangleIndex);
+		
+		getVertex(x+1, z, h10, triangle[0]);
+		getVertex(x, z+1, h01, triangle[1]);
+		getVertex(x+1, z+1, h11, triangle[2]);
+		callback.processTriangle(triangle, 0, triangleIndex + 1);
+	}
+	
+	/**
+	 * Reports triangles possibly hit by the ray (in local space) to the callback.
+	 * Cells are visited from near to far, the traversal ends when the callback
+	 * has a hit closer than the remaining cells.
+	 */
+	public void performRaycast(TriangleRaycastCallback callback, Vector3f raySource, Vector3f rayTarget) {
+		ObjectPool<TerrainQuery> queriesPool = BulletPool.get(TerrainQuery.class);
+		TerrainQuery q = queriesPool.get();
+		
+		// ray in grid space
+		q.originX = raySource.x / localScaling.x + localOrigin.x;
+		q.originY = raySource.y / localScaling.y + localOrigin.y;
+		q.originZ = raySource.z / localScaling.z + localOrigin.z;
+		q.dirX = (rayTarget.x - raySource.x) / localScaling.x;
+		q.dirY = (rayTarget.y - raySource.y) / localScaling.y;
+		q.dirZ = (rayTarget.z - raySource.z) / localScaling.z;
+		q.heightEpsilon = (maxHeight - minHeight) * 1e-5f + 1e-5f;
+		
+		int sp = 0;
+		float t = intersectBlock(q, callback.hitFraction, topLevel, 0, 0);
+		if (t >= 0f) {
+			q.push(sp++, topLevel, 0, 0, t);
+		}
+		
+		int cellsX = width - 1;
+		int cellsZ = length - 1;
+		
+		while (sp > 0) {
+			sp--;
+			int level = q.stackLevel[sp];
+			int bx = q.stackX[sp];
+			int bz = q.stackZ[sp];
+			if (q.stackT[sp] > callback.hitFraction) {
+				continue;
+			}
+			
+			if (level == 0) {
+				processCell(callback, bx, bz, getHeight(bx, bz), getHeight(bx+1, bz), getHeight(bx, bz+1), getHeight(bx+1, bz+1), q.triangle);
+				continue;
+			}
+			
+			// sort hit children by distance and push the nearest last
+			int childLevel = level - 1;
+			int childBlocksX = getBlockCount(cellsX, childLevel);
+			int childBlocksZ = getBlockCount(cellsZ, childLevel);
+			int numChildren = 0;
+			for (int z=2*bz; z<Math.min(2*bz + 2, childBlocksZ); z++) {
+				for (int x=2*bx; x<Math.min(2*bx + 2, childBlocksX); x++) {
+					t = intersectBlock(q, callback.hitFraction, childLevel, x, z);
+					if (t >= 0f) {
+						int i = numChildren++;
+						while (i > 0 && q.childT[i-1] < t) {
+							q.childT[i] = q.childT[i-1];
+							q.childX[i] = q.childX[i-1];
+							q.childZ[i] = q.childZ[i-1];
+							i--;
+						}
+						q.childT[i] = t;
+						q.childX[i] = x;
+						q.childZ[i] = z;
+					}
+				}
+			}
+			
+			for (int i=0; i<numChildren; i++) {
+				q.push(sp++, childLevel, q.childX[i], q.childZ[i], q.childT[i]);
+			}
+		}
+		
+		queriesPool.release(q);
+	}
+	
+	/**
+	 * Returns ray fraction where the ray enters the block, or -1 if it misses.
+	 */
+	private float intersectBlock(TerrainQuery q, float maxFraction, int level, int bx, int bz) {
+		float minX = bx << level;
+		float minZ = bz << level;
+		float maxX = Math.min((bx + 1) << level, width - 1);
+		float maxZ = Math.min((bz + 1) << level, length - 1);
+		float minY, maxY;
+		if (level == 0) {
+			float h00 = getHeight(bx, bz);
+			float h10 = getHeight(bx+1, bz);
+			float h01 = getHeight(bx, bz+1);
+			float h11 = getHeight(bx+1, bz+1);
+			minY = Math.min(Math.min(h00, h10), Math.min(h01, h11));
+			maxY = Math.max(Math.max(h00, h10), Math.max(h01, h11));
+		}
+		else if (pyramidMin != null) {
+			int index = bz * getBlockCount(width - 1, level) + bx;
+			minY = pyramidMin[level-1][index];
+			maxY = pyramidMax[level-1][index];
+		}
+		else {
+			minY = minHeight;
+			maxY = maxHeight;
+		}
+		
+		float eps = 1e-4f;
+		float tmin = 0f;
+		float tmax = maxFraction;
+		
+		if (q.dirX != 0f) {
+			float t0 = (minX - eps - q.originX) / q.dirX;
+			float t1 = (maxX + eps - q.originX) / q.dirX;
+			tmin = Math.max(tmin, Math.min(t0, t1));
+			tmax = Math.min(tmax, Math.max(t0, t1));
+		}
+		else if (q.originX < minX - eps || q.originX > maxX + eps) {
+			return -1f;
+		}
+
+		if (q.dirZ != 0f) {
+			float t0 = (minZ - eps - q.originZ) / q.dirZ;
+			float t1 = (maxZ + eps - q.originZ) / q.dirZ;
+			tmin = Math.max(tmin, Math.min(t0, t1));
+			tmax = Math.min(tmax, Math.max(t0, t1));
+		}
+		else if (q.originZ < minZ - eps || q.originZ > maxZ + eps) {
+			return -1f;
+		}
+		
+		if (q.dirY != 0f) {
+			float t0 = (minY - q.heightEpsilon - q.originY) / q.dirY;
+			float t1 = (maxY + q.heightEpsilon - q.originY) / q.dirY;
+			tmin = Math.max(tmin, Math.min(t0, t1));
+			tmax = Math.min(tmax, Math.max(t0, t1));
+		}
+		else if (q.originY < minY - q.heightEpsilon || q.originY > maxY + q.heightEpsilon) {
+			return -1f;
+		}
+		
+		return tmin <= tmax? tmin : -1f;
+	}
+
+	@Override
+	public void getAabb(Transform trans, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+
+		stack.pushCommonMath();
+		try {
+			Vector3f tmp = stack.vectors.get();
+
+			Matrix3f abs_b = stack.matrices.get(trans.basis);
+			MatrixUtil.absolute(abs_b);
+
+			Vector3f center = stack.vectors.get(trans.origin);
+			
+			// local AABB is centered, margin is already included
+			Vector3f extent = stack.vectors.get();
+			abs_b.getRow(0, tmp);
+			extent.x = tmp.dot(localAabbMax);
+			abs_b.getRow(1, tmp);
+			extent.y = tmp.dot(localAabbMax);
+			abs_b.getRow(2, tmp);
+			extent.z = tmp.dot(localAabbMax);
+
+			aabbMin.sub(center, extent);
+			aabbMax.add(center, extent);
+		}
+		finally {
+			stack.popCommonMath();
+		}
+	}
+
+	@Override
+	public BroadphaseNativeType getShapeType() {
+		return BroadphaseNativeType.TERRAIN_SHAPE_PROXYTYPE;
+	}
+
+	@Override
+	public void setLocalScaling(Vector3f scaling) {
+		localScaling.set(scaling);
+		recalcLocalAabb();
+	}
+
+	@Override
+	public Vector3f getLocalScaling() {
+		return localScaling;
+	}
+
+	@Override
+	public void setMargin(float margin) {
+		super.setMargin(margin);
+		recalcLocalAabb();
+	}
+
+	@Override
+	public void calculateLocalInertia(float mass, Vector3f inertia) {
+		//moving concave objects not supported
+		inertia.set(0f, 0f, 0f);
+	}
+
+	@Override
+	public String getName() {
+		return "HEIGHTFIELD";
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	protected static class TerrainQuery {
+		public final Vector3f[] triangle = new Vector3f[] { new Vector3f(), new Vector3f(), new Vector3f() };
+		
+		public float originX, originY, originZ;
+		public float dirX, dirY, dirZ;
+		public float heightEpsilon;
+		
+		// traversal stack
+		public int[] stackLevel = new int[64];
+		public int[] stackX = new int[64];
+		public int[] stackZ = new int[64];
+		public float[] stackT = new float[64];
+		
+		public final float[] childT = new float[4];
+		public final int[] childX = new int[4];
+		public final int[] childZ = new int[4];
+
+		public TerrainQuery() {
+		}
+		
+		public void push(int sp, int level, int x, int z, float t) {
+			if (sp >= stackLevel.length) {
+				int newSize = stackLevel.length << 1;
+				int[] newLevel = new int[newSize];
+				int[] newX = new int[newSize];
+				int[] newZ = new int[newSize];
+				float[] newT = new float[newSize];
+				System.arraycopy(stackLevel, 0, newLevel, 0, sp);
+				System.arraycopy(stackX, 0, newX, 0, sp);
+				System.arraycopy(stackZ, 0, newZ, 0, sp);
+				System.arraycopy(stackT, 0, newT, 0, sp);
+				stackLevel = newLevel;
+				stackX = newX;
+				stackZ = newZ;
+				stackT = newT;
+			}
+			stackLevel[sp] = level;
+			stackX[sp] = x;
+			stackZ[sp] = z;
+			stackT[sp] = t;
+		}
+	}
+
+}
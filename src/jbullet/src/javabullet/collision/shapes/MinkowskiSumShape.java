@@ -23,6 +23,7 @@
 
 package javabullet.collision.shapes;
 
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseNativeType;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
@@ -41,6 +42,13 @@ public class MinkowskiSumShape extends ConvexInternalShape {
 	private ConvexShape shapeB;
 
 	public MinkowskiSumShape(ConvexShape shapeA, ConvexShape shapeB) {
+		init(shapeA, shapeB);
+	}
+	
+	/**
+	 * Reinitializes the shape to sum of given shapes with identity transforms.
+	 */
+	public void init(ConvexShape shapeA, ConvexShape shapeB) {
 		this.shapeA = shapeA;
 		this.shapeB = shapeB;
 		this.transA.setIdentity();
@@ -49,6 +57,8 @@ public class MinkowskiSumShape extends ConvexInternalShape {
 	
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f vec) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -23,13 +23,23 @@
 
 package javabullet.collision.shapes;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import javabullet.BulletStack;
 import javabullet.linearmath.AabbUtil2;
 import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.VectorUtil;
+import javabullet.util.IntArrayList;
 import javax.vecmath.Vector3f;
 
 /**
@@ -39,8 +49,6 @@ import javax.vecmath.Vector3f;
  */
 public class OptimizedBvh {
 
-	protected final BulletStack stack = BulletStack.get();
-	
 	private static final boolean DEBUG_TREE_BUILDING = false;
 	private static int gStackDepth = 0;
 	private static int gMaxStackDepth = 0;
@@ -122,6 +130,8 @@ public class OptimizedBvh {
 	}
 	
 	public void setQuantizationValues(Vector3f aabbMin, Vector3f aabbMax, float quantizationMargin) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			// enlarge the AABB to avoid division by zero when initializing the quantization values
@@ -284,6 +294,8 @@ public class OptimizedBvh {
 	}
 	
 	public void build(StridingMeshInterface triangles, boolean useQuantizedAabbCompression, Vector3f _aabbMin, Vector3f _aabbMax) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			this.useQuantization = useQuantizedAabbCompression;
@@ -347,7 +359,134 @@ public class OptimizedBvh {
 		}
 	}
 	
+	/**
+	 * Builds quantized tree using binned surface area heuristic, see
+	 * {@link #buildSah(StridingMeshInterface, Vector3f, Vector3f, Executor, int)}.
+	 */
+	public void buildSah(StridingMeshInterface triangles, Vector3f _aabbMin, Vector3f _aabbMax) {
+		buildSah(triangles, _aabbMin, _aabbMax, null, 1);
+	}
+
+	/**
+	 * Builds quantized tree using binned surface area heuristic (SAH) splits instead
+	 * of splitting at mean of the axis with largest variance. Resulting tree has the
+	 * same node layout as {@link #build}, but usually requires less node visits for
+	 * AABB and ray queries and is faster to build. Large subtrees are built in parallel
+	 * when executor is given.
+	 * 
+	 * @param executor executor running the worker tasks, or null to build on calling thread only
+	 * @param numThreads number of threads building the tree including the calling thread
+	 */
+	public void buildSah(StridingMeshInterface triangles, Vector3f _aabbMin, Vector3f _aabbMax, Executor executor, int numThreads) {
+		if (executor != null && numThreads < 1) {
+			throw new IllegalArgumentException("numThreads must be positive");
+		}
+
+		useQuantization = true;
+		setQuantizationValues(_aabbMin, _aabbMax);
+
+		SahBvhBuilder builder = new SahBvhBuilder(this, quantizedContiguousNodes);
+		triangles.internalProcessAllTriangles(new SahTriangleCallback(builder), bvhAabbMin, bvhAabbMax);
+
+		int numLeafNodes = builder.getNumPrimitives();
+		quantizedContiguousNodes.resize(2 * numLeafNodes);
+		builder.build(executor, numThreads);
+
+		curNodeIndex = numLeafNodes > 0? 2 * numLeafNodes - 1 : 0;
+
+		SubtreeHeaders.clear();
+		if (numLeafNodes > 0) {
+			updateAllSubtreeHeaders();
+		}
+		subtreeHeaderCount = SubtreeHeaders.size();
+	}
+
+	/**
+	 * Creates subtree headers for already built tree, the same way as {@link #buildTree}
+	 * does during the build.
+	 */
+	private void updateAllSubtreeHeaders() {
+		int sizeQuantizedNode = QuantizedBvhNodes.getNodeSize();
+		
+		IntArrayList nodeStack = new IntArrayList();
+		nodeStack.add(0);
+		while (nodeStack.size() > 0) {
+			int nodeIndex = nodeStack.remove(nodeStack.size() - 1);
+			if (quantizedContiguousNodes.isLeafNode(nodeIndex)) {
+				continue;
+			}
+			
+			int escapeIndex = quantizedContiguousNodes.getEscapeIndex(nodeIndex);
+			if (escapeIndex * sizeQuantizedNode <= MAX_SUBTREE_SIZE_IN_BYTES) {
+				continue;
+			}
+			
+			int leftChildNodeIndex = nodeIndex + 1;
+			int rightChildNodeIndex = quantizedContiguousNodes.isLeafNode(leftChildNodeIndex)? leftChildNodeIndex + 1 : leftChildNodeIndex + quantizedContiguousNodes.getEscapeIndex(leftChildNodeIndex);
+			updateSubtreeHeaders(leftChildNodeIndex, rightChildNodeIndex);
+
+			nodeStack.add(rightChildNodeIndex);
+			nodeStack.add(leftChildNodeIndex);
+		}
+
+		//  if the entire tree is small then subtree size, we need to create a header info for the tree
+		if (SubtreeHeaders.size() == 0) {
+			BvhSubtreeInfo subtree = new BvhSubtreeInfo();
+			SubtreeHeaders.add(subtree);
+
+			subtree.setAabbFromQuantizeNode(quantizedContiguousNodes, 0);
+			subtree.rootNodeIndex = 0;
+			subtree.subtreeSize = quantizedContiguousNodes.isLeafNode(0) ? 1 : quantizedContiguousNodes.getEscapeIndex(0);
+		}
+	}
+
+	private static class SahTriangleCallback implements InternalTriangleIndexCallback {
+		private final SahBvhBuilder builder;
+		private final Vector3f aabbMin = new Vector3f(), aabbMax = new Vector3f();
+
+		public SahTriangleCallback(SahBvhBuilder builder) {
+			this.builder = builder;
+		}
+
+		public void internalProcessTriangleIndex(Vector3f[] triangle, int partId, int triangleIndex) {
+			// The partId and triangle index must fit in the same (positive) integer
+			assert (partId < (1 << MAX_NUM_PARTS_IN_BITS));
+			assert (triangleIndex < (1 << (31 - MAX_NUM_PARTS_IN_BITS)));
+			// negative indices are reserved for escapeIndex
+			assert (triangleIndex >= 0);
+
+			aabbMin.set(1e30f, 1e30f, 1e30f);
+			aabbMax.set(-1e30f, -1e30f, -1e30f);
+			VectorUtil.setMin(aabbMin, triangle[0]);
+			VectorUtil.setMax(aabbMax, triangle[0]);
+			VectorUtil.setMin(aabbMin, triangle[1]);
+			VectorUtil.setMax(aabbMax, triangle[1]);
+			VectorUtil.setMin(aabbMin, triangle[2]);
+			VectorUtil.setMax(aabbMax, triangle[2]);
+
+			// the same minimum dimensions as in QuantizedNodeTriangleCallback
+			final float MIN_AABB_DIMENSION = 0.002f;
+			final float MIN_AABB_HALF_DIMENSION = 0.001f;
+			if (aabbMax.x - aabbMin.x < MIN_AABB_DIMENSION) {
+				aabbMax.x = (aabbMax.x + MIN_AABB_HALF_DIMENSION);
+				aabbMin.x = (aabbMin.x - MIN_AABB_HALF_DIMENSION);
+			}
+			if (aabbMax.y - aabbMin.y < MIN_AABB_DIMENSION) {
+				aabbMax.y = (aabbMax.y + MIN_AABB_HALF_DIMENSION);
+				aabbMin.y = (aabbMin.y - MIN_AABB_HALF_DIMENSION);
+			}
+			if (aabbMax.z - aabbMin.z < MIN_AABB_DIMENSION) {
+				aabbMax.z = (aabbMax.z + MIN_AABB_HALF_DIMENSION);
+				aabbMin.z = (aabbMin.z - MIN_AABB_HALF_DIMENSION);
+			}
+
+			builder.addPrimitive(aabbMin, aabbMax, (partId << (31 - MAX_NUM_PARTS_IN_BITS)) | triangleIndex);
+		}
+	}
+	
 	public void refit(StridingMeshInterface meshInterface) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			if (useQuantization) {
@@ -419,6 +558,8 @@ public class OptimizedBvh {
 	private VertexData data = new VertexData();
 	
 	public void updateBvhNodes(StridingMeshInterface meshInterface, int firstNode, int endNode, int index) {
+		BulletStack stack = BulletStack.get();
+
 		assert (useQuantization);
 
 		stack.vectors.push();
@@ -520,6 +661,8 @@ public class OptimizedBvh {
 	}
 	
 	protected void buildTree(int startIndex, int endIndex) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			//#ifdef DEBUG_TREE_BUILDING
@@ -659,6 +802,8 @@ public class OptimizedBvh {
 	}
 	
 	protected int sortAndCalcSplittingIndex(int startIndex, int endIndex, int splitAxis) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			int i;
@@ -717,6 +862,8 @@ public class OptimizedBvh {
 	}
 
 	protected int calcSplittingAxis(int startIndex, int endIndex) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			int i;
@@ -858,6 +1005,8 @@ public class OptimizedBvh {
 	}
 	
 	public void reportRayOverlappingNodex(NodeOverlapCallback nodeCallback, Vector3f raySource, Vector3f rayTarget) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			boolean fast_path = useQuantization && traversalMode == TraversalMode.TRAVERSAL_STACKLESS;
@@ -880,6 +1029,8 @@ public class OptimizedBvh {
 	}
 
 	public void reportBoxCastOverlappingNodex(NodeOverlapCallback nodeCallback, Vector3f raySource, Vector3f rayTarget, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			boolean fast_path = useQuantization && traversalMode == TraversalMode.TRAVERSAL_STACKLESS;
@@ -904,7 +1055,17 @@ public class OptimizedBvh {
 		}
 	}
 	
+	public QuantizedBvhNodes getQuantizedNodeArray() {
+		return quantizedContiguousNodes;
+	}
+
+	public int getNumNodes() {
+		return curNodeIndex;
+	}
+
 	public long quantizeWithClamp(Vector3f point) {
+		BulletStack stack = BulletStack.get();
+
 		assert (useQuantization);
 
 		stack.vectors.push();
@@ -939,5 +1100,220 @@ public class OptimizedBvh {
 
 		vecOut.add(bvhAabbMin);
 	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// serialization
+
+	private static final int SERIALIZE_MAGIC = 0x4A425648; // "JBVH"
+	private static final int SERIALIZE_VERSION = 1;
+	private static final int SERIALIZE_HEADER_SIZE = 72;
+	private static final int SUBTREE_INFO_SIZE = 20;
+
+	/**
+	 * Returns number of bytes needed by {@link #serialize}.
+	 */
+	public int calculateSerializeBufferSize() {
+		return SERIALIZE_HEADER_SIZE + curNodeIndex * QuantizedBvhNodes.getNodeSize() + SubtreeHeaders.size() * SUBTREE_INFO_SIZE;
+	}
+
+	/**
+	 * Writes quantized tree to the buffer at its position, the buffer must be
+	 * in little endian byte order. The format is a fixed size header followed
+	 * by raw node and subtree data, see {@link #deSerialize}.
+	 * 
+	 * @param meshHash content hash of the source mesh, see {@link #calculateMeshHash}
+	 */
+	public void serialize(ByteBuffer buf, long meshHash) {
+		if (!useQuantization) {
+			throw new UnsupportedOperationException("only quantized trees can be serialized");
+		}
+		assert (buf.order() == ByteOrder.LITTLE_ENDIAN);
+		
+		int start = buf.position();
+		buf.putInt(SERIALIZE_MAGIC);
+		buf.putInt(SERIALIZE_VERSION);
+		buf.putLong(meshHash);
+		buf.putInt(traversalMode != null? traversalMode.ordinal() : -1);
+		buf.putFloat(bvhAabbMin.x).putFloat(bvhAabbMin.y).putFloat(bvhAabbMin.z);
+		buf.putFloat(bvhAabbMax.x).putFloat(bvhAabbMax.y).putFloat(bvhAabbMax.z);
+		buf.putFloat(bvhQuantization.x).putFloat(bvhQuantization.y).putFloat(bvhQuantization.z);
+		buf.putInt(curNodeIndex);
+		buf.putInt(SubtreeHeaders.size());
+		while (buf.position() - start < SERIALIZE_HEADER_SIZE) {
+			buf.put((byte)0);
+		}
+
+		IntBuffer ibuf = buf.asIntBuffer();
+		quantizedContiguousNodes.save(ibuf, curNodeIndex);
+		for (int i=0; i<SubtreeHeaders.size(); i++) {
+			BvhSubtreeInfo subtree = SubtreeHeaders.get(i);
+			ibuf.put((subtree.quantizedAabbMin[0] & 0xFFFF) | (subtree.quantizedAabbMin[1] << 16));
+			ibuf.put((subtree.quantizedAabbMin[2] & 0xFFFF) | (subtree.quantizedAabbMax[0] << 16));
+			ibuf.put((subtree.quantizedAabbMax[1] & 0xFFFF) | (subtree.quantizedAabbMax[2] << 16));
+			ibuf.put(subtree.rootNodeIndex);
+			ibuf.put(subtree.subtreeSize);
+		}
+		buf.position(buf.position() + ibuf.position() * 4);
+	}
+
+	/**
+	 * Reads tree written by {@link #serialize} from the buffer at its position.
+	 * Node data is copied in bulk, without any parsing, so it's best used with
+	 * memory-mapped file.
+	 * 
+	 * @param meshHash expected content hash of the source mesh
+	 * @return the tree, or null when the data is not valid or was built from different mesh
+	 */
+	public static OptimizedBvh deSerialize(ByteBuffer buf, long meshHash) {
+		buf = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.remaining() < SERIALIZE_HEADER_SIZE) {
+			return null;
+		}
+		if (buf.getInt(0) != SERIALIZE_MAGIC || buf.getInt(4) != SERIALIZE_VERSION || buf.getLong(8) != meshHash) {
+			return null;
+		}
+		
+		int traversalModeIndex = buf.getInt(16);
+		int numNodes = buf.getInt(56);
+		int numSubtrees = buf.getInt(60);
+		if (traversalModeIndex >= TraversalMode.values().length || numNodes < 0 || numSubtrees < 0 ||
+				buf.remaining() < SERIALIZE_HEADER_SIZE + (long)numNodes * QuantizedBvhNodes.getNodeSize() + (long)numSubtrees * SUBTREE_INFO_SIZE) {
+			return null;
+		}
+
+		OptimizedBvh bvh = new OptimizedBvh();
+		bvh.useQuantization = true;
+		bvh.traversalMode = traversalModeIndex >= 0? TraversalMode.values()[traversalModeIndex] : null;
+		bvh.bvhAabbMin.set(buf.getFloat(20), buf.getFloat(24), buf.getFloat(28));
+		bvh.bvhAabbMax.set(buf.getFloat(32), buf.getFloat(36), buf.getFloat(40));
+		bvh.bvhQuantization.set(buf.getFloat(44), buf.getFloat(48), buf.getFloat(52));
+		bvh.curNodeIndex = numNodes;
+		
+		buf.position(SERIALIZE_HEADER_SIZE);
+		IntBuffer ibuf = buf.asIntBuffer();
+		bvh.quantizedContiguousNodes.load(ibuf, numNodes);
+		for (int i=0; i<numSubtrees; i++) {
+			BvhSubtreeInfo subtree = new BvhSubtreeInfo();
+			int v0 = ibuf.get();
+			int v1 = ibuf.get();
+			int v2 = ibuf.get();
+			subtree.quantizedAabbMin[0] = (short)v0;
+			subtree.quantizedAabbMin[1] = (short)(v0 >>> 16);
+			subtree.quantizedAabbMin[2] = (short)v1;
+			subtree.quantizedAabbMax[0] = (short)(v1 >>> 16);
+			subtree.quantizedAabbMax[1] = (short)v2;
+			subtree.quantizedAabbMax[2] = (short)(v2 >>> 16);
+			subtree.rootNodeIndex = ibuf.get();
+			subtree.subtreeSize = ibuf.get();
+			bvh.SubtreeHeaders.add(subtree);
+		}
+		bvh.subtreeHeaderCount = numSubtrees;
+		return bvh;
+	}
+
+	/**
+	 * Calculates hash of (scaled) triangle vertices of given mesh. It's used to
+	 * detect that the serialized tree no longer matches the mesh.
+	 */
+	public static long calculateMeshHash(StridingMeshInterface triangles) {
+		BulletStack stack = BulletStack.get();
+
+		stack.vectors.push();
+		try {
+			MeshHashCallback callback = new MeshHashCallback();
+			Vector3f aabbMin = stack.vectors.get(-1e30f, -1e30f, -1e30f);
+			Vector3f aabbMax = stack.vectors.get(1e30f, 1e30f, 1e30f);
+			triangles.internalProcessAllTriangles(callback, aabbMin, aabbMax);
+			return callback.hash;
+		}
+		finally {
+			stack.vectors.pop();
+		}
+	}
+	
+	private static long hashInt(long hash, int value) {
+		// 64-bit FNV-1a over 32-bit words
+		return (hash ^ (value & 0xFFFFFFFFL)) * 0x100000001B3L;
+	}
+
+	private static long hashVector(long hash, Vector3f v) {
+		hash = hashInt(hash, Float.floatToIntBits(v.x));
+		hash = hashInt(hash, Float.floatToIntBits(v.y));
+		hash = hashInt(hash, Float.floatToIntBits(v.z));
+		return hash;
+	}
+	
+	private static class MeshHashCallback implements InternalTriangleIndexCallback {
+		public long hash = 0xCBF29CE484222325L;
+		
+		public void internalProcessTriangleIndex(Vector3f[] triangle, int partId, int triangleIndex) {
+			hash = hashInt(hash, partId);
+			hash = hashInt(hash, triangleIndex);
+			hash = hashVector(hash, triangle[0]);
+			hash = hashVector(hash, triangle[1]);
+			hash = hashVector(hash, triangle[2]);
+		}
+	}
+
+	/**
+	 * Loads quantized tree from the cache file, or builds it and (re)writes
+	 * the cache when the file is missing, unreadable or was created for
+	 * different mesh or AABB. Failure to write the cache is ignored.
+	 */
+	public static OptimizedBvh buildCached(File cacheFile, StridingMeshInterface triangles, Vector3f aabbMin, Vector3f aabbMax) {
+		long hash = calculateMeshHash(triangles);
+		hash = hashVector(hash, aabbMin);
+		hash = hashVector(hash, aabbMax);
+		
+		if (cacheFile.isFile()) {
+			try {
+				FileChannel channel = new FileInputStream(cacheFile).getChannel();
+				try {
+					MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					OptimizedBvh bvh = deSerialize(buf, hash);
+					if (bvh != null) {
+						return bvh;
+					}
+				}
+				finally {
+					channel.close();
+				}
+			}
+			catch (IOException e) {
+				// rebuild
+			}
+		}
+		
+		OptimizedBvh bvh = new OptimizedBvh();
+		bvh.build(triangles, true, aabbMin, aabbMax);
+		
+		// write to temporary file first so other readers never see partial cache
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(bvh.calculateSerializeBufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+			bvh.serialize(buf, hash);
+			buf.flip();
+			
+			FileChannel channel = new FileOutputStream(tmpFile).getChannel();
+			try {
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+			}
+			finally {
+				channel.close();
+			}
+			
+			if (!tmpFile.renameTo(cacheFile)) {
+				cacheFile.delete();
+				tmpFile.renameTo(cacheFile);
+			}
+		}
+		catch (IOException e) {
+			tmpFile.delete();
+		}
+		
+		return bvh;
+	}
 	
 }
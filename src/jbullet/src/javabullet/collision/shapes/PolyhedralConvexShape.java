@@ -23,6 +23,7 @@
 
 package javabullet.collision.shapes;
 
+import javabullet.BulletStack;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.VectorUtil;
@@ -45,6 +46,8 @@ public abstract class PolyhedralConvexShape extends ConvexInternalShape {
 	
 	@Override
 	public Vector3f localGetSupportingVertexWithoutMargin(Vector3f vec0) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			int i;
@@ -83,6 +86,8 @@ public abstract class PolyhedralConvexShape extends ConvexInternalShape {
 
 	@Override
 	public void batchedUnitVectorGetSupportingVertexWithoutMargin(Vector3f[] vectors, Vector3f[] supportVerticesOut, int numVectors) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			int i;
@@ -123,6 +128,8 @@ public abstract class PolyhedralConvexShape extends ConvexInternalShape {
 
 	@Override
 	public void calculateLocalInertia(float mass, Vector3f inertia) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			// not yet, return box inertia
@@ -155,6 +162,8 @@ public abstract class PolyhedralConvexShape extends ConvexInternalShape {
 	}
 
 	private void getNonvirtualAabb(Transform trans, Vector3f aabbMin, Vector3f aabbMax, float margin) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			// lazy evaluation of local aabb
@@ -210,6 +219,8 @@ public abstract class PolyhedralConvexShape extends ConvexInternalShape {
 	}
 
 	public void recalcLocalAabb() {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			isLocalAabbValid = true;
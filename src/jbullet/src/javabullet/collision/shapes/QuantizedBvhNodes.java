@@ -23,6 +23,8 @@
 
 package javabullet.collision.shapes;
 
+import java.nio.IntBuffer;
+
 /**
  * QuantizedBvhNodes is array of compressed AABB nodes, each of 16 bytes.
  * Node can be used for leafnode or internal node. Leafnodes can point to 32-bit
@@ -81,6 +83,24 @@ public class QuantizedBvhNodes {
 	public static int getNodeSize() {
 		return STRIDE*4;
 	}
+
+	/**
+	 * Copies raw data of the first numNodes nodes to the buffer.
+	 */
+	public void save(IntBuffer dest, int numNodes) {
+		dest.put(buf, 0, numNodes*STRIDE);
+	}
+
+	/**
+	 * Replaces the nodes with numNodes nodes of raw data from the buffer.
+	 */
+	public void load(IntBuffer src, int numNodes) {
+		if (capacity() < numNodes) {
+			buf = new int[numNodes*STRIDE];
+		}
+		src.get(buf, 0, numNodes*STRIDE);
+		size = numNodes;
+	}
 	
 	public void set(int destId, QuantizedBvhNodes srcNodes, int srcId) {
 		assert (STRIDE == 4);
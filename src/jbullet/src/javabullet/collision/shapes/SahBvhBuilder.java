@@ -0,0 +1,511 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.collision.shapes;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import javabullet.util.WorkerGroup;
+import javax.vecmath.Vector3f;
+
+/**
+ * Builds quantized {@link OptimizedBvh} nodes using binned surface area heuristic
+ * (SAH) splits. Works on flat arrays of primitive AABBs and centroids gathered
+ * from the mesh, the resulting nodes have the same layout as produced by
+ * {@link OptimizedBvh#build}, so the traversal code is shared.<p>
+ * 
+ * Subtree of N leaves always occupies 2N-1 nodes, so position of every subtree
+ * is known as soon as its parent is partitioned. This allows to build subtrees
+ * independently on multiple threads writing directly to the final node array.
+ * 
+ * @author jezek2
+ */
+class SahBvhBuilder {
+
+	private static final int NUM_BINS = 16;
+	
+	// below this depth splitting is done at median to limit tree depth for recursive traversal
+	private static final int MAX_SAH_DEPTH = 64;
+	
+	// smaller nodes are split at median, binning overhead is not worth it
+	private static final int MIN_SAH_SIZE = 5;
+	
+	// minimum number of primitives in subtree to be built as separate task
+	private static final int PARALLEL_TASK_SIZE = 4096;
+	
+	private final OptimizedBvh bvh;
+	private final QuantizedBvhNodes nodes;
+
+	// per primitive data, reordered in place during build so the primitives
+	// of each subtree are stored contiguously
+	private int numPrimitives;
+	private float[] aabbs = new float[6*64]; // min x,y,z, max x,y,z
+	private float[] centroids = new float[3*64];
+	private int[] primitiveIds = new int[64];
+	
+	private final ArrayList<BuildTask> tasks = new ArrayList<BuildTask>();
+	private int runningTasks;
+	
+	private final WorkerGroup workerGroup = new WorkerGroup() {
+		@Override
+		protected void aborted() {
+			// wake up workers waiting for tasks
+			synchronized (SahBvhBuilder.this) {
+				SahBvhBuilder.this.notifyAll();
+			}
+		}
+	};
+
+	public SahBvhBuilder(OptimizedBvh bvh, QuantizedBvhNodes nodes) {
+		this.bvh = bvh;
+		this.nodes = nodes;
+	}
+	
+	public int getNumPrimitives() {
+		return numPrimitives;
+	}
+	
+	/**
+	 * Adds primitive with given AABB, primitiveId is stored in the leaf node.
+	 */
+	public void addPrimitive(Vector3f aabbMin, Vector3f aabbMax, int primitiveId) {
+		if (numPrimitives == primitiveIds.length) {
+			int capacity = numPrimitives*2;
+			aabbs = copyOf(aabbs, 6*capacity);
+			centroids = copyOf(centroids, 3*capacity);
+			int[] newIds = new int[capacity];
+			System.arraycopy(primitiveIds, 0, newIds, 0, numPrimitives);
+			primitiveIds = newIds;
+		}
+		
+		int i = numPrimitives++;
+		aabbs[i*6+0] = aabbMin.x;
+		aabbs[i*6+1] = aabbMin.y;
+		aabbs[i*6+2] = aabbMin.z;
+		aabbs[i*6+3] = aabbMax.x;
+		aabbs[i*6+4] = aabbMax.y;
+		aabbs[i*6+5] = aabbMax.z;
+		centroids[i*3+0] = (aabbMin.x + aabbMax.x) * 0.5f;
+		centroids[i*3+1] = (aabbMin.y + aabbMax.y) * 0.5f;
+		centroids[i*3+2] = (aabbMin.z + aabbMax.z) * 0.5f;
+		primitiveIds[i] = primitiveId;
+	}
+	
+	private static float[] copyOf(float[] array, int length) {
+		float[] result = new float[length];
+		System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+		return result;
+	}
+	
+	/**
+	 * Builds the tree into nodes, the node array must have room for 2N-1 nodes.
+	 * 
+	 * @param executor executor running additional workers, or null to build on calling thread only
+	 * @param numThreads number of threads building the tree including the calling thread
+	 */
+	public void build(Executor executor, int numThreads) {
+		if (numPrimitives == 0) {
+			return;
+		}
+		
+		BuildTask root = new BuildTask();
+		root.start = 0;
+		root.end = numPrimitives;
+		root.nodeIndex = 0;
+		root.depth = 0;
+		tasks.add(root);
+		runningTasks = 0;
+
+		int numWorkers = (executor != null)? Math.max(1, Math.min(numThreads, numPrimitives / PARALLEL_TASK_SIZE)) : 1;
+		BuildWorker[] workers = new BuildWorker[numWorkers];
+		for (int i = 0; i < numWorkers; i++) {
+			workers[i] = new BuildWorker(numWorkers > 1);
+		}
+
+		try {
+			workerGroup.setExecutor(executor, numWorkers);
+			workerGroup.run(workers, numWorkers);
+		}
+		finally {
+			tasks.clear();
+		}
+	}
+	
+	private synchronized void addTask(BuildTask task) {
+		tasks.add(task);
+		notifyAll();
+	}
+	
+	private synchronized BuildTask takeTask() {
+		while (!workerGroup.isAborted()) {
+			if (!tasks.isEmpty()) {
+				runningTasks++;
+				return tasks.remove(tasks.size() - 1);
+			}
+			if (runningTasks == 0) {
+				// no more work can be produced
+				return null;
+			}
+			try {
+				wait();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+		return null;
+	}
+	
+	private synchronized void taskFinished() {
+		runningTasks--;
+		if (runningTasks == 0) {
+			notifyAll();
+		}
+	}
+	
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class BuildTask {
+		public int start;
+		public int end;
+		public int nodeIndex;
+		public int depth;
+	}
+	
+	private class BuildWorker implements Runnable {
+		private final boolean shareTasks;
+		
+		// local stack of subtrees (start, end, nodeIndex, depth)
+		private int[] stack = new int[4*64];
+		private int stackSize;
+		
+		private final int[] binCounts = new int[NUM_BINS];
+		private final float[] binBounds = new float[NUM_BINS*6];
+		private final float[] rightAreas = new float[NUM_BINS];
+		
+		private final float[] nodeBounds = new float[6];
+		private final float[] centroidBounds = new float[6];
+		private final Vector3f tmp = new Vector3f();
+
+		public BuildWorker(boolean shareTasks) {
+			this.shareTasks = shareTasks;
+		}
+
+		public void run() {
+			BuildTask task;
+			while ((task = takeTask()) != null) {
+				try {
+					buildSubtree(task.start, task.end, task.nodeIndex, task.depth);
+				}
+				finally {
+					taskFinished();
+				}
+			}
+		}
+		
+		private void push(int start, int end, int nodeIndex, int depth) {
+			if (stackSize == stack.length) {
+				int[] newStack = new int[stack.length*2];
+				System.arraycopy(stack, 0, newStack, 0, stackSize);
+				stack = newStack;
+			}
+			stack[stackSize++] = start;
+			stack[stackSize++] = end;
+			stack[stackSize++] = nodeIndex;
+			stack[stackSize++] = depth;
+		}
+		
+		private void buildSubtree(int start, int end, int nodeIndex, int depth) {
+			stackSize = 0;
+			push(start, end, nodeIndex, depth);
+			
+			while (stackSize > 0) {
+				depth = stack[--stackSize];
+				nodeIndex = stack[--stackSize];
+				end = stack[--stackSize];
+				start = stack[--stackSize];
+				
+				int count = end - start;
+				if (count == 1) {
+					setLeafNode(nodeIndex, start);
+					continue;
+				}
+				
+				calcBounds(start, end);
+				setNode(nodeIndex, nodeBounds, -(2*count - 1));
+				
+				int splitIndex = -1;
+				if (depth < MAX_SAH_DEPTH && count >= MIN_SAH_SIZE) {
+					splitIndex = partitionSah(start, end);
+				}
+				if (splitIndex <= start || splitIndex >= end) {
+					splitIndex = partitionMedian(start, end);
+				}
+				
+				int leftNodeIndex = nodeIndex + 1;
+				int rightNodeIndex = nodeIndex + 2*(splitIndex - start);
+				
+				// right child is processed later, left one continues immediately
+				if (shareTasks && end - splitIndex >= PARALLEL_TASK_SIZE) {
+					BuildTask task = new BuildTask();
+					task.start = splitIndex;
+					task.end = end;
+					task.nodeIndex = rightNodeIndex;
+					task.depth = depth + 1;
+					addTask(task);
+				}
+				else {
+					push(splitIndex, end, rightNodeIndex, depth + 1);
+				}
+				push(start, splitIndex, leftNodeIndex, depth + 1);
+			}
+		}
+		
+		private void setLeafNode(int nodeIndex, int primitive) {
+			float[] aabbs = SahBvhBuilder.this.aabbs;
+			tmp.set(aabbs[primitive*6+0], aabbs[primitive*6+1], aabbs[primitive*6+2]);
+			nodes.setQuantizedAabbMin(nodeIndex, bvh.quantizeWithClamp(tmp));
+			tmp.set(aabbs[primitive*6+3], aabbs[primitive*6+4], aabbs[primitive*6+5]);
+			nodes.setQuantizedAabbMax(nodeIndex, bvh.quantizeWithClamp(tmp));
+			nodes.setEscapeIndexOrTriangleIndex(nodeIndex, primitiveIds[primitive]);
+		}
+
+		private void setNode(int nodeIndex, float[] bounds, int escapeIndexOrTriangleIndex) {
+			// quantization is monotonic, so this equals merging of quantized child AABBs
+			tmp.set(bounds[0], bounds[1], bounds[2]);
+			nodes.setQuantizedAabbMin(nodeIndex, bvh.quantizeWithClamp(tmp));
+			tmp.set(bounds[3], bounds[4], bounds[5]);
+			nodes.setQuantizedAabbMax(nodeIndex, bvh.quantizeWithClamp(tmp));
+			nodes.setEscapeIndexOrTriangleIndex(nodeIndex, escapeIndexOrTriangleIndex);
+		}
+		
+		private void calcBounds(int start, int end) {
+			float[] aabbs = SahBvhBuilder.this.aabbs;
+			float[] centroids = SahBvhBuilder.this.centroids;
+			
+			for (int i = 0; i < 3; i++) {
+				nodeBounds[i] = centroidBounds[i] = 1e30f;
+				nodeBounds[i+3] = centroidBounds[i+3] = -1e30f;
+			}
+			
+			for (int i = start; i < end; i++) {
+				for (int j = 0; j < 3; j++) {
+					// JAVA NOTE: plain comparisons are faster than Math.min/max for floats
+					float min = aabbs[i*6+j], max = aabbs[i*6+j+3], c = centroids[i*3+j];
+					if (min < nodeBounds[j]) nodeBounds[j] = min;
+					if (max > nodeBounds[j+3]) nodeBounds[j+3] = max;
+					if (c < centroidBounds[j]) centroidBounds[j] = c;
+					if (c > centroidBounds[j+3]) centroidBounds[j+3] = c;
+				}
+			}
+		}
+		
+		/**
+		 * Partitions primitives by the cheapest of the binned split planes along the
+		 * axis with largest centroid extent.
+		 * 
+		 * @return split index, or -1 when no split separates the primitives
+		 */
+		private int partitionSah(int start, int end) {
+			float[] aabbs = SahBvhBuilder.this.aabbs;
+			float[] centroids = SahBvhBuilder.this.centroids;
+			float[] binBounds = this.binBounds;
+			int[] binCounts = this.binCounts;
+			
+			int axis = getLongestAxis(centroidBounds);
+			float binMin = centroidBounds[axis];
+			float extent = centroidBounds[axis+3] - binMin;
+			if (extent <= 0f) {
+				return -1;
+			}
+			float binScale = NUM_BINS / extent;
+			
+			for (int i = 0; i < NUM_BINS; i++) {
+				binCounts[i] = 0;
+				binBounds[i*6+0] = binBounds[i*6+1] = binBounds[i*6+2] = 1e30f;
+				binBounds[i*6+3] = binBounds[i*6+4] = binBounds[i*6+5] = -1e30f;
+			}
+			
+			for (int i = start; i < end; i++) {
+				int bin = getBin(centroids[i*3+axis], binMin, binScale);
+				binCounts[bin]++;
+				for (int j = 0; j < 3; j++) {
+					float min = aabbs[i*6+j], max = aabbs[i*6+j+3];
+					if (min < binBounds[bin*6+j]) binBounds[bin*6+j] = min;
+					if (max > binBounds[bin*6+j+3]) binBounds[bin*6+j+3] = max;
+				}
+			}
+
+			// sweep from right, rightAreas[i] is area of bins i+1..NUM_BINS-1
+			float minX = 1e30f, minY = 1e30f, minZ = 1e30f, maxX = -1e30f, maxY = -1e30f, maxZ = -1e30f;
+			for (int i = NUM_BINS - 1; i > 0; i--) {
+				int b = i*6;
+				minX = Math.min(minX, binBounds[b+0]);
+				minY = Math.min(minY, binBounds[b+1]);
+				minZ = Math.min(minZ, binBounds[b+2]);
+				maxX = Math.max(maxX, binBounds[b+3]);
+				maxY = Math.max(maxY, binBounds[b+4]);
+				maxZ = Math.max(maxZ, binBounds[b+5]);
+				rightAreas[i-1] = halfArea(minX, minY, minZ, maxX, maxY, maxZ);
+			}
+
+			// sweep from left, evaluating split after bin i
+			float bestCost = Float.MAX_VALUE;
+			int bestBin = -1;
+			
+			minX = 1e30f; minY = 1e30f; minZ = 1e30f; maxX = -1e30f; maxY = -1e30f; maxZ = -1e30f;
+			int leftCount = 0;
+			for (int i = 0; i < NUM_BINS - 1; i++) {
+				int b = i*6;
+				minX = Math.min(minX, binBounds[b+0]);
+				minY = Math.min(minY, binBounds[b+1]);
+				minZ = Math.min(minZ, binBounds[b+2]);
+				maxX = Math.max(maxX, binBounds[b+3]);
+				maxY = Math.max(maxY, binBounds[b+4]);
+				maxZ = Math.max(maxZ, binBounds[b+5]);
+				leftCount += binCounts[i];
+
+				int rightCount = (end - start) - leftCount;
+				if (leftCount == 0 || rightCount == 0) {
+					continue;
+				}
+
+				float cost = halfArea(minX, minY, minZ, maxX, maxY, maxZ) * leftCount + rightAreas[i] * rightCount;
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestBin = i;
+				}
+			}
+			
+			if (bestBin == -1) {
+				return -1;
+			}
+			
+			// partition in place, primitives in bins <= bestBin go to the left
+			int i = start;
+			int j = end - 1;
+			while (i <= j) {
+				if (getBin(centroids[i*3+axis], binMin, binScale) <= bestBin) {
+					i++;
+				}
+				else {
+					swap(i, j);
+					j--;
+				}
+			}
+			return i;
+		}
+		
+		private int getBin(float centroid, float binMin, float binScale) {
+			int bin = (int)((centroid - binMin) * binScale);
+			return Math.min(Math.max(bin, 0), NUM_BINS - 1);
+		}
+		
+		/**
+		 * Splits primitives in half along the longest centroid axis (or just in half
+		 * when centroids coincide), used to bound the tree depth.
+		 */
+		private int partitionMedian(int start, int end) {
+			int mid = start + (end - start) / 2;
+
+			int axis = getLongestAxis(centroidBounds);
+			if (centroidBounds[axis+3] > centroidBounds[axis]) {
+				selectNth(start, end, mid, axis);
+			}
+			return mid;
+		}
+		
+		/**
+		 * Reorders primitives so the one at nth index has median centroid, with
+		 * smaller or equal ones before it.
+		 */
+		private void selectNth(int start, int end, int nth, int axis) {
+			float[] centroids = SahBvhBuilder.this.centroids;
+			
+			int left = start;
+			int right = end - 1;
+			while (right > left) {
+				float pivot = centroids[((left + right) >>> 1)*3+axis];
+				int i = left;
+				int j = right;
+				while (i <= j) {
+					while (centroids[i*3+axis] < pivot) i++;
+					while (centroids[j*3+axis] > pivot) j--;
+					if (i <= j) {
+						swap(i, j);
+						i++;
+						j--;
+					}
+				}
+				if (nth <= j) {
+					right = j;
+				}
+				else if (nth >= i) {
+					left = i;
+				}
+				else {
+					break;
+				}
+			}
+		}
+	}
+	
+	private static int getLongestAxis(float[] bounds) {
+		float x = bounds[3] - bounds[0];
+		float y = bounds[4] - bounds[1];
+		float z = bounds[5] - bounds[2];
+		if (x >= y && x >= z) {
+			return 0;
+		}
+		return (y >= z)? 1 : 2;
+	}
+	
+	private void swap(int i, int j) {
+		float[] aabbs = this.aabbs;
+		float[] centroids = this.centroids;
+		
+		for (int k = 0; k < 6; k++) {
+			float t = aabbs[i*6+k];
+			aabbs[i*6+k] = aabbs[j*6+k];
+			aabbs[j*6+k] = t;
+		}
+		for (int k = 0; k < 3; k++) {
+			float t = centroids[i*3+k];
+			centroids[i*3+k] = centroids[j*3+k];
+			centroids[j*3+k] = t;
+		}
+		int t = primitiveIds[i];
+		primitiveIds[i] = primitiveIds[j];
+		primitiveIds[j] = t;
+	}
+	
+	private static float halfArea(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		float dx = maxX - minX;
+		float dy = maxY - minY;
+		float dz = maxZ - minZ;
+		return dx*dy + dy*dz + dz*dx;
+	}
+	
+}
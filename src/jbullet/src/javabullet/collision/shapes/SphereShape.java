@@ -54,6 +54,8 @@ public class SphereShape extends ConvexInternalShape {
 
 	@Override
 	public void getAabb(Transform t, Vector3f aabbMin, Vector3f aabbMax) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f center = t.origin;
@@ -86,6 +88,10 @@ public class SphereShape extends ConvexInternalShape {
 		return implicitShapeDimensions.x * localScaling.x;
 	}
 
+	public void setUnscaledRadius(float radius) {
+		implicitShapeDimensions.x = radius;
+	}
+
 	@Override
 	public void setMargin(float margin) {
 		super.setMargin(margin);
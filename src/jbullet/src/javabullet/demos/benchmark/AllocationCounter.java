@@ -0,0 +1,78 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Counts bytes allocated by the current thread. Uses HotSpot specific extension
+ * of {@link ThreadMXBean} (accessed by reflection), when it's not available
+ * {@link #isSupported} returns false.
+ * 
+ * @author jezek2
+ */
+public class AllocationCounter {
+
+	private final ThreadMXBean threadBean;
+	private final Method getThreadAllocatedBytes;
+
+	public AllocationCounter() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Method method = null;
+		try {
+			Class<?> cls = Class.forName("com.sun.management.ThreadMXBean");
+			if (cls.isInstance(bean)) {
+				method = cls.getMethod("getThreadAllocatedBytes", long.class);
+				method.invoke(bean, Thread.currentThread().getId());
+			}
+		}
+		catch (Exception e) {
+			method = null;
+		}
+		threadBean = bean;
+		getThreadAllocatedBytes = method;
+	}
+	
+	public boolean isSupported() {
+		return getThreadAllocatedBytes != null;
+	}
+
+	/**
+	 * Returns total number of bytes allocated by the current thread so far, or -1 if not supported.
+	 */
+	public long getAllocatedBytes() {
+		if (getThreadAllocatedBytes == null) {
+			return -1L;
+		}
+		try {
+			return (Long)getThreadAllocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+		}
+		catch (Exception e) {
+			return -1L;
+		}
+	}
+	
+}
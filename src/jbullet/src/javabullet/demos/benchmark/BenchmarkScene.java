@@ -0,0 +1,102 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.broadphase.AxisSweep3;
+import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.RigidBodyConstructionInfo;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Headless scene for {@link PhysicsBenchmark}. Subclasses populate the world
+ * in {@link #initScene} and can do additional work in {@link #step}.
+ * 
+ * @author jezek2
+ */
+public abstract class BenchmarkScene {
+	
+	public static final float TIME_STEP = 1f / 60f;
+	
+	protected ProfiledDynamicsWorld dynamicsWorld;
+	
+	public abstract String getName();
+
+	protected abstract void initScene();
+
+	public void init() {
+		dynamicsWorld = createWorld();
+		initScene();
+	}
+
+	/**
+	 * Advances the scene by one fixed time step.
+	 */
+	public void step() {
+		dynamicsWorld.stepSimulation(TIME_STEP, 0);
+	}
+	
+	public ProfiledDynamicsWorld getDynamicsWorld() {
+		return dynamicsWorld;
+	}
+	
+	protected CollisionConfiguration createCollisionConfiguration() {
+		return new DefaultCollisionConfiguration();
+	}
+	
+	protected ProfiledDynamicsWorld createWorld() {
+		CollisionConfiguration collisionConfiguration = createCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		BroadphaseInterface broadphase = new AxisSweep3(new Vector3f(-1000f, -1000f, -1000f), new Vector3f(1000f, 1000f, 1000f));
+		SequentialImpulseConstraintSolver solver = new SequentialImpulseConstraintSolver();
+		
+		ProfiledDynamicsWorld world = new ProfiledDynamicsWorld(dispatcher, broadphase, solver, collisionConfiguration);
+		world.setGravity(new Vector3f(0f, -10f, 0f));
+		return world;
+	}
+
+	public RigidBody localCreateRigidBody(float mass, Transform startTransform, CollisionShape shape) {
+		// rigidbody is dynamic if and only if mass is non zero, otherwise static
+		boolean isDynamic = (mass != 0f);
+
+		Vector3f localInertia = new Vector3f(0f, 0f, 0f);
+		if (isDynamic) {
+			shape.calculateLocalInertia(mass, localInertia);
+		}
+
+		DefaultMotionState myMotionState = new DefaultMotionState(startTransform);
+		RigidBody body = new RigidBody(new RigidBodyConstructionInfo(mass, myMotionState, shape, localInertia));
+		dynamicsWorld.addRigidBody(body);
+
+		return body;
+	}
+	
+}
@@ -0,0 +1,301 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javabullet.collision.shapes.NodeOverlapCallback;
+import javabullet.collision.shapes.OptimizedBvh;
+import javabullet.collision.shapes.QuantizedBvhNodes;
+import javabullet.collision.shapes.TriangleIndexVertexArray;
+import javax.vecmath.Vector3f;
+
+/**
+ * Compares {@link OptimizedBvh#build} with {@link OptimizedBvh#buildSah} on a terrain
+ * with clusters of small detail triangles. Reports build times, number of nodes
+ * visited by AABB and ray queries and checks that both trees report the same
+ * triangles.<p>
+ * 
+ * Usage: BvhBuildBenchmark [rounds] [threads]
+ * 
+ * @author jezek2
+ */
+public class BvhBuildBenchmark {
+	
+	private static final int TERRAIN_SIZE = 200; // quads per side
+	private static final float TERRAIN_SCALE = 2f;
+	private static final int NUM_CLUSTERS = 400;
+	private static final int CLUSTER_TRIANGLES = 150;
+	private static final int NUM_QUERIES = 20000;
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0? Integer.parseInt(args[0]) : 5;
+		int threads = args.length > 1? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		
+		TriangleIndexVertexArray mesh = createMesh();
+		Vector3f aabbMin = new Vector3f(), aabbMax = new Vector3f();
+		mesh.calculateAabbBruteForce(aabbMin, aabbMax);
+		System.out.println("triangles: " + (2*TERRAIN_SIZE*TERRAIN_SIZE + NUM_CLUSTERS*CLUSTER_TRIANGLES) + ", threads: " + threads);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		long bestMean = Long.MAX_VALUE, bestSah = Long.MAX_VALUE, bestParallel = Long.MAX_VALUE;
+		OptimizedBvh meanBvh = null, sahBvh = null;
+		
+		for (int r=0; r<rounds; r++) {
+			long t = System.nanoTime();
+			meanBvh = new OptimizedBvh();
+			meanBvh.build(mesh, true, aabbMin, aabbMax);
+			long meanTime = System.nanoTime() - t;
+			
+			t = System.nanoTime();
+			sahBvh = new OptimizedBvh();
+			sahBvh.buildSah(mesh, aabbMin, aabbMax);
+			long sahTime = System.nanoTime() - t;
+			
+			t = System.nanoTime();
+			OptimizedBvh parallelBvh = new OptimizedBvh();
+			parallelBvh.buildSah(mesh, aabbMin, aabbMax, executor, threads);
+			long parallelTime = System.nanoTime() - t;
+			
+			bestMean = Math.min(bestMean, meanTime);
+			bestSah = Math.min(bestSah, sahTime);
+			bestParallel = Math.min(bestParallel, parallelTime);
+			
+			System.out.println("round " + r + ": mean split " + format(meanTime) + " ms, sah " + format(sahTime) + " ms, sah parallel " + format(parallelTime) + " ms");
+		}
+		
+		System.out.println("best build: mean split " + format(bestMean) + " ms, sah " + format(bestSah) + " ms, sah parallel " + format(bestParallel) + " ms");
+		executor.shutdown();
+
+		runQueries("aabb", meanBvh, sahBvh, aabbMin, aabbMax, false, rounds);
+		runQueries("ray", meanBvh, sahBvh, aabbMin, aabbMax, true, rounds);
+	}
+	
+	private static void runQueries(String name, OptimizedBvh meanBvh, OptimizedBvh sahBvh, Vector3f aabbMin, Vector3f aabbMax, boolean rays, int rounds) {
+		Random random = new Random(1);
+		float[] queries = new float[NUM_QUERIES*6];
+		for (int i=0; i<NUM_QUERIES; i++) {
+			float x = aabbMin.x + random.nextFloat() * (aabbMax.x - aabbMin.x);
+			float z = aabbMin.z + random.nextFloat() * (aabbMax.z - aabbMin.z);
+			if (rays) {
+				// mostly vertical rays with some slope
+				queries[i*6+0] = x;
+				queries[i*6+1] = aabbMax.y + 1f;
+				queries[i*6+2] = z;
+				queries[i*6+3] = x + (random.nextFloat() - 0.5f) * 10f;
+				queries[i*6+4] = aabbMin.y - 1f;
+				queries[i*6+5] = z + (random.nextFloat() - 0.5f) * 10f;
+			}
+			else {
+				// sphere sized boxes around the terrain surface
+				float y = aabbMin.y + random.nextFloat() * (aabbMax.y - aabbMin.y);
+				float size = 0.5f + random.nextFloat() * 1.5f;
+				queries[i*6+0] = x - size;
+				queries[i*6+1] = y - size;
+				queries[i*6+2] = z - size;
+				queries[i*6+3] = x + size;
+				queries[i*6+4] = y + size;
+				queries[i*6+5] = z + size;
+			}
+		}
+		
+		CountingCallback meanCallback = new CountingCallback();
+		CountingCallback sahCallback = new CountingCallback();
+		long meanVisits = 0, sahVisits = 0;
+		int mismatches = 0;
+		
+		Vector3f from = new Vector3f(), to = new Vector3f();
+		for (int i=0; i<NUM_QUERIES; i++) {
+			from.set(queries[i*6+0], queries[i*6+1], queries[i*6+2]);
+			to.set(queries[i*6+3], queries[i*6+4], queries[i*6+5]);
+			meanCallback.reset();
+			sahCallback.reset();
+			query(meanBvh, meanCallback, from, to, rays);
+			query(sahBvh, sahCallback, from, to, rays);
+			if (meanCallback.count != sahCallback.count || meanCallback.hash != sahCallback.hash) {
+				mismatches++;
+			}
+			meanVisits += countVisits(meanBvh, from, to, rays);
+			sahVisits += countVisits(sahBvh, from, to, rays);
+		}
+		
+		long bestMean = Long.MAX_VALUE, bestSah = Long.MAX_VALUE;
+		for (int r=0; r<rounds; r++) {
+			long t = System.nanoTime();
+			for (int i=0; i<NUM_QUERIES; i++) {
+				from.set(queries[i*6+0], queries[i*6+1], queries[i*6+2]);
+				to.set(queries[i*6+3], queries[i*6+4], queries[i*6+5]);
+				query(meanBvh, meanCallback, from, to, rays);
+			}
+			bestMean = Math.min(bestMean, System.nanoTime() - t);
+			
+			t = System.nanoTime();
+			for (int i=0; i<NUM_QUERIES; i++) {
+				from.set(queries[i*6+0], queries[i*6+1], queries[i*6+2]);
+				to.set(queries[i*6+3], queries[i*6+4], queries[i*6+5]);
+				query(sahBvh, sahCallback, from, to, rays);
+			}
+			bestSah = Math.min(bestSah, System.nanoTime() - t);
+		}
+		
+		System.out.println(name + " queries: visited nodes per query: mean split " + (meanVisits / NUM_QUERIES) + ", sah " + (sahVisits / NUM_QUERIES) +
+				", time: mean split " + format(bestMean) + " ms, sah " + format(bestSah) + " ms, mismatches " + mismatches);
+	}
+	
+	private static void query(OptimizedBvh bvh, NodeOverlapCallback callback, Vector3f from, Vector3f to, boolean ray) {
+		if (ray) {
+			bvh.reportRayOverlappingNodex(callback, from, to);
+		}
+		else {
+			bvh.reportAabbOverlappingNodex(callback, from, to);
+		}
+	}
+
+	/**
+	 * Counts nodes visited by the recursive quantized traversal used by the queries.
+	 */
+	private static int countVisits(OptimizedBvh bvh, Vector3f from, Vector3f to, boolean ray) {
+		Vector3f min = new Vector3f(from), max = new Vector3f(from);
+		if (ray) {
+			min.x = Math.min(min.x, to.x); min.y = Math.min(min.y, to.y); min.z = Math.min(min.z, to.z);
+			max.x = Math.max(max.x, to.x); max.y = Math.max(max.y, to.y); max.z = Math.max(max.z, to.z);
+		}
+		else {
+			max.set(to);
+		}
+		long qMin = bvh.quantizeWithClamp(min);
+		long qMax = bvh.quantizeWithClamp(max);
+		
+		QuantizedBvhNodes nodes = bvh.getQuantizedNodeArray();
+		int visits = 0;
+		int[] stack = new int[256];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			visits++;
+			if (!overlaps(qMin, qMax, nodes.getQuantizedAabbMin(node), nodes.getQuantizedAabbMax(node)) || nodes.isLeafNode(node)) {
+				continue;
+			}
+			int left = node + 1;
+			stack[stackSize++] = nodes.isLeafNode(left)? left + 1 : left + nodes.getEscapeIndex(left);
+			stack[stackSize++] = left;
+		}
+		return visits;
+	}
+	
+	private static boolean overlaps(long min1, long max1, long min2, long max2) {
+		for (int i=0; i<3; i++) {
+			if (QuantizedBvhNodes.getCoord(min1, i) > QuantizedBvhNodes.getCoord(max2, i) ||
+					QuantizedBvhNodes.getCoord(max1, i) < QuantizedBvhNodes.getCoord(min2, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static String format(long nanos) {
+		return String.format("%.2f", nanos / 1e6);
+	}
+	
+	private static TriangleIndexVertexArray createMesh() {
+		int terrainVerts = (TERRAIN_SIZE + 1) * (TERRAIN_SIZE + 1);
+		int totalVerts = terrainVerts + NUM_CLUSTERS * CLUSTER_TRIANGLES * 3;
+		int totalTriangles = 2 * TERRAIN_SIZE * TERRAIN_SIZE + NUM_CLUSTERS * CLUSTER_TRIANGLES;
+		
+		ByteBuffer vertices = ByteBuffer.allocateDirect(totalVerts * 3 * 4).order(ByteOrder.nativeOrder());
+		ByteBuffer indices = ByteBuffer.allocateDirect(totalTriangles * 3 * 4).order(ByteOrder.nativeOrder());
+		
+		float offset = TERRAIN_SIZE * TERRAIN_SCALE * 0.5f;
+		for (int i=0; i<=TERRAIN_SIZE; i++) {
+			for (int j=0; j<=TERRAIN_SIZE; j++) {
+				vertices.putFloat(i * TERRAIN_SCALE - offset);
+				vertices.putFloat(terrainHeight(i, j));
+				vertices.putFloat(j * TERRAIN_SCALE - offset);
+			}
+		}
+		for (int i=0; i<TERRAIN_SIZE; i++) {
+			for (int j=0; j<TERRAIN_SIZE; j++) {
+				int v = i * (TERRAIN_SIZE + 1) + j;
+				indices.putInt(v).putInt(v + 1).putInt(v + TERRAIN_SIZE + 1);
+				indices.putInt(v + 1).putInt(v + TERRAIN_SIZE + 2).putInt(v + TERRAIN_SIZE + 1);
+			}
+		}
+		
+		// dense clusters of small triangles (rocks, vegetation) make the mesh non-uniform
+		Random random = new Random(0);
+		int v = terrainVerts;
+		for (int c=0; c<NUM_CLUSTERS; c++) {
+			int ci = random.nextInt(TERRAIN_SIZE), cj = random.nextInt(TERRAIN_SIZE);
+			float cx = ci * TERRAIN_SCALE - offset, cy = terrainHeight(ci, cj), cz = cj * TERRAIN_SCALE - offset;
+			for (int t=0; t<CLUSTER_TRIANGLES; t++) {
+				for (int k=0; k<3; k++) {
+					vertices.putFloat(cx + (random.nextFloat() - 0.5f) * 1.5f);
+					vertices.putFloat(cy + random.nextFloat() * 1.5f);
+					vertices.putFloat(cz + (random.nextFloat() - 0.5f) * 1.5f);
+				}
+				indices.putInt(v).putInt(v + 1).putInt(v + 2);
+				v += 3;
+			}
+		}
+		
+		vertices.flip();
+		indices.flip();
+		return new TriangleIndexVertexArray(totalTriangles, indices, 3 * 4, totalVerts, vertices, 3 * 4);
+	}
+	
+	private static float terrainHeight(int i, int j) {
+		return 3f * (float)(Math.sin(i * 0.15f) * Math.cos(j * 0.1f));
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class CountingCallback implements NodeOverlapCallback {
+		public int count;
+		public long hash;
+		
+		public void reset() {
+			count = 0;
+			hash = 0;
+		}
+		
+		public void processNode(int subPart, int triangleIndex) {
+			count++;
+			// order independent
+			hash += (triangleIndex * 0x9E3779B97F4A7C15L) ^ (triangleIndex >>> 7);
+		}
+	}
+	
+}
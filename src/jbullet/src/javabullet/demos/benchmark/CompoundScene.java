@@ -0,0 +1,146 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.CollisionWorld.ClosestRayResultCallback;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.CompoundShape;
+import javabullet.dynamics.RigidBody;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Compound bodies made of many boxes resting on a static compound floor made
+ * of tiles. Each step vertical rays are cast over the floor, timed as
+ * {@link BenchmarkStage#RAYCAST}.
+ * 
+ * @author jezek2
+ */
+public class CompoundScene extends BenchmarkScene {
+	
+	private static final int FLOOR_SIZE = 20; // 400 tiles
+	private static final int BLOCK_SIZE = 5; // 5x4x5 = 100 boxes per body
+	private static final int BLOCK_HEIGHT = 4;
+	private static final int RAYS_PER_AXIS = 32;
+
+	private final int numBodies;
+	private final Vector3f rayFrom = new Vector3f();
+	private final Vector3f rayTo = new Vector3f();
+	private final ClosestRayResultCallback rayCallback = new ClosestRayResultCallback(rayFrom, rayTo);
+	private int hits;
+
+	/**
+	 * @param numBodies number of dynamic compound bodies
+	 */
+	public CompoundScene(int numBodies) {
+		this.numBodies = numBodies;
+	}
+
+	@Override
+	public String getName() {
+		return "compound";
+	}
+
+	/**
+	 * Returns number of rays that hit something in the last step.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	@Override
+	protected void initScene() {
+		Transform childTransform = new Transform();
+		childTransform.setIdentity();
+		
+		CompoundShape floorShape = new CompoundShape();
+		CollisionShape tileShape = new BoxShape(new Vector3f(0.5f, 0.25f, 0.5f));
+		for (int x=0; x<FLOOR_SIZE; x++) {
+			for (int z=0; z<FLOOR_SIZE; z++) {
+				childTransform.origin.set(x - 0.5f * (FLOOR_SIZE - 1), 0f, z - 0.5f * (FLOOR_SIZE - 1));
+				floorShape.addChildShape(childTransform, tileShape);
+			}
+		}
+		
+		CompoundShape blockShape = new CompoundShape();
+		CollisionShape brickShape = new BoxShape(new Vector3f(0.2f, 0.2f, 0.2f));
+		for (int x=0; x<BLOCK_SIZE; x++) {
+			for (int y=0; y<BLOCK_HEIGHT; y++) {
+				for (int z=0; z<BLOCK_SIZE; z++) {
+					childTransform.origin.set(0.4f * (x - 0.5f * (BLOCK_SIZE - 1)), 0.4f * (y - 0.5f * (BLOCK_HEIGHT - 1)), 0.4f * (z - 0.5f * (BLOCK_SIZE - 1)));
+					blockShape.addChildShape(childTransform, brickShape);
+				}
+			}
+		}
+		
+		Transform startTransform = new Transform();
+		startTransform.setIdentity();
+		startTransform.origin.set(0f, -0.25f, 0f);
+		localCreateRigidBody(0f, startTransform, floorShape);
+		
+		int perRow = (int)Math.ceil(Math.sqrt(numBodies));
+		for (int i=0; i<numBodies; i++) {
+			float x = 3f * (i % perRow - 0.5f * (perRow - 1));
+			float z = 3f * (i / perRow - 0.5f * (perRow - 1));
+			startTransform.origin.set(x, 0.8f + (i & 1) * 2f, z);
+			RigidBody body = localCreateRigidBody(1f, startTransform, blockShape);
+			// keep bodies awake, so the contacts are processed in every step
+			body.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+		}
+	}
+
+	@Override
+	public void step() {
+		super.step();
+		
+		long t0 = System.nanoTime();
+		
+		float extent = FLOOR_SIZE;
+		float spacing = extent / RAYS_PER_AXIS;
+		hits = 0;
+		for (int i=0; i<RAYS_PER_AXIS; i++) {
+			for (int j=0; j<RAYS_PER_AXIS; j++) {
+				float x = -0.5f * extent + (i + 0.5f) * spacing;
+				float z = -0.5f * extent + (j + 0.5f) * spacing;
+				rayFrom.set(x, 10f, z);
+				rayTo.set(x, -10f, z);
+
+				rayCallback.rayFromWorld.set(rayFrom);
+				rayCallback.rayToWorld.set(rayTo);
+				rayCallback.closestHitFraction = 1f;
+				rayCallback.collisionObject = null;
+				dynamicsWorld.rayTest(rayFrom, rayTo, rayCallback);
+				if (rayCallback.hasHit()) {
+					hits++;
+				}
+			}
+		}
+		
+		dynamicsWorld.addStageTime(BenchmarkStage.RAYCAST, System.nanoTime() - t0);
+	}
+	
+}
@@ -0,0 +1,158 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javabullet.BulletGlobals;
+import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.collision.shapes.ConvexHullShape;
+import javabullet.dynamics.constraintsolver.SolverMode;
+import javabullet.linearmath.GeometryUtil;
+import javax.vecmath.Vector3f;
+
+/**
+ * Compares pyramid of boxes (using both box-box algorithm and GJK) with pyramids of
+ * box-like {@link ConvexHullShape}s using linear search and hill climbing
+ * ({@link ConvexHullShape#buildHullAdjacency}) in support queries. All scenes are
+ * stepped alternately so they get the same JIT treatment.<p>
+ * 
+ * Usage: ConvexHullBenchmark [rounds] [steps per round] [hull points]
+ * 
+ * @author jezek2
+ */
+public class ConvexHullBenchmark {
+	
+	private static final int PYRAMID_SIZE = 10; // 385 bodies
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0? Integer.parseInt(args[0]) : 10;
+		int steps = args.length > 1? Integer.parseInt(args[1]) : 60;
+		int numPoints = args.length > 2? Integer.parseInt(args[2]) : 242;
+		
+		List<Vector3f> points = createRoundedBox(numPoints, new Random(0));
+		ConvexHullShape linearShape = new ConvexHullShape(points);
+		ConvexHullShape climbingShape = new ConvexHullShape(points);
+		
+		long t = System.nanoTime();
+		climbingShape.buildHullAdjacency();
+		long adjacencyTime = System.nanoTime() - t;
+		
+		List<Vector3f> simplified = new ArrayList<Vector3f>();
+		t = System.nanoTime();
+		GeometryUtil.simplifyConvexHull(points, 64, simplified);
+		long simplifyTime = System.nanoTime() - t;
+		
+		System.out.println("hull points: " + numPoints + ", adjacency built in " + format(adjacencyTime, 1) + " ms" +
+				", simplified to " + simplified.size() + " points in " + format(simplifyTime, 1) + " ms");
+		
+		int solverMode = SolverMode.SOLVER_RANDMIZE_ORDER | SolverMode.SOLVER_CACHE_FRIENDLY;
+		BenchmarkScene[] scenes = new BenchmarkScene[] {
+			new PyramidScene(PYRAMID_SIZE, solverMode),
+			new PyramidScene(PYRAMID_SIZE, solverMode) {
+				@Override
+				protected CollisionConfiguration createCollisionConfiguration() {
+					return new CollisionAlgorithmBenchmark.GjkCollisionConfiguration();
+				}
+			},
+			new PyramidScene(PYRAMID_SIZE, solverMode, linearShape),
+			new PyramidScene(PYRAMID_SIZE, solverMode, climbingShape),
+		};
+		String[] names = new String[] { "box-box", "box gjk", "hull linear", "hull climbing" };
+		
+		for (int s=0; s<scenes.length; s++) {
+			scenes[s].init();
+		}
+		System.out.println("bodies: " + (scenes[0].getDynamicsWorld().getNumCollisionObjects() - 1));
+		
+		// let contacts settle
+		for (int i=0; i<steps; i++) {
+			for (int s=0; s<scenes.length; s++) {
+				scenes[s].step();
+			}
+		}
+		
+		long[] bestNarrow = new long[scenes.length];
+		long[] checks = new long[scenes.length];
+		for (int s=0; s<scenes.length; s++) {
+			bestNarrow[s] = Long.MAX_VALUE;
+		}
+		
+		for (int r=0; r<rounds; r++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("round ").append(r).append(":");
+			
+			for (int s=0; s<scenes.length; s++) {
+				scenes[s].getDynamicsWorld().resetTimes();
+				checks[s] = 0;
+			}
+			
+			for (int i=0; i<steps; i++) {
+				for (int s=0; s<scenes.length; s++) {
+					int numChecks = BulletGlobals.gNumGjkChecks;
+					scenes[s].step();
+					checks[s] += BulletGlobals.gNumGjkChecks - numChecks;
+				}
+			}
+			
+			for (int s=0; s<scenes.length; s++) {
+				long narrow = scenes[s].getDynamicsWorld().getStageTime(BenchmarkStage.NARROWPHASE);
+				bestNarrow[s] = Math.min(bestNarrow[s], narrow);
+				sb.append(" ").append(names[s]).append(" ").append(format(narrow, steps)).append(" ms");
+			}
+			System.out.println(sb);
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append("best narrowphase:");
+		for (int s=0; s<scenes.length; s++) {
+			sb.append(" ").append(names[s]).append(" ").append(format(bestNarrow[s], steps)).append(" ms");
+			sb.append(" (").append(checks[s] / steps).append(" gjk checks)");
+		}
+		System.out.println(sb);
+	}
+	
+	/**
+	 * Creates points on surface of superellipsoid |x|^4 + |y|^4 + |z|^4 = 0.45^4, which
+	 * looks like box with rounded edges. All points are vertices of the convex hull.
+	 */
+	private static List<Vector3f> createRoundedBox(int numPoints, Random rand) {
+		List<Vector3f> points = new ArrayList<Vector3f>();
+		for (int i=0; i<numPoints; i++) {
+			Vector3f p = new Vector3f((float)rand.nextGaussian(), (float)rand.nextGaussian(), (float)rand.nextGaussian());
+			float x2 = p.x*p.x, y2 = p.y*p.y, z2 = p.z*p.z;
+			float norm = (float)Math.sqrt(Math.sqrt(x2*x2 + y2*y2 + z2*z2));
+			p.scale(0.45f / norm);
+			points.add(p);
+		}
+		return points;
+	}
+	
+	private static String format(long nanos, int steps) {
+		return String.format("%.3f", nanos / 1e6 / steps);
+	}
+	
+}
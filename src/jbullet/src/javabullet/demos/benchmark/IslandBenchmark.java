@@ -0,0 +1,155 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.List;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.SimulationIslandManager;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Measures building of simulation islands (union find, sorting of bodies and
+ * manifolds, per island callbacks) on 20000 boxes standing in stacks of 4 on
+ * a static ground, giving 5000 islands. Collision detection runs once, then
+ * only the island management is repeated.<p>
+ * 
+ * Usage: IslandBenchmark [rounds] [iterations per round]
+ * 
+ * @author jezek2
+ */
+public class IslandBenchmark {
+	
+	private static final int GRID_SIZE = 71; // 71*71 stacks
+	private static final int STACK_HEIGHT = 4;
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0? Integer.parseInt(args[0]) : 10;
+		int iterations = args.length > 1? Integer.parseInt(args[1]) : 100;
+		
+		StackScene scene = new StackScene();
+		scene.init();
+		scene.step();
+		
+		DiscreteDynamicsWorld world = scene.getDynamicsWorld();
+		SimulationIslandManager islandManager = world.getSimulationIslandManager();
+		Dispatcher dispatcher = world.getDispatcher();
+		List<CollisionObject> collisionObjects = world.getCollisionObjectArray();
+		CountingCallback callback = new CountingCallback();
+		
+		System.out.println("bodies: " + (collisionObjects.size() - 1) + ", manifolds: " + dispatcher.getNumManifolds());
+		
+		long best = Long.MAX_VALUE;
+		for (int r=0; r<rounds; r++) {
+			callback.reset();
+			long t0 = System.nanoTime();
+			for (int i=0; i<iterations; i++) {
+				islandManager.updateActivationState(world, dispatcher);
+				islandManager.storeIslandActivationState(world);
+				islandManager.buildAndProcessIslands(dispatcher, collisionObjects, callback);
+			}
+			long time = System.nanoTime() - t0;
+			best = Math.min(best, time);
+			
+			System.out.println("round " + r + ": " + format(time, iterations) + " ms/iteration (islands " + callback.numIslands / iterations +
+					", bodies " + callback.numBodies / iterations + ", manifolds " + callback.numManifolds / iterations + ")");
+		}
+		
+		System.out.println("best: " + format(best, iterations) + " ms/iteration");
+	}
+	
+	private static String format(long nanos, int iterations) {
+		return String.format("%.3f", nanos / 1e6 / iterations);
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class StackScene extends BenchmarkScene {
+		@Override
+		public String getName() {
+			return "island-stacks";
+		}
+
+		@Override
+		protected ProfiledDynamicsWorld createWorld() {
+			// too many bodies for the default AxisSweep3
+			CollisionConfiguration collisionConfiguration = createCollisionConfiguration();
+			CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+			ProfiledDynamicsWorld world = new ProfiledDynamicsWorld(dispatcher, new DbvtBroadphase(), new SequentialImpulseConstraintSolver(), collisionConfiguration);
+			world.setGravity(new Vector3f(0f, -10f, 0f));
+			return world;
+		}
+
+		@Override
+		protected void initScene() {
+			Transform startTransform = new Transform();
+			startTransform.setIdentity();
+			startTransform.origin.set(0f, -1f, 0f);
+			localCreateRigidBody(0f, startTransform, new BoxShape(new Vector3f(200f, 1f, 200f)));
+			
+			CollisionShape boxShape = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+			float offset = -0.5f * (GRID_SIZE - 1) * 2f;
+			for (int x=0; x<GRID_SIZE; x++) {
+				for (int z=0; z<GRID_SIZE; z++) {
+					for (int y=0; y<STACK_HEIGHT; y++) {
+						// slightly overlapping, so contacts are found in the first step
+						startTransform.origin.set(offset + x * 2f, 0.49f + y * 0.99f, offset + z * 2f);
+						RigidBody body = localCreateRigidBody(1f, startTransform, boxShape);
+						body.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+					}
+				}
+			}
+		}
+	}
+	
+	private static class CountingCallback implements SimulationIslandManager.IslandCallback {
+		public long numIslands;
+		public long numBodies;
+		public long numManifolds;
+		
+		public void reset() {
+			numIslands = 0;
+			numBodies = 0;
+			numManifolds = 0;
+		}
+		
+		public void processIsland(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifolds, int manifolds_offset, int numManifolds, int islandId) {
+			this.numIslands++;
+			this.numBodies += numBodies;
+			this.numManifolds += numManifolds;
+		}
+	}
+	
+}
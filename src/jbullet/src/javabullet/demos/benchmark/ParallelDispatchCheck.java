@@ -0,0 +1,126 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.constraintsolver.SolverMode;
+import javabullet.linearmath.Transform;
+
+/**
+ * Checks that parallel narrowphase dispatch (see {@link CollisionDispatcher#setParallelDispatch})
+ * gives the same simulation as the serial one. Each scene is stepped twice, once
+ * serially and once with parallel dispatch using batches of single pair, so pairs
+ * sharing an object are processed concurrently as often as possible. Transforms
+ * of all bodies must be bit-identical after every step.<p>
+ * 
+ * Exits with status 1 when any check fails.<p>
+ * 
+ * Usage: ParallelDispatchCheck [steps] [threads]
+ * 
+ * @author jezek2
+ */
+public class ParallelDispatchCheck {
+	
+	private static boolean failed = false;
+	
+	public static void main(String[] args) {
+		int steps = args.length > 0? Integer.parseInt(args[0]) : 500;
+		int threads = args.length > 1? Integer.parseInt(args[1]) : 8;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "dispatch worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		int solverMode = SolverMode.SOLVER_RANDMIZE_ORDER | SolverMode.SOLVER_CACHE_FRIENDLY;
+		compare(new PyramidScene(8, solverMode), new PyramidScene(8, solverMode), executor, threads, steps);
+		compare(new CompoundScene(16), new CompoundScene(16), executor, threads, steps);
+		compare(new SphereRainScene(300, 4), new SphereRainScene(300, 4), executor, threads, steps);
+		compare(new SphereRainScene(300, 4, true), new SphereRainScene(300, 4, true), executor, threads, steps);
+		
+		executor.shutdown();
+		
+		if (failed) {
+			System.exit(1);
+		}
+	}
+	
+	private static void check(boolean ok, String message) {
+		System.out.println((ok? "OK    " : "FAIL  ") + message);
+		if (!ok) {
+			failed = true;
+		}
+	}
+	
+	private static void compare(BenchmarkScene serial, BenchmarkScene parallel, ExecutorService executor, int threads, int steps) {
+		serial.init();
+		parallel.init();
+		
+		CollisionDispatcher dispatcher = (CollisionDispatcher)parallel.getDynamicsWorld().getDispatcher();
+		dispatcher.setParallelDispatch(executor, threads);
+		dispatcher.setParallelBatchSize(1);
+		
+		String error = null;
+		try {
+			for (int i=0; i<steps && error == null; i++) {
+				serial.step();
+				parallel.step();
+				if (!sameState(serial.getDynamicsWorld(), parallel.getDynamicsWorld())) {
+					error = "differs from serial dispatch at step " + i;
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			error = "failed with " + e;
+		}
+		
+		check(error == null, parallel.getName() + " " + (error == null? "identical to serial dispatch for " + steps + " steps" : error));
+	}
+	
+	private static boolean sameState(DiscreteDynamicsWorld world0, DiscreteDynamicsWorld world1) {
+		if (world0.getNumCollisionObjects() != world1.getNumCollisionObjects()) {
+			return false;
+		}
+		for (int i=0; i<world0.getNumCollisionObjects(); i++) {
+			CollisionObject obj0 = world0.getCollisionObjectArray().get(i);
+			CollisionObject obj1 = world1.getCollisionObjectArray().get(i);
+			Transform t0 = obj0.getWorldTransform();
+			Transform t1 = obj1.getWorldTransform();
+			if (!t0.origin.equals(t1.origin) || !t0.basis.equals(t1.basis)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+}
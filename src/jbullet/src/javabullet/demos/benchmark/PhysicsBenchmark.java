@@ -0,0 +1,230 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import javabullet.BulletGlobals;
+import javabullet.dynamics.constraintsolver.SolverMode;
+import javabullet.linearmath.ProfileManager;
+
+/**
+ * Headless benchmark of the physics pipeline. Each scene is warmed up first
+ * (JIT compilation, settling of bodies), then stepped in several rounds of fixed
+ * number of steps. The fastest round is reported, broken down by stages of the
+ * simulation step, together with memory allocated per step (when supported
+ * by the JVM). With -profile option the hierarchical profiler is enabled and
+ * its times of the measured rounds are printed after each scene.<p>
+ * 
+ * Usage: PhysicsBenchmark [-warmup steps] [-steps steps] [-rounds count] [-profile] [scene...]<br>
+ * Scenes: pyramid, sphere-rain, sphere-rain-hf, ragdoll-pile, raycast, raycast-batch, compound,
+ * projectile, projectile-ccd (all by default).
+ * 
+ * @author jezek2
+ */
+public class PhysicsBenchmark {
+	
+	private static final BenchmarkStage[] STAGES = BenchmarkStage.values();
+	
+	private int warmupSteps = 300;
+	private int steps = 200;
+	private int rounds = 5;
+	private boolean profile = false;
+	
+	private final AllocationCounter allocationCounter = new AllocationCounter();
+
+	public static void main(String[] args) {
+		PhysicsBenchmark benchmark = new PhysicsBenchmark();
+		List<String> sceneNames = new ArrayList<String>();
+		
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-warmup") && i+1 < args.length) {
+				benchmark.warmupSteps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-steps") && i+1 < args.length) {
+				benchmark.steps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-rounds") && i+1 < args.length) {
+				benchmark.rounds = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-profile")) {
+				benchmark.profile = true;
+			}
+			else if (args[i].startsWith("-")) {
+				System.err.println("Usage: PhysicsBenchmark [-warmup steps] [-steps steps] [-rounds count] [-profile] [scene...]");
+				System.exit(1);
+			}
+			else {
+				sceneNames.add(args[i]);
+			}
+		}
+		
+		if (sceneNames.isEmpty()) {
+			sceneNames.add("pyramid");
+			sceneNames.add("sphere-rain");
+			sceneNames.add("sphere-rain-hf");
+			sceneNames.add("ragdoll-pile");
+			sceneNames.add("raycast");
+			sceneNames.add("raycast-batch");
+			sceneNames.add("compound");
+			sceneNames.add("projectile");
+			sceneNames.add("projectile-ccd");
+		}
+		
+		BulletGlobals.setProfilingEnabled(benchmark.profile);
+		
+		benchmark.printHeader();
+		for (String name : sceneNames) {
+			BenchmarkScene scene = createScene(name);
+			if (scene == null) {
+				System.err.println("Unknown scene: " + name);
+				System.exit(1);
+			}
+			benchmark.run(scene);
+		}
+	}
+	
+	public static BenchmarkScene createScene(String name) {
+		if (name.equals("pyramid")) {
+			return new PyramidScene(14, SolverMode.SOLVER_RANDMIZE_ORDER | SolverMode.SOLVER_CACHE_FRIENDLY);
+		}
+		if (name.equals("sphere-rain")) {
+			return new SphereRainScene(1000, 4);
+		}
+		if (name.equals("sphere-rain-hf")) {
+			return new SphereRainScene(1000, 4, true);
+		}
+		if (name.equals("ragdoll-pile")) {
+			return new RagDollPileScene(3, 4);
+		}
+		if (name.equals("raycast")) {
+			return new RaycastScene(32, false);
+		}
+		if (name.equals("raycast-batch")) {
+			return new RaycastScene(32, true);
+		}
+		if (name.equals("compound")) {
+			return new CompoundScene(16);
+		}
+		if (name.equals("projectile")) {
+			return new ProjectileScene(200, 4, false);
+		}
+		if (name.equals("projectile-ccd")) {
+			return new ProjectileScene(200, 4, true);
+		}
+		return null;
+	}
+	
+	public void printHeader() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(pad("scene", -14)).append(pad("bodies", 7)).append(pad("total", 9));
+		for (BenchmarkStage stage : STAGES) {
+			sb.append(pad(stage.getShortName(), 9));
+		}
+		sb.append(pad("other", 9)).append(pad("alloc", 10));
+		System.out.println(sb);
+		System.out.println(pad("", -21) + pad("ms/step", 9) + pad("", 9 * (STAGES.length + 1)) + pad("KB/step", 10));
+	}
+	
+	/**
+	 * Runs given scene and prints the results of the fastest round.
+	 */
+	public void run(BenchmarkScene scene) {
+		scene.init();
+		ProfiledDynamicsWorld world = scene.getDynamicsWorld();
+		
+		for (int i=0; i<warmupSteps; i++) {
+			scene.step();
+		}
+		
+		if (profile) {
+			ProfileManager.get().reset();
+		}
+		
+		long bestTotal = Long.MAX_VALUE;
+		long[] bestStages = new long[STAGES.length];
+		long bestAllocated = -1L;
+		
+		for (int r=0; r<rounds; r++) {
+			world.resetTimes();
+			
+			long allocated0 = allocationCounter.getAllocatedBytes();
+			long t0 = System.nanoTime();
+			for (int i=0; i<steps; i++) {
+				scene.step();
+			}
+			long total = System.nanoTime() - t0;
+			long allocated1 = allocationCounter.getAllocatedBytes();
+			
+			if (total < bestTotal) {
+				bestTotal = total;
+				for (int i=0; i<STAGES.length; i++) {
+					bestStages[i] = world.getStageTime(STAGES[i]);
+				}
+				bestAllocated = allocationCounter.isSupported()? allocated1 - allocated0 : -1L;
+			}
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(pad(scene.getName(), -14));
+		sb.append(pad(String.valueOf(world.getNumCollisionObjects()), 7));
+		sb.append(pad(formatTime(bestTotal), 9));
+		long other = bestTotal;
+		for (int i=0; i<STAGES.length; i++) {
+			sb.append(pad(formatTime(bestStages[i]), 9));
+			other -= bestStages[i];
+		}
+		sb.append(pad(formatTime(other), 9));
+		sb.append(pad(bestAllocated >= 0L? String.format("%.1f", bestAllocated / 1024.0 / steps) : "n/a", 10));
+		System.out.println(sb);
+		
+		if (profile) {
+			ProfileManager.get().dump(System.out);
+		}
+	}
+	
+	private String formatTime(long nanos) {
+		return String.format("%.3f", nanos / 1e6 / steps);
+	}
+	
+	/**
+	 * Pads string to given width, negative width aligns to the left.
+	 */
+	private static String pad(String s, int width) {
+		boolean left = width < 0;
+		width = Math.abs(width);
+		StringBuilder sb = new StringBuilder(width);
+		if (left) {
+			sb.append(s);
+		}
+		for (int i=s.length(); i<width; i++) {
+			sb.append(' ');
+		}
+		if (!left) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+	
+}
@@ -0,0 +1,126 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.BulletGlobals;
+import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.constraintsolver.ConstraintSolver;
+import javabullet.dynamics.constraintsolver.ContactSolverInfo;
+
+/**
+ * DiscreteDynamicsWorld measuring time spent in individual stages of the
+ * simulation step (see {@link BenchmarkStage}) using {@link System#nanoTime}.
+ * 
+ * @author jezek2
+ */
+public class ProfiledDynamicsWorld extends DiscreteDynamicsWorld {
+	
+	private static final BenchmarkStage[] STAGES = BenchmarkStage.values();
+
+	private final long[] stageTimes = new long[STAGES.length];
+	
+	public ProfiledDynamicsWorld(Dispatcher dispatcher, BroadphaseInterface pairCache, ConstraintSolver constraintSolver, CollisionConfiguration collisionConfiguration) {
+		super(dispatcher, pairCache, constraintSolver, collisionConfiguration);
+	}
+
+	/**
+	 * Returns accumulated time of given stage in nanoseconds.
+	 */
+	public long getStageTime(BenchmarkStage stage) {
+		return stageTimes[stage.ordinal()];
+	}
+	
+	public void addStageTime(BenchmarkStage stage, long nanos) {
+		stageTimes[stage.ordinal()] += nanos;
+	}
+
+	public void resetTimes() {
+		for (int i=0; i<stageTimes.length; i++) {
+			stageTimes[i] = 0L;
+		}
+	}
+
+	@Override
+	public void performDiscreteCollisionDetection() {
+		BulletGlobals.pushProfile("performDiscreteCollisionDetection");
+		try {
+			long t0 = System.nanoTime();
+
+			updateAabbs();
+			broadphasePairCache.calculateOverlappingPairs(dispatcher1);
+
+			long t1 = System.nanoTime();
+
+			Dispatcher dispatcher = getDispatcher();
+			BulletGlobals.pushProfile("dispatchAllCollisionPairs");
+			try {
+				if (dispatcher != null) {
+					dispatcher.dispatchAllCollisionPairs(broadphasePairCache.getOverlappingPairCache(), dispatchInfo, dispatcher1);
+				}
+			}
+			finally {
+				BulletGlobals.popProfile();
+			}
+
+			long t2 = System.nanoTime();
+			stageTimes[BenchmarkStage.BROADPHASE.ordinal()] += t1 - t0;
+			stageTimes[BenchmarkStage.NARROWPHASE.ordinal()] += t2 - t1;
+		}
+		finally {
+			BulletGlobals.popProfile();
+		}
+	}
+
+	@Override
+	protected void calculateSimulationIslands() {
+		long t0 = System.nanoTime();
+		super.calculateSimulationIslands();
+		stageTimes[BenchmarkStage.ISLANDS.ordinal()] += System.nanoTime() - t0;
+	}
+
+	@Override
+	protected void solveConstraints(ContactSolverInfo solverInfo) {
+		long t0 = System.nanoTime();
+		super.solveConstraints(solverInfo);
+		stageTimes[BenchmarkStage.SOLVER.ordinal()] += System.nanoTime() - t0;
+	}
+
+	@Override
+	protected void predictUnconstraintMotion(float timeStep) {
+		long t0 = System.nanoTime();
+		super.predictUnconstraintMotion(timeStep);
+		stageTimes[BenchmarkStage.INTEGRATE.ordinal()] += System.nanoTime() - t0;
+	}
+
+	@Override
+	protected void integrateTransforms(float timeStep) {
+		long t0 = System.nanoTime();
+		super.integrateTransforms(timeStep);
+		stageTimes[BenchmarkStage.INTEGRATE.ordinal()] += System.nanoTime() - t0;
+	}
+	
+}
@@ -0,0 +1,143 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.dynamics.RigidBody;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Small fast spheres fired against thin static wall. At the fixed 60 Hz step
+ * each projectile moves several times the wall thickness per step, so it
+ * tunnels through the wall unless continuous collision detection is enabled.
+ * When all projectiles are fired, the oldest ones are fired again and counted
+ * as tunneled when they ended behind the wall.
+ * 
+ * @author jezek2
+ */
+public class ProjectileScene extends BenchmarkScene {
+	
+	private static final float WALL_HALF_THICKNESS = 0.05f;
+	private static final float WALL_HALF_SIZE = 10f;
+	private static final float PROJECTILE_RADIUS = 0.1f;
+	private static final float SPEED = 300f; // 5 units per step
+	private static final float FIRE_DISTANCE = 15f;
+
+	private final int maxProjectiles;
+	private final int projectilesPerStep;
+	private final boolean continuous;
+	private final List<RigidBody> projectiles = new ArrayList<RigidBody>();
+	private final Random random = new Random(1L);
+	private final Transform tmpTrans = new Transform();
+	private final Vector3f velocity = new Vector3f();
+	private final Vector3f zero = new Vector3f(0f, 0f, 0f);
+	private CollisionShape projectileShape;
+	private int nextRecycled;
+	private int fired;
+	private int tunneled;
+
+	/**
+	 * @param continuous enable continuous collision detection for projectiles
+	 */
+	public ProjectileScene(int maxProjectiles, int projectilesPerStep, boolean continuous) {
+		this.maxProjectiles = maxProjectiles;
+		this.projectilesPerStep = projectilesPerStep;
+		this.continuous = continuous;
+	}
+
+	@Override
+	public String getName() {
+		return continuous? "projectile-ccd" : "projectile";
+	}
+
+	/**
+	 * Returns number of recycled projectiles, ie. those that were counted.
+	 */
+	public int getFired() {
+		return fired;
+	}
+
+	/**
+	 * Returns number of recycled projectiles that ended behind the wall.
+	 */
+	public int getTunneled() {
+		return tunneled;
+	}
+
+	@Override
+	protected void initScene() {
+		tmpTrans.setIdentity();
+		localCreateRigidBody(0f, tmpTrans, new BoxShape(new Vector3f(WALL_HALF_THICKNESS, WALL_HALF_SIZE, WALL_HALF_SIZE)));
+		
+		projectileShape = new SphereShape(PROJECTILE_RADIUS);
+	}
+
+	@Override
+	public void step() {
+		for (int i=0; i<projectilesPerStep; i++) {
+			tmpTrans.setIdentity();
+			tmpTrans.origin.set(
+					-FIRE_DISTANCE,
+					(random.nextFloat() - 0.5f) * WALL_HALF_SIZE,
+					(random.nextFloat() - 0.5f) * WALL_HALF_SIZE);
+			
+			RigidBody body;
+			if (projectiles.size() < maxProjectiles) {
+				body = localCreateRigidBody(0.05f, tmpTrans, projectileShape);
+				body.setGravity(zero);
+				if (continuous) {
+					body.setCcdMotionThreshold(PROJECTILE_RADIUS);
+					body.setCcdSweptSphereRadius(0.8f * PROJECTILE_RADIUS);
+				}
+				projectiles.add(body);
+			}
+			else {
+				body = projectiles.get(nextRecycled);
+				nextRecycled = (nextRecycled + 1) % maxProjectiles;
+				
+				fired++;
+				if (body.getWorldTransform().origin.x > WALL_HALF_THICKNESS) {
+					tunneled++;
+				}
+				
+				body.setCenterOfMassTransform(tmpTrans);
+				body.setAngularVelocity(zero);
+				body.activate();
+			}
+			
+			velocity.set(SPEED, 0f, 0f);
+			body.setLinearVelocity(velocity);
+		}
+		
+		super.step();
+	}
+	
+}
@@ -0,0 +1,93 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Square pyramid of boxes standing on a ground box. Boxes are kept awake, so
+ * all contacts are processed in every step.
+ * 
+ * @author jezek2
+ */
+public class PyramidScene extends BenchmarkScene {
+
+	private final int size;
+	private final int solverMode;
+	private final CollisionShape shape;
+
+	/**
+	 * @param size number of boxes along the bottom edge, 14 gives 1015 boxes
+	 * @param solverMode solver mode, see {@link javabullet.dynamics.constraintsolver.SolverMode}
+	 */
+	public PyramidScene(int size, int solverMode) {
+		this(size, solverMode, new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)));
+	}
+
+	/**
+	 * @param size number of boxes along the bottom edge, 14 gives 1015 boxes
+	 * @param solverMode solver mode, see {@link javabullet.dynamics.constraintsolver.SolverMode}
+	 * @param shape shape used instead of boxes, should fit into unit cube
+	 */
+	public PyramidScene(int size, int solverMode, CollisionShape shape) {
+		this.size = size;
+		this.solverMode = solverMode;
+		this.shape = shape;
+	}
+
+	@Override
+	public String getName() {
+		return "pyramid";
+	}
+
+	@Override
+	protected void initScene() {
+		((SequentialImpulseConstraintSolver)dynamicsWorld.getConstraintSolver()).setSolverMode(solverMode);
+		
+		Transform startTransform = new Transform();
+		startTransform.setIdentity();
+		startTransform.origin.set(0f, -1f, 0f);
+		localCreateRigidBody(0f, startTransform, new BoxShape(new Vector3f(100f, 1f, 100f)));
+
+		for (int level=0; level<size; level++) {
+			int levelSize = size - level;
+			float offset = -0.5f * (levelSize - 1);
+			for (int x=0; x<levelSize; x++) {
+				for (int z=0; z<levelSize; z++) {
+					startTransform.origin.set(offset + x, 0.5f + level, offset + z);
+					RigidBody body = localCreateRigidBody(1f, startTransform, shape);
+					// keep the pyramid awake, so the solver has work to do in every step
+					body.setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.shapes.BoxShape;
+import javabullet.demos.genericjoint.RagDoll;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Ragdolls from the generic joint demo dropped on top of each other, stresses
+ * the solver with many joints and contacts between capsules.
+ * 
+ * @author jezek2
+ */
+public class RagDollPileScene extends BenchmarkScene {
+
+	private final int columns;
+	private final int levels;
+
+	/**
+	 * @param columns number of ragdoll columns along each horizontal axis
+	 * @param levels number of ragdolls in each column
+	 */
+	public RagDollPileScene(int columns, int levels) {
+		this.columns = columns;
+		this.levels = levels;
+	}
+
+	@Override
+	public String getName() {
+		return "ragdoll-pile";
+	}
+
+	@Override
+	protected void initScene() {
+		Transform groundTransform = new Transform();
+		groundTransform.setIdentity();
+		groundTransform.origin.set(0f, -10f, 0f);
+		localCreateRigidBody(0f, groundTransform, new BoxShape(new Vector3f(200f, 10f, 200f)));
+
+		Vector3f offset = new Vector3f();
+		for (int y=0; y<levels; y++) {
+			for (int x=0; x<columns; x++) {
+				for (int z=0; z<columns; z++) {
+					// slightly shifted, so the ragdolls don't land exactly on each other
+					offset.set(x * 1.2f + (y & 1) * 0.3f, 0.5f + y * 2.2f, z * 1.2f);
+					new RagDoll(dynamicsWorld, offset);
+				}
+			}
+		}
+	}
+	
+}
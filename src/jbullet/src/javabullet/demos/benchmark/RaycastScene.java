@@ -0,0 +1,170 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.dispatch.BatchedRayQuery;
+import javabullet.collision.dispatch.CollisionWorld.ClosestRayResultCallback;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Batch of vertical rays cast in a grid over a field of resting boxes and
+ * spheres after each simulation step, timed as {@link BenchmarkStage#RAYCAST}.
+ * Rays are cast either one by one, or using {@link BatchedRayQuery}.
+ * 
+ * @author jezek2
+ */
+public class RaycastScene extends BenchmarkScene {
+
+	private static final int FIELD_SIZE = 20;
+	
+	private final int raysPerAxis;
+	private final boolean batched;
+	private final Vector3f rayFrom = new Vector3f();
+	private final Vector3f rayTo = new Vector3f();
+	private final ClosestRayResultCallback rayCallback = new ClosestRayResultCallback(rayFrom, rayTo);
+	private int hits;
+
+	private BatchedRayQuery rayQuery;
+	private float[] batchFrom;
+	private float[] batchTo;
+	private float[] hitFractions;
+
+	/**
+	 * @param raysPerAxis rays are cast in raysPerAxis * raysPerAxis grid
+	 * @param batched use {@link BatchedRayQuery} to cast the rays
+	 */
+	public RaycastScene(int raysPerAxis, boolean batched) {
+		this.raysPerAxis = raysPerAxis;
+		this.batched = batched;
+	}
+
+	@Override
+	public String getName() {
+		return batched? "raycast-batch" : "raycast";
+	}
+
+	/**
+	 * Returns number of rays that hit something in the last step.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	@Override
+	protected void initScene() {
+		Transform startTransform = new Transform();
+		startTransform.setIdentity();
+		startTransform.origin.set(0f, -1f, 0f);
+		localCreateRigidBody(0f, startTransform, new BoxShape(new Vector3f(100f, 1f, 100f)));
+
+		CollisionShape boxShape = new BoxShape(new Vector3f(0.4f, 0.4f, 0.4f));
+		CollisionShape sphereShape = new SphereShape(0.4f);
+		for (int x=0; x<FIELD_SIZE; x++) {
+			for (int z=0; z<FIELD_SIZE; z++) {
+				startTransform.origin.set((x - FIELD_SIZE / 2) * 2f, 0.4f, (z - FIELD_SIZE / 2) * 2f);
+				localCreateRigidBody(1f, startTransform, ((x + z) & 1) == 0? boxShape : sphereShape);
+			}
+		}
+
+		if (batched) {
+			int numRays = raysPerAxis * raysPerAxis;
+			rayQuery = new BatchedRayQuery(dynamicsWorld);
+			batchFrom = new float[numRays * 3];
+			batchTo = new float[numRays * 3];
+			hitFractions = new float[numRays];
+		}
+	}
+
+	@Override
+	public void step() {
+		super.step();
+		
+		long t0 = System.nanoTime();
+		
+		if (batched) {
+			castRaysBatched();
+		}
+		else {
+			castRays();
+		}
+		
+		dynamicsWorld.addStageTime(BenchmarkStage.RAYCAST, System.nanoTime() - t0);
+	}
+	
+	private void castRays() {
+		float extent = FIELD_SIZE * 2f;
+		float spacing = extent / raysPerAxis;
+		hits = 0;
+		for (int i=0; i<raysPerAxis; i++) {
+			for (int j=0; j<raysPerAxis; j++) {
+				float x = -0.5f * extent + (i + 0.5f) * spacing;
+				float z = -0.5f * extent + (j + 0.5f) * spacing;
+				rayFrom.set(x, 10f, z);
+				rayTo.set(x, -10f, z);
+
+				rayCallback.rayFromWorld.set(rayFrom);
+				rayCallback.rayToWorld.set(rayTo);
+				rayCallback.closestHitFraction = 1f;
+				rayCallback.collisionObject = null;
+				dynamicsWorld.rayTest(rayFrom, rayTo, rayCallback);
+				if (rayCallback.hasHit()) {
+					hits++;
+				}
+			}
+		}
+	}
+	
+	private void castRaysBatched() {
+		float extent = FIELD_SIZE * 2f;
+		float spacing = extent / raysPerAxis;
+		int numRays = 0;
+		for (int i=0; i<raysPerAxis; i++) {
+			for (int j=0; j<raysPerAxis; j++) {
+				float x = -0.5f * extent + (i + 0.5f) * spacing;
+				float z = -0.5f * extent + (j + 0.5f) * spacing;
+				batchFrom[numRays*3+0] = x;
+				batchFrom[numRays*3+1] = 10f;
+				batchFrom[numRays*3+2] = z;
+				batchTo[numRays*3+0] = x;
+				batchTo[numRays*3+1] = -10f;
+				batchTo[numRays*3+2] = z;
+				numRays++;
+			}
+		}
+
+		rayQuery.rayTest(batchFrom, batchTo, numRays, hitFractions, null, null);
+
+		hits = 0;
+		for (int i=0; i<numRays; i++) {
+			if (hitFractions[i] < 1f) {
+				hits++;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,199 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.dynamics.DynamicsWorld;
+import javabullet.linearmath.Transform;
+
+/**
+ * Measures size of world snapshots and time of writing and restoring them
+ * ({@link DynamicsWorld#writeSnapshot}, {@link DynamicsWorld#readSnapshot}). After
+ * restoring, the scene is stepped again and checked to reproduce the same transforms
+ * as after writing the snapshot.<p>
+ * 
+ * Scenes adding bodies during stepping (sphere-rain, projectile) are stepped only
+ * by the world after warm up, as snapshots require the same set of objects.<p>
+ * 
+ * Usage: SnapshotBenchmark [-warmup steps] [-steps steps] [-rounds count] [scene...]<br>
+ * Scenes: pyramid, ragdoll-pile, compound, sphere-rain (all by default).
+ * 
+ * @author jezek2
+ */
+public class SnapshotBenchmark {
+	
+	private static final int ITERATIONS = 100;
+	
+	private int warmupSteps = 300;
+	private int steps = 60;
+	private int rounds = 5;
+	
+	private final AllocationCounter allocationCounter = new AllocationCounter();
+	
+	public static void main(String[] args) {
+		SnapshotBenchmark benchmark = new SnapshotBenchmark();
+		List<String> sceneNames = new ArrayList<String>();
+		
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-warmup") && i+1 < args.length) {
+				benchmark.warmupSteps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-steps") && i+1 < args.length) {
+				benchmark.steps = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-rounds") && i+1 < args.length) {
+				benchmark.rounds = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].startsWith("-")) {
+				System.err.println("Usage: SnapshotBenchmark [-warmup steps] [-steps steps] [-rounds count] [scene...]");
+				System.exit(1);
+			}
+			else {
+				sceneNames.add(args[i]);
+			}
+		}
+		
+		if (sceneNames.isEmpty()) {
+			sceneNames.add("pyramid");
+			sceneNames.add("ragdoll-pile");
+			sceneNames.add("compound");
+			sceneNames.add("sphere-rain");
+		}
+		
+		System.out.println("scene          bodies  size KB  write ms  restore ms  rollback ms  restore alloc KB  replay");
+		for (String name : sceneNames) {
+			BenchmarkScene scene = PhysicsBenchmark.createScene(name);
+			if (scene == null) {
+				System.err.println("Unknown scene: " + name);
+				System.exit(1);
+			}
+			benchmark.run(scene);
+		}
+	}
+	
+	public void run(BenchmarkScene scene) {
+		scene.init();
+		DynamicsWorld world = scene.getDynamicsWorld();
+		for (int i=0; i<warmupSteps; i++) {
+			scene.step();
+		}
+		
+		int size = world.calculateSnapshotSize();
+		ByteBuffer buf = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		
+		long bestWrite = Long.MAX_VALUE;
+		for (int r=0; r<rounds; r++) {
+			long t0 = System.nanoTime();
+			for (int i=0; i<ITERATIONS; i++) {
+				buf.clear();
+				world.writeSnapshot(buf);
+			}
+			bestWrite = Math.min(bestWrite, System.nanoTime() - t0);
+		}
+		
+		long[] hashes = new long[steps];
+		for (int i=0; i<steps; i++) {
+			world.stepSimulation(BenchmarkScene.TIME_STEP, 0);
+			hashes[i] = hashTransforms(world);
+		}
+		
+		// restore after the simulation diverged (pairs and contacts changed)
+		long bestRestore = Long.MAX_VALUE;
+		long restoreAllocated = 0L;
+		boolean replayed = true;
+		for (int r=0; r<rounds; r++) {
+			buf.clear();
+			long allocated0 = allocationCounter.getAllocatedBytes();
+			long t0 = System.nanoTime();
+			world.readSnapshot(buf);
+			bestRestore = Math.min(bestRestore, System.nanoTime() - t0);
+			restoreAllocated = allocationCounter.getAllocatedBytes() - allocated0;
+			
+			for (int i=0; i<steps; i++) {
+				world.stepSimulation(BenchmarkScene.TIME_STEP, 0);
+				if (hashTransforms(world) != hashes[i]) {
+					replayed = false;
+				}
+			}
+		}
+		
+		// restore of unchanged world, as in repeated rollback to the same frame
+		long bestRollback = Long.MAX_VALUE;
+		for (int r=0; r<rounds; r++) {
+			long t0 = System.nanoTime();
+			for (int i=0; i<ITERATIONS; i++) {
+				buf.clear();
+				world.readSnapshot(buf);
+			}
+			bestRollback = Math.min(bestRollback, System.nanoTime() - t0);
+		}
+		
+		System.out.println(pad(scene.getName(), -14) +
+				pad(String.valueOf(world.getNumCollisionObjects()), 7) +
+				pad(String.format("%.1f", size / 1024.0), 9) +
+				pad(String.format("%.3f", bestWrite / 1e6 / ITERATIONS), 10) +
+				pad(String.format("%.3f", bestRestore / 1e6), 12) +
+				pad(String.format("%.3f", bestRollback / 1e6 / ITERATIONS), 13) +
+				pad(allocationCounter.isSupported()? String.format("%.1f", restoreAllocated / 1024.0) : "n/a", 18) +
+				pad(replayed? "exact" : "DIVERGED", 8));
+	}
+	
+	private static long hashTransforms(DynamicsWorld world) {
+		long hash = 0L;
+		List<CollisionObject> objects = world.getCollisionObjectArray();
+		for (int i=0; i<objects.size(); i++) {
+			Transform trans = objects.get(i).getWorldTransform();
+			hash = hash*31 + Float.floatToIntBits(trans.origin.x);
+			hash = hash*31 + Float.floatToIntBits(trans.origin.y);
+			hash = hash*31 + Float.floatToIntBits(trans.origin.z);
+			hash = hash*31 + Float.floatToIntBits(trans.basis.m01);
+		}
+		return hash;
+	}
+	
+	/**
+	 * Pads string to given width, negative width aligns to the left.
+	 */
+	private static String pad(String s, int width) {
+		boolean left = width < 0;
+		width = Math.abs(width);
+		StringBuilder sb = new StringBuilder(width);
+		if (left) {
+			sb.append(s);
+		}
+		for (int i=s.length(); i<width; i++) {
+			sb.append(' ');
+		}
+		if (!left) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+	
+}
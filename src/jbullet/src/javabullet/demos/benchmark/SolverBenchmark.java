@@ -0,0 +1,169 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javabullet.collision.broadphase.Dispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.narrowphase.PersistentManifold;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.dynamics.constraintsolver.SolverMode;
+import javabullet.linearmath.Transform;
+
+/**
+ * Compares the cache friendly solver iterating over pooled objects with the
+ * struct of arrays variant ({@link SolverMode#SOLVER_STRUCT_OF_ARRAYS}) and the
+ * batched variant ({@link SolverMode#SOLVER_PARALLEL_BATCHES}) solved on one and
+ * on given number of threads, on a pyramid of 1015 boxes (single island). Only
+ * time spent in solving constraints is measured, all scenes are stepped alternately
+ * so they get the same JIT treatment. Solution quality is compared by the deepest
+ * penetration and mean speed of the (resting) boxes.<p>
+ * 
+ * Usage: SolverBenchmark [rounds] [steps per round] [threads]
+ * 
+ * @author jezek2
+ */
+public class SolverBenchmark {
+	
+	private static final int PYRAMID_SIZE = 14; // 14*14 + 13*13 + ... + 1 = 1015 boxes
+	
+	public static void main(String[] args) {
+		int rounds = args.length > 0? Integer.parseInt(args[0]) : 10;
+		int steps = args.length > 1? Integer.parseInt(args[1]) : 60;
+		int threads = args.length > 2? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		
+		int defaultMode = SolverMode.SOLVER_RANDMIZE_ORDER | SolverMode.SOLVER_CACHE_FRIENDLY;
+		String[] names = new String[] { "objects", "packed", "batched", "batched/" + threads };
+		PyramidScene[] scenes = new PyramidScene[] {
+			new PyramidScene(PYRAMID_SIZE, defaultMode),
+			new PyramidScene(PYRAMID_SIZE, defaultMode | SolverMode.SOLVER_STRUCT_OF_ARRAYS),
+			new PyramidScene(PYRAMID_SIZE, defaultMode | SolverMode.SOLVER_PARALLEL_BATCHES),
+			new PyramidScene(PYRAMID_SIZE, defaultMode | SolverMode.SOLVER_PARALLEL_BATCHES),
+		};
+		for (int i=0; i<scenes.length; i++) {
+			scenes[i].init();
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads - 1), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "solver worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		((SequentialImpulseConstraintSolver)scenes[3].getDynamicsWorld().getConstraintSolver()).setParallelBatchSolver(executor, threads);
+		
+		System.out.println("boxes: " + (scenes[0].getDynamicsWorld().getNumCollisionObjects() - 1));
+		
+		// let contacts settle
+		for (int i=0; i<steps; i++) {
+			for (int j=0; j<scenes.length; j++) {
+				scenes[j].step();
+			}
+		}
+		
+		long[] best = new long[scenes.length];
+		for (int j=0; j<scenes.length; j++) {
+			best[j] = Long.MAX_VALUE;
+		}
+		
+		for (int r=0; r<rounds; r++) {
+			for (int j=0; j<scenes.length; j++) {
+				scenes[j].getDynamicsWorld().resetTimes();
+			}
+			
+			for (int i=0; i<steps; i++) {
+				for (int j=0; j<scenes.length; j++) {
+					scenes[j].step();
+				}
+			}
+			
+			StringBuilder sb = new StringBuilder();
+			sb.append("round ").append(r).append(":");
+			for (int j=0; j<scenes.length; j++) {
+				long time = scenes[j].getDynamicsWorld().getStageTime(BenchmarkStage.SOLVER);
+				best[j] = Math.min(best[j], time);
+				sb.append(j == 0? " " : ", ").append(names[j]).append(" ").append(format(time, steps)).append(" ms/step");
+			}
+			System.out.println(sb);
+		}
+		
+		for (int j=0; j<scenes.length; j++) {
+			DiscreteDynamicsWorld world = scenes[j].getDynamicsWorld();
+			System.out.println(String.format("%-12s best %s ms/step, speedup %.2f, max penetration %.4f, mean speed %.4f",
+					names[j], format(best[j], steps), (double)best[0] / best[j], maxPenetration(world), meanSpeed(world)));
+		}
+		System.out.println("identical results (objects, packed): " + sameState(scenes[0].getDynamicsWorld(), scenes[1].getDynamicsWorld()));
+		System.out.println("identical results (batched, batched/" + threads + "): " + sameState(scenes[2].getDynamicsWorld(), scenes[3].getDynamicsWorld()));
+		
+		executor.shutdown();
+	}
+	
+	private static boolean sameState(DiscreteDynamicsWorld world0, DiscreteDynamicsWorld world1) {
+		for (int i=0; i<world0.getNumCollisionObjects(); i++) {
+			CollisionObject obj0 = world0.getCollisionObjectArray().get(i);
+			CollisionObject obj1 = world1.getCollisionObjectArray().get(i);
+			Transform t0 = obj0.getWorldTransform();
+			Transform t1 = obj1.getWorldTransform();
+			if (!t0.origin.equals(t1.origin) || !t0.basis.equals(t1.basis)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static float maxPenetration(DiscreteDynamicsWorld world) {
+		Dispatcher dispatcher = world.getDispatcher();
+		float max = 0f;
+		for (int i=0; i<dispatcher.getNumManifolds(); i++) {
+			PersistentManifold manifold = dispatcher.getManifoldByIndexInternal(i);
+			for (int j=0; j<manifold.getNumContacts(); j++) {
+				max = Math.max(max, -manifold.getContactPoint(j).getDistance());
+			}
+		}
+		return max;
+	}
+	
+	private static float meanSpeed(DiscreteDynamicsWorld world) {
+		float sum = 0f;
+		int count = 0;
+		for (int i=0; i<world.getNumCollisionObjects(); i++) {
+			RigidBody body = RigidBody.upcast(world.getCollisionObjectArray().get(i));
+			if (body != null && body.getInvMass() != 0f) {
+				sum += body.getLinearVelocity().length();
+				count++;
+			}
+		}
+		return count > 0? sum / count : 0f;
+	}
+	
+	private static String format(long nanos, int steps) {
+		return String.format("%.3f", nanos / 1e6 / steps);
+	}
+	
+}
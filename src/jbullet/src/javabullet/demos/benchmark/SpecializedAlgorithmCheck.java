@@ -0,0 +1,177 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import javabullet.collision.broadphase.SimpleBroadphase;
+import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.CollisionWorld;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.RigidBodyConstructionInfo;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Checks the specialized sphere-box algorithm registered in {@link DefaultCollisionConfiguration}
+ * with both orders of bodies in the pair:
+ * 
+ * <ul>
+ * <li>sphere dropped on a static box must rest on top of the box</li>
+ * <li>contact of a sphere moved away from the box must be removed, while the
+ * bounding boxes still overlap</li>
+ * </ul>
+ * 
+ * {@link SimpleBroadphase} is used, as it creates pairs in the order the objects were
+ * added to the world.<p>
+ * 
+ * Exits with status 1 when any check fails.<p>
+ * 
+ * Usage: SpecializedAlgorithmCheck
+ * 
+ * @author jezek2
+ */
+public class SpecializedAlgorithmCheck {
+	
+	private static final float RADIUS = 0.5f;
+	private static final float BOX_TOP = 1f;
+	private static final float TOLERANCE = 0.05f;
+	
+	private static boolean failed = false;
+	
+	public static void main(String[] args) {
+		for (int i=0; i<2; i++) {
+			boolean boxFirst = (i == 0);
+			String order = boxFirst? "box-sphere" : "sphere-box";
+			
+			float y = dropSphereOnBox(boxFirst);
+			check(Math.abs(y - (BOX_TOP + RADIUS)) < TOLERANCE, order + " resting height " + y + ", expected " + (BOX_TOP + RADIUS));
+			
+			int contacts = separateSphereFromBox(boxFirst);
+			check(contacts == 0, order + " contacts after separation " + contacts + ", expected 0");
+		}
+		
+		if (failed) {
+			System.exit(1);
+		}
+	}
+	
+	private static void check(boolean ok, String message) {
+		System.out.println((ok? "OK    " : "FAIL  ") + message);
+		if (!ok) {
+			failed = true;
+		}
+	}
+	
+	private static float dropSphereOnBox(boolean boxFirst) {
+		CollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		SimpleBroadphase broadphase = new SimpleBroadphase();
+		DiscreteDynamicsWorld world = new DiscreteDynamicsWorld(dispatcher, broadphase, new SequentialImpulseConstraintSolver(), collisionConfiguration);
+		world.setGravity(new Vector3f(0f, -10f, 0f));
+		
+		Transform trans = new Transform();
+		trans.setIdentity();
+		trans.origin.set(0f, BOX_TOP - 0.5f, 0f);
+		RigidBody box = createBody(0f, trans, new BoxShape(new Vector3f(2f, 0.5f, 2f)));
+		
+		trans.origin.set(0.3f, BOX_TOP + 2f, -0.2f);
+		RigidBody sphere = createBody(1f, trans, new SphereShape(RADIUS));
+		
+		if (boxFirst) {
+			world.addRigidBody(box);
+			world.addRigidBody(sphere);
+		}
+		else {
+			world.addRigidBody(sphere);
+			world.addRigidBody(box);
+		}
+		
+		for (int i=0; i<180; i++) {
+			world.stepSimulation(1f / 60f, 0);
+		}
+		return sphere.getWorldTransform().origin.y;
+	}
+	
+	private static RigidBody createBody(float mass, Transform startTransform, CollisionShape shape) {
+		Vector3f localInertia = new Vector3f(0f, 0f, 0f);
+		if (mass != 0f) {
+			shape.calculateLocalInertia(mass, localInertia);
+		}
+		return new RigidBody(new RigidBodyConstructionInfo(mass, new DefaultMotionState(startTransform), shape, localInertia));
+	}
+	
+	/**
+	 * Pushes sphere into the box corner, then moves it away so its bounding box still
+	 * overlaps the box. Returns number of contacts left in the manifolds.
+	 */
+	private static int separateSphereFromBox(boolean boxFirst) {
+		CollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+		CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+		SimpleBroadphase broadphase = new SimpleBroadphase();
+		CollisionWorld world = new CollisionWorld(dispatcher, broadphase, collisionConfiguration);
+		
+		CollisionObject box = new CollisionObject();
+		box.setCollisionShape(new BoxShape(new Vector3f(1f, 1f, 1f)));
+		box.getWorldTransform().setIdentity();
+		
+		CollisionObject sphere = new CollisionObject();
+		sphere.setCollisionShape(new SphereShape(RADIUS));
+		sphere.getWorldTransform().setIdentity();
+		sphere.getWorldTransform().origin.set(1.2f, 1.2f, 1.2f);
+		
+		if (boxFirst) {
+			world.addCollisionObject(box);
+			world.addCollisionObject(sphere);
+		}
+		else {
+			world.addCollisionObject(sphere);
+			world.addCollisionObject(box);
+		}
+		
+		world.performDiscreteCollisionDetection();
+		check(countContacts(dispatcher) > 0, (boxFirst? "box-sphere" : "sphere-box") + " penetrating contact found");
+		
+		sphere.getWorldTransform().origin.set(1.4f, 1.4f, 1.4f);
+		world.performDiscreteCollisionDetection();
+		return countContacts(dispatcher);
+	}
+	
+	private static int countContacts(CollisionDispatcher dispatcher) {
+		int count = 0;
+		for (int i=0; i<dispatcher.getNumManifolds(); i++) {
+			count += dispatcher.getManifoldByIndexInternal(i).getNumContacts();
+		}
+		return count;
+	}
+	
+}
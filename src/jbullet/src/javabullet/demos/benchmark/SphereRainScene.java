@@ -0,0 +1,187 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.demos.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javabullet.collision.shapes.BvhTriangleMeshShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.HeightfieldTerrainShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.collision.shapes.TriangleIndexVertexArray;
+import javabullet.dynamics.RigidBody;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Spheres continuously falling on a wavy {@link BvhTriangleMeshShape} or
+ * {@link HeightfieldTerrainShape} terrain. When all spheres are spawned, the
+ * oldest ones are moved back to the top, so the number of bodies and contacts
+ * stays steady.
+ * 
+ * @author jezek2
+ */
+public class SphereRainScene extends BenchmarkScene {
+	
+	private static final int NUM_VERTS_X = 64;
+	private static final int NUM_VERTS_Z = 64;
+	private static final float TRIANGLE_SIZE = 1f;
+	private static final float SPAWN_HEIGHT = 20f;
+	
+	private final int maxSpheres;
+	private final int spheresPerStep;
+	private final boolean heightfield;
+	private final List<RigidBody> spheres = new ArrayList<RigidBody>();
+	private final Random random = new Random(1L);
+	private final Transform tmpTrans = new Transform();
+	private final Vector3f zero = new Vector3f(0f, 0f, 0f);
+	private CollisionShape sphereShape;
+	private int nextRecycled;
+
+	public SphereRainScene(int maxSpheres, int spheresPerStep) {
+		this(maxSpheres, spheresPerStep, false);
+	}
+
+	/**
+	 * @param heightfield use {@link HeightfieldTerrainShape} instead of triangle mesh for the terrain
+	 */
+	public SphereRainScene(int maxSpheres, int spheresPerStep, boolean heightfield) {
+		this.maxSpheres = maxSpheres;
+		this.spheresPerStep = spheresPerStep;
+		this.heightfield = heightfield;
+	}
+
+	@Override
+	public String getName() {
+		return heightfield? "sphere-rain-hf" : "sphere-rain";
+	}
+
+	private static float getTerrainHeight(int i, int j) {
+		return 2f * (float)Math.sin(i * 0.2f) * (float)Math.cos(j * 0.2f);
+	}
+
+	@Override
+	protected void initScene() {
+		if (heightfield) {
+			initHeightfieldTerrain();
+		}
+		else {
+			initMeshTerrain();
+		}
+		
+		sphereShape = new SphereShape(0.3f);
+	}
+
+	private void initMeshTerrain() {
+		int vertStride = 4 * 3 /* sizeof(btVector3) */;
+		int indexStride = 3 * 4 /* 3*sizeof(int) */;
+
+		int totalVerts = NUM_VERTS_X * NUM_VERTS_Z;
+		int totalTriangles = 2 * (NUM_VERTS_X - 1) * (NUM_VERTS_Z - 1);
+
+		ByteBuffer vertices = ByteBuffer.allocateDirect(totalVerts * vertStride).order(ByteOrder.nativeOrder());
+		ByteBuffer indices = ByteBuffer.allocateDirect(totalTriangles * indexStride).order(ByteOrder.nativeOrder());
+
+		for (int i = 0; i < NUM_VERTS_X; i++) {
+			for (int j = 0; j < NUM_VERTS_Z; j++) {
+				float height = getTerrainHeight(i, j);
+				int index = i + j * NUM_VERTS_X;
+				vertices.putFloat((index * 3 + 0) * 4, (i - NUM_VERTS_X * 0.5f) * TRIANGLE_SIZE);
+				vertices.putFloat((index * 3 + 1) * 4, height);
+				vertices.putFloat((index * 3 + 2) * 4, (j - NUM_VERTS_Z * 0.5f) * TRIANGLE_SIZE);
+			}
+		}
+
+		for (int i = 0; i < NUM_VERTS_X - 1; i++) {
+			for (int j = 0; j < NUM_VERTS_Z - 1; j++) {
+				indices.putInt(j * NUM_VERTS_X + i);
+				indices.putInt(j * NUM_VERTS_X + i + 1);
+				indices.putInt((j + 1) * NUM_VERTS_X + i + 1);
+
+				indices.putInt(j * NUM_VERTS_X + i);
+				indices.putInt((j + 1) * NUM_VERTS_X + i + 1);
+				indices.putInt((j + 1) * NUM_VERTS_X + i);
+			}
+		}
+		indices.flip();
+
+		TriangleIndexVertexArray indexVertexArrays = new TriangleIndexVertexArray(totalTriangles, indices, indexStride, totalVerts, vertices, vertStride);
+		CollisionShape terrainShape = new BvhTriangleMeshShape(indexVertexArrays, true);
+
+		tmpTrans.setIdentity();
+		localCreateRigidBody(0f, tmpTrans, terrainShape);
+	}
+
+	private void initHeightfieldTerrain() {
+		float[] heights = new float[NUM_VERTS_X * NUM_VERTS_Z];
+		for (int i = 0; i < NUM_VERTS_X; i++) {
+			for (int j = 0; j < NUM_VERTS_Z; j++) {
+				heights[i + j * NUM_VERTS_X] = getTerrainHeight(i, j);
+			}
+		}
+
+		HeightfieldTerrainShape terrainShape = new HeightfieldTerrainShape(NUM_VERTS_X, NUM_VERTS_Z, heights);
+		terrainShape.setLocalScaling(new Vector3f(TRIANGLE_SIZE, 1f, TRIANGLE_SIZE));
+		terrainShape.buildMinMaxPyramid();
+
+		// heightfield is centered, place it where the mesh terrain is
+		terrainShape.getVertex(0, 0, tmpTrans.origin);
+		tmpTrans.origin.scale(-1f);
+		tmpTrans.origin.x -= NUM_VERTS_X * 0.5f * TRIANGLE_SIZE;
+		tmpTrans.origin.y += getTerrainHeight(0, 0);
+		tmpTrans.origin.z -= NUM_VERTS_Z * 0.5f * TRIANGLE_SIZE;
+		tmpTrans.basis.setIdentity();
+		localCreateRigidBody(0f, tmpTrans, terrainShape);
+	}
+
+	@Override
+	public void step() {
+		for (int i=0; i<spheresPerStep; i++) {
+			tmpTrans.setIdentity();
+			tmpTrans.origin.set(
+					(random.nextFloat() - 0.5f) * (NUM_VERTS_X - 8) * TRIANGLE_SIZE,
+					SPAWN_HEIGHT + random.nextFloat() * 5f,
+					(random.nextFloat() - 0.5f) * (NUM_VERTS_Z - 8) * TRIANGLE_SIZE);
+			
+			if (spheres.size() < maxSpheres) {
+				spheres.add(localCreateRigidBody(1f, tmpTrans, sphereShape));
+			}
+			else {
+				RigidBody body = spheres.get(nextRecycled);
+				nextRecycled = (nextRecycled + 1) % maxSpheres;
+				
+				body.setCenterOfMassTransform(tmpTrans);
+				body.setLinearVelocity(zero);
+				body.setAngularVelocity(zero);
+				body.activate();
+			}
+		}
+		
+		super.step();
+	}
+	
+}
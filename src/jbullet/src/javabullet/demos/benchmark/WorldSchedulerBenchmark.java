@@ -0,0 +1,430 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.demos.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import javabullet.BulletGlobals;
+import javabullet.collision.broadphase.DbvtBroadphase;
+import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.collision.dispatch.CollisionDispatcher;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.collision.dispatch.DefaultCollisionConfiguration;
+import javabullet.collision.shapes.BoxShape;
+import javabullet.collision.shapes.CollisionShape;
+import javabullet.collision.shapes.SphereShape;
+import javabullet.dynamics.DiscreteDynamicsWorld;
+import javabullet.dynamics.DynamicsWorld;
+import javabullet.dynamics.RigidBody;
+import javabullet.dynamics.RigidBodyConstructionInfo;
+import javabullet.dynamics.WorldScheduler;
+import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Steps many small independent worlds per tick, like a game server running one
+ * world per match. Compares stepping the worlds sequentially, by own thread per
+ * world (synchronized by barriers) and by {@link WorldScheduler}. Reports time
+ * of the tick, percentiles of step durations of single worlds, number of ticks
+ * over the budget and throughput. Transforms of all worlds are compared with
+ * the sequential run, as stepping by different threads must not change the results.<p>
+ * 
+ * Each world has stacks of boxes and falling spheres, random bodies are pushed
+ * between the ticks so the worlds don't fall asleep.<p>
+ * 
+ * Usage: WorldSchedulerBenchmark [-worlds count] [-bodies count] [-threads count]
+ * [-warmup ticks] [-ticks ticks] [-budget ms] [mode...]<br>
+ * Modes: sequential, thread-per-world, scheduler (all by default).
+ * 
+ * @author jezek2
+ */
+public class WorldSchedulerBenchmark {
+	
+	private static final float TIME_STEP = 1f / 60f;
+	private static final int PUSH_INTERVAL = 60;
+	
+	private int numWorlds = 500;
+	private int numBodies = 50;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int warmupTicks = 120;
+	private int ticks = 300;
+	private float budget = 1000f / 60f;
+	
+	// shapes are shared by all worlds
+	private final CollisionShape groundShape = new BoxShape(new Vector3f(20f, 1f, 20f));
+	private final CollisionShape boxShape = new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f));
+	private final CollisionShape sphereShape = new SphereShape(0.4f);
+	
+	private World[] worlds;
+	private long[] stepTimes;
+	private long[] tickTimes;
+	private long referenceHash;
+	
+	public static void main(String[] args) throws Exception {
+		WorldSchedulerBenchmark benchmark = new WorldSchedulerBenchmark();
+		String[] modes = null;
+		
+		int i;
+		for (i=0; i<args.length; i++) {
+			if (args[i].equals("-worlds") && i+1 < args.length) {
+				benchmark.numWorlds = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-bodies") && i+1 < args.length) {
+				benchmark.numBodies = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-threads") && i+1 < args.length) {
+				benchmark.numThreads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-warmup") && i+1 < args.length) {
+				benchmark.warmupTicks = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-ticks") && i+1 < args.length) {
+				benchmark.ticks = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-budget") && i+1 < args.length) {
+				benchmark.budget = Float.parseFloat(args[++i]);
+			}
+			else if (args[i].startsWith("-")) {
+				System.err.println("Usage: WorldSchedulerBenchmark [-worlds count] [-bodies count] [-threads count] [-warmup ticks] [-ticks ticks] [-budget ms] [mode...]");
+				System.exit(1);
+			}
+			else {
+				break;
+			}
+		}
+		
+		if (i < args.length) {
+			modes = new String[args.length - i];
+			System.arraycopy(args, i, modes, 0, modes.length);
+		}
+		else {
+			modes = new String[] { "sequential", "thread-per-world", "scheduler" };
+		}
+		
+		// profiler is per thread, it would mix steps of different worlds
+		BulletGlobals.setProfilingEnabled(false);
+		
+		System.out.println(benchmark.numWorlds + " worlds x " + benchmark.numBodies + " bodies, " + benchmark.ticks + " ticks, budget " + String.format("%.2f", benchmark.budget) + " ms");
+		System.out.println("mode              threads  tick avg  tick max  step p50  step p99  step max  overruns  steps/s  result");
+		System.out.println("                                 ms        ms        us        us        us");
+		
+		for (String mode : modes) {
+			if (mode.equals("sequential")) {
+				benchmark.runSequential();
+			}
+			else if (mode.equals("thread-per-world")) {
+				benchmark.runThreadPerWorld();
+			}
+			else if (mode.equals("scheduler")) {
+				benchmark.runScheduler();
+			}
+			else {
+				System.err.println("Unknown mode: " + mode);
+				System.exit(1);
+			}
+		}
+	}
+	
+	private void initWorlds() {
+		// release worlds of the previous mode first
+		worlds = null;
+		System.gc();
+		
+		worlds = new World[numWorlds];
+		for (int i=0; i<numWorlds; i++) {
+			worlds[i] = new World(i);
+		}
+		stepTimes = new long[numWorlds * ticks];
+		tickTimes = new long[ticks];
+	}
+	
+	private void pushBodies(int tick) {
+		for (int i=0; i<numWorlds; i++) {
+			// spread the pushes of different worlds over the interval
+			if ((tick + i) % PUSH_INTERVAL == 0) {
+				worlds[i].push();
+			}
+		}
+	}
+	
+	private void runSequential() {
+		initWorlds();
+		
+		for (int t=-warmupTicks; t<ticks; t++) {
+			pushBodies(t);
+			long t0 = System.nanoTime();
+			for (int i=0; i<numWorlds; i++) {
+				worlds[i].step(t);
+			}
+			if (t >= 0) {
+				tickTimes[t] = System.nanoTime() - t0;
+			}
+		}
+		
+		report("sequential", 1);
+	}
+	
+	private void runThreadPerWorld() throws InterruptedException, BrokenBarrierException {
+		initWorlds();
+		
+		final CyclicBarrier startBarrier = new CyclicBarrier(numWorlds + 1);
+		final CyclicBarrier endBarrier = new CyclicBarrier(numWorlds + 1);
+		final int[] tick = new int[1];
+		final boolean[] stop = new boolean[1];
+		
+		Thread[] threads = new Thread[numWorlds];
+		for (int i=0; i<numWorlds; i++) {
+			final World world = worlds[i];
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							startBarrier.await();
+							if (stop[0]) {
+								return;
+							}
+							world.step(tick[0]);
+							endBarrier.await();
+						}
+					}
+					catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					catch (BrokenBarrierException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			}, "world-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		
+		for (int t=-warmupTicks; t<ticks; t++) {
+			pushBodies(t);
+			tick[0] = t;
+			long t0 = System.nanoTime();
+			startBarrier.await();
+			endBarrier.await();
+			if (t >= 0) {
+				tickTimes[t] = System.nanoTime() - t0;
+			}
+		}
+		
+		stop[0] = true;
+		startBarrier.await();
+		for (int i=0; i<numWorlds; i++) {
+			threads[i].join();
+		}
+		
+		report("thread-per-world", numWorlds);
+	}
+	
+	private void runScheduler() {
+		initWorlds();
+		
+		WorldScheduler scheduler = new WorldScheduler(numThreads);
+		scheduler.setTickBudget((long)(budget * 1e6));
+		WorldScheduler.ScheduledWorld[] scheduledWorlds = new WorldScheduler.ScheduledWorld[numWorlds];
+		for (int i=0; i<numWorlds; i++) {
+			scheduledWorlds[i] = scheduler.addWorld(worlds[i].dynamicsWorld);
+		}
+		
+		for (int t=-warmupTicks; t<ticks; t++) {
+			pushBodies(t);
+			scheduler.tick(TIME_STEP, 0);
+			if (t >= 0) {
+				tickTimes[t] = scheduler.getLastTickTime();
+				for (int i=0; i<numWorlds; i++) {
+					stepTimes[t * numWorlds + i] = scheduledWorlds[i].lastStepTime;
+				}
+			}
+		}
+		
+		scheduler.destroy();
+		
+		for (int i=0; i<numWorlds; i++) {
+			if (scheduledWorlds[i].failure != null) {
+				throw new IllegalStateException("world " + i + " failed", scheduledWorlds[i].failure);
+			}
+		}
+		
+		report("scheduler", numThreads);
+	}
+	
+	private void report(String mode, int threads) {
+		long budgetNanos = (long)(budget * 1e6);
+		long total = 0L, max = 0L;
+		int overruns = 0;
+		for (int t=0; t<ticks; t++) {
+			total += tickTimes[t];
+			max = Math.max(max, tickTimes[t]);
+			if (tickTimes[t] > budgetNanos) {
+				overruns++;
+			}
+		}
+		
+		Arrays.sort(stepTimes);
+		long p50 = stepTimes[stepTimes.length / 2];
+		long p99 = stepTimes[(int)(stepTimes.length * 0.99)];
+		long stepMax = stepTimes[stepTimes.length - 1];
+		
+		long hash = 0L;
+		for (int i=0; i<numWorlds; i++) {
+			hash = hash * 31L + worlds[i].hash();
+		}
+		String result;
+		if (mode.equals("sequential") || referenceHash == 0L) {
+			referenceHash = hash;
+			result = "reference";
+		}
+		else {
+			result = hash == referenceHash? "same" : "DIFFERENT";
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(pad(mode, -18));
+		sb.append(pad(String.valueOf(threads), 7));
+		sb.append(pad(String.format("%.2f", total / 1e6 / ticks), 10));
+		sb.append(pad(String.format("%.2f", max / 1e6), 10));
+		sb.append(pad(String.format("%.0f", p50 / 1e3), 10));
+		sb.append(pad(String.format("%.0f", p99 / 1e3), 10));
+		sb.append(pad(String.format("%.0f", stepMax / 1e3), 10));
+		sb.append(pad(String.valueOf(overruns), 10));
+		sb.append(pad(String.format("%.0f", (double)numWorlds * ticks / (total / 1e9)), 9));
+		sb.append("  ").append(result);
+		System.out.println(sb);
+	}
+	
+	/**
+	 * Pads string to given width, negative width aligns to the left.
+	 */
+	private static String pad(String s, int width) {
+		boolean left = width < 0;
+		width = Math.abs(width);
+		StringBuilder sb = new StringBuilder(width);
+		if (left) {
+			sb.append(s);
+		}
+		for (int i=s.length(); i<width; i++) {
+			sb.append(' ');
+		}
+		if (!left) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private class World {
+		public final int index;
+		public final DynamicsWorld dynamicsWorld;
+		private final RigidBody[] bodies;
+		private final Random random;
+		private final Vector3f impulse = new Vector3f();
+		private final Vector3f relPos = new Vector3f(0f, 0f, 0f);
+		
+		public World(int index) {
+			this.index = index;
+			random = new Random(index);
+			
+			CollisionConfiguration collisionConfiguration = new DefaultCollisionConfiguration();
+			CollisionDispatcher dispatcher = new CollisionDispatcher(collisionConfiguration);
+			DbvtBroadphase broadphase = new DbvtBroadphase();
+			SequentialImpulseConstraintSolver solver = new SequentialImpulseConstraintSolver();
+			dynamicsWorld = new DiscreteDynamicsWorld(dispatcher, broadphase, solver, collisionConfiguration);
+			dynamicsWorld.setGravity(new Vector3f(0f, -10f, 0f));
+			
+			Transform trans = new Transform();
+			trans.setIdentity();
+			trans.origin.set(0f, -1f, 0f);
+			createBody(0f, trans, groundShape);
+			
+			// stacks of boxes with some falling spheres
+			bodies = new RigidBody[numBodies];
+			int numBoxes = numBodies * 3 / 5;
+			int stackHeight = 5;
+			for (int i=0; i<numBodies; i++) {
+				trans.setIdentity();
+				if (i < numBoxes) {
+					int stack = i / stackHeight;
+					trans.origin.set((stack % 4) * 3f - 4.5f + random.nextFloat() * 0.1f, 0.5f + (i % stackHeight) * 1.01f, (stack / 4) * 3f - 4.5f);
+					bodies[i] = createBody(1f, trans, boxShape);
+				}
+				else {
+					trans.origin.set((random.nextFloat() - 0.5f) * 16f, 5f + random.nextFloat() * 10f, (random.nextFloat() - 0.5f) * 16f);
+					bodies[i] = createBody(1f, trans, sphereShape);
+				}
+			}
+		}
+		
+		private RigidBody createBody(float mass, Transform startTransform, CollisionShape shape) {
+			Vector3f localInertia = new Vector3f(0f, 0f, 0f);
+			if (mass != 0f) {
+				shape.calculateLocalInertia(mass, localInertia);
+			}
+			RigidBody body = new RigidBody(new RigidBodyConstructionInfo(mass, new DefaultMotionState(startTransform), shape, localInertia));
+			dynamicsWorld.addRigidBody(body);
+			return body;
+		}
+		
+		/**
+		 * Pushes few random bodies, like players would.
+		 */
+		public void push() {
+			for (int i=0; i<5; i++) {
+				RigidBody body = bodies[random.nextInt(bodies.length)];
+				impulse.set((random.nextFloat() - 0.5f) * 8f, random.nextFloat() * 6f, (random.nextFloat() - 0.5f) * 8f);
+				body.activate();
+				body.applyImpulse(impulse, relPos);
+			}
+		}
+		
+		public void step(int tick) {
+			long t0 = System.nanoTime();
+			dynamicsWorld.stepSimulation(TIME_STEP, 0);
+			if (tick >= 0) {
+				stepTimes[tick * numWorlds + index] = System.nanoTime() - t0;
+			}
+		}
+		
+		public long hash() {
+			long h = 0L;
+			for (CollisionObject obj : dynamicsWorld.getCollisionObjectArray()) {
+				Transform t = obj.getWorldTransform();
+				h = h * 31L + Float.floatToIntBits(t.origin.x);
+				h = h * 31L + Float.floatToIntBits(t.origin.y);
+				h = h * 31L + Float.floatToIntBits(t.origin.z);
+				h = h * 31L + Float.floatToIntBits(t.basis.m01);
+			}
+			return h;
+		}
+	}
+	
+}
@@ -29,8 +29,8 @@ package javabullet.demos.genericjoint;
 
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.collision.broadphase.AxisSweep3;
 import javabullet.collision.broadphase.BroadphaseInterface;
-import javabullet.collision.broadphase.SimpleBroadphase;
 import javabullet.collision.dispatch.CollisionDispatcher;
 import javabullet.collision.dispatch.DefaultCollisionConfiguration;
 import javabullet.collision.shapes.BoxShape;
@@ -62,10 +62,10 @@ public class GenericJointDemo extends DemoApplication {
 
 		CollisionDispatcher dispatcher = new CollisionDispatcher(collision_config);
 
-		//btPoint3 worldAabbMin(-10000,-10000,-10000);
-		//btPoint3 worldAabbMax(10000,10000,10000);
-		//btBroadphaseInterface* overlappingPairCache = new btAxisSweep3 (worldAabbMin, worldAabbMax);
-		BroadphaseInterface overlappingPairCache = new SimpleBroadphase();
+		Vector3f worldAabbMin = new Vector3f(-10000, -10000, -10000);
+		Vector3f worldAabbMax = new Vector3f(10000, 10000, 10000);
+		BroadphaseInterface overlappingPairCache = new AxisSweep3(worldAabbMin, worldAabbMax);
+		//BroadphaseInterface overlappingPairCache = new SimpleBroadphase();
 
 		//#ifdef USE_ODE_QUICKSTEP
 		//btConstraintSolver* constraintSolver = new OdeConstraintSolver();
@@ -105,7 +105,11 @@ public class GenericJointDemo extends DemoApplication {
 	public void keyboardCallback(char key) {
 		switch (key) {
 			case 'e':
-				spawnRagdoll(true);
+				invokePhysics(new Runnable() {
+					public void run() {
+						spawnRagdoll(true);
+					}
+				});
 				break;
 			default:
 				super.keyboardCallback(key);
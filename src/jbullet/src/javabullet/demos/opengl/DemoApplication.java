@@ -29,6 +29,7 @@ import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.dispatch.CollisionWorld;
 import javabullet.collision.shapes.BoxShape;
 import javabullet.collision.shapes.CollisionShape;
+import javabullet.dynamics.AsyncWorldRunner;
 import javabullet.dynamics.DynamicsWorld;
 import javabullet.dynamics.RigidBody;
 import javabullet.dynamics.RigidBodyConstructionInfo;
@@ -116,6 +117,11 @@ public abstract class DemoApplication
 	protected boolean useLight0 = true;
 	protected boolean useLight1 = true;
 
+	// when enabled (-async) the world is stepped on separate thread, all changes
+	// to the world must be then done using invokePhysics
+	protected boolean asyncStepping = false;
+	protected AsyncWorldRunner worldRunner = null;
+
 	public DemoApplication(String[] args) {
         // debugMode |= DebugDrawModes.DRAW_WIREFRAME;
         debugMode |= DebugDrawModes.NO_HELP_TEXT;
@@ -126,6 +132,8 @@ public abstract class DemoApplication
                 useLight0=false;
             } else if(args[i].equals("-nolight1")) {
                 useLight1=false;
+            } else if(args[i].equals("-async")) {
+                asyncStepping=true;
             }
         }
 	}
@@ -133,6 +141,10 @@ public abstract class DemoApplication
 	public abstract void initPhysics() throws Exception;
 	
 	public void destroy() {
+		if (worldRunner != null) {
+			worldRunner.stop();
+			worldRunner = null;
+		}
 		// TODO: CProfileManager::Release_Iterator(m_profileIterator);
 		//if (m_shootBoxShape)
 		//	delete m_shootBoxShape;
@@ -223,7 +235,17 @@ public abstract class DemoApplication
 
         gl.glClear(gl.GL_COLOR_BUFFER_BIT | gl.GL_DEPTH_BUFFER_BIT);
 
-        if(!isIdle()) {
+        if (asyncStepping && worldRunner == null && dynamicsWorld != null) {
+            worldRunner = new AsyncWorldRunner(dynamicsWorld, 1f / 60f);
+            worldRunner.start();
+        }
+
+        if (worldRunner != null) {
+            // physics runs on its own, just pick the newest state
+            worldRunner.setPaused(isIdle());
+            worldRunner.update();
+        }
+        else if(!isIdle()) {
             // simple dynamics world doesn't handle fixed-time-stepping
             float ms = clock.getTimeMicroseconds();
             clock.reset();
@@ -236,7 +258,7 @@ public abstract class DemoApplication
             }
         }
 
-        if (dynamicsWorld != null) {
+        if (dynamicsWorld != null && worldRunner == null) {
             // optional but useful: debug drawing
             dynamicsWorld.debugDrawWorld();
         }
@@ -256,24 +278,44 @@ public abstract class DemoApplication
     // MouseListener
     //
     public void mouseClicked(MouseEvent e) {
-        mouseClick(e.getButton(), e.getX(), e.getY());
+        final int button = e.getButton(), x = e.getX(), y = e.getY();
+        invokePhysics(new Runnable() {
+            public void run() {
+                mouseClick(button, x, y);
+            }
+        });
     }
     public void mouseEntered(MouseEvent e) {
     }
     public void mouseExited(MouseEvent e) {
     }
     public void mousePressed(MouseEvent e) {
-        pickConstrain(e.getButton(), 1, e.getX(), e.getY());
+        final int button = e.getButton(), x = e.getX(), y = e.getY();
+        invokePhysics(new Runnable() {
+            public void run() {
+                pickConstrain(button, 1, x, y);
+            }
+        });
     }
     public void mouseReleased(MouseEvent e)  {
-        pickConstrain(e.getButton(), 0, e.getX(), e.getY());
+        final int button = e.getButton(), x = e.getX(), y = e.getY();
+        invokePhysics(new Runnable() {
+            public void run() {
+                pickConstrain(button, 0, x, y);
+            }
+        });
     }
 
     // 
     // MouseMotionListener
     //
     public void mouseDragged(MouseEvent e) {
-        mouseMotionFunc(e.getX(), e.getY());
+        final int x = e.getX(), y = e.getY();
+        invokePhysics(new Runnable() {
+            public void run() {
+                mouseMotionFunc(x, y);
+            }
+        });
     }
 
     public void mouseMoved(MouseEvent e) {
@@ -297,6 +339,19 @@ public abstract class DemoApplication
     // 
     //
 
+	/**
+	 * Runs task that changes the world, on physics thread when the world is
+	 * stepped asynchronously, otherwise immediately.
+	 */
+	public void invokePhysics(Runnable task) {
+		if (worldRunner != null) {
+			worldRunner.invokeLater(task);
+		}
+		else {
+			task.run();
+		}
+	}
+
 	public void setCameraDistance(float dist) {
 		cameraDistance = dist;
 	}
@@ -535,7 +590,11 @@ public abstract class DemoApplication
 				break;
 			//    case ' ' : newRandom(); break;
 			case ' ':
-				clientResetScene();
+				invokePhysics(new Runnable() {
+					public void run() {
+						clientResetScene();
+					}
+				});
 				break;
 			case '1': {
 				if ((debugMode & DebugDrawModes.ENABLE_CCD) != 0) {
@@ -548,7 +607,12 @@ public abstract class DemoApplication
 			}
 
 			case '.': {
-				shootBox(getCameraTargetPosition());
+				final Vector3f destination = new Vector3f(getCameraTargetPosition());
+				invokePhysics(new Runnable() {
+					public void run() {
+						shootBox(destination);
+					}
+				});
 				break;
 			}
 
@@ -593,17 +657,21 @@ public abstract class DemoApplication
 				break;
 			}
 			case KeyEvent.VK_END: {
-				int numObj = getDynamicsWorld().getNumCollisionObjects();
-				if (numObj != 0) {
-					CollisionObject obj = getDynamicsWorld().getCollisionObjectArray().get(numObj - 1);
-
-					getDynamicsWorld().removeCollisionObject(obj);
-					RigidBody body = RigidBody.upcast(obj);
-					if (body != null && body.getMotionState() != null) {
-						//delete body->getMotionState();
+				invokePhysics(new Runnable() {
+					public void run() {
+						int numObj = getDynamicsWorld().getNumCollisionObjects();
+						if (numObj != 0) {
+							CollisionObject obj = getDynamicsWorld().getCollisionObjectArray().get(numObj - 1);
+
+							getDynamicsWorld().removeCollisionObject(obj);
+							RigidBody body = RigidBody.upcast(obj);
+							if (body != null && body.getMotionState() != null) {
+								//delete body->getMotionState();
+							}
+							//delete obj;
+						}
 					}
-					//delete obj;
-				}
+				});
 				break;
 			}
 			case KeyEvent.VK_LEFT:
@@ -898,13 +966,19 @@ public abstract class DemoApplication
 		// JAU updateCamera();
 
 		if (dynamicsWorld != null) {
-			int numObjects = dynamicsWorld.getNumCollisionObjects();
+			// when stepped asynchronously, the world must not be accessed directly
+			int numObjects = (worldRunner != null)? worldRunner.getNumCollisionObjects() : dynamicsWorld.getNumCollisionObjects();
 			wireColor.set(1f, 0f, 0f);
 			for (int i = 0; i < numObjects; i++) {
-				CollisionObject colObj = dynamicsWorld.getCollisionObjectArray().get(i);
+				CollisionObject colObj = (worldRunner != null)? worldRunner.getCollisionObject(i) : dynamicsWorld.getCollisionObjectArray().get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 
-				if (body != null && body.getMotionState() != null) {
+				if (worldRunner != null) {
+					worldRunner.getWorldTransform(i, m);
+					if (body != null && body.getMotionState() instanceof DefaultMotionState) {
+						m.mul(((DefaultMotionState) body.getMotionState()).centerOfMassOffset);
+					}
+				} else if (body != null && body.getMotionState() != null) {
 					DefaultMotionState myMotionState = (DefaultMotionState) body.getMotionState();
 					m.set(myMotionState.graphicsWorldTrans);
 				} else {
@@ -0,0 +1,372 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.dynamics;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javabullet.BulletStack;
+import javabullet.collision.dispatch.CollisionObject;
+import javabullet.linearmath.MatrixUtil;
+import javabullet.linearmath.Transform;
+import javabullet.util.WorkerGroup;
+import javax.vecmath.Quat4f;
+import javax.vecmath.Vector3f;
+
+/**
+ * AsyncWorldRunner steps {@link DynamicsWorld} on its own thread with fixed time step,
+ * so the physics doesn't have to wait for rendering and vice versa.<p>
+ * 
+ * After each step world transforms of all collision objects, together with the
+ * transforms before the step, are published into a triple buffer. Render thread
+ * picks the newest published state by calling {@link #update} and reads transforms
+ * interpolated between the last two steps with {@link #getWorldTransform}, similar
+ * to the interpolation done for {@link javabullet.linearmath.MotionState}s. Rendered
+ * state lags one step behind the simulation, but moves smoothly regardless of the
+ * frame rate. Neither thread ever waits for the other.<p>
+ * 
+ * Once started, the world must not be accessed by other threads. Changes to the
+ * world (adding bodies, picking, applying impulses) must be passed as tasks to
+ * {@link #invokeLater}, they're executed on the physics thread between the steps.
+ * 
+ * @author jezek2
+ */
+public class AsyncWorldRunner {
+
+	// state of the buffer ready to be picked by render thread
+	private static final int INDEX_MASK = 3;
+	private static final int FRESH = 4;
+	
+	// when physics can't keep up, it skips the time rather than trying to catch up
+	private static final int MAX_STEPS_BEHIND = 5;
+
+	private final DynamicsWorld dynamicsWorld;
+	private final float fixedTimeStep;
+	private final long stepNanos;
+	
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile boolean running;
+	private volatile boolean paused;
+	private volatile Throwable failure;
+	private Thread thread;
+
+	private final Snapshot[] snapshots = new Snapshot[] { new Snapshot(), new Snapshot(), new Snapshot() };
+	private final AtomicInteger readyState = new AtomicInteger(0);
+	private int backIndex = 1;  // physics thread only
+	private int frontIndex = 2; // render thread only
+	
+	private float interpolationFactor = 1f;
+
+	public AsyncWorldRunner(DynamicsWorld dynamicsWorld, float fixedTimeStep) {
+		if (fixedTimeStep <= 0f) {
+			throw new IllegalArgumentException("fixedTimeStep must be positive");
+		}
+		this.dynamicsWorld = dynamicsWorld;
+		this.fixedTimeStep = fixedTimeStep;
+		this.stepNanos = (long)(fixedTimeStep * 1e9);
+	}
+	
+	public DynamicsWorld getDynamicsWorld() {
+		return dynamicsWorld;
+	}
+
+	public float getFixedTimeStep() {
+		return fixedTimeStep;
+	}
+	
+	/**
+	 * Starts the physics thread. Current state of the world is published
+	 * immediately, so it can be rendered before the first step.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("already started");
+		}
+		
+		failure = null;
+		captureTransforms(snapshots[backIndex], true);
+		publish();
+		
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				runPhysics();
+			}
+		}, "physics");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the physics thread and waits for the current step to finish. Queued tasks
+	 * that haven't been executed yet are discarded. After that the world can be
+	 * accessed from the calling thread again.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		
+		running = false;
+		LockSupport.unpark(thread);
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		tasks.clear();
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Paused runner doesn't step the world, but still executes the tasks.
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	public boolean isPaused() {
+		return paused;
+	}
+	
+	/**
+	 * Executes task on the physics thread before the next step.
+	 */
+	public void invokeLater(Runnable task) {
+		tasks.add(task);
+	}
+
+	private void runPhysics() {
+		try {
+			long nextStep = System.nanoTime();
+			while (running) {
+				boolean changed = false;
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+					changed = true;
+				}
+				
+				Snapshot snapshot = snapshots[backIndex];
+				if (!paused) {
+					captureTransforms(snapshot, true);
+					dynamicsWorld.stepSimulation(fixedTimeStep, 0);
+					captureTransforms(snapshot, false);
+					publish();
+				}
+				else if (changed) {
+					captureTransforms(snapshot, true);
+					publish();
+				}
+
+				nextStep += stepNanos;
+				long delay = nextStep - System.nanoTime();
+				if (delay > 0) {
+					LockSupport.parkNanos(delay);
+				}
+				else if (delay < -MAX_STEPS_BEHIND * stepNanos) {
+					nextStep = System.nanoTime();
+				}
+			}
+		}
+		catch (Throwable e) {
+			failure = e;
+			running = false;
+		}
+	}
+	
+	/**
+	 * Stores transforms of all collision objects as transforms before the step, or
+	 * after the step. Objects are only added or removed by tasks, so both are
+	 * stored for the same objects. When previous is true both are set.
+	 */
+	private void captureTransforms(Snapshot snapshot, boolean previous) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.quats.push();
+		try {
+			Quat4f rotation = stack.quats.get();
+			
+			List<CollisionObject> objects = dynamicsWorld.getCollisionObjectArray();
+			int numObjects = objects.size();
+			if (previous) {
+				snapshot.resize(numObjects);
+			}
+			
+			float[] dest = previous? snapshot.previous : snapshot.current;
+			for (int i = 0; i < numObjects; i++) {
+				CollisionObject colObj = objects.get(i);
+				Transform worldTrans = colObj.getWorldTransform();
+				MatrixUtil.getRotation(worldTrans.basis, rotation);
+				
+				int j = i * Snapshot.STRIDE;
+				dest[j+0] = worldTrans.origin.x;
+				dest[j+1] = worldTrans.origin.y;
+				dest[j+2] = worldTrans.origin.z;
+				dest[j+3] = rotation.x;
+				dest[j+4] = rotation.y;
+				dest[j+5] = rotation.z;
+				dest[j+6] = rotation.w;
+				
+				if (previous) {
+					snapshot.objects[i] = colObj;
+				}
+			}
+			
+			if (previous) {
+				System.arraycopy(snapshot.previous, 0, snapshot.current, 0, numObjects * Snapshot.STRIDE);
+			}
+		}
+		finally {
+			stack.quats.pop();
+		}
+	}
+	
+	private void publish() {
+		snapshots[backIndex].time = System.nanoTime();
+		backIndex = readyState.getAndSet(backIndex | FRESH) & INDEX_MASK;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// render thread
+	
+	/**
+	 * Picks the newest published state and computes interpolation factor for the
+	 * current time. Should be called by render thread once per frame.
+	 */
+	public void update() {
+		Throwable e = failure;
+		if (e != null) {
+			failure = null;
+			WorkerGroup.rethrow(e);
+		}
+		
+		if ((readyState.get() & FRESH) != 0) {
+			frontIndex = readyState.getAndSet(frontIndex) & INDEX_MASK;
+		}
+		
+		Snapshot snapshot = snapshots[frontIndex];
+		if (paused || !running) {
+			interpolationFactor = 1f;
+		}
+		else {
+			float t = (float)(System.nanoTime() - snapshot.time) / stepNanos;
+			interpolationFactor = Math.min(Math.max(t, 0f), 1f);
+		}
+	}
+
+	/**
+	 * Returns interpolation factor between the previous and the last step used by
+	 * {@link #getWorldTransform}, 0 is previous, 1 is last.
+	 */
+	public float getInterpolationFactor() {
+		return interpolationFactor;
+	}
+
+	/**
+	 * Returns number of collision objects in the state picked by {@link #update}.
+	 */
+	public int getNumCollisionObjects() {
+		return snapshots[frontIndex].numObjects;
+	}
+
+	public CollisionObject getCollisionObject(int index) {
+		return snapshots[frontIndex].objects[index];
+	}
+
+	/**
+	 * Gets world transform of collision object interpolated between the previous
+	 * and the last step.
+	 */
+	public void getWorldTransform(int index, Transform out) {
+		BulletStack stack = BulletStack.get();
+		
+		stack.quats.push();
+		try {
+			Snapshot snapshot = snapshots[frontIndex];
+			float[] previous = snapshot.previous;
+			float[] current = snapshot.current;
+			float t = interpolationFactor;
+			int j = index * Snapshot.STRIDE;
+			
+			Vector3f origin = out.origin;
+			origin.x = previous[j+0] + (current[j+0] - previous[j+0]) * t;
+			origin.y = previous[j+1] + (current[j+1] - previous[j+1]) * t;
+			origin.z = previous[j+2] + (current[j+2] - previous[j+2]) * t;
+			
+			Quat4f rotation = stack.quats.get(current[j+3], current[j+4], current[j+5], current[j+6]);
+			if (t < 1f) {
+				Quat4f previousRotation = stack.quats.get(previous[j+3], previous[j+4], previous[j+5], previous[j+6]);
+				previousRotation.interpolate(rotation, t);
+				rotation.set(previousRotation);
+			}
+			MatrixUtil.setRotation(out.basis, rotation);
+		}
+		finally {
+			stack.quats.pop();
+		}
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static class Snapshot {
+		// origin x,y,z, rotation x,y,z,w
+		public static final int STRIDE = 7;
+		
+		public int numObjects;
+		public CollisionObject[] objects = new CollisionObject[16];
+		public float[] previous = new float[16*STRIDE];
+		public float[] current = new float[16*STRIDE];
+		public long time;
+
+		public void resize(int num) {
+			if (objects.length < num) {
+				int capacity = Math.max(num, objects.length*2);
+				objects = new CollisionObject[capacity];
+				previous = new float[capacity*STRIDE];
+				current = new float[capacity*STRIDE];
+			}
+			else {
+				// release removed objects
+				for (int i = num; i < numObjects; i++) {
+					objects[i] = null;
+				}
+			}
+			numObjects = num;
+		}
+	}
+	
+}
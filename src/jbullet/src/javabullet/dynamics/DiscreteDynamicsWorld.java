@@ -23,11 +23,18 @@
 
 package javabullet.dynamics;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
+import javabullet.SimulationContext;
+import javabullet.SimulationCounters;
 import javabullet.collision.broadphase.BroadphaseInterface;
+import javabullet.collision.broadphase.BroadphaseProxy;
 import javabullet.collision.broadphase.CollisionFilterGroups;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.broadphase.DispatcherInfo;
@@ -35,10 +42,13 @@ import javabullet.collision.dispatch.CollisionConfiguration;
 import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.dispatch.CollisionWorld;
 import javabullet.collision.dispatch.SimulationIslandManager;
+import javabullet.collision.narrowphase.ManifoldPoint;
 import javabullet.collision.narrowphase.PersistentManifold;
 import javabullet.collision.shapes.CollisionShape;
 import javabullet.collision.shapes.InternalTriangleIndexCallback;
+import javabullet.collision.shapes.SphereShape;
 import javabullet.collision.shapes.TriangleCallback;
+import javabullet.dynamics.constraintsolver.ConstraintPersistentData;
 import javabullet.dynamics.constraintsolver.ConstraintSolver;
 import javabullet.dynamics.constraintsolver.ContactSolverInfo;
 import javabullet.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
@@ -50,11 +60,15 @@ import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.ScalarUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.TransformUtil;
+import javabullet.util.WorkerGroup;
 import javax.vecmath.Vector3f;
 
 /**
  * DiscreteDynamicsWorld provides discrete rigid body simulation.
- * Those classes replace the obsolete CcdPhysicsEnvironment/CcdPhysicsController.
+ * Those classes replace the obsolete CcdPhysicsEnvironment/CcdPhysicsController.<p>
+ * 
+ * Simulation islands can optionally be solved on multiple threads, see
+ * {@link #setParallelIslandSolver}.
  * 
  * @author jezek2
  */
@@ -75,6 +89,20 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	protected ContactSolverInfo solverInfo = new ContactSolverInfo();
 	protected List<RaycastVehicle> vehicles = new ArrayList<RaycastVehicle>();
 	protected int profileTimings = 0;
+
+	// continuous collision detection in integrateTransforms
+	private final SphereShape ccdSphere = new SphereShape(0f);
+	private final ClosestNotMeConvexResultCallback ccdSweepResults = new ClosestNotMeConvexResultCallback();
+
+	// bodies put to sleep since last synchronizeMotionStates
+	private final List<RigidBody> deactivatedBodies = new ArrayList<RigidBody>();
+
+	private final WorkerGroup islandWorkerGroup = new WorkerGroup();
+	private IslandWorker[] islandWorkers;
+	private final ParallelIslandCallback parallelIslandCallback = new ParallelIslandCallback();
+	private final List<IslandJob> islandJobs = new ArrayList<IslandJob>();
+	private final List<IslandJob> scheduledIslandJobs = new ArrayList<IslandJob>();
+	private final AtomicInteger nextIslandJob = new AtomicInteger();
 	
 	public DiscreteDynamicsWorld(Dispatcher dispatcher, BroadphaseInterface pairCache, ConstraintSolver constraintSolver, CollisionConfiguration collisionConfiguration) {
 		super(dispatcher, pairCache, collisionConfiguration);
@@ -96,16 +124,14 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	}
 
 	protected void saveKinematicState(float timeStep) {
-		for (int i = 0; i < collisionObjects.size(); i++) {
-			CollisionObject colObj = collisionObjects.get(i);
+		for (int i = 0; i < activeObjects.size(); i++) {
+			CollisionObject colObj = activeObjects.get(i);
 			RigidBody body = RigidBody.upcast(colObj);
 			if (body != null) {
 				//Transform predictedTrans = new Transform();
-				if (body.getActivationState() != CollisionObject.ISLAND_SLEEPING) {
-					if (body.isKinematicObject()) {
-						// to calculate velocities next frame
-						body.saveKinematicState(timeStep);
-					}
+				if (body.isKinematicObject()) {
+					// to calculate velocities next frame
+					body.saveKinematicState(timeStep);
 				}
 			}
 		}
@@ -208,12 +234,11 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	 * Apply gravity, call this once per timestep.
 	 */
 	public void applyGravity() {
-		// todo: iterate over awake simulation islands!
-		for (int i = 0; i < collisionObjects.size(); i++) {
-			CollisionObject colObj = collisionObjects.get(i);
+		for (int i = 0; i < activeObjects.size(); i++) {
+			CollisionObject colObj = activeObjects.get(i);
 
 			RigidBody body = RigidBody.upcast(colObj);
-			if (body != null && body.isActive()) {
+			if (body != null) {
 				body.applyGravity();
 			}
 		}
@@ -224,24 +249,20 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		try {
 			Transform interpolatedTransform = stack.transforms.get();
 
-			// todo: iterate over awake simulation islands!
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
-
-				RigidBody body = RigidBody.upcast(colObj);
-				if (body != null && body.getMotionState() != null && !body.isStaticOrKinematicObject()) {
-					// we need to call the update at least once, even for sleeping objects
-					// otherwise the 'graphics' transform never updates properly
-					// so todo: add 'dirty' flag
-					//if (body->getActivationState() != ISLAND_SLEEPING)
-					{
-						TransformUtil.integrateTransform(body.getInterpolationWorldTransform(),
-								body.getInterpolationLinearVelocity(), body.getInterpolationAngularVelocity(), localTime, interpolatedTransform);
-						body.getMotionState().setWorldTransform(interpolatedTransform);
-					}
+			for (int i = 0; i < activeObjects.size(); i++) {
+				RigidBody body = RigidBody.upcast(activeObjects.get(i));
+				if (body != null) {
+					synchronizeSingleMotionState(body, interpolatedTransform);
 				}
 			}
 
+			// sleeping objects are updated once more after they were put to sleep,
+			// otherwise the 'graphics' transform could miss the last substeps
+			for (int i = 0; i < deactivatedBodies.size(); i++) {
+				synchronizeSingleMotionState(deactivatedBodies.get(i), interpolatedTransform);
+			}
+			deactivatedBodies.clear();
+
 			if (getDebugDrawer() != null && (getDebugDrawer().getDebugMode() & DebugDrawModes.DRAW_WIREFRAME) != 0) {
 				for (int i = 0; i < vehicles.size(); i++) {
 					for (int v = 0; v < vehicles.get(i).getNumWheels(); v++) {
@@ -263,6 +284,16 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 
 	@Override
 	public int stepSimulation(float timeStep, int maxSubSteps, float fixedTimeStep) {
+		SimulationContext previousContext = SimulationContext.enter(simulationContext);
+		try {
+			return internalStepSimulation(timeStep, maxSubSteps, fixedTimeStep);
+		}
+		finally {
+			SimulationContext.leave(previousContext);
+		}
+	}
+
+	private int internalStepSimulation(float timeStep, int maxSubSteps, float fixedTimeStep) {
 		startProfiling(timeStep);
 
 		long t0 = nanoTime();
@@ -315,12 +346,12 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 
 			clearForces();
 
-			// TODO: CProfileManager::Increment_Frame_Counter();
-
 			return numSimulationSubSteps;
 		}
 		finally {
 			BulletGlobals.popProfile();
+			publishCounters();
+			BulletGlobals.incrementProfileFrameCounter();
 			
 			BulletGlobals.stepSimulationTime = (nanoTime() - t0) / 1000000;
 		}
@@ -363,6 +394,138 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 	}
 
+	private void synchronizeSingleMotionState(RigidBody body, Transform interpolatedTransform) {
+		if (body.getMotionState() != null && !body.isStaticOrKinematicObject()) {
+			TransformUtil.integrateTransform(body.getInterpolationWorldTransform(),
+					body.getInterpolationLinearVelocity(), body.getInterpolationAngularVelocity(), localTime, interpolatedTransform);
+			body.getMotionState().setWorldTransform(interpolatedTransform);
+		}
+	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		int size = super.calculateSnapshotSize() + 16;
+		for (int i = 0; i < constraints.size(); i++) {
+			size += constraints.get(i).calculateSnapshotSize();
+		}
+		
+		int numManifolds = dispatcher1.getNumManifolds();
+		for (int i = 0; i < numManifolds; i++) {
+			PersistentManifold manifold = dispatcher1.getManifoldByIndexInternal(i);
+			for (int j = 0; j < manifold.getNumContacts(); j++) {
+				size += 1 + (manifold.getContactPoint(j).userPersistentData instanceof ConstraintPersistentData? ConstraintPersistentData.SNAPSHOT_SIZE : 0);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Writes also time left for interpolation, random seed of the constraint solver,
+	 * impulses of constraints and contacts. State of vehicles is not stored.
+	 */
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		
+		buf.putFloat(localTime);
+		buf.putLong(constraintSolver instanceof SequentialImpulseConstraintSolver? ((SequentialImpulseConstraintSolver)constraintSolver).getRandSeed() : 0L);
+		
+		buf.putInt(constraints.size());
+		for (int i = 0; i < constraints.size(); i++) {
+			constraints.get(i).writeSnapshot(buf);
+		}
+		
+		// contact points are in the order of manifolds stored by collision world
+		int numManifolds = dispatcher1.getNumManifolds();
+		for (int i = 0; i < numManifolds; i++) {
+			PersistentManifold manifold = dispatcher1.getManifoldByIndexInternal(i);
+			for (int j = 0; j < manifold.getNumContacts(); j++) {
+				Object data = manifold.getContactPoint(j).userPersistentData;
+				if (data instanceof ConstraintPersistentData) {
+					buf.put((byte)1);
+					((ConstraintPersistentData)data).writeSnapshot(buf);
+				}
+				else {
+					buf.put((byte)0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores state written by {@link #writeSnapshot}, motion states of all bodies
+	 * are updated afterwards.
+	 */
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		SimulationContext previousContext = SimulationContext.enter(simulationContext);
+		try {
+			super.readSnapshot(buf);
+
+			localTime = buf.getFloat();
+			long randSeed = buf.getLong();
+			if (constraintSolver instanceof SequentialImpulseConstraintSolver) {
+				((SequentialImpulseConstraintSolver)constraintSolver).setRandSeed(randSeed);
+			}
+
+			if (buf.getInt() != constraints.size()) {
+				throw new IllegalArgumentException("number of constraints doesn't match");
+			}
+			for (int i = 0; i < constraints.size(); i++) {
+				constraints.get(i).readSnapshot(buf);
+			}
+
+			int numManifolds = dispatcher1.getNumManifolds();
+			for (int i = 0; i < numManifolds; i++) {
+				PersistentManifold manifold = dispatcher1.getManifoldByIndexInternal(i);
+				for (int j = 0; j < manifold.getNumContacts(); j++) {
+					ManifoldPoint pt = manifold.getContactPoint(j);
+					if (buf.get() != 0) {
+						if (!(pt.userPersistentData instanceof ConstraintPersistentData)) {
+							manifold.clearUserCache(pt);
+							pt.userPersistentData = new ConstraintPersistentData();
+						}
+						((ConstraintPersistentData)pt.userPersistentData).readSnapshot(buf);
+					}
+					else if (pt.userPersistentData != null) {
+						manifold.clearUserCache(pt);
+						pt.userPersistentData = null;
+					}
+				}
+			}
+
+			deactivatedBodies.clear();
+			synchronizeAllMotionStates();
+		}
+		finally {
+			SimulationContext.leave(previousContext);
+		}
+	}
+	
+	private void synchronizeAllMotionStates() {
+		stack.transforms.push();
+		try {
+			Transform interpolatedTransform = stack.transforms.get();
+			for (int i = 0; i < collisionObjects.size(); i++) {
+				RigidBody body = RigidBody.upcast(collisionObjects.get(i));
+				if (body != null) {
+					synchronizeSingleMotionState(body, interpolatedTransform);
+				}
+			}
+		}
+		finally {
+			stack.transforms.pop();
+		}
+	}
+
+	@Override
+	protected void objectDeactivated(CollisionObject colObj) {
+		RigidBody body = RigidBody.upcast(colObj);
+		if (body != null && body.getMotionState() != null && !body.isStaticOrKinematicObject()) {
+			deactivatedBodies.add(body);
+		}
+	}
+
 	@Override
 	public void setGravity(Vector3f gravity) {
 		this.gravity.set(gravity);
@@ -421,8 +584,9 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 	protected void updateActivationState(float timeStep) {
 		BulletGlobals.pushProfile("updateActivationState");
 		try {
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			// sleeping objects are not changed here, iterate backwards as objects put to sleep are removed from the list
+			for (int i = activeObjects.size() - 1; i >= 0; i--) {
+				CollisionObject colObj = activeObjects.get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 				if (body != null) {
 					body.updateDeactivation(timeStep);
@@ -552,6 +716,11 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 
 			List<TypedConstraint> constraintsPtr = getNumConstraints() != 0 ? sortedConstraints : null;
 
+			if (canSolveIslandsInParallel()) {
+				solveConstraintsParallel(solverInfo, constraintsPtr);
+				return;
+			}
+
 			solverCallback.init(solverInfo, constraintSolver, constraintsPtr, sortedConstraints.size(), debugDrawer/*,m_stackAlloc*/, dispatcher1);
 
 			constraintSolver.prepareSolve(getCollisionWorld().getNumCollisionObjects(), getCollisionWorld().getDispatcher().getNumManifolds());
@@ -566,6 +735,91 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 	}
 
+	/**
+	 * Enables solving of simulation islands on multiple threads. Islands don't
+	 * share any dynamic bodies, so each is solved by separate {@link SequentialImpulseConstraintSolver}
+	 * owned by the worker. Used only when the world's constraint solver is
+	 * SequentialImpulseConstraintSolver, its solver mode is used by the workers.<p>
+	 * 
+	 * Each island gets its own random seed (taken from the world's solver in island
+	 * order), so the results don't depend on thread count or timing. They differ
+	 * from serial solving though, as there the seed is shared by all islands.
+	 * Contact points are not passed to debug drawer in this mode.
+	 * 
+	 * @param executor executor running the worker tasks, or null to disable parallel solving
+	 * @param numThreads number of threads solving the islands including the calling thread
+	 */
+	public void setParallelIslandSolver(Executor executor, int numThreads) {
+		islandWorkerGroup.setExecutor(executor, numThreads);
+		if (executor == null) {
+			islandWorkers = null;
+			return;
+		}
+
+		islandWorkers = new IslandWorker[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			islandWorkers[i] = new IslandWorker();
+		}
+	}
+
+	public int getParallelIslandThreadCount() {
+		return islandWorkerGroup.getNumThreads();
+	}
+
+	private boolean canSolveIslandsInParallel() {
+		if (islandWorkers == null || constraintSolver.getClass() != SequentialImpulseConstraintSolver.class) {
+			return false;
+		}
+		// debug drawing of contact points is not thread safe
+		IDebugDraw debugDrawer = getDebugDrawer();
+		return debugDrawer == null || (debugDrawer.getDebugMode() & DebugDrawModes.DRAW_CONTACT_POINTS) == 0;
+	}
+
+	private void solveConstraintsParallel(ContactSolverInfo solverInfo, List<TypedConstraint> constraintsPtr) {
+		SequentialImpulseConstraintSolver solver = (SequentialImpulseConstraintSolver)constraintSolver;
+
+		solver.prepareSolve(getCollisionWorld().getNumCollisionObjects(), getCollisionWorld().getDispatcher().getNumManifolds());
+
+		// collect islands first, island manager reuses its lists between the callbacks
+		parallelIslandCallback.init(solver, constraintsPtr, sortedConstraints.size());
+		islandManager.buildAndProcessIslands(getCollisionWorld().getDispatcher(), getCollisionWorld().getCollisionObjectArray(), parallelIslandCallback);
+
+		int numJobs = parallelIslandCallback.numJobs;
+		if (numJobs > 0) {
+			// largest islands first for better load balancing
+			scheduledIslandJobs.clear();
+			for (int i = 0; i < numJobs; i++) {
+				scheduledIslandJobs.add(islandJobs.get(i));
+			}
+			MiscUtil.heapSort(scheduledIslandJobs, islandJobSizePredicate);
+
+			IslandWorker[] workers = islandWorkers;
+			int numWorkers = Math.min(workers.length, numJobs);
+
+			nextIslandJob.set(0);
+			for (int i = 0; i < numWorkers; i++) {
+				workers[i].init(this, solver, solverInfo, numJobs);
+			}
+
+			try {
+				islandWorkerGroup.run(workers, numWorkers);
+			}
+			finally {
+				SimulationCounters counters = SimulationContext.get().counters;
+				for (int i = 0; i < numWorkers; i++) {
+					counters.transfer(workers[i].context.counters);
+				}
+
+				for (int i = 0; i < numJobs; i++) {
+					islandJobs.get(i).clear();
+				}
+				scheduledIslandJobs.clear();
+			}
+		}
+
+		solver.allSolved(solverInfo, null);
+	}
+
 	protected void calculateSimulationIslands() {
 		BulletGlobals.pushProfile("calculateSimulationIslands");
 		try {
@@ -599,17 +853,39 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 	}
 
+	/**
+	 * Moves bodies to their predicted transforms. Bodies with CCD motion threshold set
+	 * (see {@link CollisionObject#setCcdMotionThreshold}) that move further than the threshold
+	 * in this step sweep a sphere of their CCD swept sphere radius against the broadphase
+	 * candidates and are stopped at the time of impact.
+	 */
 	protected void integrateTransforms(float timeStep) {
 		BulletGlobals.pushProfile("integrateTransforms");
+		stack.vectors.push();
 		stack.transforms.push();
 		try {
 			Transform predictedTrans = stack.transforms.get();
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			Vector3f tmp = stack.vectors.get();
+			for (int i = 0; i < activeObjects.size(); i++) {
+				CollisionObject colObj = activeObjects.get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 				if (body != null) {
-					if (body.isActive() && (!body.isStaticOrKinematicObject())) {
+					if (!body.isStaticOrKinematicObject()) {
 						body.predictIntegratedTransform(timeStep, predictedTrans);
+						
+						float squareMotionThreshold = body.getCcdSquareMotionThreshold();
+						if (squareMotionThreshold != 0f) {
+							tmp.sub(predictedTrans.origin, body.getWorldTransform().origin);
+							if (tmp.lengthSquared() > squareMotionThreshold) {
+								float hitFraction = sweepContinuous(body, predictedTrans);
+								if (hitFraction < 1f) {
+									body.setHitFraction(hitFraction);
+									body.predictIntegratedTransform(timeStep * hitFraction, predictedTrans);
+									body.setHitFraction(0f);
+								}
+							}
+						}
+						
 						body.proceedToTransform(predictedTrans);
 					}
 				}
@@ -617,25 +893,55 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 		finally {
 			stack.transforms.pop();
+			stack.vectors.pop();
 			BulletGlobals.popProfile();
 		}
 	}
+
+	/**
+	 * Sweeps CCD sphere of the body from its current position to the predicted position.
+	 * 
+	 * @return fraction of motion at time of impact, 1 when nothing was hit
+	 */
+	private float sweepContinuous(RigidBody body, Transform predictedTrans) {
+		stack.transforms.push();
+		try {
+			// sphere is rotation invariant, sweep it without rotation
+			Transform fromTrans = stack.transforms.get();
+			fromTrans.setIdentity();
+			fromTrans.origin.set(body.getWorldTransform().origin);
+			Transform toTrans = stack.transforms.get();
+			toTrans.setIdentity();
+			toTrans.origin.set(predictedTrans.origin);
+			
+			ccdSphere.setUnscaledRadius(body.getCcdSweptSphereRadius());
+			
+			ClosestNotMeConvexResultCallback sweepResults = ccdSweepResults;
+			sweepResults.init(body, fromTrans.origin, toTrans.origin, getDispatchInfo().allowedCcdPenetration, dispatcher1);
+			short collisionFilterMask = body.getBroadphaseHandle() != null? body.getBroadphaseHandle().collisionFilterMask : (short)-1;
+			convexSweepTest(ccdSphere, fromTrans, toTrans, sweepResults, collisionFilterMask);
+			float hitFraction = sweepResults.hasHit()? sweepResults.closestHitFraction : 1f;
+			sweepResults.init(null, fromTrans.origin, toTrans.origin, 0f, null);
+			return hitFraction;
+		}
+		finally {
+			stack.transforms.pop();
+		}
+	}
 	
 	protected void predictUnconstraintMotion(float timeStep) {
 		BulletGlobals.pushProfile("predictUnconstraintMotion");
 		try {
-			for (int i = 0; i < collisionObjects.size(); i++) {
-				CollisionObject colObj = collisionObjects.get(i);
+			for (int i = 0; i < activeObjects.size(); i++) {
+				CollisionObject colObj = activeObjects.get(i);
 				RigidBody body = RigidBody.upcast(colObj);
 				if (body != null) {
 					if (!body.isStaticOrKinematicObject()) {
-						if (body.isActive()) {
-							body.integrateVelocities(timeStep);
-							// damping
-							body.applyDamping(timeStep);
+						body.integrateVelocities(timeStep);
+						// damping
+						body.applyDamping(timeStep);
 
-							body.predictIntegratedTransform(timeStep, body.getInterpolationWorldTransform());
-						}
+						body.predictIntegratedTransform(timeStep, body.getInterpolationWorldTransform());
 					}
 				}
 			}
@@ -951,6 +1257,191 @@ public class DiscreteDynamicsWorld extends DynamicsWorld {
 		}
 	};
 	
+	private static final Comparator<IslandJob> islandJobSizePredicate = new Comparator<IslandJob>() {
+		public int compare(IslandJob lhs, IslandJob rhs) {
+			int lsize = lhs.bodies.size() + lhs.numManifolds + lhs.numConstraints;
+			int rsize = rhs.bodies.size() + rhs.numManifolds + rhs.numConstraints;
+			if (lsize != rsize) {
+				return lsize > rsize? -1 : +1;
+			}
+			// keep order stable for equally sized islands
+			return lhs.islandId < rhs.islandId? -1 : (lhs.islandId == rhs.islandId? 0 : +1);
+		}
+	};
+	
+	/**
+	 * Closest sweep result that ignores the swept body itself, objects it doesn't respond to
+	 * and hits where the motion is not heading into the contact normal (more than allowed penetration).
+	 */
+	protected static class ClosestNotMeConvexResultCallback extends ClosestConvexResultCallback {
+		protected CollisionObject me;
+		protected float allowedPenetration;
+		protected Dispatcher dispatcher;
+
+		public void init(CollisionObject me, Vector3f fromA, Vector3f toA, float allowedPenetration, Dispatcher dispatcher) {
+			this.me = me;
+			this.allowedPenetration = allowedPenetration;
+			this.dispatcher = dispatcher;
+			convexFromWorld.set(fromA);
+			convexToWorld.set(toA);
+			closestHitFraction = 1f;
+			hitCollisionObject = null;
+		}
+
+		@Override
+		public boolean needsCollision(BroadphaseProxy proxy0) {
+			CollisionObject otherObj = (CollisionObject)proxy0.clientObject;
+			if (otherObj == me) {
+				return false;
+			}
+			// don't do CCD when the collision filters are not matching
+			BroadphaseProxy meProxy = me.getBroadphaseHandle();
+			if (meProxy != null && (proxy0.collisionFilterMask & meProxy.collisionFilterGroup) == 0) {
+				return false;
+			}
+			return dispatcher.needsResponse(me, otherObj) && me.checkCollideWith(otherObj);
+		}
+
+		@Override
+		public float addSingleResult(LocalConvexResult convexResult, boolean normalInWorldSpace) {
+			if (convexResult.hitCollisionObject == me) {
+				return 1f;
+			}
+
+			BulletStack stack = BulletStack.get();
+			stack.vectors.push();
+			try {
+				Vector3f relativeVelocity = stack.vectors.get();
+				relativeVelocity.sub(convexToWorld, convexFromWorld);
+				// don't report time of impact for motion away from the contact normal (or causes minor penetration)
+				if (convexResult.hitNormalLocal.dot(relativeVelocity) >= -allowedPenetration) {
+					return 1f;
+				}
+			}
+			finally {
+				stack.vectors.pop();
+			}
+
+			return super.addSingleResult(convexResult, normalInWorldSpace);
+		}
+	}
+	
+	/**
+	 * Copy of single simulation island, for solving after all islands are collected.
+	 */
+	private static class IslandJob {
+		public final List<CollisionObject> bodies = new ArrayList<CollisionObject>();
+		public final List<PersistentManifold> manifolds = new ArrayList<PersistentManifold>();
+		public int numManifolds;
+		public int constraintsOffset;
+		public int numConstraints;
+		public int islandId;
+		public long randSeed;
+
+		public void clear() {
+			bodies.clear();
+			manifolds.clear();
+		}
+	}
+
+	private class ParallelIslandCallback implements SimulationIslandManager.IslandCallback {
+		public SequentialImpulseConstraintSolver solver;
+		public List<TypedConstraint> sortedConstraints;
+		public int numConstraints;
+		public int numJobs;
+
+		public void init(SequentialImpulseConstraintSolver solver, List<TypedConstraint> sortedConstraints, int numConstraints) {
+			this.solver = solver;
+			this.sortedConstraints = sortedConstraints;
+			this.numConstraints = numConstraints;
+			this.numJobs = 0;
+		}
+
+		public void processIsland(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifolds, int manifolds_offset, int numManifolds, int islandId) {
+			if (numJobs == islandJobs.size()) {
+				islandJobs.add(new IslandJob());
+			}
+			IslandJob job = islandJobs.get(numJobs++);
+
+			for (int i = 0; i < numBodies; i++) {
+				job.bodies.add(bodies.get(i));
+			}
+			for (int i = 0; i < numManifolds; i++) {
+				job.manifolds.add(manifolds.get(manifolds_offset + i));
+			}
+			job.numManifolds = numManifolds;
+			job.islandId = islandId;
+
+			// seeds are assigned in island order, independently of the worker
+			job.randSeed = solver.rand2();
+
+			if (islandId < 0) {
+				// not splitting islands, all constraints are solved together
+				job.constraintsOffset = 0;
+				job.numConstraints = numConstraints;
+			}
+			else {
+				int i;
+
+				// find the first constraint for this island
+				job.constraintsOffset = -1;
+				for (i = 0; i < numConstraints; i++) {
+					if (getConstraintIslandId(sortedConstraints.get(i)) == islandId) {
+						job.constraintsOffset = i;
+						break;
+					}
+				}
+				// count the number of constraints in this island
+				job.numConstraints = 0;
+				for (; i < numConstraints; i++) {
+					if (getConstraintIslandId(sortedConstraints.get(i)) == islandId) {
+						job.numConstraints++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Worker context, has own constraint solver and simulation context. Solves islands until there are
+	 * none left.
+	 */
+	private static class IslandWorker implements Runnable {
+		public final SequentialImpulseConstraintSolver solver = new SequentialImpulseConstraintSolver();
+		private final SimulationContext context = new SimulationContext();
+
+		private DiscreteDynamicsWorld world;
+		private ContactSolverInfo solverInfo;
+		private int numJobs;
+
+		public void init(DiscreteDynamicsWorld world, SequentialImpulseConstraintSolver worldSolver, ContactSolverInfo solverInfo, int numJobs) {
+			this.world = world;
+			this.solverInfo = solverInfo;
+			this.numJobs = numJobs;
+			solver.setSolverMode(worldSolver.getSolverMode());
+		}
+
+		public void run() {
+			SimulationContext previousContext = SimulationContext.enter(context);
+			DiscreteDynamicsWorld world = this.world;
+			try {
+				List<TypedConstraint> constraints = world.parallelIslandCallback.sortedConstraints;
+				WorkerGroup group = world.islandWorkerGroup;
+				int i;
+				while (!group.isAborted() && (i = world.nextIslandJob.getAndIncrement()) < numJobs) {
+					IslandJob job = world.scheduledIslandJobs.get(i);
+					solver.setRandSeed(job.randSeed);
+					solver.solveGroup(job.bodies, job.bodies.size(), job.manifolds, 0, job.numManifolds, constraints, job.constraintsOffset, job.numConstraints, solverInfo, null, world.dispatcher1);
+				}
+			}
+			finally {
+				this.world = null;
+				this.solverInfo = null;
+				SimulationContext.leave(previousContext);
+			}
+		}
+	}
+
 	private static class DebugDrawcallback implements TriangleCallback, InternalTriangleIndexCallback {
 		private IDebugDraw debugDrawer;
 		private final Vector3f color = new Vector3f();
@@ -23,13 +23,18 @@
 
 package javabullet.dynamics;
 
+import javabullet.BulletGlobals;
+import javabullet.SimulationCounters;
 import javabullet.collision.broadphase.BroadphaseInterface;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.dispatch.CollisionConfiguration;
+import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.dispatch.CollisionWorld;
 import javabullet.dynamics.constraintsolver.ConstraintSolver;
 import javabullet.dynamics.constraintsolver.TypedConstraint;
 import javabullet.dynamics.vehicle.RaycastVehicle;
+import javabullet.linearmath.DefaultMotionState;
+import javabullet.linearmath.Transform;
 import javax.vecmath.Vector3f;
 
 /**
@@ -39,6 +44,10 @@ import javax.vecmath.Vector3f;
  */
 public abstract class DynamicsWorld extends CollisionWorld {
 
+	// counters already added to the global counters
+	private final SimulationCounters publishedCounters = new SimulationCounters();
+	private final SimulationCounters tmpCounters = new SimulationCounters();
+	
 	public DynamicsWorld(Dispatcher dispatcher, BroadphaseInterface broadphasePairCache, CollisionConfiguration collisionConfiguration) {
 		super(dispatcher, broadphasePairCache, collisionConfiguration);
 	}
@@ -59,6 +68,33 @@ public abstract class DynamicsWorld extends CollisionWorld {
 
 	public abstract void debugDrawWorld();
 
+	/**
+	 * Returns {@link DefaultMotionState#graphicsWorldTrans} for rigid bodies with
+	 * default motion state, the transform rendered by the demos. Other motion states
+	 * don't expose their graphics transform, simulation world transform is used for them.
+	 */
+	@Override
+	protected Transform getGraphicsWorldTransform(CollisionObject colObj) {
+		RigidBody body = RigidBody.upcast(colObj);
+		if (body != null && body.getMotionState() instanceof DefaultMotionState) {
+			return ((DefaultMotionState)body.getMotionState()).graphicsWorldTrans;
+		}
+		return colObj.getWorldTransform();
+	}
+
+	/**
+	 * Adds counts made in the context of the world since the last call to the global
+	 * counters in {@link BulletGlobals}, called at the end of stepping.
+	 */
+	protected void publishCounters() {
+		SimulationCounters counters = simulationContext.counters;
+		counters.numOverlappingPairs = getBroadphase().getOverlappingPairCache().getCount();
+		
+		tmpCounters.sub(counters, publishedCounters);
+		publishedCounters.set(counters);
+		BulletGlobals.addCounters(tmpCounters);
+	}
+
 	public final void addConstraint(TypedConstraint constraint) {
 		addConstraint(constraint, false);
 	}
@@ -23,9 +23,12 @@
 
 package javabullet.dynamics;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.collision.broadphase.BroadphaseProxy;
 import javabullet.collision.dispatch.CollisionFlags;
 import javabullet.collision.dispatch.CollisionObject;
@@ -34,6 +37,7 @@ import javabullet.dynamics.constraintsolver.TypedConstraint;
 import javabullet.linearmath.MatrixUtil;
 import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.MotionState;
+import javabullet.linearmath.SnapshotUtil;
 import javabullet.linearmath.Transform;
 import javabullet.linearmath.TransformUtil;
 import javax.vecmath.Matrix3f;
@@ -91,7 +95,7 @@ public class RigidBody extends CollisionObject {
 	public int contactSolverType;
 	public int frictionSolverType;
 	
-	private static int uniqueId = 0;
+	private static final AtomicInteger uniqueId = new AtomicInteger();
 	public int debugBodyId;
 	
 	public RigidBody(RigidBodyConstructionInfo constructionInfo) {
@@ -144,7 +148,7 @@ public class RigidBody extends CollisionObject {
 		restitution = constructionInfo.restitution;
 
 		collisionShape = constructionInfo.collisionShape;
-		debugBodyId = uniqueId++;
+		debugBodyId = uniqueId.getAndIncrement();
 
 		// internalOwner is to allow upcasting from collision object to rigid body
 		internalOwner = this;
@@ -222,6 +226,8 @@ public class RigidBody extends CollisionObject {
 	 * Damps the velocity, using the given linearDamping and angularDamping.
 	 */
 	public void applyDamping(float timeStep) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			linearVelocity.scale(MiscUtil.GEN_clamped((1f - timeStep * linearDamping), 0f, 1f));
@@ -294,6 +300,8 @@ public class RigidBody extends CollisionObject {
 	}
 	
 	public void integrateVelocities(float step) {
+		BulletStack stack = BulletStack.get();
+
 		if (isStaticOrKinematicObject()) {
 			return;
 		}
@@ -351,6 +359,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public void applyForce(Vector3f force, Vector3f rel_pos) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			applyCentralForce(force);
@@ -368,6 +378,8 @@ public class RigidBody extends CollisionObject {
 	}
 	
 	public void applyTorqueImpulse(Vector3f torque) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get(torque);
@@ -380,6 +392,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public void applyImpulse(Vector3f impulse, Vector3f rel_pos) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			if (inverseMass != 0f) {
@@ -415,6 +429,8 @@ public class RigidBody extends CollisionObject {
 	}
 	
 	public void updateInertiaTensor() {
+		BulletStack stack = BulletStack.get();
+
 		stack.matrices.push();
 		try {
 			Matrix3f mat1 = stack.matrices.get();
@@ -435,6 +451,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public Quat4f getOrientation() {
+		BulletStack stack = BulletStack.get();
+
 		stack.quats.push();
 		try {
 			Quat4f orn = stack.quats.get();
@@ -469,6 +487,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public Vector3f getVelocityInLocalPoint(Vector3f rel_pos) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			// we also calculate lin/ang velocity for kinematic objects
@@ -494,6 +514,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public float computeImpulseDenominator(Vector3f pos, Vector3f normal) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f r0 = stack.vectors.get();
@@ -516,6 +538,8 @@ public class RigidBody extends CollisionObject {
 	}
 
 	public float computeAngularImpulseDenominator(Vector3f axis) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f vec = stack.vectors.get();
@@ -635,5 +659,36 @@ public class RigidBody extends CollisionObject {
 	public int getNumConstraintRefs() {
 		return constraintRefs.size();
 	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return super.calculateSnapshotSize() + 5*SnapshotUtil.VECTOR_SIZE + SnapshotUtil.MATRIX_SIZE;
+	}
+
+	/**
+	 * Writes also velocities and accumulated forces. Mass properties and damping
+	 * are not stored.
+	 */
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		SnapshotUtil.putVector(buf, linearVelocity);
+		SnapshotUtil.putVector(buf, angularVelocity);
+		SnapshotUtil.putVector(buf, totalForce);
+		SnapshotUtil.putVector(buf, totalTorque);
+		SnapshotUtil.putVector(buf, gravity);
+		SnapshotUtil.putMatrix(buf, invInertiaTensorWorld);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		SnapshotUtil.getVector(buf, linearVelocity);
+		SnapshotUtil.getVector(buf, angularVelocity);
+		SnapshotUtil.getVector(buf, totalForce);
+		SnapshotUtil.getVector(buf, totalTorque);
+		SnapshotUtil.getVector(buf, gravity);
+		SnapshotUtil.getMatrix(buf, invInertiaTensorWorld);
+	}
 	
 }
@@ -24,6 +24,7 @@
 package javabullet.dynamics;
 
 import java.util.List;
+import javabullet.SimulationContext;
 import javabullet.collision.broadphase.BroadphaseInterface;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.broadphase.DispatcherInfo;
@@ -96,6 +97,17 @@ public class SimpleDynamicsWorld extends DynamicsWorld {
 	 */
 	@Override
 	public int stepSimulation(float timeStep, int maxSubSteps, float fixedTimeStep) {
+		SimulationContext previousContext = SimulationContext.enter(simulationContext);
+		try {
+			return internalStepSimulation(timeStep);
+		}
+		finally {
+			publishCounters();
+			SimulationContext.leave(previousContext);
+		}
+	}
+
+	private int internalStepSimulation(float timeStep) {
 		// apply gravity, predict motion
 		predictUnconstraintMotion(timeStep);
 
@@ -0,0 +1,463 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.dynamics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javabullet.linearmath.MiscUtil;
+import javabullet.util.WorkerGroup;
+
+/**
+ * WorldScheduler steps many independent {@link DynamicsWorld}s (eg. one per match on
+ * a game server) on a bounded pool of threads. Each {@link #tick} steps all worlds
+ * once and returns when they're done.<p>
+ * 
+ * Worlds are dealt to the threads from the slowest to the fastest (by duration of
+ * their previous step), each thread steps its own worlds starting with the slowest
+ * ones. Thread that runs out of its worlds steals the fastest remaining worlds of
+ * other threads, so uneven worlds don't leave threads idle.<p>
+ * 
+ * Worlds don't share any mutable state, each has own scratch memory, object pools
+ * and statistic counters in its {@link javabullet.SimulationContext}. Collision shapes
+ * can be shared between worlds, the default ones are safe to use from multiple
+ * threads as long as they're not changed. Worlds shouldn't use
+ * parallel stages (parallel dispatch, islands or batches) with the same threads,
+ * they would block the threads while waiting for the workers. Profiler is per
+ * thread, accumulated times mix the steps of all worlds stepped on the thread,
+ * but counters in frame snapshots belong to the world stepped in the frame.<p>
+ * 
+ * Step duration of every world is recorded in {@link ScheduledWorld}, together with
+ * the number of steps that finished later than the tick budget after the start
+ * of the tick. Worlds that throw an exception are no longer stepped, the exception
+ * is kept in {@link ScheduledWorld#failure}.<p>
+ * 
+ * Scheduler must be used from single thread, worlds and statistics must not be
+ * accessed during the tick.
+ * 
+ * @author jezek2
+ */
+public class WorldScheduler {
+
+	private final Worker[] workers;
+	private final ExecutorService executor;
+	private final WorkerGroup workerGroup = new WorkerGroup();
+	private final List<ScheduledWorld> worlds = new ArrayList<ScheduledWorld>();
+	
+	// worlds of current tick, each worker has a contiguous range
+	private final List<ScheduledWorld> sortedWorlds = new ArrayList<ScheduledWorld>();
+	private ScheduledWorld[] scheduledWorlds = new ScheduledWorld[16];
+	
+	private long tickBudget;
+	
+	// parameters of current tick
+	private float timeStep;
+	private int maxSubSteps;
+	private float fixedTimeStep;
+	private long tickStart;
+	
+	private boolean destroyed;
+	
+	// statistics of ticks
+	private long lastTickTime;
+	private long maxTickTime;
+	private long totalTickTime;
+	private int numTicks;
+	private int numTickOverruns;
+	private int numLateWorlds;
+	
+	/**
+	 * Creates scheduler.
+	 * 
+	 * @param numThreads number of threads stepping the worlds including the calling thread
+	 */
+	public WorldScheduler(int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("numThreads must be positive");
+		}
+		
+		workers = new Worker[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			workers[i] = new Worker(this, i);
+		}
+		
+		// the first worker is the calling thread
+		if (numThreads > 1) {
+			executor = Executors.newFixedThreadPool(numThreads - 1, new ThreadFactory() {
+				private int threadNumber = 1;
+				
+				public synchronized Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "world-scheduler-" + (threadNumber++));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			workerGroup.setExecutor(executor, numThreads);
+		}
+		else {
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Stops the threads, scheduler can't be used afterwards.
+	 */
+	public void destroy() {
+		destroyed = true;
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+	
+	public int getNumThreads() {
+		return workers.length;
+	}
+	
+	/**
+	 * Adds world to be stepped by following ticks.
+	 * 
+	 * @return statistics of the world
+	 */
+	public ScheduledWorld addWorld(DynamicsWorld world) {
+		ScheduledWorld scheduledWorld = new ScheduledWorld(world);
+		worlds.add(scheduledWorld);
+		return scheduledWorld;
+	}
+	
+	public void removeWorld(DynamicsWorld world) {
+		for (int i = 0; i < worlds.size(); i++) {
+			if (worlds.get(i).world == world) {
+				worlds.remove(i);
+				return;
+			}
+		}
+	}
+	
+	public int getNumWorlds() {
+		return worlds.size();
+	}
+	
+	public ScheduledWorld getScheduledWorld(int index) {
+		return worlds.get(index);
+	}
+	
+	public long getTickBudget() {
+		return tickBudget;
+	}
+
+	/**
+	 * Sets time in nanoseconds since the start of the tick in which all worlds should
+	 * be stepped, 0 disables the checking (default).
+	 */
+	public void setTickBudget(long tickBudget) {
+		if (tickBudget < 0L) {
+			throw new IllegalArgumentException("tickBudget must not be negative");
+		}
+		this.tickBudget = tickBudget;
+	}
+	
+	public final void tick(float timeStep) {
+		tick(timeStep, 1, 1f / 60f);
+	}
+	
+	public final void tick(float timeStep, int maxSubSteps) {
+		tick(timeStep, maxSubSteps, 1f / 60f);
+	}
+	
+	/**
+	 * Steps all worlds once, see {@link DynamicsWorld#stepSimulation(float, int, float)}.
+	 */
+	public void tick(float timeStep, int maxSubSteps, float fixedTimeStep) {
+		if (destroyed) {
+			throw new IllegalStateException("scheduler was destroyed");
+		}
+		
+		long t0 = System.nanoTime();
+		
+		int numScheduled = schedule();
+		
+		this.timeStep = timeStep;
+		this.maxSubSteps = maxSubSteps;
+		this.fixedTimeStep = fixedTimeStep;
+		this.tickStart = t0;
+		this.numLateWorlds = 0;
+		
+		try {
+			workerGroup.run(workers, Math.min(workers.length, numScheduled));
+		}
+		finally {
+			for (int i = 0; i < numScheduled; i++) {
+				scheduledWorlds[i] = null;
+			}
+		}
+		
+		long time = System.nanoTime() - t0;
+		lastTickTime = time;
+		maxTickTime = Math.max(maxTickTime, time);
+		totalTickTime += time;
+		numTicks++;
+		if (tickBudget > 0L && time > tickBudget) {
+			numTickOverruns++;
+		}
+	}
+	
+	/**
+	 * Deals worlds that are to be stepped to the workers.
+	 * 
+	 * @return number of scheduled worlds
+	 */
+	private int schedule() {
+		sortedWorlds.clear();
+		for (int i = 0; i < worlds.size(); i++) {
+			ScheduledWorld scheduledWorld = worlds.get(i);
+			if (scheduledWorld.failure == null) {
+				sortedWorlds.add(scheduledWorld);
+			}
+		}
+		MiscUtil.heapSort(sortedWorlds, stepTimePredicate);
+		
+		int numScheduled = sortedWorlds.size();
+		if (scheduledWorlds.length < numScheduled) {
+			scheduledWorlds = new ScheduledWorld[Math.max(numScheduled, scheduledWorlds.length * 2)];
+		}
+		
+		// worker i gets worlds i, i+n, i+2n... in its range
+		int numThreads = workers.length;
+		int start = 0;
+		for (int i = 0; i < numThreads; i++) {
+			int count = (numScheduled - i + numThreads - 1) / numThreads;
+			for (int j = 0; j < count; j++) {
+				scheduledWorlds[start + j] = sortedWorlds.get(i + j * numThreads);
+			}
+			workers[i].setRange(start, start + count);
+			start += count;
+		}
+		
+		sortedWorlds.clear();
+		return numScheduled;
+	}
+	
+	private void step(ScheduledWorld scheduledWorld) {
+		long t0 = System.nanoTime();
+		try {
+			scheduledWorld.world.stepSimulation(timeStep, maxSubSteps, fixedTimeStep);
+		}
+		catch (Throwable e) {
+			scheduledWorld.failure = e;
+		}
+		long t1 = System.nanoTime();
+		
+		long time = t1 - t0;
+		scheduledWorld.lastStepTime = time;
+		scheduledWorld.maxStepTime = Math.max(scheduledWorld.maxStepTime, time);
+		scheduledWorld.totalStepTime += time;
+		scheduledWorld.numSteps++;
+		
+		scheduledWorld.lastCompletionTime = t1 - tickStart;
+		if (tickBudget > 0L && scheduledWorld.lastCompletionTime > tickBudget) {
+			scheduledWorld.numOverruns++;
+			synchronized (this) {
+				numLateWorlds++;
+			}
+		}
+	}
+	
+	/**
+	 * Returns duration of the last tick in nanoseconds.
+	 */
+	public long getLastTickTime() {
+		return lastTickTime;
+	}
+
+	public long getMaxTickTime() {
+		return maxTickTime;
+	}
+
+	public long getTotalTickTime() {
+		return totalTickTime;
+	}
+
+	public int getNumTicks() {
+		return numTicks;
+	}
+
+	/**
+	 * Returns number of ticks that took longer than the tick budget.
+	 */
+	public int getNumTickOverruns() {
+		return numTickOverruns;
+	}
+
+	/**
+	 * Returns number of worlds that finished the step after the tick budget in the last tick.
+	 */
+	public int getNumLateWorlds() {
+		return numLateWorlds;
+	}
+	
+	/**
+	 * Resets statistics of ticks and of all worlds.
+	 */
+	public void resetStatistics() {
+		lastTickTime = 0L;
+		maxTickTime = 0L;
+		totalTickTime = 0L;
+		numTicks = 0;
+		numTickOverruns = 0;
+		numLateWorlds = 0;
+		for (int i = 0; i < worlds.size(); i++) {
+			worlds.get(i).resetStatistics();
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static final Comparator<ScheduledWorld> stepTimePredicate = new Comparator<ScheduledWorld>() {
+		public int compare(ScheduledWorld lhs, ScheduledWorld rhs) {
+			// slowest first
+			return lhs.lastStepTime > rhs.lastStepTime? -1 : (lhs.lastStepTime < rhs.lastStepTime? 1 : 0);
+		}
+	};
+	
+	/**
+	 * World stepped by the scheduler, with statistics of its steps. Times are in nanoseconds.
+	 */
+	public static class ScheduledWorld {
+		public final DynamicsWorld world;
+		
+		/** Duration of the last step. */
+		public long lastStepTime;
+		public long maxStepTime;
+		public long totalStepTime;
+		public int numSteps;
+		
+		/** Time from the start of the tick to the end of the last step. */
+		public long lastCompletionTime;
+		/** Number of steps that finished after the tick budget. */
+		public int numOverruns;
+		
+		/** Exception thrown by the world, failed world is no longer stepped. */
+		public Throwable failure;
+
+		public ScheduledWorld(DynamicsWorld world) {
+			this.world = world;
+		}
+		
+		public long getAverageStepTime() {
+			return numSteps > 0? totalStepTime / numSteps : 0L;
+		}
+		
+		/**
+		 * Resets statistics, doesn't reset the failure.
+		 */
+		public void resetStatistics() {
+			lastStepTime = 0L;
+			maxStepTime = 0L;
+			totalStepTime = 0L;
+			numSteps = 0;
+			lastCompletionTime = 0L;
+			numOverruns = 0;
+		}
+	}
+	
+	/**
+	 * Worker stepping worlds. Its range of worlds is packed into long, front index
+	 * in upper and end index in lower 32 bits. Owner takes worlds from the front,
+	 * other workers steal them from the end.
+	 */
+	private static class Worker implements Runnable {
+		private final WorldScheduler scheduler;
+		private final int index;
+		private final AtomicLong range = new AtomicLong();
+
+		public Worker(WorldScheduler scheduler, int index) {
+			this.scheduler = scheduler;
+			this.index = index;
+		}
+		
+		public void setRange(int start, int end) {
+			range.set(((long)start << 32) | end);
+		}
+		
+		private int takeFirst() {
+			while (true) {
+				long r = range.get();
+				int front = (int)(r >>> 32);
+				int end = (int)r;
+				if (front >= end) {
+					return -1;
+				}
+				if (range.compareAndSet(r, ((long)(front + 1) << 32) | end)) {
+					return front;
+				}
+			}
+		}
+		
+		private int takeLast() {
+			while (true) {
+				long r = range.get();
+				int front = (int)(r >>> 32);
+				int end = (int)r;
+				if (front >= end) {
+					return -1;
+				}
+				if (range.compareAndSet(r, ((long)front << 32) | (end - 1))) {
+					return end - 1;
+				}
+			}
+		}
+		
+		/**
+		 * Steps own worlds, then steals from other workers until there are no worlds left.
+		 */
+		public void process() {
+			WorldScheduler scheduler = this.scheduler;
+			ScheduledWorld[] scheduledWorlds = scheduler.scheduledWorlds;
+			int i;
+			while ((i = takeFirst()) != -1) {
+				scheduler.step(scheduledWorlds[i]);
+			}
+			
+			// ranges only shrink during the tick, single pass is enough
+			Worker[] workers = scheduler.workers;
+			for (int j = 1; j < workers.length; j++) {
+				Worker victim = workers[(index + j) % workers.length];
+				while ((i = victim.takeLast()) != -1) {
+					scheduler.step(scheduledWorlds[i]);
+				}
+			}
+		}
+
+		public void run() {
+			process();
+		}
+
+	}
+	
+}
@@ -25,7 +25,9 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.linearmath.QuaternionUtil;
 import javabullet.linearmath.ScalarUtil;
@@ -122,6 +124,8 @@ public class ConeTwistConstraint extends TypedConstraint {
 	
 	@Override
 	public void buildJacobian() {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		stack.quats.push();
 		try {
@@ -275,6 +279,8 @@ public class ConeTwistConstraint extends TypedConstraint {
 
 	@Override
 	public void solveConstraint(float timeStep) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -415,5 +421,24 @@ public class ConeTwistConstraint extends TypedConstraint {
 	public float getTwistLimitSign() {
 		return twistLimitSign;
 	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return super.calculateSnapshotSize() + 8;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		buf.putFloat(accSwingLimitImpulse);
+		buf.putFloat(accTwistLimitImpulse);
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		accSwingLimitImpulse = buf.getFloat();
+		accTwistLimitImpulse = buf.getFloat();
+	}
 	
 }
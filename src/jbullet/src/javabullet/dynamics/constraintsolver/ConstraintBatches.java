@@ -0,0 +1,148 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.dynamics.constraintsolver;
+
+/**
+ * Splits constraints into batches so that no two constraints in one batch share
+ * a dynamic body (greedy coloring of the constraint graph). Constraints in one
+ * batch can be solved in any order or at the same time, giving the same result.
+ * Used by {@link SequentialImpulseConstraintSolver} in {@link SolverMode#SOLVER_PARALLEL_BATCHES}
+ * mode. Arrays are kept between solver runs and only grow.
+ * 
+ * @author jezek2
+ */
+public class ConstraintBatches {
+
+	/** Constraint indices grouped by batch. */
+	public int[] constraints = new int[0];
+	
+	/** Start of each batch in {@link #constraints}, has number of batches + 1 entries. */
+	public int[] batchOffsets = new int[1];
+	
+	private int numBatches;
+	
+	// used colors of each body, 64 colors are assigned per pass
+	private long[] bodyColors = new long[0];
+	private int[] colors = new int[0];
+	private int[] pending = new int[0];
+
+	public int getNumBatches() {
+		return numBatches;
+	}
+
+	public int getBatchSize(int batch) {
+		return batchOffsets[batch+1] - batchOffsets[batch];
+	}
+	
+	/**
+	 * Assigns constraints to batches. Constraints are colored in given order, each
+	 * gets the lowest batch not used by any of its bodies yet. Constraints keep
+	 * their relative order inside the batch.
+	 * 
+	 * @param order constraint indices (permutation of 0..count-1)
+	 * @param count number of constraints
+	 * @param bodyIdA first body of each constraint, negative for bodies not modified by the solver
+	 * @param bodyIdB second body of each constraint, negative for bodies not modified by the solver
+	 * @param numBodies number of bodies, body ids must be smaller
+	 */
+	public void build(int[] order, int count, int[] bodyIdA, int[] bodyIdB, int numBodies) {
+		if (constraints.length < count) {
+			int capacity = Math.max(count, constraints.length << 1);
+			constraints = new int[capacity];
+			colors = new int[capacity];
+			pending = new int[capacity];
+		}
+		if (bodyColors.length < numBodies) {
+			bodyColors = new long[Math.max(numBodies, bodyColors.length << 1)];
+		}
+		
+		long[] bodyColors = this.bodyColors;
+		int[] colors = this.colors;
+		int[] pending = this.pending;
+		
+		System.arraycopy(order, 0, pending, 0, count);
+		int remaining = count;
+		int base = 0;
+		numBatches = 0;
+		
+		while (remaining > 0) {
+			for (int i=0; i<numBodies; i++) {
+				bodyColors[i] = 0L;
+			}
+			
+			// constraints whose bodies already used all colors of this pass are deferred to the next one
+			int deferred = 0;
+			for (int i=0; i<remaining; i++) {
+				int c = pending[i];
+				int idA = bodyIdA[c];
+				int idB = bodyIdB[c];
+				long used = (idA >= 0? bodyColors[idA] : 0L) | (idB >= 0? bodyColors[idB] : 0L);
+				if (used == -1L) {
+					pending[deferred++] = c;
+					continue;
+				}
+				
+				int color = Long.numberOfTrailingZeros(~used);
+				long bit = 1L << color;
+				if (idA >= 0) {
+					bodyColors[idA] |= bit;
+				}
+				if (idB >= 0) {
+					bodyColors[idB] |= bit;
+				}
+				colors[c] = base + color;
+				if (base + color >= numBatches) {
+					numBatches = base + color + 1;
+				}
+			}
+			
+			remaining = deferred;
+			base += 64;
+		}
+		
+		// counting sort by batch, stable in given order
+		if (batchOffsets.length < numBatches + 1) {
+			batchOffsets = new int[Math.max(numBatches + 1, batchOffsets.length << 1)];
+		}
+		int[] batchOffsets = this.batchOffsets;
+		for (int i=0; i<=numBatches; i++) {
+			batchOffsets[i] = 0;
+		}
+		for (int i=0; i<count; i++) {
+			batchOffsets[colors[order[i]] + 1]++;
+		}
+		for (int i=0; i<numBatches; i++) {
+			batchOffsets[i+1] += batchOffsets[i];
+		}
+		
+		// pending is free now, used as insertion positions
+		System.arraycopy(batchOffsets, 0, pending, 0, numBatches);
+		for (int i=0; i<count; i++) {
+			int c = order[i];
+			constraints[pending[colors[c]]++] = c;
+		}
+	}
+	
+}
@@ -23,6 +23,7 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javax.vecmath.Vector3f;
 
 /**
@@ -87,4 +88,29 @@ public class ConstraintPersistentData {
 		frictionSolverFunc = null;
 	}
 	
+	/**
+	 * Number of bytes written by {@link #writeSnapshot}.
+	 */
+	public static final int SNAPSHOT_SIZE = 5 * 4;
+
+	/**
+	 * Writes impulses used for warm starting and lifetime, the rest is computed
+	 * again when preparing the contact.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putFloat(appliedImpulse);
+		buf.putFloat(prevAppliedImpulse);
+		buf.putFloat(accumulatedTangentImpulse0);
+		buf.putFloat(accumulatedTangentImpulse1);
+		buf.putInt(persistentLifeTime);
+	}
+
+	public void readSnapshot(ByteBuffer buf) {
+		appliedImpulse = buf.getFloat();
+		prevAppliedImpulse = buf.getFloat();
+		accumulatedTangentImpulse0 = buf.getFloat();
+		accumulatedTangentImpulse1 = buf.getFloat();
+		persistentLifeTime = buf.getInt();
+	}
+	
 }
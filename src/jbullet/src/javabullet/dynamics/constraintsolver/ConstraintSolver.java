@@ -36,8 +36,6 @@ import javabullet.linearmath.IDebugDraw;
  */
 public abstract class ConstraintSolver {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	public void prepareSolve (int numBodies, int numManifolds) {}
 
 	/**
@@ -30,9 +30,12 @@ http://gimpact.sf.net
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.linearmath.MatrixUtil;
+import javabullet.linearmath.SnapshotUtil;
 import javabullet.linearmath.Transform;
 
 
@@ -156,6 +159,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	 * Calcs the euler angles between the two bodies.
 	 */
 	protected void calculateAngleInfo() {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			Matrix3f mat = stack.matrices.get();
@@ -225,6 +230,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	}
 	
 	protected void buildLinearJacobian(/*JacobianEntry jacLinear*/int jacLinear_index, Vector3f normalWorld, Vector3f pivotAInW, Vector3f pivotBInW) {
+		BulletStack stack = BulletStack.get();
+
 		stack.pushCommonMath();
 		try {
 			Matrix3f mat1 = stack.matrices.get(rbA.getCenterOfMassTransform().basis);
@@ -256,6 +263,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	}
 
 	protected void buildAngularJacobian(/*JacobianEntry jacAngular*/int jacAngular_index, Vector3f jointAxisW) {
+		BulletStack stack = BulletStack.get();
+
 		stack.matrices.push();
 		try {
 			Matrix3f mat1 = stack.matrices.get(rbA.getCenterOfMassTransform().basis);
@@ -290,6 +299,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 	
 	@Override
 	public void buildJacobian() {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			// calculates transform
@@ -340,6 +351,8 @@ public class Generic6DofConstraint extends TypedConstraint {
 
 	@Override
 	public void solveConstraint(float timeStep) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			this.timeStep = timeStep;
@@ -501,5 +514,28 @@ public class Generic6DofConstraint extends TypedConstraint {
 		}
 		return angularLimits[limitIndex - 3].isLimited();
 	}
+
+	@Override
+	public int calculateSnapshotSize() {
+		return super.calculateSnapshotSize() + SnapshotUtil.VECTOR_SIZE + 3*4;
+	}
+
+	@Override
+	public void writeSnapshot(ByteBuffer buf) {
+		super.writeSnapshot(buf);
+		SnapshotUtil.putVector(buf, linearLimits.accumulatedImpulse);
+		for (int i=0; i<3; i++) {
+			buf.putFloat(angularLimits[i].accumulatedImpulse);
+		}
+	}
+
+	@Override
+	public void readSnapshot(ByteBuffer buf) {
+		super.readSnapshot(buf);
+		SnapshotUtil.getVector(buf, linearLimits.accumulatedImpulse);
+		for (int i=0; i<3; i++) {
+			angularLimits[i].accumulatedImpulse = buf.getFloat();
+		}
+	}
 	
 }
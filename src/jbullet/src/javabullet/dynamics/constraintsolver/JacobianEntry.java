@@ -43,8 +43,6 @@ import javax.vecmath.Vector3f;
  */
 public class JacobianEntry {
 	
-	protected final BulletStack stack = BulletStack.get();
-	
 	public final Vector3f linearJointAxis = new Vector3f();
 	public final Vector3f aJ = new Vector3f();
 	public final Vector3f bJ = new Vector3f();
@@ -174,6 +172,8 @@ public class JacobianEntry {
 	 * For two constraints on sharing two same rigidbodies (for example two contact points between two rigidbodies).
 	 */
 	public float getNonDiagonal(JacobianEntry jacB, float massInvA, float massInvB) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			JacobianEntry jacA = this;
@@ -204,6 +204,8 @@ public class JacobianEntry {
 	}
 
 	public float getRelativeVelocity(Vector3f linvelA, Vector3f angvelA, Vector3f linvelB, Vector3f angvelB) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f linrel = stack.vectors.get();
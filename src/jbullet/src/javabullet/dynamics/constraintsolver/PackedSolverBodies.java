@@ -0,0 +1,151 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.dynamics.constraintsolver;
+
+import java.util.List;
+import javabullet.BulletStack;
+import javabullet.dynamics.RigidBody;
+import javax.vecmath.Vector3f;
+
+/**
+ * Solver bodies packed into primitive arrays (struct of arrays), used by
+ * {@link SequentialImpulseConstraintSolver} in {@link SolverMode#SOLVER_STRUCT_OF_ARRAYS}
+ * mode. Arrays are kept between solver runs and only grow.
+ * 
+ * @author jezek2
+ */
+public class PackedSolverBodies {
+
+	public float[] linearVelocityX = new float[0];
+	public float[] linearVelocityY = new float[0];
+	public float[] linearVelocityZ = new float[0];
+	public float[] angularVelocityX = new float[0];
+	public float[] angularVelocityY = new float[0];
+	public float[] angularVelocityZ = new float[0];
+	public float[] invMass = new float[0];
+	public float[] angularFactor = new float[0];
+	
+	private int size;
+
+	public int size() {
+		return size;
+	}
+	
+	public void ensureCapacity(int capacity) {
+		if (capacity <= invMass.length) {
+			return;
+		}
+		
+		capacity = Math.max(capacity, invMass.length << 1);
+		linearVelocityX = expand(linearVelocityX, capacity);
+		linearVelocityY = expand(linearVelocityY, capacity);
+		linearVelocityZ = expand(linearVelocityZ, capacity);
+		angularVelocityX = expand(angularVelocityX, capacity);
+		angularVelocityY = expand(angularVelocityY, capacity);
+		angularVelocityZ = expand(angularVelocityZ, capacity);
+		invMass = expand(invMass, capacity);
+		angularFactor = expand(angularFactor, capacity);
+	}
+	
+	private float[] expand(float[] array, int capacity) {
+		float[] newArray = new float[capacity];
+		System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+	/**
+	 * Packs given solver bodies, indices are preserved.
+	 */
+	public void pack(List<SolverBody> bodies) {
+		size = 0;
+		ensureCapacity(bodies.size());
+		size = bodies.size();
+		
+		for (int i=0; i<size; i++) {
+			SolverBody body = bodies.get(i);
+			linearVelocityX[i] = body.linearVelocity.x;
+			linearVelocityY[i] = body.linearVelocity.y;
+			linearVelocityZ[i] = body.linearVelocity.z;
+			angularVelocityX[i] = body.angularVelocity.x;
+			angularVelocityY[i] = body.angularVelocity.y;
+			angularVelocityZ[i] = body.angularVelocity.z;
+			invMass[i] = body.invMass;
+			angularFactor[i] = body.angularFactor;
+		}
+	}
+	
+	/**
+	 * Copies solved velocities back to solver bodies.
+	 */
+	public void unpack(List<SolverBody> bodies) {
+		for (int i=0; i<size; i++) {
+			SolverBody body = bodies.get(i);
+			body.linearVelocity.set(linearVelocityX[i], linearVelocityY[i], linearVelocityZ[i]);
+			body.angularVelocity.set(angularVelocityX[i], angularVelocityY[i], angularVelocityZ[i]);
+		}
+	}
+	
+	/**
+	 * Optimization for the iterative solver: avoid calculating constant terms involving inertia, normal, relative position.
+	 * Same as {@link SolverBody#internalApplyImpulse}, linear component is given pre-scaled by inverse mass.
+	 */
+	public void internalApplyImpulse(int i, float linearX, float linearY, float linearZ, float angularX, float angularY, float angularZ, float impulseMagnitude) {
+		linearVelocityX[i] = impulseMagnitude * linearX + linearVelocityX[i];
+		linearVelocityY[i] = impulseMagnitude * linearY + linearVelocityY[i];
+		linearVelocityZ[i] = impulseMagnitude * linearZ + linearVelocityZ[i];
+		float angularImpulse = impulseMagnitude * angularFactor[i];
+		angularVelocityX[i] = angularImpulse * angularX + angularVelocityX[i];
+		angularVelocityY[i] = angularImpulse * angularY + angularVelocityY[i];
+		angularVelocityZ[i] = angularImpulse * angularZ + angularVelocityZ[i];
+	}
+
+	public void writebackVelocity(int i, RigidBody originalBody) {
+		if (invMass[i] != 0f) {
+			BulletStack stack = BulletStack.get();
+
+			stack.vectors.push();
+			try {
+				originalBody.setLinearVelocity(stack.vectors.get(linearVelocityX[i], linearVelocityY[i], linearVelocityZ[i]));
+				originalBody.setAngularVelocity(stack.vectors.get(angularVelocityX[i], angularVelocityY[i], angularVelocityZ[i]));
+			}
+			finally {
+				stack.vectors.pop();
+			}
+		}
+	}
+
+	public void readVelocity(int i, RigidBody originalBody) {
+		if (invMass[i] != 0f) {
+			Vector3f linearVelocity = originalBody.getLinearVelocity();
+			linearVelocityX[i] = linearVelocity.x;
+			linearVelocityY[i] = linearVelocity.y;
+			linearVelocityZ[i] = linearVelocity.z;
+			Vector3f angularVelocity = originalBody.getAngularVelocity();
+			angularVelocityX[i] = angularVelocity.x;
+			angularVelocityY[i] = angularVelocity.y;
+			angularVelocityZ[i] = angularVelocity.z;
+		}
+	}
+	
+}
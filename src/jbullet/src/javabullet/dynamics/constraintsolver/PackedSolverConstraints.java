@@ -0,0 +1,177 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package javabullet.dynamics.constraintsolver;
+
+import java.util.List;
+
+/**
+ * Solver constraints packed into primitive arrays (struct of arrays), used by
+ * {@link SequentialImpulseConstraintSolver} in {@link SolverMode#SOLVER_STRUCT_OF_ARRAYS}
+ * mode. Linear components are stored pre-scaled by inverse mass of the bodies.
+ * Arrays are kept between solver runs and only grow.
+ * 
+ * @author jezek2
+ */
+public class PackedSolverConstraints {
+
+	public float[] contactNormalX = new float[0];
+	public float[] contactNormalY = new float[0];
+	public float[] contactNormalZ = new float[0];
+	public float[] relpos1CrossNormalX = new float[0];
+	public float[] relpos1CrossNormalY = new float[0];
+	public float[] relpos1CrossNormalZ = new float[0];
+	public float[] relpos2CrossNormalX = new float[0];
+	public float[] relpos2CrossNormalY = new float[0];
+	public float[] relpos2CrossNormalZ = new float[0];
+	public float[] linearComponentAX = new float[0];
+	public float[] linearComponentAY = new float[0];
+	public float[] linearComponentAZ = new float[0];
+	public float[] linearComponentBX = new float[0];
+	public float[] linearComponentBY = new float[0];
+	public float[] linearComponentBZ = new float[0];
+	public float[] angularComponentAX = new float[0];
+	public float[] angularComponentAY = new float[0];
+	public float[] angularComponentAZ = new float[0];
+	public float[] angularComponentBX = new float[0];
+	public float[] angularComponentBY = new float[0];
+	public float[] angularComponentBZ = new float[0];
+	public float[] appliedImpulse = new float[0];
+	public float[] appliedVelocityImpulse = new float[0];
+	public float[] friction = new float[0];
+	public float[] restitution = new float[0];
+	public float[] jacDiagABInv = new float[0];
+	public float[] penetration = new float[0];
+	public int[] solverBodyIdA = new int[0];
+	public int[] solverBodyIdB = new int[0];
+	public int[] frictionIndex = new int[0];
+	
+	/** Solving order, shuffled by the solver. */
+	public int[] order = new int[0];
+	
+	private int size;
+
+	public int size() {
+		return size;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity <= order.length) {
+			return;
+		}
+
+		capacity = Math.max(capacity, order.length << 1);
+		contactNormalX = new float[capacity];
+		contactNormalY = new float[capacity];
+		contactNormalZ = new float[capacity];
+		relpos1CrossNormalX = new float[capacity];
+		relpos1CrossNormalY = new float[capacity];
+		relpos1CrossNormalZ = new float[capacity];
+		relpos2CrossNormalX = new float[capacity];
+		relpos2CrossNormalY = new float[capacity];
+		relpos2CrossNormalZ = new float[capacity];
+		linearComponentAX = new float[capacity];
+		linearComponentAY = new float[capacity];
+		linearComponentAZ = new float[capacity];
+		linearComponentBX = new float[capacity];
+		linearComponentBY = new float[capacity];
+		linearComponentBZ = new float[capacity];
+		angularComponentAX = new float[capacity];
+		angularComponentAY = new float[capacity];
+		angularComponentAZ = new float[capacity];
+		angularComponentBX = new float[capacity];
+		angularComponentBY = new float[capacity];
+		angularComponentBZ = new float[capacity];
+		appliedImpulse = new float[capacity];
+		appliedVelocityImpulse = new float[capacity];
+		friction = new float[capacity];
+		restitution = new float[capacity];
+		jacDiagABInv = new float[capacity];
+		penetration = new float[capacity];
+		solverBodyIdA = new int[capacity];
+		solverBodyIdB = new int[capacity];
+		frictionIndex = new int[capacity];
+		order = new int[capacity];
+	}
+
+	/**
+	 * Packs given solver constraints (contents is not preserved when growing),
+	 * solving order is reset to identity.
+	 */
+	public void pack(List<SolverConstraint> constraints, PackedSolverBodies bodies) {
+		size = constraints.size();
+		ensureCapacity(size);
+		
+		float[] invMass = bodies.invMass;
+
+		for (int i=0; i<size; i++) {
+			SolverConstraint c = constraints.get(i);
+			int idA = c.solverBodyIdA;
+			int idB = c.solverBodyIdB;
+			
+			contactNormalX[i] = c.contactNormal.x;
+			contactNormalY[i] = c.contactNormal.y;
+			contactNormalZ[i] = c.contactNormal.z;
+			relpos1CrossNormalX[i] = c.relpos1CrossNormal.x;
+			relpos1CrossNormalY[i] = c.relpos1CrossNormal.y;
+			relpos1CrossNormalZ[i] = c.relpos1CrossNormal.z;
+			relpos2CrossNormalX[i] = c.relpos2CrossNormal.x;
+			relpos2CrossNormalY[i] = c.relpos2CrossNormal.y;
+			relpos2CrossNormalZ[i] = c.relpos2CrossNormal.z;
+			linearComponentAX[i] = invMass[idA] * c.contactNormal.x;
+			linearComponentAY[i] = invMass[idA] * c.contactNormal.y;
+			linearComponentAZ[i] = invMass[idA] * c.contactNormal.z;
+			linearComponentBX[i] = invMass[idB] * c.contactNormal.x;
+			linearComponentBY[i] = invMass[idB] * c.contactNormal.y;
+			linearComponentBZ[i] = invMass[idB] * c.contactNormal.z;
+			angularComponentAX[i] = c.angularComponentA.x;
+			angularComponentAY[i] = c.angularComponentA.y;
+			angularComponentAZ[i] = c.angularComponentA.z;
+			angularComponentBX[i] = c.angularComponentB.x;
+			angularComponentBY[i] = c.angularComponentB.y;
+			angularComponentBZ[i] = c.angularComponentB.z;
+			appliedImpulse[i] = c.appliedImpulse;
+			appliedVelocityImpulse[i] = c.appliedVelocityImpulse;
+			friction[i] = c.friction;
+			restitution[i] = c.restitution;
+			jacDiagABInv[i] = c.jacDiagABInv;
+			penetration[i] = c.penetration;
+			solverBodyIdA[i] = idA;
+			solverBodyIdB[i] = idB;
+			frictionIndex[i] = c.frictionIndex;
+			order[i] = i;
+		}
+	}
+
+	/**
+	 * Copies accumulated impulses back to solver constraints.
+	 */
+	public void unpack(List<SolverConstraint> constraints) {
+		for (int i=0; i<size; i++) {
+			SolverConstraint c = constraints.get(i);
+			c.appliedImpulse = appliedImpulse[i];
+			c.appliedVelocityImpulse = appliedVelocityImpulse[i];
+		}
+	}
+	
+}
@@ -42,8 +42,6 @@ import javax.vecmath.Vector3f;
  */
 public class RotationalLimitMotor {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	public float loLimit; //!< joint limit
 	public float hiLimit; //!< joint limit
 	public float targetVelocity; //!< target motor velocity
@@ -136,6 +134,8 @@ public class RotationalLimitMotor {
 	 * Apply the correction impulses for two bodies.
 	 */
 	public float solveAngularLimits(float timeStep, Vector3f axis, float jacDiagABInv, RigidBody body0, RigidBody body1) {
+		BulletStack stack = BulletStack.get();
+
 		if (needApplyTorques() == false) {
 			return 0.0f;
 		}
@@ -25,10 +25,14 @@ package javabullet.dynamics.constraintsolver;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javabullet.BulletGlobals;
 import javabullet.BulletPool;
+import javabullet.BulletStack;
 import javabullet.ContactDestroyedCallback;
 import javabullet.ObjectPool;
+import javabullet.SimulationContext;
 import javabullet.collision.broadphase.Dispatcher;
 import javabullet.collision.dispatch.CollisionObject;
 import javabullet.collision.narrowphase.ManifoldPoint;
@@ -38,6 +42,7 @@ import javabullet.linearmath.IDebugDraw;
 import javabullet.linearmath.MiscUtil;
 import javabullet.linearmath.TransformUtil;
 import javabullet.util.IntArrayList;
+import javabullet.util.WorkerGroup;
 import javax.vecmath.Matrix3f;
 import javax.vecmath.Vector3f;
 
@@ -54,22 +59,21 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	
 	private static final int MAX_CONTACT_SOLVER_TYPES = ContactConstraintEnum.MAX_CONTACT_SOLVER_TYPES.ordinal();
 
-	private static final int SEQUENTIAL_IMPULSE_MAX_SOLVER_POINTS = 16384;
-	private static OrderIndex[] gOrder = new OrderIndex[SEQUENTIAL_IMPULSE_MAX_SOLVER_POINTS];
+	private static final AtomicInteger totalCpd = new AtomicInteger();
 	
-	private static int totalCpd = 0;
+	// number of constraints solved by one thread at once in SOLVER_PARALLEL_BATCHES mode
+	private static final int CONTACT_CHUNK_SIZE = 128;
+	private static final int JOINT_CHUNK_SIZE = 8;
 	
-	static {
-		for (int i=0; i<gOrder.length; i++) {
-			gOrder[i] = new OrderIndex();
-		}
-	}
+	private static final int PHASE_JOINTS = 0;
+	private static final int PHASE_CONTACTS = 1;
+	private static final int PHASE_FRICTIONS = 2;
 	
 	////////////////////////////////////////////////////////////////////////////
 	
-	private final ObjectPool<SolverBody> bodiesPool = BulletPool.get(SolverBody.class);
-	private final ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class);
-	private final ObjectPool<JacobianEntry> jacobiansPool = BulletPool.get(JacobianEntry.class);
+	// JAVA NOTE: order is per solver instance (allocated on demand), so that
+	// several solvers can run at the same time (eg. each for different island)
+	private OrderIndex[] gOrder = new OrderIndex[0];
 	
 	private final List<SolverBody> tmpSolverBodyPool = new ArrayList<SolverBody>();
 	private final List<SolverConstraint> tmpSolverConstraintPool = new ArrayList<SolverConstraint>();
@@ -77,6 +81,39 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	private final IntArrayList orderTmpConstraintPool = new IntArrayList();
 	private final IntArrayList orderFrictionConstraintPool = new IntArrayList();
 	
+	private final PackedSolverBodies packedBodies = new PackedSolverBodies();
+	private final PackedSolverConstraints packedConstraints = new PackedSolverConstraints();
+	private final PackedSolverConstraints packedFrictionConstraints = new PackedSolverConstraints();
+	
+	private final ConstraintBatches contactBatches = new ConstraintBatches();
+	private final ConstraintBatches frictionBatches = new ConstraintBatches();
+	private final ConstraintBatches jointBatches = new ConstraintBatches();
+	private int[] batchBodyIdA = new int[0];
+	private int[] batchBodyIdB = new int[0];
+	private int[] jointOrder = new int[0];
+	// bodies without solver body temporarily numbered by companion id, original ids are restored after
+	private final ArrayList<RigidBody> jointBodies = new ArrayList<RigidBody>();
+	private int[] jointBodyCompanionIds = new int[0];
+	
+	// schedule of one solver iteration, each phase is one batch split into chunks
+	private int numPhases;
+	private int[] phaseType = new int[0];
+	private int[] phaseStart = new int[0];
+	private int[] phaseEnd = new int[0];
+	private int[] phaseChunkSize = new int[0];
+	private int[] phaseChunkOffset = new int[1];
+	private int chunksPerIteration;
+	
+	private List<TypedConstraint> batchJoints;
+	private int batchJointsOffset;
+	private float batchTimeStep;
+	
+	private final WorkerGroup batchWorkerGroup = new WorkerGroup();
+	private BatchWorker[] batchWorkers;
+	private final AtomicInteger nextBatchChunk = new AtomicInteger();
+	private final AtomicInteger solvedBatchChunks = new AtomicInteger();
+	private int totalBatchChunks;
+	
 	protected final ContactSolverFunc[][] contactDispatch = new ContactSolverFunc[MAX_CONTACT_SOLVER_TYPES][MAX_CONTACT_SOLVER_TYPES];
 	protected final ContactSolverFunc[][] frictionDispatch = new ContactSolverFunc[MAX_CONTACT_SOLVER_TYPES][MAX_CONTACT_SOLVER_TYPES];
 	
@@ -91,7 +128,7 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 				assert (userPersistentData != null);
 				ConstraintPersistentData cpd = (ConstraintPersistentData) userPersistentData;
 				//btAlignedFree(cpd);
-				totalCpd--;
+				totalCpd.decrementAndGet();
 				//printf("totalCpd = %i. DELETED Ptr %x\n",totalCpd,userPersistentData);
 				return true;
 			}
@@ -176,6 +213,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 			SolverBody body2,
 			SolverConstraint contactConstraint,
 			ContactSolverInfo solverInfo) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			float normalImpulse;
@@ -234,6 +273,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 			SolverConstraint contactConstraint,
 			ContactSolverInfo solverInfo,
 			float appliedNormalImpulse) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			float combinedFriction = contactConstraint.friction;
@@ -300,7 +341,103 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 		}
 	}
 	
+	/**
+	 * Same as {@link #resolveSingleCollisionCombinedCacheFriendly}, operates on packed data.
+	 */
+	private void resolveSingleCollisionCombinedPacked(PackedSolverBodies bodies, PackedSolverConstraints c, int i) {
+		int idA = c.solverBodyIdA[i];
+		int idB = c.solverBodyIdB[i];
+
+		float normalX = c.contactNormalX[i];
+		float normalY = c.contactNormalY[i];
+		float normalZ = c.contactNormalZ[i];
+
+		float vel1Dotn = (normalX * bodies.linearVelocityX[idA] + normalY * bodies.linearVelocityY[idA] + normalZ * bodies.linearVelocityZ[idA]) +
+				(c.relpos1CrossNormalX[i] * bodies.angularVelocityX[idA] + c.relpos1CrossNormalY[i] * bodies.angularVelocityY[idA] + c.relpos1CrossNormalZ[i] * bodies.angularVelocityZ[idA]);
+		float vel2Dotn = (normalX * bodies.linearVelocityX[idB] + normalY * bodies.linearVelocityY[idB] + normalZ * bodies.linearVelocityZ[idB]) +
+				(c.relpos2CrossNormalX[i] * bodies.angularVelocityX[idB] + c.relpos2CrossNormalY[i] * bodies.angularVelocityY[idB] + c.relpos2CrossNormalZ[i] * bodies.angularVelocityZ[idB]);
+
+		float rel_vel = vel1Dotn - vel2Dotn;
+
+		float positionalError = c.penetration[i];
+		float velocityError = c.restitution[i] - rel_vel; // * damping;
+
+		float penetrationImpulse = positionalError * c.jacDiagABInv[i];
+		float velocityImpulse = velocityError * c.jacDiagABInv[i];
+		float normalImpulse = penetrationImpulse + velocityImpulse;
+
+		// See Erin Catto's GDC 2006 paper: Clamp the accumulated impulse
+		float oldNormalImpulse = c.appliedImpulse[i];
+		float sum = oldNormalImpulse + normalImpulse;
+		c.appliedImpulse[i] = 0f > sum ? 0f : sum;
+
+		float oldVelocityImpulse = c.appliedVelocityImpulse[i];
+		float velocitySum = oldVelocityImpulse + velocityImpulse;
+		c.appliedVelocityImpulse[i] = 0f > velocitySum ? 0f : velocitySum;
+
+		normalImpulse = c.appliedImpulse[i] - oldNormalImpulse;
+
+		if (bodies.invMass[idA] != 0f) {
+			bodies.internalApplyImpulse(idA, c.linearComponentAX[i], c.linearComponentAY[i], c.linearComponentAZ[i],
+					c.angularComponentAX[i], c.angularComponentAY[i], c.angularComponentAZ[i], normalImpulse);
+		}
+		if (bodies.invMass[idB] != 0f) {
+			bodies.internalApplyImpulse(idB, c.linearComponentBX[i], c.linearComponentBY[i], c.linearComponentBZ[i],
+					c.angularComponentBX[i], c.angularComponentBY[i], c.angularComponentBZ[i], -normalImpulse);
+		}
+	}
+
+	/**
+	 * Same as {@link #resolveSingleFrictionCacheFriendly}, operates on packed data.
+	 */
+	private void resolveSingleFrictionPacked(PackedSolverBodies bodies, PackedSolverConstraints c, int i, float appliedNormalImpulse) {
+		if (appliedNormalImpulse > 0f) {
+			int idA = c.solverBodyIdA[i];
+			int idB = c.solverBodyIdB[i];
+
+			float limit = appliedNormalImpulse * c.friction[i];
+
+			float normalX = c.contactNormalX[i];
+			float normalY = c.contactNormalY[i];
+			float normalZ = c.contactNormalZ[i];
+
+			float vel1Dotn = (normalX * bodies.linearVelocityX[idA] + normalY * bodies.linearVelocityY[idA] + normalZ * bodies.linearVelocityZ[idA]) +
+					(c.relpos1CrossNormalX[i] * bodies.angularVelocityX[idA] + c.relpos1CrossNormalY[i] * bodies.angularVelocityY[idA] + c.relpos1CrossNormalZ[i] * bodies.angularVelocityZ[idA]);
+			float vel2Dotn = (normalX * bodies.linearVelocityX[idB] + normalY * bodies.linearVelocityY[idB] + normalZ * bodies.linearVelocityZ[idB]) +
+					(c.relpos2CrossNormalX[i] * bodies.angularVelocityX[idB] + c.relpos2CrossNormalY[i] * bodies.angularVelocityY[idB] + c.relpos2CrossNormalZ[i] * bodies.angularVelocityZ[idB]);
+			float rel_vel = vel1Dotn - vel2Dotn;
+
+			// calculate j that moves us to zero relative velocity
+			float j1 = -rel_vel * c.jacDiagABInv[i];
+			float oldTangentImpulse = c.appliedImpulse[i];
+			float tangentImpulse = oldTangentImpulse + j1;
+
+			if (limit < tangentImpulse) {
+				tangentImpulse = limit;
+			}
+			else {
+				if (tangentImpulse < -limit) {
+					tangentImpulse = -limit;
+				}
+			}
+			c.appliedImpulse[i] = tangentImpulse;
+			j1 = tangentImpulse - oldTangentImpulse;
+
+			if (bodies.invMass[idA] != 0f) {
+				bodies.internalApplyImpulse(idA, c.linearComponentAX[i], c.linearComponentAY[i], c.linearComponentAZ[i],
+						c.angularComponentAX[i], c.angularComponentAY[i], c.angularComponentAZ[i], j1);
+			}
+			if (bodies.invMass[idB] != 0f) {
+				bodies.internalApplyImpulse(idB, c.linearComponentBX[i], c.linearComponentBY[i], c.linearComponentBZ[i],
+						c.angularComponentBX[i], c.angularComponentBY[i], c.angularComponentBZ[i], -j1);
+			}
+		}
+	}
+	
 	protected void addFrictionConstraint(Vector3f normalAxis, int solverBodyIdA, int solverBodyIdB, int frictionIndex, ManifoldPoint cp, Vector3f rel_pos1, Vector3f rel_pos2, CollisionObject colObj0, CollisionObject colObj1, float relaxation) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class);
+
 		stack.vectors.push();
 		try {
 			RigidBody body0 = RigidBody.upcast(colObj0);
@@ -372,6 +509,10 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 	
 	public float solveGroupCacheFriendlySetup(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifoldPtr, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal, IDebugDraw debugDrawer/*,btStackAlloc* stackAlloc*/) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<SolverBody> bodiesPool = BulletPool.get(SolverBody.class);
+		ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class);
+
 		BulletGlobals.pushProfile("solveGroupCacheFriendlySetup");
 		stack.vectors.push();
 		try {
@@ -704,9 +845,10 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 						}
 					}
 
-					for (j = 0; j < numConstraints; j++) {
-						BulletGlobals.pushProfile("solveConstraint");
-						try {
+					// JAVA NOTE: profiled per iteration rather than per constraint to keep the overhead low
+					BulletGlobals.pushProfile("solveConstraint");
+					try {
+						for (j = 0; j < numConstraints; j++) {
 							TypedConstraint constraint = constraints.get(constraints_offset+j);
 							// todo: use solver bodies, so we don't need to copy from/to btRigidBody
 
@@ -726,9 +868,9 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 								tmpSolverBodyPool.get(constraint.getRigidBodyB().getCompanionId()).readVelocity();
 							}
 						}
-						finally {
-							BulletGlobals.popProfile();
-						}
+					}
+					finally {
+						BulletGlobals.popProfile();
 					}
 
 					{
@@ -772,11 +914,426 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 		}
 	}
 
+	/**
+	 * Same as {@link #solveGroupCacheFriendlyIterations}, but solver bodies and constraints
+	 * are packed into primitive arrays first (see {@link SolverMode#SOLVER_STRUCT_OF_ARRAYS}).
+	 * Gives the same results in the same order of operations.
+	 */
+	public float solveGroupPackedIterations(List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal) {
+		BulletGlobals.pushProfile("solveGroupPackedIterations");
+		try {
+			PackedSolverBodies solverBodies = packedBodies;
+			PackedSolverConstraints contacts = packedConstraints;
+			PackedSolverConstraints frictions = packedFrictionConstraints;
+
+			solverBodies.pack(tmpSolverBodyPool);
+			contacts.pack(tmpSolverConstraintPool, solverBodies);
+			frictions.pack(tmpSolverFrictionConstraintPool, solverBodies);
+
+			int numConstraintPool = contacts.size();
+			int numFrictionPool = frictions.size();
+			int[] contactOrder = contacts.order;
+			int[] frictionOrder = frictions.order;
+			float[] contactAppliedImpulse = contacts.appliedImpulse;
+			int[] frictionIndex = frictions.frictionIndex;
+
+			// should traverse the contacts random order...
+			for (int iteration = 0; iteration < infoGlobal.numIterations; iteration++) {
+				int j;
+				if ((solverMode & SolverMode.SOLVER_RANDMIZE_ORDER) != 0) {
+					if ((iteration & 7) == 0) {
+						for (j = 0; j < numConstraintPool; ++j) {
+							int tmp = contactOrder[j];
+							int swapi = randInt2(j + 1);
+							contactOrder[j] = contactOrder[swapi];
+							contactOrder[swapi] = tmp;
+						}
+
+						for (j = 0; j < numFrictionPool; ++j) {
+							int tmp = frictionOrder[j];
+							int swapi = randInt2(j + 1);
+							frictionOrder[j] = frictionOrder[swapi];
+							frictionOrder[swapi] = tmp;
+						}
+					}
+				}
+
+				for (j = 0; j < numConstraints; j++) {
+					TypedConstraint constraint = constraints.get(constraints_offset+j);
+					RigidBody rbA = constraint.getRigidBodyA();
+					RigidBody rbB = constraint.getRigidBodyB();
+
+					if ((rbA.getIslandTag() >= 0) && (rbA.getCompanionId() >= 0)) {
+						solverBodies.writebackVelocity(rbA.getCompanionId(), rbA);
+					}
+					if ((rbB.getIslandTag() >= 0) && (rbB.getCompanionId() >= 0)) {
+						solverBodies.writebackVelocity(rbB.getCompanionId(), rbB);
+					}
+
+					constraint.solveConstraint(infoGlobal.timeStep);
+
+					if ((rbA.getIslandTag() >= 0) && (rbA.getCompanionId() >= 0)) {
+						solverBodies.readVelocity(rbA.getCompanionId(), rbA);
+					}
+					if ((rbB.getIslandTag() >= 0) && (rbB.getCompanionId() >= 0)) {
+						solverBodies.readVelocity(rbB.getCompanionId(), rbB);
+					}
+				}
+
+				for (j = 0; j < numConstraintPool; j++) {
+					resolveSingleCollisionCombinedPacked(solverBodies, contacts, contactOrder[j]);
+				}
+
+				for (j = 0; j < numFrictionPool; j++) {
+					int i = frictionOrder[j];
+					resolveSingleFrictionPacked(solverBodies, frictions, i, contactAppliedImpulse[frictionIndex[i]]);
+				}
+			}
+
+			solverBodies.unpack(tmpSolverBodyPool);
+			contacts.unpack(tmpSolverConstraintPool);
+			frictions.unpack(tmpSolverFrictionConstraintPool);
+
+			return 0f;
+		}
+		finally {
+			BulletGlobals.popProfile();
+		}
+	}
+
+	/**
+	 * Same as {@link #solveGroupPackedIterations}, but constraints are grouped into batches
+	 * without shared dynamic bodies (see {@link SolverMode#SOLVER_PARALLEL_BATCHES}). In each
+	 * iteration joints, contacts and frictions are solved batch after batch, constraints
+	 * of one batch are split between threads when parallel batch solver is enabled.<p>
+	 * 
+	 * Constraints in one batch don't affect each other, so the results are identical
+	 * regardless of number of threads and their timing. They differ from other modes,
+	 * as the constraints are solved in batch order (still using the velocities updated
+	 * by the previous batches, ie. Gauss-Seidel iteration). With {@link SolverMode#SOLVER_RANDMIZE_ORDER}
+	 * the constraints are shuffled once before the batches are built.
+	 */
+	public float solveGroupBatchedIterations(List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal) {
+		BulletGlobals.pushProfile("solveGroupBatchedIterations");
+		try {
+			PackedSolverBodies solverBodies = packedBodies;
+			PackedSolverConstraints contacts = packedConstraints;
+			PackedSolverConstraints frictions = packedFrictionConstraints;
+
+			solverBodies.pack(tmpSolverBodyPool);
+			contacts.pack(tmpSolverConstraintPool, solverBodies);
+			frictions.pack(tmpSolverFrictionConstraintPool, solverBodies);
+
+			int numConstraintPool = contacts.size();
+			int numFrictionPool = frictions.size();
+
+			// order inside of batch doesn't matter, shuffle before coloring instead
+			if ((solverMode & SolverMode.SOLVER_RANDMIZE_ORDER) != 0) {
+				shuffleOrder(contacts.order, numConstraintPool);
+				shuffleOrder(frictions.order, numFrictionPool);
+			}
+
+			buildBatches(contactBatches, contacts, solverBodies);
+			buildBatches(frictionBatches, frictions, solverBodies);
+			buildJointBatches(constraints, constraints_offset, numConstraints, solverBodies.size());
+			buildBatchSchedule();
+
+			batchJoints = constraints;
+			batchJointsOffset = constraints_offset;
+			batchTimeStep = infoGlobal.timeStep;
+			try {
+				if (canSolveBatchesInParallel()) {
+					solveBatchesParallel(infoGlobal.numIterations);
+				}
+				else {
+					for (int iteration = 0; iteration < infoGlobal.numIterations; iteration++) {
+						for (int p = 0; p < numPhases; p++) {
+							solveBatchRange(phaseType[p], phaseStart[p], phaseEnd[p]);
+						}
+					}
+				}
+			}
+			finally {
+				batchJoints = null;
+			}
+
+			solverBodies.unpack(tmpSolverBodyPool);
+			contacts.unpack(tmpSolverConstraintPool);
+			frictions.unpack(tmpSolverFrictionConstraintPool);
+
+			return 0f;
+		}
+		finally {
+			BulletGlobals.popProfile();
+		}
+	}
+
+	private void shuffleOrder(int[] order, int count) {
+		for (int j = 0; j < count; ++j) {
+			int tmp = order[j];
+			int swapi = randInt2(j + 1);
+			order[j] = order[swapi];
+			order[swapi] = tmp;
+		}
+	}
+
+	private void ensureBatchBodyIdCapacity(int capacity) {
+		if (batchBodyIdA.length < capacity) {
+			capacity = Math.max(capacity, batchBodyIdA.length << 1);
+			batchBodyIdA = new int[capacity];
+			batchBodyIdB = new int[capacity];
+		}
+	}
+
+	private void buildBatches(ConstraintBatches batches, PackedSolverConstraints c, PackedSolverBodies bodies) {
+		int count = c.size();
+		ensureBatchBodyIdCapacity(count);
+
+		// bodies with zero inverse mass are never modified, don't need to be colored
+		float[] invMass = bodies.invMass;
+		for (int i = 0; i < count; i++) {
+			int idA = c.solverBodyIdA[i];
+			int idB = c.solverBodyIdB[i];
+			batchBodyIdA[i] = invMass[idA] != 0f? idA : -1;
+			batchBodyIdB[i] = invMass[idB] != 0f? idB : -1;
+		}
+		batches.build(c.order, count, batchBodyIdA, batchBodyIdB, bodies.size());
+	}
+
+	private void buildJointBatches(List<TypedConstraint> constraints, int constraints_offset, int numConstraints, int numSolverBodies) {
+		ensureBatchBodyIdCapacity(numConstraints);
+		if (jointOrder.length < numConstraints) {
+			jointOrder = new int[Math.max(numConstraints, jointOrder.length << 1)];
+		}
+
+		// bodies without contacts don't have solver body, joints modify them directly
+		try {
+			for (int j = 0; j < numConstraints; j++) {
+				TypedConstraint constraint = constraints.get(constraints_offset+j);
+				batchBodyIdA[j] = getJointBodyId(constraint.getRigidBodyA(), numSolverBodies);
+				batchBodyIdB[j] = getJointBodyId(constraint.getRigidBodyB(), numSolverBodies);
+				jointOrder[j] = j;
+			}
+		}
+		finally {
+			for (int i = 0; i < jointBodies.size(); i++) {
+				jointBodies.get(i).setCompanionId(jointBodyCompanionIds[i]);
+			}
+		}
+		jointBatches.build(jointOrder, numConstraints, batchBodyIdA, batchBodyIdB, numSolverBodies + jointBodies.size());
+		jointBodies.clear();
+	}
+
+	private int getJointBodyId(RigidBody body, int numSolverBodies) {
+		if (body.getInvMass() == 0f) {
+			return -1;
+		}
+		int id = body.getCompanionId();
+		int index = id - numSolverBodies;
+		if (index >= 0 && index < jointBodies.size() && jointBodies.get(index) == body) {
+			// numbered by previous joint
+			return id;
+		}
+		if ((body.getIslandTag() >= 0) && (id >= 0)) {
+			return id;
+		}
+
+		index = jointBodies.size();
+		if (jointBodyCompanionIds.length == index) {
+			int[] newIds = new int[Math.max(16, index << 1)];
+			System.arraycopy(jointBodyCompanionIds, 0, newIds, 0, index);
+			jointBodyCompanionIds = newIds;
+		}
+		jointBodyCompanionIds[index] = id;
+		jointBodies.add(body);
+		body.setCompanionId(numSolverBodies + index);
+		return numSolverBodies + index;
+	}
+
+	private void buildBatchSchedule() {
+		int capacity = jointBatches.getNumBatches() + contactBatches.getNumBatches() + frictionBatches.getNumBatches();
+		if (phaseType.length < capacity) {
+			capacity = Math.max(capacity, phaseType.length << 1);
+			phaseType = new int[capacity];
+			phaseStart = new int[capacity];
+			phaseEnd = new int[capacity];
+			phaseChunkSize = new int[capacity];
+			phaseChunkOffset = new int[capacity + 1];
+		}
+
+		numPhases = 0;
+		chunksPerIteration = 0;
+		addBatchPhases(PHASE_JOINTS, jointBatches, JOINT_CHUNK_SIZE);
+		addBatchPhases(PHASE_CONTACTS, contactBatches, CONTACT_CHUNK_SIZE);
+		addBatchPhases(PHASE_FRICTIONS, frictionBatches, CONTACT_CHUNK_SIZE);
+		phaseChunkOffset[numPhases] = chunksPerIteration;
+	}
+
+	private void addBatchPhases(int type, ConstraintBatches batches, int chunkSize) {
+		for (int i = 0; i < batches.getNumBatches(); i++) {
+			int p = numPhases++;
+			phaseType[p] = type;
+			phaseStart[p] = batches.batchOffsets[i];
+			phaseEnd[p] = batches.batchOffsets[i+1];
+			phaseChunkSize[p] = chunkSize;
+			phaseChunkOffset[p] = chunksPerIteration;
+			chunksPerIteration += (batches.getBatchSize(i) + chunkSize - 1) / chunkSize;
+		}
+	}
+
+	/**
+	 * Solves constraints of one batch, start and end are positions in batch order.
+	 */
+	private void solveBatchRange(int type, int start, int end) {
+		PackedSolverBodies solverBodies = packedBodies;
+		
+		if (type == PHASE_CONTACTS) {
+			PackedSolverConstraints contacts = packedConstraints;
+			int[] batchConstraints = contactBatches.constraints;
+			for (int j = start; j < end; j++) {
+				resolveSingleCollisionCombinedPacked(solverBodies, contacts, batchConstraints[j]);
+			}
+		}
+		else if (type == PHASE_FRICTIONS) {
+			PackedSolverConstraints frictions = packedFrictionConstraints;
+			float[] contactAppliedImpulse = packedConstraints.appliedImpulse;
+			int[] frictionIndex = frictions.frictionIndex;
+			int[] batchConstraints = frictionBatches.constraints;
+			for (int j = start; j < end; j++) {
+				int i = batchConstraints[j];
+				resolveSingleFrictionPacked(solverBodies, frictions, i, contactAppliedImpulse[frictionIndex[i]]);
+			}
+		}
+		else {
+			int[] batchConstraints = jointBatches.constraints;
+			for (int j = start; j < end; j++) {
+				TypedConstraint constraint = batchJoints.get(batchJointsOffset+batchConstraints[j]);
+				RigidBody rbA = constraint.getRigidBodyA();
+				RigidBody rbB = constraint.getRigidBodyB();
+
+				if ((rbA.getIslandTag() >= 0) && (rbA.getCompanionId() >= 0)) {
+					solverBodies.writebackVelocity(rbA.getCompanionId(), rbA);
+				}
+				if ((rbB.getIslandTag() >= 0) && (rbB.getCompanionId() >= 0)) {
+					solverBodies.writebackVelocity(rbB.getCompanionId(), rbB);
+				}
+
+				constraint.solveConstraint(batchTimeStep);
+
+				if ((rbA.getIslandTag() >= 0) && (rbA.getCompanionId() >= 0)) {
+					solverBodies.readVelocity(rbA.getCompanionId(), rbA);
+				}
+				if ((rbB.getIslandTag() >= 0) && (rbB.getCompanionId() >= 0)) {
+					solverBodies.readVelocity(rbB.getCompanionId(), rbB);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enables solving of constraint batches on multiple threads in {@link SolverMode#SOLVER_PARALLEL_BATCHES}
+	 * mode. Useful for large islands (eg. big piles of objects), that can't be split
+	 * between threads otherwise. Results don't depend on the number of threads.
+	 * 
+	 * @param executor executor running the worker tasks, or null to disable parallel solving
+	 * @param numThreads number of threads solving the batches including the calling thread
+	 */
+	public void setParallelBatchSolver(Executor executor, int numThreads) {
+		batchWorkerGroup.setExecutor(executor, numThreads);
+		if (executor == null) {
+			batchWorkers = null;
+			return;
+		}
+
+		batchWorkers = new BatchWorker[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			batchWorkers[i] = new BatchWorker();
+		}
+	}
+
+	public int getParallelBatchThreadCount() {
+		return batchWorkerGroup.getNumThreads();
+	}
+
+	private boolean canSolveBatchesInParallel() {
+		// worth it only when some batch is split into more chunks
+		return batchWorkers != null && batchWorkers.length > 1 && chunksPerIteration > numPhases;
+	}
+
+	/**
+	 * Chunks of all iterations are numbered in solving order and taken by workers
+	 * one by one. Before solving a chunk the worker waits until all chunks of the
+	 * previous batches are solved. Workers don't wait for each other otherwise,
+	 * so it's fine when some of them are started late (or not at all).
+	 */
+	private void solveBatchesParallel(int numIterations) {
+		BatchWorker[] workers = batchWorkers;
+		int numWorkers = Math.min(workers.length, chunksPerIteration);
+
+		totalBatchChunks = numIterations * chunksPerIteration;
+		nextBatchChunk.set(0);
+		solvedBatchChunks.set(0);
+		for (int i = 0; i < numWorkers; i++) {
+			workers[i].init(this);
+		}
+		batchWorkerGroup.run(workers, numWorkers);
+	}
+
+	private void solveBatchChunks() {
+		int totalChunks = totalBatchChunks;
+		int chunksPerIteration = this.chunksPerIteration;
+		int[] phaseChunkOffset = this.phaseChunkOffset;
+		int phase = 0;
+		int chunk;
+
+		while ((chunk = nextBatchChunk.getAndIncrement()) < totalChunks) {
+			int iteration = chunk / chunksPerIteration;
+			int iterationChunk = chunk - iteration * chunksPerIteration;
+
+			// chunks are taken in increasing order, phase only moves forward within iteration
+			if (iterationChunk < phaseChunkOffset[phase]) {
+				phase = 0;
+			}
+			while (phaseChunkOffset[phase+1] <= iterationChunk) {
+				phase++;
+			}
+
+			// wait for previous batches
+			int phaseFirstChunk = iteration * chunksPerIteration + phaseChunkOffset[phase];
+			int spins = 0;
+			while (solvedBatchChunks.get() < phaseFirstChunk) {
+				if (batchWorkerGroup.isAborted()) {
+					return;
+				}
+				if (++spins > 100) {
+					Thread.yield();
+				}
+			}
+
+			int start = phaseStart[phase] + (iterationChunk - phaseChunkOffset[phase]) * phaseChunkSize[phase];
+			int end = Math.min(start + phaseChunkSize[phase], phaseEnd[phase]);
+			solveBatchRange(phaseType[phase], start, end);
+
+			solvedBatchChunks.incrementAndGet();
+		}
+	}
+
 	public float solveGroupCacheFriendly(List<CollisionObject> bodies, int numBodies, List<PersistentManifold> manifoldPtr, int manifold_offset, int numManifolds, List<TypedConstraint> constraints, int constraints_offset, int numConstraints, ContactSolverInfo infoGlobal, IDebugDraw debugDrawer/*,btStackAlloc* stackAlloc*/) {
+		ObjectPool<SolverBody> bodiesPool = BulletPool.get(SolverBody.class);
+		ObjectPool<SolverConstraint> constraintsPool = BulletPool.get(SolverConstraint.class);
+
 		int i;
 
 		solveGroupCacheFriendlySetup(bodies, numBodies, manifoldPtr, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, infoGlobal, debugDrawer/*, stackAlloc*/);
-		solveGroupCacheFriendlyIterations(bodies, numBodies, manifoldPtr, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, infoGlobal, debugDrawer/*, stackAlloc*/);
+		if ((solverMode & SolverMode.SOLVER_PARALLEL_BATCHES) != 0) {
+			solveGroupBatchedIterations(constraints, constraints_offset, numConstraints, infoGlobal);
+		}
+		else if ((solverMode & SolverMode.SOLVER_STRUCT_OF_ARRAYS) != 0) {
+			solveGroupPackedIterations(constraints, constraints_offset, numConstraints, infoGlobal);
+		}
+		else {
+			solveGroupCacheFriendlyIterations(bodies, numBodies, manifoldPtr, manifold_offset, numManifolds, constraints, constraints_offset, numConstraints, infoGlobal, debugDrawer/*, stackAlloc*/);
+		}
 
 		for (i = 0; i < tmpSolverBodyPool.size(); i++) {
 			SolverBody body = tmpSolverBodyPool.get(i);
@@ -839,6 +1396,9 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 					prepareConstraints(manifold, info, debugDrawer);
 
 					for (short p = 0; p < manifoldPtr.get(manifold_offset+j).getNumContacts(); p++) {
+						if (totalPoints == gOrder.length) {
+							expandOrder();
+						}
 						gOrder[totalPoints].manifoldIndex = j;
 						gOrder[totalPoints].pointIndex = p;
 						totalPoints++;
@@ -898,7 +1458,19 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 		}
 	}
 	
+	private void expandOrder() {
+		OrderIndex[] newOrder = new OrderIndex[Math.max(gOrder.length << 1, 64)];
+		System.arraycopy(gOrder, 0, newOrder, 0, gOrder.length);
+		for (int i=gOrder.length; i<newOrder.length; i++) {
+			newOrder[i] = new OrderIndex();
+		}
+		gOrder = newOrder;
+	}
+
 	protected void prepareConstraints(PersistentManifold manifoldPtr, ContactSolverInfo info, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+		ObjectPool<JacobianEntry> jacobiansPool = BulletPool.get(JacobianEntry.class);
+
 		stack.pushCommonMath();
 		try {
 			RigidBody body0 = (RigidBody) manifoldPtr.getBody0();
@@ -911,7 +1483,7 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 				//#endif //FORCE_REFESH_CONTACT_MANIFOLDS		
 				int numpoints = manifoldPtr.getNumContacts();
 
-				BulletGlobals.gTotalContactPoints += numpoints;
+				SimulationContext.get().counters.numContactPoints += numpoints;
 
 				Vector3f color = stack.vectors.get(0f, 1f, 0f);
 				for (int i = 0; i < numpoints; i++) {
@@ -963,7 +1535,7 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 							cpd = new ConstraintPersistentData();
 							//assert(cpd != null);
 
-							totalCpd++;
+							totalCpd.incrementAndGet();
 							//printf("totalCpd = %i Created Ptr %x\n",totalCpd,cpd);
 							cp.userPersistentData = cpd;
 							cpd.persistentLifeTime = cp.getLifeTime();
@@ -1105,6 +1677,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 
 	public float solveCombinedContactFriction(RigidBody body0, RigidBody body1, ManifoldPoint cp, ContactSolverInfo info, int iter, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			float maxImpulse = 0f;
@@ -1137,6 +1711,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 	
 	protected float solve(RigidBody body0, RigidBody body1, ManifoldPoint cp, ContactSolverInfo info, int iter, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			float maxImpulse = 0f;
@@ -1170,6 +1746,8 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	}
 
 	protected float solveFriction(RigidBody body0, RigidBody body1, ManifoldPoint cp, ContactSolverInfo info, int iter, IDebugDraw debugDrawer) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f color = stack.vectors.get(0f, 1f, 0f);
@@ -1225,6 +1803,29 @@ public class SequentialImpulseConstraintSolver extends ConstraintSolver {
 	
 	////////////////////////////////////////////////////////////////////////////
 	
+	/**
+	 * Solves chunks of constraint batches until there are none left.
+	 */
+	private static class BatchWorker implements Runnable {
+		private SequentialImpulseConstraintSolver solver;
+		private final SimulationContext context = new SimulationContext();
+
+		public void init(SequentialImpulseConstraintSolver solver) {
+			this.solver = solver;
+		}
+
+		public void run() {
+			SimulationContext previousContext = SimulationContext.enter(context);
+			try {
+				solver.solveBatchChunks();
+			}
+			finally {
+				solver = null;
+				SimulationContext.leave(previousContext);
+			}
+		}
+	}
+	
 	private static class OrderIndex {
 		public int manifoldIndex;
 		public int pointIndex;
@@ -34,8 +34,6 @@ import javax.vecmath.Vector3f;
  */
 public class SolverBody {
 	
-	protected final BulletStack stack = BulletStack.get();
-
 	public final Vector3f angularVelocity = new Vector3f();
 	public float angularFactor;
 	public float invMass;
@@ -45,6 +43,8 @@ public class SolverBody {
 	public final Vector3f centerOfMassPosition = new Vector3f();
 
 	public void getVelocityInLocalPoint(Vector3f rel_pos, Vector3f velocity) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Vector3f tmp = stack.vectors.get();
@@ -33,5 +33,12 @@ public class SolverMode {
 	public static final int SOLVER_FRICTION_SEPARATE = 2;
 	public static final int SOLVER_USE_WARMSTARTING  = 4;
 	public static final int SOLVER_CACHE_FRIENDLY    = 8;
+	/** Cache friendly solver iterates over bodies and constraints packed into primitive arrays. */
+	public static final int SOLVER_STRUCT_OF_ARRAYS  = 16;
+	/**
+	 * Cache friendly solver splits constraints into batches without shared dynamic bodies,
+	 * batches can be solved on multiple threads (see {@link SequentialImpulseConstraintSolver#setParallelBatchSolver}).
+	 */
+	public static final int SOLVER_PARALLEL_BATCHES  = 32;
 
 }
@@ -23,6 +23,7 @@
 
 package javabullet.dynamics.constraintsolver;
 
+import java.nio.ByteBuffer;
 import javabullet.BulletGlobals;
 import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
@@ -34,8 +35,6 @@ import javabullet.dynamics.RigidBody;
  */
 public abstract class TypedConstraint {
 	
-	protected final BulletStack stack = BulletStack.get();
-	
 	private static final RigidBody s_fixed = new RigidBody(0, null, null);
 
 	private int userConstraintType = -1;
@@ -94,6 +93,24 @@ public abstract class TypedConstraint {
 		return appliedImpulse;
 	}
 
+	/**
+	 * Returns number of bytes needed by {@link #writeSnapshot}.
+	 */
+	public int calculateSnapshotSize() {
+		return 4;
+	}
+
+	/**
+	 * Writes accumulated impulses, these are reported by getters after the step.
+	 */
+	public void writeSnapshot(ByteBuffer buf) {
+		buf.putFloat(appliedImpulse);
+	}
+
+	public void readSnapshot(ByteBuffer buf) {
+		appliedImpulse = buf.getFloat();
+	}
+
 	public TypedConstraintType getConstraintType() {
 		return constraintType;
 	}
@@ -25,6 +25,7 @@ package javabullet.dynamics.vehicle;
 
 import java.util.ArrayList;
 import java.util.List;
+import javabullet.BulletStack;
 import javabullet.dynamics.RigidBody;
 import javabullet.dynamics.constraintsolver.ContactConstraint;
 import javabullet.dynamics.constraintsolver.TypedConstraint;
@@ -119,6 +120,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateWheelTransform(int wheelIndex, boolean interpolatedTransform) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		stack.quats.push();
 		stack.matrices.push();
@@ -183,6 +186,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateWheelTransformsWS(WheelInfo wheel, boolean interpolatedTransform) {
+		BulletStack stack = BulletStack.get();
+
 		stack.transforms.push();
 		try {
 			wheel.raycastInfo.isInContact = false;
@@ -207,6 +212,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 
 	public float rayCast(WheelInfo wheel) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			updateWheelTransformsWS(wheel, false);
@@ -305,6 +312,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateVehicle(float step) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		stack.transforms.push();
 		try {
@@ -469,6 +478,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	private float calcRollingFriction(WheelContactPoint contactPoint) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			float j1 = 0f;
@@ -502,6 +513,8 @@ public class RaycastVehicle extends TypedConstraint {
 	}
 	
 	public void updateFriction(float timeStep) {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		stack.matrices.push();
 		try {
@@ -709,6 +722,8 @@ public class RaycastVehicle extends TypedConstraint {
 	 * Worldspace forward vector.
 	 */
 	public Vector3f getForwardVector() {
+		BulletStack stack = BulletStack.get();
+
 		stack.vectors.push();
 		try {
 			Transform chassisTrans = getChassisWorldTransform();
@@ -105,6 +105,51 @@ public class AabbUtil2 {
 		}
 	}
 	
+	/**
+	 * Calculates inverse of ray direction for use with {@link #rayAabb2}. Zero
+	 * components are replaced by large value to avoid division by zero.
+	 */
+	public static void calcRayInvDirection(Vector3f out, Vector3f rayFrom, Vector3f rayTo) {
+		float dx = rayTo.x - rayFrom.x;
+		float dy = rayTo.y - rayFrom.y;
+		float dz = rayTo.z - rayFrom.z;
+		out.x = (dx == 0f)? 1e30f : 1f / dx;
+		out.y = (dy == 0f)? 1e30f : 1f / dy;
+		out.z = (dz == 0f)? 1e30f : 1f / dz;
+	}
+	
+	/**
+	 * Slab test of ray against aabb, ray is parametrized from 0 (rayFrom) to 1.
+	 * 
+	 * @return true when the ray hits the aabb before lambdaMax
+	 */
+	public static boolean rayAabb2(Vector3f rayFrom, Vector3f rayInvDirection, Vector3f aabbMin, Vector3f aabbMax, float lambdaMax) {
+		float tmin = 0f;
+		float tmax = lambdaMax;
+
+		float t1 = (aabbMin.x - rayFrom.x) * rayInvDirection.x;
+		float t2 = (aabbMax.x - rayFrom.x) * rayInvDirection.x;
+		tmin = Math.max(tmin, Math.min(t1, t2));
+		tmax = Math.min(tmax, Math.max(t1, t2));
+		if (tmin > tmax) {
+			return false;
+		}
+
+		t1 = (aabbMin.y - rayFrom.y) * rayInvDirection.y;
+		t2 = (aabbMax.y - rayFrom.y) * rayInvDirection.y;
+		tmin = Math.max(tmin, Math.min(t1, t2));
+		tmax = Math.min(tmax, Math.max(t1, t2));
+		if (tmin > tmax) {
+			return false;
+		}
+
+		t1 = (aabbMin.z - rayFrom.z) * rayInvDirection.z;
+		t2 = (aabbMax.z - rayFrom.z) * rayInvDirection.z;
+		tmin = Math.max(tmin, Math.min(t1, t2));
+		tmax = Math.min(tmax, Math.max(t1, t2));
+		return tmin <= tmax;
+	}
+	
 	/**
 	 * Conservative test for overlap between two aabbs.
 	 */
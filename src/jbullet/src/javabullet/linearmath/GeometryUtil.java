@@ -182,4 +182,38 @@ public class GeometryUtil {
 		}
 	}
 	
+	/**
+	 * Reduces point cloud to vertices of its convex hull, limited to given count. Hull is
+	 * grown by repeatedly adding the point farthest outside of it, so the dropped points
+	 * are the ones closest to the simplified hull.
+	 * 
+	 * @param points input point cloud
+	 * @param maxVertices maximum number of output vertices (at least 4)
+	 * @param verticesOut output list, points are appended to it
+	 * @return false when points are degenerate (all in single plane), in such case all points are copied to output
+	 */
+	public static boolean simplifyConvexHull(List<Vector3f> points, int maxVertices, List<Vector3f> verticesOut) {
+		int numPoints = points.size();
+		float[] coords = new float[numPoints*3];
+		for (int i=0; i<numPoints; i++) {
+			Vector3f p = points.get(i);
+			coords[i*3+0] = p.x;
+			coords[i*3+1] = p.y;
+			coords[i*3+2] = p.z;
+		}
+		
+		QuickHull hull = new QuickHull();
+		if (!hull.build(coords, numPoints, maxVertices)) {
+			for (int i=0; i<numPoints; i++) {
+				verticesOut.add(new Vector3f(points.get(i)));
+			}
+			return false;
+		}
+		
+		for (int i=0; i<hull.getNumVertices(); i++) {
+			verticesOut.add(new Vector3f(points.get(hull.getVertexIndex(i))));
+		}
+		return true;
+	}
+	
 }
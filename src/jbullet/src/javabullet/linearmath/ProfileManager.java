@@ -0,0 +1,196 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+import java.io.PrintStream;
+import javabullet.BulletGlobals;
+import javabullet.SimulationContext;
+import javabullet.SimulationCounters;
+
+/**
+ * Hierarchical profiler. Each thread has its own instance with its own tree
+ * of {@link ProfileNode}s, so blocks executed on worker threads don't interfere
+ * with the main thread. Use {@link BulletGlobals#pushProfile} and
+ * {@link BulletGlobals#popProfile} to mark the blocks, profiling must be enabled
+ * first with {@link BulletGlobals#setProfilingEnabled}.<p>
+ * 
+ * {@link #incrementFrameCounter} is called by the dynamics world at the end of
+ * each stepSimulation, it stores times and call counts of the finished frame
+ * into {@link #getLastFrame snapshot} and starts a new frame. Statistic counters
+ * of the frame are taken from the current {@link SimulationContext}, so they
+ * belong to the world stepped in the frame even when the thread steps several worlds.
+ * 
+ * @author jezek2
+ */
+public class ProfileManager {
+
+	private static final ThreadLocal<ProfileManager> threadLocal = new ThreadLocal<ProfileManager>() {
+		@Override
+		protected ProfileManager initialValue() {
+			return new ProfileManager();
+		}
+	};
+
+	/**
+	 * Returns profile manager for current thread.
+	 */
+	public static ProfileManager get() {
+		return threadLocal.get();
+	}
+
+	private final ProfileNode root = new ProfileNode("Root", null);
+	private ProfileNode currentNode = root;
+	private int frameCounter = 0;
+	private long resetTime = System.nanoTime();
+
+	private final ProfileSnapshot lastFrame = new ProfileSnapshot();
+
+	protected ProfileManager() {
+	}
+
+	public void startProfile(String name) {
+		if (name != currentNode.name) {
+			currentNode = currentNode.getSubNode(name);
+		}
+		currentNode.call();
+	}
+
+	public void stopProfile() {
+		// return will indicate whether we should back up to our parent (we may
+		// be profiling a recursive function)
+		if (currentNode != root && currentNode.returnNode()) {
+			currentNode = currentNode.parent;
+		}
+	}
+
+	/**
+	 * Resets all statistics, shouldn't be called while any block is open.
+	 */
+	public void reset() {
+		root.reset();
+		frameCounter = 0;
+		resetTime = System.nanoTime();
+	}
+
+	/**
+	 * Finishes current frame, the statistics are available in {@link #getLastFrame}.
+	 */
+	public void incrementFrameCounter() {
+		frameCounter++;
+		snapshot(lastFrame);
+		root.resetFrame();
+	}
+
+	/**
+	 * Stores statistics of current (unfinished) frame into given snapshot.
+	 * Counters are taken from the current {@link SimulationContext}, outside
+	 * of the world step it's the default context of the thread.
+	 */
+	public void snapshot(ProfileSnapshot out) {
+		out.clear();
+		out.frameNumber = frameCounter;
+		for (ProfileNode node = root.child; node != null; node = node.sibling) {
+			out.frameTime += node.frameTime;
+			addNode(out, node, -1, 0);
+		}
+
+		SimulationContext context = SimulationContext.get();
+		SimulationCounters counters = context.counters;
+		SimulationCounters last = context.lastFrameCounters;
+
+		// counters can be reset by the application at any time
+		out.numGjkChecks = delta(counters.numGjkChecks, last.numGjkChecks);
+		out.numDeepPenetrationChecks = delta(counters.numDeepPenetrationChecks, last.numDeepPenetrationChecks);
+		out.numContactPoints = delta(counters.numContactPoints, last.numContactPoints);
+		out.overlappingPairs = counters.numOverlappingPairs;
+
+		if (out == lastFrame) {
+			last.set(counters);
+		}
+	}
+	
+	private static int delta(int value, int lastValue) {
+		return value >= lastValue? value - lastValue : value;
+	}
+
+	private void addNode(ProfileSnapshot out, ProfileNode node, int parent, int depth) {
+		int idx = out.add(node.name, parent, depth, node.frameCalls, node.frameTime);
+		for (ProfileNode child = node.child; child != null; child = child.sibling) {
+			addNode(out, child, idx, depth + 1);
+		}
+	}
+
+	/**
+	 * Returns statistics of the last finished frame. The returned object is
+	 * overwritten at the end of each frame, use {@link ProfileSnapshot#set} to
+	 * keep a copy.
+	 */
+	public ProfileSnapshot getLastFrame() {
+		return lastFrame;
+	}
+
+	public ProfileNode getRoot() {
+		return root;
+	}
+
+	public int getFrameCountSinceReset() {
+		return frameCounter;
+	}
+
+	/**
+	 * Returns time since last reset in nanoseconds.
+	 */
+	public long getTimeSinceReset() {
+		return System.nanoTime() - resetTime;
+	}
+
+	/**
+	 * Prints total times and call counts since last reset.
+	 */
+	public void dump(PrintStream out) {
+		for (ProfileNode node = root.child; node != null; node = node.sibling) {
+			dumpNode(out, node, 0);
+		}
+	}
+
+	private void dumpNode(PrintStream out, ProfileNode node, int depth) {
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			buf.append("  ");
+		}
+		buf.append(node.name);
+		buf.append(" = ");
+		buf.append(node.totalTime / 1000L);
+		buf.append(" us (");
+		buf.append(node.totalCalls);
+		buf.append(" calls)");
+		out.println(buf);
+
+		for (ProfileNode child = node.child; child != null; child = child.sibling) {
+			dumpNode(out, child, depth + 1);
+		}
+	}
+
+}
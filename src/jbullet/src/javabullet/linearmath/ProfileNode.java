@@ -0,0 +1,171 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+/**
+ * A node in the profile hierarchy, records call counts and total time
+ * of single named block under given parent block. Nodes are created on
+ * first use and then reused, so profiling doesn't allocate memory in
+ * steady state.
+ * 
+ * @author jezek2
+ */
+public class ProfileNode {
+
+	protected final String name;
+	protected final ProfileNode parent;
+	protected ProfileNode child;
+	protected ProfileNode sibling;
+
+	protected int totalCalls;
+	protected long totalTime;
+	protected int frameCalls;
+	protected long frameTime;
+
+	protected long startTime;
+	protected int recursionCounter;
+
+	public ProfileNode(String name, ProfileNode parent) {
+		this.name = name;
+		this.parent = parent;
+	}
+
+	/**
+	 * Returns child node with given name, creates it when not present.
+	 * Names are expected to be string constants, so they're compared by
+	 * reference first.
+	 */
+	public ProfileNode getSubNode(String name) {
+		ProfileNode node = child;
+		while (node != null) {
+			if (node.name == name) {
+				return node;
+			}
+			node = node.sibling;
+		}
+
+		node = child;
+		while (node != null) {
+			if (node.name.equals(name)) {
+				return node;
+			}
+			node = node.sibling;
+		}
+
+		// append, so the children are kept in order of the first call
+		node = new ProfileNode(name, this);
+		if (child == null) {
+			child = node;
+		}
+		else {
+			ProfileNode last = child;
+			while (last.sibling != null) {
+				last = last.sibling;
+			}
+			last.sibling = node;
+		}
+		return node;
+	}
+
+	public void call() {
+		totalCalls++;
+		frameCalls++;
+		if (recursionCounter++ == 0) {
+			startTime = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return true when the outermost (non-recursive) call has returned
+	 */
+	public boolean returnNode() {
+		if (--recursionCounter == 0) {
+			long time = System.nanoTime() - startTime;
+			totalTime += time;
+			frameTime += time;
+			return true;
+		}
+		return false;
+	}
+
+	public void reset() {
+		totalCalls = 0;
+		totalTime = 0L;
+		frameCalls = 0;
+		frameTime = 0L;
+
+		for (ProfileNode node = child; node != null; node = node.sibling) {
+			node.reset();
+		}
+	}
+
+	public void resetFrame() {
+		frameCalls = 0;
+		frameTime = 0L;
+
+		for (ProfileNode node = child; node != null; node = node.sibling) {
+			node.resetFrame();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ProfileNode getParent() {
+		return parent;
+	}
+
+	public ProfileNode getChild() {
+		return child;
+	}
+
+	public ProfileNode getSibling() {
+		return sibling;
+	}
+
+	public int getTotalCalls() {
+		return totalCalls;
+	}
+
+	/**
+	 * Returns total time in nanoseconds.
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	public int getFrameCalls() {
+		return frameCalls;
+	}
+
+	/**
+	 * Returns time spent during current frame in nanoseconds.
+	 */
+	public long getFrameTime() {
+		return frameTime;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+/**
+ * Flattened per-frame copy of the profile hierarchy together with values
+ * of the statistic counters of the world stepped in the frame. Arrays are reused between frames and
+ * grow only when new profile blocks appear, so taking a snapshot every
+ * frame doesn't allocate memory in steady state.<p>
+ * 
+ * Nodes are stored in depth-first order, {@link #parents} points to the index
+ * of the parent node (-1 for top-level blocks).
+ * 
+ * @author jezek2
+ */
+public class ProfileSnapshot {
+
+	/** Number of the frame this snapshot was taken at. */
+	public int frameNumber;
+	
+	/** Sum of times of top-level blocks during the frame in nanoseconds. */
+	public long frameTime;
+
+	public int size;
+	public String[] names = new String[0];
+	public int[] parents = new int[0];
+	public int[] depths = new int[0];
+	public int[] calls = new int[0];
+	public long[] times = new long[0];
+
+	/** Number of GJK checks during the frame, see {@link javabullet.SimulationCounters#numGjkChecks}. */
+	public int numGjkChecks;
+	/** Number of penetration depth computations during the frame. */
+	public int numDeepPenetrationChecks;
+	/** Number of contact points prepared for the solver during the frame. */
+	public int numContactPoints;
+	/** Number of overlapping pairs at the end of the frame, see {@link javabullet.SimulationCounters#numOverlappingPairs}. */
+	public int overlappingPairs;
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			names[i] = null;
+		}
+		size = 0;
+		frameTime = 0L;
+	}
+
+	/**
+	 * Appends node and returns its index.
+	 */
+	public int add(String name, int parent, int depth, int numCalls, long time) {
+		if (size == names.length) {
+			expand();
+		}
+
+		int idx = size++;
+		names[idx] = name;
+		parents[idx] = parent;
+		depths[idx] = depth;
+		calls[idx] = numCalls;
+		times[idx] = time;
+		return idx;
+	}
+
+	/**
+	 * Returns index of first node with given name, or -1 when not present.
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns total time in nanoseconds of all nodes with given name
+	 * (the same block can be called from different parents).
+	 */
+	public long getTime(String name) {
+		long time = 0L;
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				time += times[i];
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * Returns number of calls of all nodes with given name.
+	 */
+	public int getCalls(String name) {
+		int num = 0;
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				num += calls[i];
+			}
+		}
+		return num;
+	}
+
+	public void set(ProfileSnapshot s) {
+		clear();
+		for (int i = 0; i < s.size; i++) {
+			add(s.names[i], s.parents[i], s.depths[i], s.calls[i], s.times[i]);
+		}
+		frameNumber = s.frameNumber;
+		frameTime = s.frameTime;
+		numGjkChecks = s.numGjkChecks;
+		numDeepPenetrationChecks = s.numDeepPenetrationChecks;
+		numContactPoints = s.numContactPoints;
+		overlappingPairs = s.overlappingPairs;
+	}
+
+	private void expand() {
+		int newCapacity = Math.max(16, names.length << 1);
+
+		String[] newNames = new String[newCapacity];
+		int[] newParents = new int[newCapacity];
+		int[] newDepths = new int[newCapacity];
+		int[] newCalls = new int[newCapacity];
+		long[] newTimes = new long[newCapacity];
+
+		System.arraycopy(names, 0, newNames, 0, size);
+		System.arraycopy(parents, 0, newParents, 0, size);
+		System.arraycopy(depths, 0, newDepths, 0, size);
+		System.arraycopy(calls, 0, newCalls, 0, size);
+		System.arraycopy(times, 0, newTimes, 0, size);
+
+		names = newNames;
+		parents = newParents;
+		depths = newDepths;
+		calls = newCalls;
+		times = newTimes;
+	}
+
+}
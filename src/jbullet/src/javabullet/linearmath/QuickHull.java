@@ -0,0 +1,597 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+import gnu.trove.TLongIntHashMap;
+import javabullet.util.IntArrayList;
+
+/**
+ * QuickHull computes convex hull of point cloud. The hull is grown incrementally
+ * by adding the farthest point outside of it, therefore building can be stopped
+ * after given number of vertices to get simplified hull that still covers most
+ * of the original point cloud.<p>
+ * 
+ * Result is described by hull vertices (indices into input points), triangle
+ * faces and vertex adjacency (neighbour vertices connected by hull edges).
+ * 
+ * @author jezek2
+ */
+public class QuickHull {
+
+	// relative tolerance used for deciding if point is outside of face, computations are
+	// done in double precision so it can be much smaller than precision of float input
+	private static final double RELATIVE_TOLERANCE = 1e-10;
+	
+	private float[] points;
+	private int numPoints;
+	private double tolerance;
+	
+	// triangle faces with outward normal, removed faces are just marked as not alive
+	private int numFaces;
+	private int numAliveFaces;
+	private int[] faceVertices = new int[3*64];
+	private double[] facePlanes = new double[4*64];
+	private boolean[] faceAlive = new boolean[64];
+	private int[] faceMark = new int[64];
+	
+	// conflict lists (points outside of face), linked through nextConflict
+	private int[] faceConflicts = new int[64];
+	private int[] faceFarthest = new int[64];
+	private double[] faceFarthestDist = new double[64];
+	private int[] nextConflict = new int[0];
+	private int[] vertexMark = new int[0];
+	private int mark;
+	
+	// faces with non-empty conflict list ordered by distance of the farthest point (max-heap),
+	// removed faces are skipped when popped
+	private int heapSize;
+	private int[] heapFaces = new int[64];
+	private double[] heapDists = new double[64];
+	
+	// directed edge -> face index + 1
+	private final TLongIntHashMap edges = new TLongIntHashMap();
+	
+	private final IntArrayList visibleFaces = new IntArrayList();
+	private final IntArrayList horizon = new IntArrayList();
+	private final IntArrayList orphans = new IntArrayList();
+	private final IntArrayList newFaces = new IntArrayList();
+	
+	// results:
+	private int numVertices;
+	private int[] vertexIndices = new int[0];
+	private int numHullFaces;
+	private int[] hullFaces = new int[0];
+	private int[] adjacencyOffsets = new int[1];
+	private int[] adjacency = new int[0];
+
+	/**
+	 * Builds convex hull of given points.
+	 * 
+	 * @param points point coordinates (x, y, z triplets)
+	 * @param numPoints number of points
+	 * @param maxVertices maximum number of hull vertices, use Integer.MAX_VALUE for exact hull
+	 * @return false when points are degenerate (all in single plane) or maxVertices is less than 4
+	 */
+	public boolean build(float[] points, int numPoints, int maxVertices) {
+		this.points = points;
+		this.numPoints = numPoints;
+		
+		clear();
+		
+		if (numPoints < 4 || maxVertices < 4) {
+			return false;
+		}
+		
+		double maxX = 0.0, maxY = 0.0, maxZ = 0.0;
+		for (int i=0; i<numPoints; i++) {
+			maxX = Math.max(maxX, Math.abs(points[i*3+0]));
+			maxY = Math.max(maxY, Math.abs(points[i*3+1]));
+			maxZ = Math.max(maxZ, Math.abs(points[i*3+2]));
+		}
+		tolerance = RELATIVE_TOLERANCE * (maxX + maxY + maxZ);
+		
+		if (nextConflict.length < numPoints) {
+			nextConflict = new int[numPoints];
+			vertexMark = new int[numPoints];
+		}
+		else {
+			for (int i=0; i<numPoints; i++) {
+				vertexMark[i] = 0;
+			}
+		}
+		
+		if (!createInitialSimplex()) {
+			clear();
+			return false;
+		}
+		
+		// always add the farthest point, it keeps the hull well conditioned
+		// and gives best approximation when number of vertices is limited
+		int vertexCount = 4;
+		while (vertexCount < maxVertices && heapSize > 0) {
+			int face = heapPop();
+			if (faceAlive[face]) {
+				vertexCount += addPoint(face, faceFarthest[face]);
+			}
+		}
+		
+		createResult();
+		return true;
+	}
+	
+	/**
+	 * Returns number of hull vertices.
+	 */
+	public int getNumVertices() {
+		return numVertices;
+	}
+	
+	/**
+	 * Returns index of input point for given hull vertex.
+	 */
+	public int getVertexIndex(int vertex) {
+		return vertexIndices[vertex];
+	}
+	
+	/**
+	 * Returns number of triangle faces of hull.
+	 */
+	public int getNumFaces() {
+		return numHullFaces;
+	}
+	
+	/**
+	 * Returns hull vertex of face (corners are in counter-clockwise order when viewed from outside).
+	 */
+	public int getFaceVertex(int face, int corner) {
+		return hullFaces[face*3 + corner];
+	}
+	
+	/**
+	 * Returns offsets into adjacency array, neighbours of hull vertex i are stored at
+	 * range [offsets[i], offsets[i+1]). Array has getNumVertices()+1 valid entries.
+	 */
+	public int[] getAdjacencyOffsets() {
+		return adjacencyOffsets;
+	}
+	
+	/**
+	 * Returns neighbour hull vertices, see {@link #getAdjacencyOffsets}.
+	 */
+	public int[] getAdjacency() {
+		return adjacency;
+	}
+	
+	private void clear() {
+		for (int f=0; f<numFaces; f++) {
+			faceAlive[f] = false;
+		}
+		numFaces = 0;
+		numAliveFaces = 0;
+		heapSize = 0;
+		edges.clear();
+		numVertices = 0;
+		numHullFaces = 0;
+	}
+	
+	private boolean createInitialSimplex() {
+		// extreme points along axes:
+		int[] minIdx = new int[3];
+		int[] maxIdx = new int[3];
+		for (int i=1; i<numPoints; i++) {
+			for (int axis=0; axis<3; axis++) {
+				if (points[i*3+axis] < points[minIdx[axis]*3+axis]) minIdx[axis] = i;
+				if (points[i*3+axis] > points[maxIdx[axis]*3+axis]) maxIdx[axis] = i;
+			}
+		}
+		
+		// two most distant extreme points:
+		int v0 = -1, v1 = -1;
+		double maxDist = 0.0;
+		for (int axis=0; axis<3; axis++) {
+			double dist = distanceSquared(minIdx[axis], maxIdx[axis]);
+			if (dist > maxDist) {
+				maxDist = dist;
+				v0 = minIdx[axis];
+				v1 = maxIdx[axis];
+			}
+		}
+		if (maxDist <= tolerance*tolerance) {
+			return false;
+		}
+		
+		// farthest point from line:
+		double dx = points[v1*3+0] - points[v0*3+0];
+		double dy = points[v1*3+1] - points[v0*3+1];
+		double dz = points[v1*3+2] - points[v0*3+2];
+		int v2 = -1;
+		maxDist = 0.0;
+		for (int i=0; i<numPoints; i++) {
+			double px = points[i*3+0] - points[v0*3+0];
+			double py = points[i*3+1] - points[v0*3+1];
+			double pz = points[i*3+2] - points[v0*3+2];
+			double cx = py*dz - pz*dy;
+			double cy = pz*dx - px*dz;
+			double cz = px*dy - py*dx;
+			double dist = cx*cx + cy*cy + cz*cz;
+			if (dist > maxDist) {
+				maxDist = dist;
+				v2 = i;
+			}
+		}
+		if (v2 == -1 || maxDist / (dx*dx + dy*dy + dz*dz) <= tolerance*tolerance) {
+			return false;
+		}
+		
+		// farthest point from plane:
+		int f = addFace(v0, v1, v2);
+		int v3 = -1;
+		maxDist = 0.0;
+		for (int i=0; i<numPoints; i++) {
+			double dist = Math.abs(distance(f, i));
+			if (dist > maxDist) {
+				maxDist = dist;
+				v3 = i;
+			}
+		}
+		if (v3 == -1 || maxDist <= tolerance) {
+			return false;
+		}
+		
+		boolean flip = distance(f, v3) > 0.0;
+		clear();
+		
+		if (flip) {
+			addFace(v0, v2, v1);
+			addFace(v0, v1, v3);
+			addFace(v1, v2, v3);
+			addFace(v2, v0, v3);
+		}
+		else {
+			addFace(v0, v1, v2);
+			addFace(v0, v3, v1);
+			addFace(v1, v3, v2);
+			addFace(v2, v3, v0);
+		}
+		
+		// assign remaining points to faces:
+		for (int i=0; i<numPoints; i++) {
+			if (i != v0 && i != v1 && i != v2 && i != v3) {
+				assignPoint(i, 0, 4);
+			}
+		}
+		for (int i=0; i<4; i++) {
+			if (faceFarthest[i] != -1) {
+				heapPush(i, faceFarthestDist[i]);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds point to hull, returns change of number of vertices.
+	 */
+	private int addPoint(int face, int point) {
+		mark++;
+		
+		// find faces visible from point, grown from the face point belongs to:
+		visibleFaces.clear();
+		horizon.clear();
+		visibleFaces.add(face);
+		faceMark[face] = mark;
+		
+		for (int i=0; i<visibleFaces.size(); i++) {
+			int f = visibleFaces.get(i);
+			for (int e=0; e<3; e++) {
+				int a = faceVertices[f*3 + e];
+				int b = faceVertices[f*3 + (e+1)%3];
+				int neighbour = edges.get(edgeKey(b, a)) - 1;
+				assert (neighbour >= 0);
+				if (faceMark[neighbour] == mark) {
+					continue;
+				}
+				if (distance(neighbour, point) > tolerance) {
+					faceMark[neighbour] = mark;
+					visibleFaces.add(neighbour);
+				}
+				else {
+					horizon.add(a);
+					horizon.add(b);
+				}
+			}
+		}
+		
+		// vertices of visible faces not on horizon are no longer part of hull:
+		for (int i=0; i<horizon.size(); i++) {
+			vertexMark[horizon.get(i)] = mark;
+		}
+		int removedVertices = 0;
+		for (int i=0; i<visibleFaces.size(); i++) {
+			int f = visibleFaces.get(i);
+			for (int c=0; c<3; c++) {
+				int v = faceVertices[f*3 + c];
+				if (vertexMark[v] != mark && vertexMark[v] != -mark) {
+					vertexMark[v] = -mark;
+					removedVertices++;
+				}
+			}
+		}
+		
+		// collect points outside of visible faces and remove them:
+		orphans.clear();
+		for (int i=0; i<visibleFaces.size(); i++) {
+			int f = visibleFaces.get(i);
+			for (int p=faceConflicts[f]; p != -1; p=nextConflict[p]) {
+				if (p != point) {
+					orphans.add(p);
+				}
+			}
+			removeFace(f);
+		}
+		
+		// connect horizon with new point:
+		int firstNewFace = numFaces;
+		for (int i=0; i<horizon.size(); i+=2) {
+			addFace(horizon.get(i), horizon.get(i+1), point);
+		}
+		
+		for (int i=0; i<orphans.size(); i++) {
+			assignPoint(orphans.get(i), firstNewFace, numFaces);
+		}
+		for (int f=firstNewFace; f<numFaces; f++) {
+			if (faceFarthest[f] != -1) {
+				heapPush(f, faceFarthestDist[f]);
+			}
+		}
+		
+		return 1 - removedVertices;
+	}
+	
+	private void assignPoint(int point, int firstFace, int endFace) {
+		int bestFace = -1;
+		double maxDist = tolerance;
+		for (int f=firstFace; f<endFace; f++) {
+			double dist = distance(f, point);
+			if (dist > maxDist) {
+				maxDist = dist;
+				bestFace = f;
+			}
+		}
+		
+		// points inside of hull are dropped
+		if (bestFace != -1) {
+			nextConflict[point] = faceConflicts[bestFace];
+			faceConflicts[bestFace] = point;
+			if (maxDist > faceFarthestDist[bestFace]) {
+				faceFarthestDist[bestFace] = maxDist;
+				faceFarthest[bestFace] = point;
+			}
+		}
+	}
+	
+	private void heapPush(int face, double dist) {
+		if (heapSize == heapFaces.length) {
+			heapFaces = copyOf(heapFaces, heapSize << 1);
+			double[] newDists = new double[heapSize << 1];
+			System.arraycopy(heapDists, 0, newDists, 0, heapSize);
+			heapDists = newDists;
+		}
+		
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (heapDists[parent] >= dist) {
+				break;
+			}
+			heapFaces[i] = heapFaces[parent];
+			heapDists[i] = heapDists[parent];
+			i = parent;
+		}
+		heapFaces[i] = face;
+		heapDists[i] = dist;
+	}
+	
+	private int heapPop() {
+		int top = heapFaces[0];
+		int face = heapFaces[--heapSize];
+		double dist = heapDists[heapSize];
+		
+		int i = 0;
+		for (;;) {
+			int child = 2*i + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapDists[child + 1] > heapDists[child]) {
+				child++;
+			}
+			if (heapDists[child] <= dist) {
+				break;
+			}
+			heapFaces[i] = heapFaces[child];
+			heapDists[i] = heapDists[child];
+			i = child;
+		}
+		heapFaces[i] = face;
+		heapDists[i] = dist;
+		return top;
+	}
+	
+	private int addFace(int a, int b, int c) {
+		if (numFaces == faceAlive.length) {
+			expandFaces();
+		}
+		
+		int f = numFaces++;
+		numAliveFaces++;
+		faceVertices[f*3+0] = a;
+		faceVertices[f*3+1] = b;
+		faceVertices[f*3+2] = c;
+		faceAlive[f] = true;
+		faceMark[f] = 0;
+		faceConflicts[f] = -1;
+		faceFarthest[f] = -1;
+		faceFarthestDist[f] = 0.0;
+		
+		double e0x = points[b*3+0] - points[a*3+0];
+		double e0y = points[b*3+1] - points[a*3+1];
+		double e0z = points[b*3+2] - points[a*3+2];
+		double e1x = points[c*3+0] - points[a*3+0];
+		double e1y = points[c*3+1] - points[a*3+1];
+		double e1z = points[c*3+2] - points[a*3+2];
+		double nx = e0y*e1z - e0z*e1y;
+		double ny = e0z*e1x - e0x*e1z;
+		double nz = e0x*e1y - e0y*e1x;
+		double len = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if (len > 0.0) {
+			nx /= len;
+			ny /= len;
+			nz /= len;
+		}
+		facePlanes[f*4+0] = nx;
+		facePlanes[f*4+1] = ny;
+		facePlanes[f*4+2] = nz;
+		facePlanes[f*4+3] = -(nx*points[a*3+0] + ny*points[a*3+1] + nz*points[a*3+2]);
+		
+		edges.put(edgeKey(a, b), f+1);
+		edges.put(edgeKey(b, c), f+1);
+		edges.put(edgeKey(c, a), f+1);
+		return f;
+	}
+	
+	private void removeFace(int f) {
+		int a = faceVertices[f*3+0];
+		int b = faceVertices[f*3+1];
+		int c = faceVertices[f*3+2];
+		edges.remove(edgeKey(a, b));
+		edges.remove(edgeKey(b, c));
+		edges.remove(edgeKey(c, a));
+		faceAlive[f] = false;
+		numAliveFaces--;
+	}
+	
+	private void expandFaces() {
+		int newSize = faceAlive.length << 1;
+		faceVertices = copyOf(faceVertices, newSize*3);
+		faceMark = copyOf(faceMark, newSize);
+		faceConflicts = copyOf(faceConflicts, newSize);
+		faceFarthest = copyOf(faceFarthest, newSize);
+		
+		double[] newPlanes = new double[newSize*4];
+		System.arraycopy(facePlanes, 0, newPlanes, 0, facePlanes.length);
+		facePlanes = newPlanes;
+		
+		double[] newDists = new double[newSize];
+		System.arraycopy(faceFarthestDist, 0, newDists, 0, faceFarthestDist.length);
+		faceFarthestDist = newDists;
+		
+		boolean[] newAlive = new boolean[newSize];
+		System.arraycopy(faceAlive, 0, newAlive, 0, faceAlive.length);
+		faceAlive = newAlive;
+	}
+	
+	private void createResult() {
+		// map input points to hull vertices:
+		int[] vertexMap = vertexMark;
+		for (int i=0; i<numPoints; i++) {
+			vertexMap[i] = -1;
+		}
+		
+		if (vertexIndices.length < numPoints) {
+			vertexIndices = new int[numPoints];
+		}
+		if (hullFaces.length < numAliveFaces*3) {
+			hullFaces = new int[numAliveFaces*3];
+		}
+		
+		numVertices = 0;
+		numHullFaces = 0;
+		for (int f=0; f<numFaces; f++) {
+			if (!faceAlive[f]) {
+				continue;
+			}
+			
+			for (int c=0; c<3; c++) {
+				int p = faceVertices[f*3 + c];
+				if (vertexMap[p] == -1) {
+					vertexMap[p] = numVertices;
+					vertexIndices[numVertices++] = p;
+				}
+				hullFaces[numHullFaces*3 + c] = vertexMap[p];
+			}
+			numHullFaces++;
+		}
+		
+		// each directed edge a->b of closed hull gives neighbour b of vertex a exactly once:
+		adjacencyOffsets = new int[numVertices+1];
+		for (int i=0; i<numHullFaces*3; i++) {
+			adjacencyOffsets[hullFaces[i]+1]++;
+		}
+		for (int i=0; i<numVertices; i++) {
+			adjacencyOffsets[i+1] += adjacencyOffsets[i];
+		}
+		
+		adjacency = new int[numHullFaces*3];
+		int[] fill = new int[numVertices];
+		for (int f=0; f<numHullFaces; f++) {
+			for (int c=0; c<3; c++) {
+				int a = hullFaces[f*3 + c];
+				int b = hullFaces[f*3 + (c+1)%3];
+				adjacency[adjacencyOffsets[a] + fill[a]++] = b;
+			}
+		}
+		
+		// vertexMark is reused as vertexMap, reset it:
+		for (int i=0; i<numPoints; i++) {
+			vertexMark[i] = 0;
+		}
+		mark = 0;
+	}
+	
+	private double distance(int face, int point) {
+		return facePlanes[face*4+0] * points[point*3+0] +
+				facePlanes[face*4+1] * points[point*3+1] +
+				facePlanes[face*4+2] * points[point*3+2] +
+				facePlanes[face*4+3];
+	}
+	
+	private double distanceSquared(int p0, int p1) {
+		double dx = points[p1*3+0] - points[p0*3+0];
+		double dy = points[p1*3+1] - points[p0*3+1];
+		double dz = points[p1*3+2] - points[p0*3+2];
+		return dx*dx + dy*dy + dz*dz;
+	}
+	
+	private static long edgeKey(int a, int b) {
+		return ((long)a << 32) | (b & 0xFFFFFFFFL);
+	}
+	
+	private static int[] copyOf(int[] array, int newSize) {
+		int[] newArray = new int[newSize];
+		System.arraycopy(array, 0, newArray, 0, Math.min(array.length, newSize));
+		return newArray;
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.linearmath;
+
+import java.nio.ByteBuffer;
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Helpers for writing math types to world snapshots. Values are stored as raw
+ * floats in the byte order of the buffer, so they are restored exactly.
+ * 
+ * @author jezek2
+ */
+public class SnapshotUtil {
+
+	public static final int VECTOR_SIZE = 3 * 4;
+	public static final int MATRIX_SIZE = 9 * 4;
+	public static final int TRANSFORM_SIZE = MATRIX_SIZE + VECTOR_SIZE;
+	
+	public static void putVector(ByteBuffer buf, Vector3f v) {
+		buf.putFloat(v.x).putFloat(v.y).putFloat(v.z);
+	}
+
+	public static void getVector(ByteBuffer buf, Vector3f out) {
+		out.x = buf.getFloat();
+		out.y = buf.getFloat();
+		out.z = buf.getFloat();
+	}
+
+	public static void putMatrix(ByteBuffer buf, Matrix3f m) {
+		buf.putFloat(m.m00).putFloat(m.m01).putFloat(m.m02);
+		buf.putFloat(m.m10).putFloat(m.m11).putFloat(m.m12);
+		buf.putFloat(m.m20).putFloat(m.m21).putFloat(m.m22);
+	}
+
+	public static void getMatrix(ByteBuffer buf, Matrix3f out) {
+		out.m00 = buf.getFloat(); out.m01 = buf.getFloat(); out.m02 = buf.getFloat();
+		out.m10 = buf.getFloat(); out.m11 = buf.getFloat(); out.m12 = buf.getFloat();
+		out.m20 = buf.getFloat(); out.m21 = buf.getFloat(); out.m22 = buf.getFloat();
+	}
+
+	public static void putTransform(ByteBuffer buf, Transform t) {
+		putMatrix(buf, t.basis);
+		putVector(buf, t.origin);
+	}
+
+	public static void getTransform(ByteBuffer buf, Transform out) {
+		getMatrix(buf, out.basis);
+		getVector(buf, out.origin);
+	}
+	
+}
@@ -34,8 +34,6 @@ import javax.vecmath.Vector3f;
  * @author jezek2
  */
 public class Transform {
-	
-	protected BulletStack stack;
 
 	public final Matrix3f basis = new Matrix3f();
 	public final Vector3f origin = new Vector3f();
@@ -78,7 +76,7 @@ public class Transform {
 	}
 	
 	public void mul(Transform tr) {
-		if (stack == null) stack = BulletStack.get();
+		BulletStack stack = BulletStack.get();
 		
 		stack.vectors.push();
 		try {
@@ -99,7 +97,7 @@ public class Transform {
 	}
 	
 	public void invXform(Vector3f inVec, Vector3f out) {
-		if (stack == null) stack = BulletStack.get();
+		BulletStack stack = BulletStack.get();
 
 		stack.matrices.push();
 		try {
@@ -115,7 +113,7 @@ public class Transform {
 	}
 	
 	public Quat4f getRotation() {
-		if (stack == null) stack = BulletStack.get();
+		BulletStack stack = BulletStack.get();
 
 		stack.quats.push();
 		try {
@@ -111,7 +111,17 @@ public class HashUtil {
 
 		public boolean retainEntries(IObjectProcedure<V> proc) {
 			valueWrapper.proc = proc;
-			return retainEntries(valueWrapper);
+			
+			// JAVA NOTE: Trove iterates over the table it had before the first removal,
+			// auto compaction would rehash it in the middle of retainEntries
+			float compactionFactor = getAutoCompactionFactor();
+			setAutoCompactionFactor(0f);
+			try {
+				return retainEntries(valueWrapper);
+			}
+			finally {
+				setAutoCompactionFactor(compactionFactor);
+			}
 		}
 	}
 	
@@ -0,0 +1,211 @@
+/*
+ * Java port of Bullet (c) 2008 Martin Dvorak <jezek2@advel.cz>
+ *
+ * Bullet Continuous Collision Detection and Physics Library
+ * Copyright (c) 2003-2007 Erwin Coumans  http://continuousphysics.com/Bullet/
+ *
+ * This software is provided 'as-is', without any express or implied warranty.
+ * In no event will the authors be held liable for any damages arising from
+ * the use of this software.
+ * 
+ * Permission is granted to anyone to use this software for any purpose, 
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ * 
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+
+package javabullet.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs group of workers, the first one on the calling thread and the others using
+ * {@link Executor}. Waits until all started workers are finished and rethrows the
+ * first exception thrown by any of them. After a failure {@link #isAborted} returns
+ * true, workers should check it and stop taking more work.<p>
+ * 
+ * Tasks passed to the executor are reused, running the workers doesn't allocate memory.
+ * 
+ * @author jezek2
+ */
+public class WorkerGroup {
+
+	private Executor executor;
+	private int numThreads = 1;
+	private Task[] tasks = new Task[0];
+	private int pendingTasks;
+	private Throwable exception;
+	private volatile boolean aborted;
+
+	/**
+	 * Sets executor running the workers.
+	 * 
+	 * @param executor executor running the workers, or null to run everything on calling thread
+	 * @param numThreads number of threads running the workers including the calling thread
+	 */
+	public void setExecutor(Executor executor, int numThreads) {
+		if (executor != null && numThreads < 1) {
+			throw new IllegalArgumentException("numThreads must be positive");
+		}
+
+		this.executor = executor;
+		this.numThreads = (executor != null)? numThreads : 1;
+
+		if (tasks.length < this.numThreads) {
+			Task[] newTasks = new Task[this.numThreads];
+			System.arraycopy(tasks, 0, newTasks, 0, tasks.length);
+			for (int i = tasks.length; i < newTasks.length; i++) {
+				newTasks[i] = new Task();
+			}
+			tasks = newTasks;
+		}
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Returns number of threads including the calling thread, 1 without executor.
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Returns true when some worker of the current run failed.
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Runs workers and waits for them. Only first {@link #getNumThreads} workers are run.
+	 */
+	public void run(Runnable[] workers, int numWorkers) {
+		numWorkers = Math.min(numWorkers, numThreads);
+
+		aborted = false;
+		exception = null;
+		synchronized (this) {
+			pendingTasks = numWorkers - 1;
+		}
+
+		try {
+			for (int i = 1; i < numWorkers; i++) {
+				Task task = tasks[i];
+				task.group = this;
+				task.worker = workers[i];
+				try {
+					executor.execute(task);
+				}
+				catch (RuntimeException e) {
+					// stop already started workers
+					task.group = null;
+					task.worker = null;
+					abort();
+					synchronized (this) {
+						pendingTasks -= numWorkers - i;
+					}
+					throw e;
+				}
+			}
+
+			// calling thread works too
+			try {
+				workers[0].run();
+			}
+			catch (Throwable e) {
+				failed(e);
+			}
+		}
+		finally {
+			synchronized (this) {
+				while (pendingTasks > 0) {
+					try {
+						wait();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException(e);
+					}
+				}
+			}
+		}
+
+		if (exception != null) {
+			Throwable e = exception;
+			exception = null;
+			rethrow(e);
+		}
+	}
+
+	/**
+	 * Marks the run as aborted, workers stop taking more work.
+	 */
+	public void abort() {
+		aborted = true;
+		aborted();
+	}
+
+	/**
+	 * Called when the run is aborted, subclasses can wake up workers waiting for each other.
+	 */
+	protected void aborted() {
+	}
+
+	private void failed(Throwable e) {
+		synchronized (this) {
+			if (exception == null) {
+				exception = e;
+			}
+		}
+		abort();
+	}
+
+	private synchronized void taskFinished() {
+		pendingTasks--;
+		notifyAll();
+	}
+
+	/**
+	 * Throws given exception, checked exceptions are wrapped in {@link IllegalStateException}.
+	 */
+	public static void rethrow(Throwable e) {
+		if (e instanceof RuntimeException) throw (RuntimeException)e;
+		if (e instanceof Error) throw (Error)e;
+		throw new IllegalStateException(e);
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+
+	private static class Task implements Runnable {
+		public WorkerGroup group;
+		public Runnable worker;
+
+		public void run() {
+			WorkerGroup group = this.group;
+			Runnable worker = this.worker;
+			this.group = null;
+			this.worker = null;
+			try {
+				worker.run();
+			}
+			catch (Throwable e) {
+				group.failed(e);
+			}
+			finally {
+				group.taskFinished();
+			}
+		}
+	}
+
+}